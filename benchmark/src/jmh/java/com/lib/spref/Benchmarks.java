@@ -0,0 +1,52 @@
+package com.lib.spref;
+
+import android.content.Context;
+
+import com.lib.spref.storage.InMemoryStorage;
+import com.lib.spref.storage.SettingsStorage;
+import com.lib.spref.storage.SharedPreferencesStorage;
+
+/**
+ * Builds the connectors used by the benchmarks, without an android context
+ */
+final class Benchmarks {
+    /**
+     * Values of the storage parameter of the benchmarks
+     */
+    static final String STORAGE_MEMORY = "memory";
+    static final String STORAGE_SHARED_PREFERENCES = "shared_preferences";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Creates a connector over an empty storage
+     * @param storage {@link #STORAGE_MEMORY} or {@link #STORAGE_SHARED_PREFERENCES}
+     * @param encryptSeed the encryption key (may be null)
+     * @return the connector
+     */
+    static SettingsConnector connector(String storage, byte[] encryptSeed) {
+        SettingsConfig config = new SettingsConfig.Builder()
+                .storage(factory(storage))
+                .encryptSeed(encryptSeed)
+                .build();
+        return new SettingsConnector(null, config);
+    }
+
+    /**
+     * Storage factory for a storage parameter
+     * @param storage {@link #STORAGE_MEMORY} or {@link #STORAGE_SHARED_PREFERENCES}
+     * @return the factory
+     */
+    static SettingsStorage.Factory factory(String storage) {
+        if (STORAGE_SHARED_PREFERENCES.equals(storage)) {
+            return new SettingsStorage.Factory() {
+                @Override
+                public SettingsStorage create(Context context, String name, int mode) {
+                    return new SharedPreferencesStorage(new InMemorySharedPreferences());
+                }
+            };
+        }
+        return InMemoryStorage.factory();
+    }
+}
@@ -0,0 +1,119 @@
+package com.lib.spref;
+
+import com.lib.spref.codec.BinaryCodecs;
+import com.lib.spref.codec.BinaryListCodec;
+import com.lib.spref.internal.ListCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trips of list settings: gson json, the binary list format and the packed primitive arrays
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListSettingsBenchmark {
+    private static final String KEY_JSON = "benchmark-json";
+    private static final String KEY_BINARY = "benchmark-binary";
+    private static final String KEY_ARRAY = "benchmark-array";
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    private SettingsConnector mConnector;
+    private ListCodec mListCodec;
+    private List<Integer> mIntegers;
+    private List<String> mStrings;
+    private int[] mArray;
+    private int[] mDestination;
+    private String mJson;
+    private byte[] mBinary;
+
+    @Setup
+    public void setUp() throws IOException {
+        mConnector = Benchmarks.connector(Benchmarks.STORAGE_MEMORY, null);
+        mListCodec = ListCodec.create(Collections.<com.google.gson.TypeAdapterFactory>emptyList());
+        mIntegers = new ArrayList<>(size);
+        mStrings = new ArrayList<>(size);
+        mArray = new int[size];
+        mDestination = new int[size];
+        for (int i = 0; i < size; i++) {
+            mIntegers.add(i * 31);
+            mStrings.add("value-" + i);
+            mArray[i] = i * 31;
+        }
+        mJson = mListCodec.toJson(mStrings);
+        mBinary = BinaryListCodec.encode(mStrings, BinaryCodecs.STRING);
+        mConnector.saveSetting(KEY_JSON, mIntegers);
+        mConnector.saveBinaryListSetting(KEY_BINARY, mIntegers, Integer.class);
+        mConnector.saveIntArraySetting(KEY_ARRAY, mArray);
+    }
+
+    @Benchmark
+    public void saveJsonList() {
+        mConnector.saveSetting(KEY_JSON, mIntegers);
+    }
+
+    @Benchmark
+    public List<Integer> getJsonList() {
+        return mConnector.getListSetting(KEY_JSON, Integer.class);
+    }
+
+    @Benchmark
+    public void saveBinaryList() {
+        mConnector.saveBinaryListSetting(KEY_BINARY, mIntegers, Integer.class);
+    }
+
+    @Benchmark
+    public List<Integer> getBinaryList() {
+        return mConnector.getListSetting(KEY_BINARY, Integer.class);
+    }
+
+    @Benchmark
+    public void saveIntArray() {
+        mConnector.saveIntArraySetting(KEY_ARRAY, mArray);
+    }
+
+    @Benchmark
+    public int[] getIntArray() {
+        return mConnector.getIntArraySetting(KEY_ARRAY);
+    }
+
+    @Benchmark
+    public int getIntArrayIntoDestination() {
+        return mConnector.getIntArraySetting(KEY_ARRAY, mDestination);
+    }
+
+    @Benchmark
+    public String encodeJsonStrings() {
+        return mListCodec.toJson(mStrings);
+    }
+
+    @Benchmark
+    public List<String> decodeJsonStrings() {
+        return mListCodec.fromJson(mJson, String.class);
+    }
+
+    @Benchmark
+    public byte[] encodeBinaryStrings() throws IOException {
+        return BinaryListCodec.encode(mStrings, BinaryCodecs.STRING);
+    }
+
+    @Benchmark
+    public List<String> decodeBinaryStrings() throws IOException {
+        return BinaryListCodec.decode(mBinary, BinaryCodecs.STRING);
+    }
+}
@@ -0,0 +1,102 @@
+package com.lib.spref;
+
+import com.lib.spref.Utils.MergeUtils;
+import com.lib.spref.storage.InMemoryStorage;
+import com.lib.spref.storage.SettingsStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges of default files into a storage. With override every entry is written, without it the storage already
+ * holds every key so only the parsing is measured. The {@code Sax} variants run the previous sax implementation
+ * ({@link SaxMergeBaseline}) on the same file and storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MergeUtilsBenchmark {
+    private static final String[] TYPES = {"string", "integer", "float", "long", "boolean"};
+
+    @Param({"10", "1000", "10000"})
+    public int entries;
+
+    private File mFile;
+    private SettingsStorage mStorage;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("spref_default", ".xml");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8");
+        try {
+            writer.write("<default>\n");
+            for (int i = 0; i < entries; i++) {
+                String type = TYPES[i % TYPES.length];
+                writer.write(" <" + type + " name=\"key-" + i + "\">" + value(type, i) + "</" + type + ">\n");
+            }
+            writer.write("</default>\n");
+        } finally {
+            writer.close();
+        }
+        mStorage = new InMemoryStorage();
+        MergeUtils.merge(mFile, mStorage, true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    @Benchmark
+    public SettingsStorage mergeOverride() {
+        MergeUtils.merge(mFile, mStorage, true);
+        return mStorage;
+    }
+
+    @Benchmark
+    public SettingsStorage mergeExisting() {
+        MergeUtils.merge(mFile, mStorage, false);
+        return mStorage;
+    }
+
+    @Benchmark
+    public SettingsStorage mergeOverrideSax() throws IOException {
+        SaxMergeBaseline.merge(mFile, mStorage, true);
+        return mStorage;
+    }
+
+    @Benchmark
+    public SettingsStorage mergeExistingSax() throws IOException {
+        SaxMergeBaseline.merge(mFile, mStorage, false);
+        return mStorage;
+    }
+
+    private static String value(String type, int index) {
+        switch (type) {
+            case "integer":
+            case "long":
+                return String.valueOf(index);
+            case "float":
+                return index + ".5";
+            case "boolean":
+                return String.valueOf(index % 2 == 0);
+            default:
+                return "value-" + index;
+        }
+    }
+}
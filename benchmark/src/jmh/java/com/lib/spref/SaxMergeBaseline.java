@@ -0,0 +1,164 @@
+package com.lib.spref;
+
+import android.sax.Element;
+import android.sax.RootElement;
+import android.sax.TextElementListener;
+import android.util.Xml;
+
+import com.lib.spref.Utils.MergeUtils;
+import com.lib.spref.Utils.Utils;
+import com.lib.spref.storage.SettingsStorage;
+
+import org.xml.sax.Attributes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The sax merge that {@link MergeUtils} used before the pull parser, kept as the baseline of
+ * {@link MergeUtilsBenchmark}. Writes through a {@link SettingsStorage} so both paths write into the same storage, the
+ * parsing and the five per-type maps (each applied with its own editor) are unchanged.
+ */
+final class SaxMergeBaseline {
+    private static final String DEFAULT_FILE_DEFAULT_ELEMENT = "default";
+    private static final String DEFAULT_FILE_STRING_ELEMENT = "string";
+    private static final String DEFAULT_FILE_INTEGER_ELEMENT = "integer";
+    private static final String DEFAULT_FILE_FLOAT_ELEMENT = "float";
+    private static final String DEFAULT_FILE_LONG_ELEMENT = "long";
+    private static final String DEFAULT_FILE_BOOLEAN_ELEMENT = "boolean";
+
+    private SaxMergeBaseline() {
+    }
+
+    static void merge(File file, SettingsStorage storage, boolean shouldOverride) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            RootElement rootElement = new RootElement(DEFAULT_FILE_DEFAULT_ELEMENT);
+            Element textElement = rootElement.getChild(DEFAULT_FILE_STRING_ELEMENT);
+            Element integerElement = rootElement.getChild(DEFAULT_FILE_INTEGER_ELEMENT);
+            Element floatElement = rootElement.getChild(DEFAULT_FILE_FLOAT_ELEMENT);
+            Element longElement = rootElement.getChild(DEFAULT_FILE_LONG_ELEMENT);
+            Element booleanElement = rootElement.getChild(DEFAULT_FILE_BOOLEAN_ELEMENT);
+
+            final Map<String, String> stringsToAdd = new HashMap<>();
+            final Map<String, Integer> integerToAdd = new HashMap<>();
+            final Map<String, Float> floatToAdd = new HashMap<>();
+            final Map<String, Long> longToAdd = new HashMap<>();
+            final Map<String, Boolean> booleanToAdd = new HashMap<>();
+
+            textElement.setTextElementListener(new Listener(storage, shouldOverride) {
+                @Override
+                void addValue(String key, String value) {
+                    stringsToAdd.put(key, value);
+                }
+            });
+            floatElement.setTextElementListener(new Listener(storage, shouldOverride) {
+                @Override
+                void addValue(String key, String value) {
+                    try {
+                        floatToAdd.put(key, Float.valueOf(value));
+                    } catch (Exception e) {
+                        floatToAdd.put(key, Utils.INVALID_FLOAT_ID);
+                    }
+                }
+            });
+            integerElement.setTextElementListener(new Listener(storage, shouldOverride) {
+                @Override
+                void addValue(String key, String value) {
+                    try {
+                        integerToAdd.put(key, Integer.valueOf(value));
+                    } catch (Exception e) {
+                        integerToAdd.put(key, Utils.INVALID_ID);
+                    }
+                }
+            });
+            longElement.setTextElementListener(new Listener(storage, shouldOverride) {
+                @Override
+                void addValue(String key, String value) {
+                    try {
+                        longToAdd.put(key, Long.valueOf(value));
+                    } catch (Exception e) {
+                        longToAdd.put(key, Utils.INVALID_LONG_ID);
+                    }
+                }
+            });
+            booleanElement.setTextElementListener(new Listener(storage, shouldOverride) {
+                @Override
+                void addValue(String key, String value) {
+                    booleanToAdd.put(key, Boolean.valueOf(value));
+                }
+            });
+
+            Xml.parse(stream, Xml.Encoding.UTF_8, rootElement.getContentHandler());
+
+            if (!stringsToAdd.isEmpty()) {
+                SettingsStorage.Editor editor = storage.edit();
+                for (Map.Entry<String, String> entry : stringsToAdd.entrySet()) {
+                    editor.putString(entry.getKey(), entry.getValue());
+                }
+                editor.apply();
+            }
+            if (!integerToAdd.isEmpty()) {
+                SettingsStorage.Editor editor = storage.edit();
+                for (Map.Entry<String, Integer> entry : integerToAdd.entrySet()) {
+                    editor.putInt(entry.getKey(), entry.getValue());
+                }
+                editor.apply();
+            }
+            if (!floatToAdd.isEmpty()) {
+                SettingsStorage.Editor editor = storage.edit();
+                for (Map.Entry<String, Float> entry : floatToAdd.entrySet()) {
+                    editor.putFloat(entry.getKey(), entry.getValue());
+                }
+                editor.apply();
+            }
+            if (!longToAdd.isEmpty()) {
+                SettingsStorage.Editor editor = storage.edit();
+                for (Map.Entry<String, Long> entry : longToAdd.entrySet()) {
+                    editor.putLong(entry.getKey(), entry.getValue());
+                }
+                editor.apply();
+            }
+            if (!booleanToAdd.isEmpty()) {
+                SettingsStorage.Editor editor = storage.edit();
+                for (Map.Entry<String, Boolean> entry : booleanToAdd.entrySet()) {
+                    editor.putBoolean(entry.getKey(), entry.getValue());
+                }
+                editor.apply();
+            }
+        } catch (org.xml.sax.SAXException e) {
+            throw new IOException(e);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private abstract static class Listener implements TextElementListener {
+        private final SettingsStorage mStorage;
+        private final boolean mShouldOverride;
+        private String mKey;
+
+        Listener(SettingsStorage storage, boolean shouldOverride) {
+            mStorage = storage;
+            mShouldOverride = shouldOverride;
+        }
+
+        @Override
+        public void start(Attributes attributes) {
+            mKey = attributes.getValue(MergeUtils.DEFAULT_FILE_ATTR_NAME);
+        }
+
+        @Override
+        public void end(String body) {
+            if (mShouldOverride || !mStorage.contains(mKey)) {
+                addValue(mKey, body);
+            }
+        }
+
+        abstract void addValue(String key, String value);
+    }
+}
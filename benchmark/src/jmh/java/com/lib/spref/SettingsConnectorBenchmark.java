@@ -0,0 +1,95 @@
+package com.lib.spref;
+
+import com.lib.spref.Utils.EncryptionUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typed and encrypted reads/writes of {@link SettingsConnector}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SettingsConnectorBenchmark {
+    private static final String KEY_STRING = "benchmark-string";
+    private static final String KEY_INTEGER = "benchmark-integer";
+    private static final String KEY_LONG = "benchmark-long";
+    private static final String KEY_BOOLEAN = "benchmark-boolean";
+    private static final String KEY_ENCRYPTED = "benchmark-encrypted";
+    private static final String VALUE = "The quick brown fox jumps over the lazy dog";
+
+    @Param({Benchmarks.STORAGE_MEMORY, Benchmarks.STORAGE_SHARED_PREFERENCES})
+    public String storage;
+
+    private SettingsConnector mConnector;
+    private int mCounter;
+
+    @Setup
+    public void setUp() {
+        mConnector = Benchmarks.connector(storage, EncryptionUtils.generateKey("benchmark"));
+        mConnector.saveSetting(KEY_STRING, VALUE);
+        mConnector.saveSetting(KEY_INTEGER, 42);
+        mConnector.saveSetting(KEY_LONG, 42L);
+        mConnector.saveSetting(KEY_BOOLEAN, true);
+        mConnector.saveSafeEncryptedSetting(KEY_ENCRYPTED, VALUE);
+    }
+
+    @Benchmark
+    public String getSetting() {
+        return mConnector.getSetting(KEY_STRING);
+    }
+
+    @Benchmark
+    public int getIntSetting() {
+        return mConnector.getIntSetting(KEY_INTEGER);
+    }
+
+    @Benchmark
+    public long getLongSetting() {
+        return mConnector.getLongSetting(KEY_LONG);
+    }
+
+    @Benchmark
+    public boolean getBooleanSetting() {
+        return mConnector.getBooleanSetting(KEY_BOOLEAN, false);
+    }
+
+    @Benchmark
+    public void saveSetting() {
+        mConnector.saveSetting(KEY_STRING, VALUE);
+    }
+
+    @Benchmark
+    public void saveIntSetting() {
+        mConnector.saveSetting(KEY_INTEGER, mCounter++);
+    }
+
+    @Benchmark
+    public void saveSafeEncryptedSetting() {
+        mConnector.saveSafeEncryptedSetting(KEY_ENCRYPTED, VALUE);
+    }
+
+    @Benchmark
+    public SafeSetting getSafeEncryptedSetting() {
+        return mConnector.getSafeEncryptedSetting(KEY_ENCRYPTED);
+    }
+
+    @Benchmark
+    public boolean isKeyEncrypted() {
+        return mConnector.isKeyEncrypted(KEY_ENCRYPTED);
+    }
+
+    @Benchmark
+    public boolean isKeyEncryptedPlainKey() {
+        return mConnector.isKeyEncrypted(KEY_STRING);
+    }
+}
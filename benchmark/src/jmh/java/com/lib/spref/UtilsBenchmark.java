@@ -0,0 +1,34 @@
+package com.lib.spref;
+
+import com.lib.spref.Utils.ByteUtils;
+import com.lib.spref.Utils.EncryptionUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key derivation and byte conversion helpers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UtilsBenchmark {
+    private static final String VALUE = "This_is_the_value_of_the_key";
+
+    @Benchmark
+    public byte[] getByteArray() throws UnsupportedEncodingException {
+        return ByteUtils.getByteArray(VALUE);
+    }
+
+    @Benchmark
+    public byte[] generateKey() {
+        return EncryptionUtils.generateKey(VALUE);
+    }
+}
@@ -0,0 +1,272 @@
+package com.lib.spref;
+
+import android.content.Context;
+import com.lib.spref.storage.SettingsStorage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Side files of the string values spilled out of the preferences, see {@link SPref#spillLargeValues(int)}.
+ * The preferences only keep a reference ({@link #REFERENCE_TAG} followed by the name of the file), a blob is never
+ * modified once written: a new value gets a new file. The file of a removed setting is deleted right away, the
+ * previous file of a replaced one once a commit made the new reference durable (or collected as an orphan). Plain values starting with the tag are escaped (see
+ * {@link com.lib.spref.internal.ValueCompressor#escape(String)}), so only a reference starts with it.
+ * Files are written to a temporary file renamed once complete, so a blob file is either complete or missing.
+ * Blobs are only read when their setting is read, and kept behind soft references afterwards.
+ */
+final class BlobStore {
+    static final String REFERENCE_TAG = "#SPREF_BLOB#";
+    private static final String DIRECTORY = "spref_blobs";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    //blobs of a write that is not visible yet (e.g. from another connector or process) must survive the collection
+    private static final long ORPHAN_MIN_AGE_MILLIS = 60 * 1000;
+    private static final ExecutorService sCollectionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SPref-BlobStore-collection");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File mDirectory;
+    private final int mThreshold;
+    private final ConcurrentHashMap<String, SoftReference<String>> mLoaded = new ConcurrentHashMap<>();
+    //blobs replaced by applied writes, the previous reference may still be the one on the disk until the next commit
+    private final Set<String> mPendingDeletes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private BlobStore(File directory, int threshold) {
+        mDirectory = directory;
+        mThreshold = threshold;
+    }
+
+    /**
+     * Opens the blobs of a preferences file, the orphan ones are deleted in the background
+     *
+     * @param context         application context
+     * @param preferencesName the name of the preferences
+     * @param threshold       minimum length of the spilled values, 0 to not spill new values
+     * @param storage         the preferences, read to find the orphan blobs
+     * @return the store, or null if nothing is spilled and there are no blobs
+     */
+    static BlobStore open(Context context, String preferencesName, int threshold, SettingsStorage storage) {
+        File directory = context != null ? new File(new File(context.getFilesDir(), DIRECTORY), preferencesName) : null;
+        if (directory == null || threshold <= 0 && !directory.isDirectory()) {
+            return null;
+        }
+        BlobStore store = new BlobStore(directory, threshold);
+        if (directory.isDirectory()) {
+            store.collectOrphansLater(storage);
+        }
+        return store;
+    }
+
+    /**
+     * Finds the orphan blobs on a background thread, reading every value (with {@link SPref#shards(int)}, loading
+     * every shard) must not delay the start. The blobs written meanwhile are too recent to be collected
+     *
+     * @param storage the preferences
+     */
+    private void collectOrphansLater(final SettingsStorage storage) {
+        sCollectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                collectOrphans(storage.getAll());
+            }
+        });
+    }
+
+    /**
+     * Checks if a value is a reference to a blob
+     *
+     * @param value the saved value (may be null)
+     * @return true if the value is saved in a blob
+     */
+    static boolean isReference(String value) {
+        return value != null && value.startsWith(REFERENCE_TAG);
+    }
+
+    /**
+     * Checks if a value should be spilled
+     *
+     * @param value the value to save (may be null)
+     * @return true if the value is big enough
+     */
+    boolean shouldSpill(String value) {
+        return value != null && mThreshold > 0 && value.length() >= mThreshold;
+    }
+
+    /**
+     * Writes a value in a new blob, synchronously
+     *
+     * @param value the value
+     * @return the reference to save instead of the value, null if the blob could not be written
+     */
+    String write(String value) {
+        String name = UUID.randomUUID().toString();
+        File file = new File(mDirectory, name);
+        File temp = new File(mDirectory, name + TEMP_EXTENSION);
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs() && !mDirectory.isDirectory()) {
+                return null;
+            }
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                output.write(value.getBytes(UTF_8));
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp);
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return null;
+        }
+        mLoaded.put(name, new SoftReference<>(value));
+        return REFERENCE_TAG + name;
+    }
+
+    /**
+     * Reads the value of a blob
+     *
+     * @param reference the saved reference
+     * @return the value, null if the blob does not exist (anymore) or could not be read
+     */
+    String read(String reference) {
+        String name = name(reference);
+        if (name == null) {
+            return null;
+        }
+        SoftReference<String> loaded = mLoaded.get(name);
+        String value = loaded != null ? loaded.get() : null;
+        if (value != null) {
+            return value;
+        }
+        File file = new File(mDirectory, name);
+        try {
+            FileInputStream input = new FileInputStream(file);
+            try {
+                byte[] content = new byte[(int) file.length()];
+                int offset = 0;
+                while (offset < content.length) {
+                    int count = input.read(content, offset, content.length - offset);
+                    if (count < 0) {
+                        throw new IOException("Truncated blob " + file);
+                    }
+                    offset += count;
+                }
+                value = new String(content, UTF_8);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        mLoaded.put(name, new SoftReference<>(value));
+        return value;
+    }
+
+    /**
+     * Deletes a blob that is no longer referenced
+     *
+     * @param reference the replaced reference
+     */
+    void delete(String reference) {
+        String name = name(reference);
+        if (name != null) {
+            mLoaded.remove(name);
+            //noinspection ResultOfMethodCallIgnored
+            new File(mDirectory, name).delete();
+        }
+    }
+
+    /**
+     * Deletes a replaced blob after the next successful commit, see {@link #deletePending(Collection)}
+     *
+     * @param reference the replaced reference
+     */
+    void deleteAfterCommit(String reference) {
+        mPendingDeletes.add(reference);
+    }
+
+    /**
+     * The blobs waiting for a commit, taken before the commit is written so the blobs replaced while it is written
+     * wait for the next one
+     *
+     * @return a copy of the pending references
+     */
+    List<String> pendingDeletes() {
+        return new ArrayList<>(mPendingDeletes);
+    }
+
+    /**
+     * Deletes the pending blobs once a commit succeeded, the applies made before it are on the disk too
+     *
+     * @param references the references returned by {@link #pendingDeletes()} before the commit
+     */
+    void deletePending(Collection<String> references) {
+        for (String reference : references) {
+            if (mPendingDeletes.remove(reference)) {
+                delete(reference);
+            }
+        }
+    }
+
+    /**
+     * Deletes the blobs (and unfinished temporary files) that no setting refers to, e.g. written by a batch that was
+     * never committed or replaced by concurrent writes of the same key
+     *
+     * @param values every saved value
+     */
+    void collectOrphans(Map<String, ?> values) {
+        String[] names = mDirectory.list();
+        if (names == null) {
+            return;
+        }
+        Set<String> referenced = new HashSet<>();
+        for (Object value : values.values()) {
+            if (value instanceof String && isReference((String) value)) {
+                referenced.add(((String) value).substring(REFERENCE_TAG.length()));
+            }
+        }
+        long maxModified = System.currentTimeMillis() - ORPHAN_MIN_AGE_MILLIS;
+        for (String name : names) {
+            File file = new File(mDirectory, name);
+            if (!referenced.contains(name) && file.lastModified() < maxModified) {
+                mLoaded.remove(name);
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    private static String name(String reference) {
+        if (!isReference(reference)) {
+            return null;
+        }
+        String name = reference.substring(REFERENCE_TAG.length());
+        //a reference can only name a file of the directory
+        return name.isEmpty() || name.indexOf(File.separatorChar) >= 0 || name.startsWith(".") ? null : name;
+    }
+}
@@ -0,0 +1,227 @@
+package com.lib.spref;
+
+import android.util.Base64;
+
+import com.lib.spref.Utils.CipherEngine;
+import com.lib.spref.internal.EncryptionIndex;
+import com.lib.spref.storage.SettingsStorage;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Re-encryption of the encrypted settings from a previous key to the current one, see {@link SPref#rotateEncryption(byte[])}.
+ * The keys are migrated in sorted order and the last migrated key is saved by each batch ({@link #CHECKPOINT}), so the
+ * rotation resumes where it stopped and the key of every value is known: the settings up to the checkpoint use the
+ * current key, the others still use the previous one. Once every setting is migrated the checkpoint is replaced by the
+ * id of the current key ({@link #KEY_ID}), so the rotation is not started again by the next loads.
+ * The checkpoint only moves under the lock of the encryption index, together with the values of its batch, the writes
+ * of encrypted values choose their key under the same lock.
+ */
+class KeyRotation {
+    static final String CHECKPOINT = "#SPREF_ROTATION_CHECKPOINT#";
+    static final String KEY_ID = "#SPREF_KEY_ID#";
+
+    private final CipherEngine mPrevious;
+    private final CipherEngine mCurrent;
+    private final String mKeyId;
+    //last migrated key, empty before the first batch and null once rotated
+    private volatile String mCheckpoint;
+
+    /**
+     * Constructor
+     *
+     * @param previousSeed the key the values may still be encrypted with
+     * @param currentSeed  the key of the connector
+     * @param current      the cipher of the connector
+     */
+    KeyRotation(byte[] previousSeed, byte[] currentSeed, CipherEngine current) {
+        mPrevious = new CipherEngine(previousSeed);
+        mCurrent = current;
+        mKeyId = keyId(currentSeed);
+    }
+
+    /**
+     * Reads the state of the rotation, starting it if the values are not yet encrypted with the current key
+     *
+     * @param storage the storage
+     */
+    void load(SettingsStorage storage) {
+        String checkpoint = storage.getString(CHECKPOINT, null);
+        if (checkpoint == null && !mKeyId.equals(storage.getString(KEY_ID, null))) {
+            checkpoint = "";
+            //saved so the snapshots, which take the checkpoint from the storage, know that the rotation started
+            storage.edit().putString(CHECKPOINT, checkpoint).apply();
+        }
+        mCheckpoint = checkpoint;
+    }
+
+    /**
+     * Whether some values may still be encrypted with the previous key
+     *
+     * @return true until the rotation ends
+     */
+    boolean isRotating() {
+        return mCheckpoint != null;
+    }
+
+    /**
+     * The last migrated key, the ciphers chosen by {@link #cipherFor(String)} stay right while it does not move
+     *
+     * @return the checkpoint, null once rotated
+     */
+    String checkpoint() {
+        return mCheckpoint;
+    }
+
+    /**
+     * The cipher of a setting, must be called under the lock of the encryption index while rotating
+     *
+     * @param settingKey key
+     * @return the cipher the value is encrypted with
+     */
+    CipherEngine cipherFor(String settingKey) {
+        return cipherFor(settingKey, mCheckpoint);
+    }
+
+    /**
+     * The cipher of a setting read from a copy of the storage entries
+     *
+     * @param settingKey key
+     * @param values     the entries, see {@link SettingsStorage#getAll()}
+     * @return the cipher the value is encrypted with
+     */
+    CipherEngine cipherFor(String settingKey, Map<String, ?> values) {
+        Object checkpoint = values.get(CHECKPOINT);
+        return cipherFor(settingKey, checkpoint instanceof String ? (String) checkpoint : null);
+    }
+
+    private CipherEngine cipherFor(String settingKey, String checkpoint) {
+        return checkpoint != null && settingKey != null && settingKey.compareTo(checkpoint) > 0 ? mPrevious : mCurrent;
+    }
+
+    /**
+     * Migrates every encrypted setting by batches. The values of a batch are re-encrypted without holding the lock of
+     * the index, the lock is only held to publish them (with {@link SettingsStorage.Editor#apply()}) and move the
+     * checkpoint, so the encrypted reads are not blocked by the encryption nor by the disk writes
+     *
+     * @param storage   the storage
+     * @param index     the encryption index, also the lock of the flags
+     * @param batchSize the number of settings of each batch
+     * @return false if the final commit failed, the rotation can then be run again
+     */
+    boolean rotate(SettingsStorage storage, EncryptionIndex index, int batchSize) {
+        while (true) {
+            String checkpoint;
+            List<String> batch = new ArrayList<>(batchSize);
+            synchronized (index) {
+                checkpoint = mCheckpoint;
+                if (checkpoint == null) {
+                    return true;
+                }
+                //taken again for each batch, the keys encrypted meanwhile are migrated too
+                TreeSet<String> pending = pendingKeys(index, checkpoint, null);
+                if (pending.isEmpty()) {
+                    storage.edit().remove(CHECKPOINT).putString(KEY_ID, mKeyId).apply();
+                    mCheckpoint = null;
+                    break;
+                }
+                for (String settingKey : pending) {
+                    if (batch.size() == batchSize) {
+                        break;
+                    }
+                    batch.add(settingKey);
+                }
+            }
+            String last = batch.get(batch.size() - 1);
+            Map<String, String> read = new HashMap<>();
+            Map<String, String> reencrypted = new HashMap<>();
+            for (String settingKey : batch) {
+                String value = readValue(storage, settingKey);
+                read.put(settingKey, value);
+                reencrypted.put(settingKey, reencrypt(value));
+            }
+            synchronized (index) {
+                if (!checkpoint.equals(mCheckpoint)) {
+                    //moved by another rotation, the batch is prepared again
+                    continue;
+                }
+                SettingsStorage.Editor editor = storage.edit();
+                for (String settingKey : pendingKeys(index, checkpoint, last)) {
+                    String value = readValue(storage, settingKey);
+                    //the values written or encrypted since the batch was prepared still use the previous key
+                    String encrypted = read.containsKey(settingKey) && equal(value, read.get(settingKey))
+                            ? reencrypted.get(settingKey) : reencrypt(value);
+                    if (encrypted != null) {
+                        editor.putString(settingKey, encrypted);
+                    }
+                }
+                editor.putString(CHECKPOINT, last).apply();
+                mCheckpoint = last;
+            }
+        }
+        //written again by a commit, so the applied batches are on the disk when the result is known
+        return storage.edit().putString(KEY_ID, mKeyId).commit();
+    }
+
+    /**
+     * The encrypted keys after the checkpoint
+     *
+     * @param index      the encryption index
+     * @param checkpoint the last migrated key
+     * @param last       the last key to return, null for every key
+     * @return the keys, sorted
+     */
+    private static TreeSet<String> pendingKeys(EncryptionIndex index, String checkpoint, String last) {
+        TreeSet<String> pending = new TreeSet<>();
+        for (String settingKey : index.keys()) {
+            if (settingKey.compareTo(checkpoint) > 0 && (last == null || settingKey.compareTo(last) <= 0)) {
+                pending.add(settingKey);
+            }
+        }
+        return pending;
+    }
+
+    private static String readValue(SettingsStorage storage, String settingKey) {
+        try {
+            return storage.getString(settingKey, null);
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    private static boolean equal(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * Encrypts a value with the current key
+     *
+     * @param value the value encrypted with the previous key (may be null)
+     * @return the value encrypted with the current key, null if it is empty or cannot be decrypted with the previous
+     * key (it is then kept as it is)
+     */
+    private String reencrypt(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        //re-encrypted as bytes, compressed values stay compressed
+        byte[] decrypted = mPrevious.decryptBytes(Base64.decode(value, Base64.URL_SAFE));
+        byte[] encrypted = decrypted != null ? mCurrent.encrypt(decrypted) : null;
+        return encrypted != null ? Base64.encodeToString(encrypted, Base64.URL_SAFE) : null;
+    }
+
+    private static String keyId(byte[] seed) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(seed);
+            return Base64.encodeToString(digest, 0, 8, Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
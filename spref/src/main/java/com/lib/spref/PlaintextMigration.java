@@ -0,0 +1,164 @@
+package com.lib.spref;
+
+import com.lib.spref.Utils.Utils;
+import com.lib.spref.internal.EncryptionIndex;
+import com.lib.spref.storage.SettingsStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Encryption of settings saved in plain text, see {@link SettingsConnector#encryptSettings(java.util.concurrent.Executor, SettingsSnapshot.Filter, SettingsProgressListener)}.
+ * The values are read with a single read of the storage, encrypted by several threads when there are many of them (each
+ * thread reuses its own cipher) and written with their flags by a single commit, so an interrupted migration leaves
+ * every setting as it was and running it again skips the settings that are already encrypted.
+ */
+class PlaintextMigration {
+    //below this many values per thread the encryption is not worth splitting
+    private static final int MIN_VALUES_PER_THREAD = 256;
+    private static final int PROGRESS_STEP = 64;
+
+    private final SettingsConnector mConnector;
+    private final SettingsStorage mStorage;
+    private final EncryptionIndex mEncryptionIndex;
+    private final SettingsProgressListener mListener;
+    private final List<String> mKeys = new ArrayList<>();
+    private final List<String> mValues = new ArrayList<>();
+    private final AtomicInteger mDone = new AtomicInteger();
+
+    /**
+     * Constructor, reads the values to migrate
+     *
+     * @param connector       the connector, which encrypts the values
+     * @param storage         the storage
+     * @param encryptionIndex the encryption index, also the lock of the flags
+     * @param filter          selects the keys, null for every setting
+     * @param listener        the progress listener (may be null)
+     */
+    PlaintextMigration(SettingsConnector connector, SettingsStorage storage, EncryptionIndex encryptionIndex,
+                       SettingsSnapshot.Filter filter, SettingsProgressListener listener) {
+        mConnector = connector;
+        mStorage = storage;
+        mEncryptionIndex = encryptionIndex;
+        mListener = listener;
+        Map<String, ?> values = storage.getAll();
+        Set<String> encryptedKeys = EncryptionIndex.encryptedKeys(values);
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            String settingKey = entry.getKey();
+            //only strings can be encrypted
+            if (!(entry.getValue() instanceof String) || settingKey.startsWith(Utils.INTERNAL_KEY_PREFIX)
+                    || encryptedKeys.contains(settingKey) || filter != null && !filter.accept(settingKey)) {
+                continue;
+            }
+            mKeys.add(settingKey);
+            mValues.add((String) entry.getValue());
+        }
+    }
+
+    /**
+     * Encrypts and writes the values
+     *
+     * @return the result of the commit
+     */
+    boolean run() {
+        boolean result;
+        if (mKeys.isEmpty()) {
+            result = true;
+        } else {
+            //the key of each setting depends on the rotation checkpoint, checked again once the lock is held
+            String checkpoint = mConnector.rotationCheckpoint();
+            result = write(encrypt(), checkpoint);
+        }
+        if (mListener != null) {
+            mListener.onProgress(mKeys.size(), mKeys.size());
+        }
+        return result;
+    }
+
+    private String[] encrypt() {
+        final int total = mKeys.size();
+        final String[] encrypted = new String[total];
+        final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        int threadCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), total / MIN_VALUES_PER_THREAD));
+        Thread[] threads = new Thread[threadCount - 1];
+        for (int i = 1; i < threadCount; i++) {
+            final int from = (int) ((long) total * i / threadCount);
+            final int to = (int) ((long) total * (i + 1) / threadCount);
+            threads[i - 1] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        encrypt(encrypted, from, to);
+                    } catch (RuntimeException e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            }, "SPref-PlaintextMigration-" + i);
+            threads[i - 1].start();
+        }
+        encrypt(encrypted, 0, total / threadCount);
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return encrypted;
+    }
+
+    private void encrypt(String[] encrypted, int from, int to) {
+        int total = mKeys.size();
+        for (int i = from; i < to; i++) {
+            //a spilled or compressed value is restored first, encrypted values stay in the preferences
+            encrypted[i] = mConnector.encryptValue(mKeys.get(i), mConnector.decodeValue(mValues.get(i)));
+            int done = mDone.incrementAndGet();
+            if (mListener != null && done % PROGRESS_STEP == 0 && done < total) {
+                mListener.onProgress(done, total);
+            }
+        }
+    }
+
+    private boolean write(String[] encrypted, String checkpoint) {
+        SettingsBatch batch = mConnector.edit();
+        synchronized (mEncryptionIndex) {
+            String currentCheckpoint = mConnector.rotationCheckpoint();
+            if (checkpoint == null ? currentCheckpoint != null : !checkpoint.equals(currentCheckpoint)) {
+                //the rotation moved during the encryption, some values may use the wrong key so they are encrypted again
+                for (int i = 0; i < encrypted.length; i++) {
+                    encrypted[i] = mConnector.encryptValue(mKeys.get(i), mConnector.decodeValue(mValues.get(i)));
+                }
+            }
+            for (int i = 0; i < encrypted.length; i++) {
+                String settingKey = mKeys.get(i);
+                //skips the settings encrypted or changed since they were read, a next run migrates them
+                if (encrypted[i] != null && !mEncryptionIndex.contains(settingKey) && mValues.get(i).equals(currentValue(settingKey))) {
+                    batch.saveEncryptedValue(settingKey, encrypted[i]);
+                }
+            }
+            return batch.commit();
+        }
+    }
+
+    private String currentValue(String settingKey) {
+        try {
+            return mStorage.getString(settingKey, null);
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+}
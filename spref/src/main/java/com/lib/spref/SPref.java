@@ -2,23 +2,23 @@ package com.lib.spref;
 
 import android.content.Context;
 
+import com.google.gson.TypeAdapterFactory;
 import com.lib.spref.Utils.EncryptionUtils;
-import com.lib.spref.Utils.Utils;
+import com.lib.spref.codec.BinaryCodec;
+import com.lib.spref.storage.MultiProcessStorage;
+import com.lib.spref.storage.SettingsStorage;
+import com.lib.spref.storage.ShardStrategy;
+import com.lib.spref.storage.SharedPreferencesStorage;
 
-import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * @author lpereira on 07/01/2016.
  */
 public class SPref {
-    private static WeakReference<SPref> sInstance;
-    private static byte[] mEncryptSeed = null;
-
-    private String mPreferencesName;
     private Context mContext;
-    private int mResource = Utils.INVALID_ID;
-    private int mMode = Utils.INVALID_ID;
-    private boolean mShouldOverride;
+    private final SettingsConfig.Builder mConfig = new SettingsConfig.Builder();
 
     /**
      * Constructor
@@ -41,8 +41,7 @@ public class SPref {
      * @return the instance of SPref
      */
     public static SPref init(Context context){
-        sInstance = new WeakReference<>(new SPref(context));
-        return sInstance.get();
+        return new SPref(context);
     }
 
     /**
@@ -51,8 +50,8 @@ public class SPref {
      * @return the instance of SPref
      */
     public SPref name(String preferencesName){
-        mPreferencesName = preferencesName;
-        return sInstance.get();
+        mConfig.preferencesName(preferencesName);
+        return this;
     }
 
     /**
@@ -72,47 +71,191 @@ public class SPref {
     @SuppressWarnings("unused")
     @Deprecated
     public SPref provideDefaultResourceFile(int resource){
-        mResource = resource;
-        mShouldOverride = false;
-        return sInstance.get();
+        mConfig.defaultResource(resource, false);
+        return this;
     }
 
     /**
      * Provide a default resource file to merge all managed settings
+     * The resource is only merged when its content changed since the last merge, see {@link #forceDefaultResourceMerge(boolean)}
      * @param resource the resource file
      * @param shouldOverride if every field found should override the preferences already written
      * @return instance of SPref
      */
     @SuppressWarnings("unused")
     public SPref provideDefaultResourceFile(int resource, boolean shouldOverride){
-        mResource = resource;
-        mShouldOverride = shouldOverride;
-        return sInstance.get();
+        mConfig.defaultResource(resource, shouldOverride);
+        return this;
     }
 
+    /**
+     * Merge the default resource file even if it did not change since the last merge
+     * @param force if the merge should always happen
+     * @return instance of SPref
+     */
+    @SuppressWarnings("unused")
+    public SPref forceDefaultResourceMerge(boolean force){
+        mConfig.forceMerge(force);
+        return this;
+    }
 
     /**
      * Encrypt configurations providing a key this key should have at least 128bits
-     * Remember that if you change this key the values that were written before are no longer accessible
+     * Remember that if you change this key the values that were written before are no longer accessible,
+     * unless the previous key is given to {@link #rotateEncryption(byte[])}
      * @param key the key in byte[] with at least 128bits
      * @return the SPref instance
      */
     @SuppressWarnings("unused")
     public SPref encrypt(byte[] key){
-        mEncryptSeed = key;
-        return sInstance.get();
+        mConfig.encryptSeed(key);
+        return this;
     }
 
     /**
      * Encrypt configurations providing a key
-     * Remember that if you change this key the values that were written before are no longer accessible
+     * Remember that if you change this key the values that were written before are no longer accessible,
+     * unless the previous key is given to {@link #rotateEncryption(String)}
      * @param key the key hexadecimal to encrypt
      * @return the SPref instance
      */
     @SuppressWarnings("unused")
     public SPref encrypt(String key){
-        mEncryptSeed = EncryptionUtils.generateKey(key);
-        return sInstance.get();
+        mConfig.encryptSeed(EncryptionUtils.generateKey(key));
+        return this;
+    }
+
+    /**
+     * Rotate the encryption key: the settings encrypted with the previous key keep being readable (and are written
+     * with it) until {@link SettingsConnector#rotateEncryptionKey(Executor, int)} re-encrypted them with the key given to
+     * {@link #encrypt(byte[])}. Once a rotation ended it is not started again while the key does not change
+     * @param previousKey the key the settings are encrypted with, with at least 128bits
+     * @return the SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref rotateEncryption(byte[] previousKey){
+        mConfig.previousEncryptSeed(previousKey);
+        return this;
+    }
+
+    /**
+     * Rotate the encryption key, see {@link #rotateEncryption(byte[])}
+     * @param previousKey the key the settings are encrypted with
+     * @return the SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref rotateEncryption(String previousKey){
+        mConfig.previousEncryptSeed(EncryptionUtils.generateKey(previousKey));
+        return this;
+    }
+
+    /**
+     * Store the encryption flags of every encrypted key in a single entry instead of one boolean entry per key,
+     * this keeps the preferences file smaller. Existing flags are moved between both formats when the settings are built.
+     * Versions of SPref without this option cannot tell which keys are encrypted while the flags are compacted.
+     * Connectors of the same preferences in one process can safely use it, the option is ignored (one entry per key is
+     * kept) with {@link MultiProcessStorage} or {@code Context.MODE_MULTI_PROCESS}, as other processes would lose flags.
+     * It is always enabled with {@link #shards(int)}, except in those multi-process cases.
+     * @param compact if the flags should be stored in a single entry
+     * @return the SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref compactEncryptionFlags(boolean compact){
+        mConfig.compactEncryptionFlags(compact);
+        return this;
+    }
+
+    /**
+     * Change the storage backend of the settings (shared preferences by default)
+     * @param factory the factory of the storage, e.g. {@link com.lib.spref.storage.InMemoryStorage#factory()}
+     * @return the SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref storage(SettingsStorage.Factory factory){
+        mConfig.storage(factory != null ? factory : SharedPreferencesStorage.FACTORY);
+        return this;
+    }
+
+    /**
+     * Split the settings across several files by the hash of the key, so each write only rewrites the file of the
+     * changed keys and each file is only loaded when one of its keys is used.
+     * The values saved before sharding was enabled are moved to the shards on the first use, they are not moved when
+     * the number of shards changes. The encryption flags are kept compact (see {@link #compactEncryptionFlags(boolean)}),
+     * but with {@link #multiProcess()} or {@code Context.MODE_MULTI_PROCESS} they cannot be, and every shard is loaded
+     * on start to find them
+     * @param shardCount the number of files
+     * @return the SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref shards(int shardCount){
+        mConfig.shards(shardCount > 1 ? ShardStrategy.hash(shardCount) : null);
+        return this;
+    }
+
+    /**
+     * Split the settings across several files by key prefix, the keys of each prefix are kept on their own file and
+     * every other key on a shared one, see {@link #shards(int)}
+     * @param prefixes the prefixes
+     * @return the SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref shards(String... prefixes){
+        mConfig.shards(prefixes != null && prefixes.length > 0 ? ShardStrategy.prefix(prefixes) : null);
+        return this;
+    }
+
+    /**
+     * Delay and merge the writes: saved values are kept in memory (visible to the reads) and written together, on a
+     * background thread, once there were no writes for the window or at the latest after the maximum delay.
+     * The pending writes are lost if the process is killed before they are written, so
+     * {@link SettingsConnector#flush()} should be called on lifecycle boundaries (e.g. {@code Activity.onPause})
+     * @param windowMillis time without writes after which the pending writes are written (0 to disable the coalescing)
+     * @param maxDelayMillis maximum time a write stays pending, 0 for no maximum: the writes stay pending as long as
+     *                       there are writes within the window
+     * @return the SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref coalesceWrites(long windowMillis, long maxDelayMillis){
+        mConfig.coalesceWrites(windowMillis, maxDelayMillis);
+        return this;
+    }
+
+    /**
+     * Change where the observers of {@link SettingsConnector#observe(String, Class, SettingsObserver)} are notified
+     * (the main thread by default)
+     * @param executor the executor, it must run the tasks asynchronously and one at a time (e.g. a single thread executor)
+     * @return the SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref observeOn(Executor executor){
+        mConfig.observerExecutor(executor);
+        return this;
+    }
+
+    /**
+     * Configure the asynchronous writes of {@link SettingsConnector#batchAsync(SettingsBatch.Operation)} and the other
+     * {@code ...Async} methods (a shared background thread and {@link SettingsDurability#GROUP_COMMIT} by default)
+     * @param executor where the writes run, e.g. a bounded thread pool (the writes still run one at a time, in order),
+     *                 null for the shared background thread
+     * @param durability when the futures of the writes complete
+     * @return the SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref asyncWrites(Executor executor, @SettingsDurability int durability){
+        mConfig.asyncWrites(executor, durability);
+        return this;
+    }
+
+    /**
+     * Share the settings between several processes of the application, replaces {@link Context#MODE_MULTI_PROCESS}.
+     * The settings are stored on a {@link MultiProcessStorage} (a separate file from the shared preferences), where each
+     * process sees the writes of the others on its next read
+     * @return the SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref multiProcess(){
+        mConfig.storage(MultiProcessStorage.factory());
+        return this;
     }
 
     /**
@@ -120,7 +263,7 @@ public class SPref {
      * The modes can be:
      * - {@link Context#MODE_PRIVATE}  //This is set by default
      * - {@link Context#MODE_APPEND}
-     * - {@link Context#MODE_MULTI_PROCESS}
+     * - {@link Context#MODE_MULTI_PROCESS} (deprecated, the values of the other processes are only reloaded when the settings are built again, use {@link #multiProcess()} instead)
      * - {@link Context#MODE_WORLD_READABLE}
      * - {@link Context#MODE_WORLD_WRITEABLE}
      *
@@ -129,26 +272,151 @@ public class SPref {
      */
     @SuppressWarnings("unused")
     public SPref mode(int mode){
-        mMode = mode;
-        return sInstance.get();
+        mConfig.mode(mode);
+        return this;
+    }
+
+    /**
+     * Register a gson type adapter factory used to convert list settings, this allows model classes read and
+     * written very often to skip gson's reflection
+     * @param factory the type adapter factory
+     * @return SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref registerTypeAdapterFactory(TypeAdapterFactory factory){
+        if (factory != null) {
+            mConfig.addTypeAdapterFactory(factory);
+        }
+        return this;
+    }
+
+    /**
+     * Register the codec of a class so lists of it can be saved in a compact binary format with
+     * {@link SettingsConnector#saveBinaryListSetting(String, List, Class)} instead of json
+     * @param clazz the class of the elements
+     * @param codec the codec
+     * @param <T> generic type
+     * @return SPref instance
+     */
+    @SuppressWarnings("unused")
+    public <T> SPref registerBinaryCodec(Class<T> clazz, BinaryCodec<T> codec){
+        if (clazz != null && codec != null) {
+            mConfig.binaryCodec(clazz, codec);
+        }
+        return this;
+    }
+
+    /**
+     * Keep the decoded values of {@link SettingsConnector#getListSetting(String, Class)} in a memory bounded LRU cache,
+     * entries are invalidated whenever the setting changes
+     * @param maxSize maximum size of the cache, measured in characters of the json the lists were decoded from
+     * @param readOnly if true every read returns the same unmodifiable list, whose elements are shared and must not be
+     *                 modified, otherwise each read returns its own list (only the lists of strings and boxed
+     *                 primitives are cached then, as copies, the lists of other classes are decoded on every read)
+     * @return SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref cacheListSettings(int maxSize, boolean readOnly){
+        mConfig.listCache(maxSize, readOnly);
+        return this;
+    }
+
+    /**
+     * Deflate the string and list settings of at least the given length when it makes them smaller, encrypted values
+     * are compressed before being encrypted. Compressed values are read back transparently (also after compression
+     * is disabled again), only settings saved from then on are compressed
+     * @param thresholdChars minimum length (in characters of the value or of the json list) of the compressed values,
+     *                       0 to disable the compression
+     * @return SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref compressValues(int thresholdChars){
+        mConfig.compression(Math.max(0, thresholdChars));
+        return this;
+    }
+
+    /**
+     * Save the string and list settings of at least the given length in their own file (under
+     * {@code files/spref_blobs}) instead of the preferences file, which only keeps a small reference to it. The
+     * preferences are then loaded without them, a spilled value is only read from its file when its setting is read.
+     * The threshold applies to the value once compressed (see {@link #compressValues(int)}), encrypted values are
+     * never spilled. Files of removed settings are deleted right away, the previous files of replaced settings after
+     * the next commit, and orphan files (e.g. of a write interrupted by the process being killed) in the background
+     * once the settings are built
+     * @param thresholdChars minimum length (in characters) of the spilled values, 0 to keep every new value in the preferences
+     * @return SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref spillLargeValues(int thresholdChars){
+        mConfig.spillLargeValues(Math.max(0, thresholdChars));
+        return this;
+    }
+
+    /**
+     * Record the call count and latency of each operation of the connector, the bytes serialized and compressed, the
+     * decrypt failures and the list cache hits into the given metrics (disabled by default, nothing is measured then)
+     * @param metrics the metrics to record into, can be shared by several connectors (null to disable)
+     * @return SPref instance
+     */
+    @SuppressWarnings("unused")
+    public SPref metrics(SettingsMetrics metrics){
+        mConfig.metrics(metrics);
+        return this;
     }
 
     /**
      * Builds shared preference in order to access, save and remove  them
+     * The connector is shared by every build with the same configuration, so this can be called before each use
+     * without opening the preferences or merging the default resource again
      * @return the controller to manage shared preferences
      */
     public SettingsConnector buildSettings(){
-        return new SettingsConnector(getApplicationContext(), mResource, mPreferencesName, mEncryptSeed, mShouldOverride, mMode);
+        return SettingsRegistry.get(getApplicationContext(), mConfig.build());
+    }
+
+    /**
+     * Builds shared preference without blocking the calling thread, the preferences file is loaded and the default
+     * resource merged on the given executor. The connector is returned right away, calls made before it is ready
+     * wait for the initialization to end (see {@link SettingsConnector#isReady()}).
+     * The connector is shared with {@link #buildSettings()}, if it was already built it is returned as is
+     * @param executor the executor to load the preferences on
+     * @return the controller to manage shared preferences
+     */
+    @SuppressWarnings("unused")
+    public SettingsConnector buildSettingsAsync(Executor executor){
+        return buildSettingsAsync(executor, null);
+    }
+
+    /**
+     * Builds shared preference without blocking the calling thread, see {@link #buildSettingsAsync(Executor)}
+     * @param executor the executor to load the preferences on
+     * @param listener notified when the connector is ready (right away, on the calling thread, if it already is) and
+     *                 whenever a call had to wait for it (may be null)
+     * @return the controller to manage shared preferences
+     */
+    @SuppressWarnings("unused")
+    public SettingsConnector buildSettingsAsync(Executor executor, SettingsInitListener listener){
+        return SettingsRegistry.get(getApplicationContext(), mConfig.build(), executor, listener);
     }
 
     /**
      * Builds shared preference in order to access, save and remove them <br>
      * Without using {@link #init(Context)}, {@link #name(String)} and {@link #provideDefaultResourceFile(int, boolean)}
+     * The connector is shared by every call, see {@link #buildSettings()}
      * @param context the application context
      * @return the controller to manage shared preferences
      */
     @SuppressWarnings("unused")
     public static SettingsConnector buildSettings(Context context){
-        return new SettingsConnector(context, Utils.INVALID_ID, null, mEncryptSeed, false, Utils.INVALID_ID);
+        return SettingsRegistry.get(context, new SettingsConfig.Builder().build());
+    }
+
+    /**
+     * Forget the connectors shared by {@link #buildSettings()}, the next builds open the preferences again.
+     * The connectors already built keep working
+     */
+    @SuppressWarnings("unused")
+    public static void releaseSettings(){
+        SettingsRegistry.clear();
     }
 }
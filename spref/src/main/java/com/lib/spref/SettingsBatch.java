@@ -0,0 +1,489 @@
+package com.lib.spref;
+
+import com.lib.spref.codec.PrimitiveArrayCodec;
+import com.lib.spref.internal.EncryptionIndex;
+import com.lib.spref.internal.ValueCompressor;
+import com.lib.spref.storage.SettingsStorage;
+import com.lib.spref.storage.StorageEditor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups several writes (typed, encrypted and removals) into a single editor so they are written to disk only once
+ * Obtain it with {@link SettingsConnector#edit()} or {@link SettingsConnector#batch(Operation)}
+ */
+@SuppressWarnings("unused")
+public class SettingsBatch {
+    private final SettingsConnector mConnector;
+    private final SettingsStorage.Editor mEditor;
+    private final EncryptionIndex mEncryptionIndex;
+    private final List<String> mWrittenKeys = new ArrayList<>();
+    private Map<String, Boolean> mEncryptionChanges;
+    private boolean mCleared;
+    private boolean mGrouped;
+    //plain values of the encrypted writes made during a key rotation, encrypted under the lock of the write
+    private Map<String, String> mDeferredEncryptions;
+    //values spilled into blobs, the files are only written by the write of the batch
+    private Map<String, String> mSpills;
+
+    /**
+     * Operation to be executed inside a batch, see {@link SettingsConnector#batch(Operation)}
+     */
+    public interface Operation {
+        /**
+         * Adds the writes to the batch, they are applied once this method returns
+         * @param batch the batch to write into
+         */
+        void run(SettingsBatch batch);
+    }
+
+    SettingsBatch(SettingsConnector connector, SettingsStorage.Editor editor, EncryptionIndex encryptionIndex) {
+        mConnector = connector;
+        mEditor = editor;
+        mEncryptionIndex = encryptionIndex;
+    }
+
+    /**
+     * Save a string setting value according to the settingKey
+     *
+     * @param settingKey   key
+     * @param settingValue value
+     * @return this batch
+     */
+    public SettingsBatch save(String settingKey, String settingValue) {
+        written(settingKey);
+        String value = mConnector.compress(settingValue);
+        BlobStore blobs = mConnector.blobs();
+        if (blobs != null && blobs.shouldSpill(value)) {
+            if (mSpills == null) {
+                mSpills = new HashMap<>();
+            }
+            mSpills.put(settingKey, value);
+        } else {
+            mEditor.putString(settingKey, value);
+        }
+        return this;
+    }
+
+    /**
+     * Save a boolean setting value according to the settingKey
+     *
+     * @param settingKey   key
+     * @param settingValue value
+     * @return this batch
+     */
+    public SettingsBatch save(String settingKey, boolean settingValue) {
+        mEditor.putBoolean(settingKey, settingValue);
+        written(settingKey);
+        return this;
+    }
+
+    /**
+     * Save an integer setting value according to the settingKey
+     *
+     * @param settingKey   key
+     * @param settingValue value (if null a null string is written)
+     * @return this batch
+     */
+    public SettingsBatch save(String settingKey, Integer settingValue) {
+        if (settingValue == null) {
+            mEditor.putString(settingKey, null);
+        } else {
+            mEditor.putInt(settingKey, settingValue);
+        }
+        written(settingKey);
+        return this;
+    }
+
+    /**
+     * Save a long setting value according to the settingKey
+     *
+     * @param settingKey   key
+     * @param settingValue value (if null a null string is written)
+     * @return this batch
+     */
+    public SettingsBatch save(String settingKey, Long settingValue) {
+        if (settingValue == null) {
+            mEditor.putString(settingKey, null);
+        } else {
+            mEditor.putLong(settingKey, settingValue);
+        }
+        written(settingKey);
+        return this;
+    }
+
+    /**
+     * Save a float setting value according to the settingKey
+     *
+     * @param settingKey   key
+     * @param settingValue value (if null a null string is written)
+     * @return this batch
+     */
+    public SettingsBatch save(String settingKey, Float settingValue) {
+        if (settingValue == null) {
+            mEditor.putString(settingKey, null);
+        } else {
+            mEditor.putFloat(settingKey, settingValue);
+        }
+        written(settingKey);
+        return this;
+    }
+
+    /**
+     * Save a list of generic values according to the settingKey
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @param <T>          generic type
+     * @return this batch
+     */
+    public <T> SettingsBatch save(String settingKey, List<T> settingValue) {
+        return save(settingKey, mConnector.listToJson(settingValue));
+    }
+
+    /**
+     * Save a list in the compact binary format, see {@link SettingsConnector#saveBinaryListSetting(String, List, Class)}
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @param clazz        the class of the elements
+     * @param <T>          generic type
+     * @return this batch
+     */
+    public <T> SettingsBatch saveBinary(String settingKey, List<T> settingValue, Class<T> clazz) {
+        return saveBytes(settingKey, settingValue == null ? null : mConnector.listToBinary(settingValue, clazz));
+    }
+
+    private SettingsBatch saveBytes(String settingKey, byte[] settingValue) {
+        mEditor.putBytes(settingKey, settingValue);
+        if (settingValue != null) {
+            mConnector.recordSerialized(settingValue.length);
+        }
+        written(settingKey);
+        return this;
+    }
+
+    /**
+     * Save a int array in a packed format, see {@link SettingsConnector#saveIntArraySetting(String, int[])}
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @return this batch
+     */
+    public SettingsBatch save(String settingKey, int[] settingValue) {
+        return saveBytes(settingKey, settingValue == null ? null : PrimitiveArrayCodec.encode(settingValue));
+    }
+
+    /**
+     * Save a long array in a packed format, see {@link SettingsConnector#saveLongArraySetting(String, long[])}
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @return this batch
+     */
+    public SettingsBatch save(String settingKey, long[] settingValue) {
+        return saveBytes(settingKey, settingValue == null ? null : PrimitiveArrayCodec.encode(settingValue));
+    }
+
+    /**
+     * Save a float array in a packed format, see {@link SettingsConnector#saveFloatArraySetting(String, float[])}
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @return this batch
+     */
+    public SettingsBatch save(String settingKey, float[] settingValue) {
+        return saveBytes(settingKey, settingValue == null ? null : PrimitiveArrayCodec.encode(settingValue));
+    }
+
+    /**
+     * Save a boolean array in a packed format, see {@link SettingsConnector#saveBooleanArraySetting(String, boolean[])}
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @return this batch
+     */
+    public SettingsBatch save(String settingKey, boolean[] settingValue) {
+        return saveBytes(settingKey, settingValue == null ? null : PrimitiveArrayCodec.encode(settingValue));
+    }
+
+    /**
+     * Save a set of settings value according to the settingKey
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @return this batch
+     */
+    public SettingsBatch save(String settingKey, Set<String> settingValue) {
+        mEditor.putStringSet(settingKey, settingValue);
+        written(settingKey);
+        return this;
+    }
+
+    /**
+     * Encrypts a string and saves it together with its encryption flag, same behaviour as {@link SettingsConnector#saveSafeEncryptedSetting(String, String)}
+     *
+     * @param settingKey   key
+     * @param settingValue value
+     * @return this batch
+     */
+    public SettingsBatch saveEncrypted(String settingKey, String settingValue) {
+        written(settingKey);
+        if (settingValue != null && mConnector.isRotatingKey()) {
+            //the key used depends on the rotation checkpoint, which can only move while the write does not hold the lock
+            if (mDeferredEncryptions == null) {
+                mDeferredEncryptions = new HashMap<>();
+            }
+            mDeferredEncryptions.put(settingKey, settingValue);
+            mEncryptionIndex.putFlag(mEditor, settingKey, true);
+            encryptionChanged(settingKey, true);
+            return this;
+        }
+        String encrypted = mConnector.encryptValue(settingKey, settingValue);
+        if (encrypted != null) {
+            mEditor.putString(settingKey, encrypted);
+        } else {
+            mEditor.putString(settingKey, ValueCompressor.escape(settingValue));
+        }
+        mEncryptionIndex.putFlag(mEditor, settingKey, encrypted != null);
+        encryptionChanged(settingKey, encrypted != null);
+        return this;
+    }
+
+    /**
+     * Saves a value already encrypted by {@link SettingsConnector#encryptValue(String, String)} together with its encryption flag
+     *
+     * @param settingKey     key
+     * @param encryptedValue the encrypted value
+     * @return this batch
+     */
+    SettingsBatch saveEncryptedValue(String settingKey, String encryptedValue) {
+        written(settingKey);
+        mEditor.putString(settingKey, encryptedValue);
+        mEncryptionIndex.putFlag(mEditor, settingKey, true);
+        encryptionChanged(settingKey, true);
+        return this;
+    }
+
+    /**
+     * Removes a setting and its encryption flag
+     *
+     * @param settingKey the setting key
+     * @return this batch
+     */
+    public SettingsBatch remove(String settingKey) {
+        if (settingKey != null) {
+            mEditor.remove(settingKey);
+            mEncryptionIndex.removeFlag(mEditor, settingKey);
+            encryptionChanged(settingKey, false);
+            written(settingKey);
+        }
+        return this;
+    }
+
+    /**
+     * Marks this batch as holding the writes of several operations, a {@link #clear()} then also drops the writes
+     * made before it, as if each operation was written on its own
+     *
+     * @return this batch
+     */
+    SettingsBatch groupWrites() {
+        mGrouped = true;
+        return this;
+    }
+
+    /**
+     * Creates an empty batch whose writes are only collected, they are written once added to this batch by
+     * {@link #merge(SettingsBatch)} (so the writes of an operation that fails can be dropped)
+     *
+     * @return the staging batch
+     */
+    SettingsBatch stage() {
+        return new SettingsBatch(mConnector, new StagedEditor(), mEncryptionIndex).groupWrites();
+    }
+
+    /**
+     * Adds the writes of a batch created by {@link #stage()}, as if they were made on this batch
+     *
+     * @param staged the staging batch
+     */
+    void merge(SettingsBatch staged) {
+        if (staged.mCleared) {
+            clear();
+        }
+        for (String settingKey : staged.mWrittenKeys) {
+            written(settingKey);
+        }
+        if (staged.mEncryptionChanges != null) {
+            for (Map.Entry<String, Boolean> change : staged.mEncryptionChanges.entrySet()) {
+                encryptionChanged(change.getKey(), change.getValue());
+            }
+        }
+        if (staged.mDeferredEncryptions != null) {
+            if (mDeferredEncryptions == null) {
+                mDeferredEncryptions = new HashMap<>();
+            }
+            mDeferredEncryptions.putAll(staged.mDeferredEncryptions);
+        }
+        if (staged.mSpills != null) {
+            if (mSpills == null) {
+                mSpills = new HashMap<>();
+            }
+            mSpills.putAll(staged.mSpills);
+        }
+        ((StagedEditor) staged.mEditor).mergeInto(mEditor);
+    }
+
+    /**
+     * Removes every setting, as with {@link SettingsStorage.Editor#clear()} the clear happens before any other write of this batch
+     *
+     * @return this batch
+     */
+    public SettingsBatch clear() {
+        if (mGrouped) {
+            for (String settingKey : mWrittenKeys) {
+                mEditor.remove(settingKey);
+                mEncryptionIndex.removeFlag(mEditor, settingKey);
+            }
+            mWrittenKeys.clear();
+            mDeferredEncryptions = null;
+            mSpills = null;
+        }
+        mEditor.clear();
+        mCleared = true;
+        mEncryptionChanges = null;
+        return this;
+    }
+
+    /**
+     * Writes every change of this batch asynchronously in a single disk write
+     */
+    public void apply() {
+        write(false);
+    }
+
+    /**
+     * Writes every change of this batch synchronously in a single disk write
+     *
+     * @return true if the values were successfully written
+     */
+    public boolean commit() {
+        return write(true);
+    }
+
+    private boolean write(boolean commit) {
+        BlobStore blobs = mConnector.blobs();
+        Map<String, String> replacedBlobs = blobs != null ? mConnector.blobReferences(mCleared ? null : mWrittenKeys) : null;
+        List<String> pendingBlobs = blobs != null && commit ? blobs.pendingDeletes() : null;
+        if (mSpills != null) {
+            for (Map.Entry<String, String> spill : mSpills.entrySet()) {
+                String reference = blobs.write(spill.getValue());
+                //kept in the preferences if the blob cannot be written
+                mEditor.putString(spill.getKey(), reference != null ? reference : spill.getValue());
+            }
+        }
+        boolean result = true;
+        if (mEncryptionChanges == null && !mCleared && mDeferredEncryptions == null) {
+            result = writeEditor(commit);
+        } else {
+            //flags are written and indexed atomically so concurrent batches do not lose each other's changes
+            synchronized (mEncryptionIndex) {
+                if (mDeferredEncryptions != null) {
+                    for (Map.Entry<String, String> deferred : mDeferredEncryptions.entrySet()) {
+                        mEditor.putString(deferred.getKey(), mConnector.encryptValue(deferred.getKey(), deferred.getValue()));
+                    }
+                }
+                synchronized (mEncryptionIndex.writeLock()) {
+                    mEncryptionIndex.prepare(mEditor, mEncryptionChanges, mCleared);
+                    result = writeEditor(commit);
+                    mEncryptionIndex.update(mEncryptionChanges, mCleared);
+                }
+            }
+        }
+        if (replacedBlobs != null) {
+            releaseBlobs(blobs, replacedBlobs, commit && result);
+            if (commit && result) {
+                blobs.deletePending(pendingBlobs);
+            }
+        }
+        mConnector.onSettingsWritten(mCleared ? null : mWrittenKeys);
+        return result;
+    }
+
+    /**
+     * Deletes the blobs of the settings this batch removed right away, nothing refers to them anymore, and the
+     * previous blobs of the replaced settings once their new references are on the disk
+     *
+     * @param blobs         the blobs
+     * @param replacedBlobs the references saved before the write, by setting key
+     * @param committed     true if the write was committed successfully
+     */
+    private void releaseBlobs(BlobStore blobs, Map<String, String> replacedBlobs, boolean committed) {
+        for (Map.Entry<String, String> replaced : replacedBlobs.entrySet()) {
+            if (committed || !mConnector.isSaved(replaced.getKey())) {
+                blobs.delete(replaced.getValue());
+            } else {
+                //until then a crash would leave the previous reference in the file
+                blobs.deleteAfterCommit(replaced.getValue());
+            }
+        }
+    }
+
+    private boolean writeEditor(boolean commit) {
+        if (commit) {
+            return mEditor.commit();
+        }
+        mEditor.apply();
+        return true;
+    }
+
+    private void written(String settingKey) {
+        mWrittenKeys.add(settingKey);
+        //a later write of the same key wins
+        if (mDeferredEncryptions != null) {
+            mDeferredEncryptions.remove(settingKey);
+        }
+        if (mSpills != null) {
+            mSpills.remove(settingKey);
+        }
+    }
+
+    private void encryptionChanged(String settingKey, boolean encrypted) {
+        if (mEncryptionChanges == null) {
+            mEncryptionChanges = new HashMap<>();
+        }
+        mEncryptionChanges.put(settingKey, encrypted);
+    }
+
+    /**
+     * Editor of a staging batch, its changes are only put into the editor of the batch it is merged into
+     */
+    private static final class StagedEditor extends StorageEditor {
+        private SettingsStorage.Editor mTarget;
+
+        void mergeInto(SettingsStorage.Editor target) {
+            mTarget = target;
+            try {
+                commit();
+            } finally {
+                mTarget = null;
+            }
+        }
+
+        @Override
+        protected boolean write(Map<String, Object> changes, boolean clear, boolean sync) {
+            if (mTarget == null) {
+                throw new IllegalStateException("A staged batch is written by the batch it is merged into");
+            }
+            //the clear was already made on the target by merge
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                putValue(mTarget, change.getKey(), change.getValue());
+            }
+            return true;
+        }
+    }
+}
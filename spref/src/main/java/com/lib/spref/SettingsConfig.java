@@ -0,0 +1,281 @@
+package com.lib.spref;
+
+import android.content.Context;
+
+import com.google.gson.TypeAdapterFactory;
+import com.lib.spref.Utils.Utils;
+import com.lib.spref.codec.BinaryCodec;
+import com.lib.spref.codec.BinaryCodecs;
+import com.lib.spref.storage.CoalescingStorage;
+import com.lib.spref.storage.MultiProcessStorage;
+import com.lib.spref.storage.SettingsStorage;
+import com.lib.spref.storage.ShardStrategy;
+import com.lib.spref.storage.ShardedStorage;
+import com.lib.spref.storage.SharedPreferencesStorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Immutable configuration of a {@link SettingsConnector}, built through {@link SPref}.
+ * Two configurations are equal when they open the same storage the same way, the key of the encryption is compared
+ * by content and every other object (storage factory, codecs, metrics, executor) by its own equals, usually its identity
+ */
+final class SettingsConfig {
+    //the last key given to any builder, also used by the builds without their own key (as the static builds)
+    private static volatile byte[] sLastEncryptSeed;
+
+    final String mPreferencesName;
+    final int mMode;
+    final int mResource;
+    final boolean mShouldOverride;
+    final boolean mForceMerge;
+    final byte[] mEncryptSeed;
+    final byte[] mPreviousEncryptSeed;
+    final List<TypeAdapterFactory> mTypeAdapterFactories;
+    final int mListCacheSize;
+    final boolean mListCacheReadOnly;
+    final boolean mCompactEncryptionFlags;
+    final int mCompressionThreshold;
+    final int mBlobThreshold;
+    final SettingsStorage.Factory mStorageFactory;
+    private final SettingsStorage.Factory mBaseStorageFactory;
+    final Map<Class<?>, BinaryCodec<?>> mBinaryCodecs;
+    final SettingsMetrics mMetrics;
+    final ShardStrategy mShardStrategy;
+    final long mCoalesceWindowMillis;
+    final long mCoalesceMaxDelayMillis;
+    final Executor mObserverExecutor;
+    final Executor mWriteExecutor;
+    @SettingsDurability
+    final int mWriteDurability;
+
+    private SettingsConfig(Builder builder) {
+        mPreferencesName = builder.mPreferencesName;
+        mMode = builder.mMode;
+        mResource = builder.mResource;
+        mShouldOverride = builder.mShouldOverride;
+        mForceMerge = builder.mForceMerge;
+        byte[] encryptSeed = builder.mEncryptSeed != null ? builder.mEncryptSeed : sLastEncryptSeed;
+        mEncryptSeed = encryptSeed != null ? encryptSeed.clone() : null;
+        mPreviousEncryptSeed = builder.mPreviousEncryptSeed != null ? builder.mPreviousEncryptSeed.clone() : null;
+        mTypeAdapterFactories = Collections.unmodifiableList(new ArrayList<>(builder.mTypeAdapterFactories));
+        mListCacheSize = builder.mListCacheSize;
+        mListCacheReadOnly = builder.mListCacheReadOnly;
+        //with sharding the flags of one entry per key are only found by loading every shard on start, the compact
+        //entry is rewritten as a whole so writes of another process would be lost
+        mCompactEncryptionFlags = (builder.mCompactEncryptionFlags || builder.mShardStrategy != null) && (builder.mMode == Utils.INVALID_ID
+                || (builder.mMode & Context.MODE_MULTI_PROCESS) == 0) && builder.mStorageFactory != MultiProcessStorage.factory();
+        mCompressionThreshold = builder.mCompressionThreshold;
+        mBlobThreshold = builder.mBlobThreshold;
+        SettingsStorage.Factory storageFactory = builder.mStorageFactory;
+        if (builder.mShardStrategy != null) {
+            storageFactory = ShardedStorage.factory(storageFactory, builder.mShardStrategy);
+        }
+        if (builder.mCoalesceWindowMillis > 0) {
+            //one overlay for every shard, so a flush writes each touched shard once
+            storageFactory = CoalescingStorage.factory(storageFactory, builder.mCoalesceWindowMillis, builder.mCoalesceMaxDelayMillis);
+        }
+        mStorageFactory = storageFactory;
+        mBaseStorageFactory = builder.mStorageFactory;
+        mCoalesceWindowMillis = builder.mCoalesceWindowMillis;
+        mCoalesceMaxDelayMillis = builder.mCoalesceMaxDelayMillis;
+        mObserverExecutor = builder.mObserverExecutor;
+        mWriteExecutor = builder.mWriteExecutor;
+        mWriteDurability = builder.mWriteDurability;
+        mShardStrategy = builder.mShardStrategy;
+        mBinaryCodecs = Collections.unmodifiableMap(new HashMap<>(builder.mBinaryCodecs));
+        mMetrics = builder.mMetrics;
+    }
+
+    /**
+     * Checks if the preferences are opened with {@link Context#MODE_MULTI_PROCESS}, which reloads them from the disk
+     * every time they are opened
+     *
+     * @return true in the multi-process mode
+     */
+    boolean isMultiProcessMode() {
+        return mMode != Utils.INVALID_ID && (mMode & Context.MODE_MULTI_PROCESS) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SettingsConfig)) {
+            return false;
+        }
+        SettingsConfig config = (SettingsConfig) o;
+        return mMode == config.mMode
+                && mResource == config.mResource
+                && mShouldOverride == config.mShouldOverride
+                && mForceMerge == config.mForceMerge
+                && mListCacheSize == config.mListCacheSize
+                && mListCacheReadOnly == config.mListCacheReadOnly
+                && mCompactEncryptionFlags == config.mCompactEncryptionFlags
+                && mCompressionThreshold == config.mCompressionThreshold
+                && mBlobThreshold == config.mBlobThreshold
+                && mCoalesceWindowMillis == config.mCoalesceWindowMillis
+                && mCoalesceMaxDelayMillis == config.mCoalesceMaxDelayMillis
+                && mWriteDurability == config.mWriteDurability
+                && equal(mPreferencesName, config.mPreferencesName)
+                && Arrays.equals(mEncryptSeed, config.mEncryptSeed)
+                && Arrays.equals(mPreviousEncryptSeed, config.mPreviousEncryptSeed)
+                && mTypeAdapterFactories.equals(config.mTypeAdapterFactories)
+                && mBaseStorageFactory.equals(config.mBaseStorageFactory)
+                && mBinaryCodecs.equals(config.mBinaryCodecs)
+                && equal(mMetrics, config.mMetrics)
+                && equal(mShardStrategy, config.mShardStrategy)
+                && equal(mObserverExecutor, config.mObserverExecutor)
+                && equal(mWriteExecutor, config.mWriteExecutor);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mPreferencesName != null ? mPreferencesName.hashCode() : 0;
+        result = 31 * result + mMode;
+        result = 31 * result + mResource;
+        result = 31 * result + Arrays.hashCode(mEncryptSeed);
+        result = 31 * result + mBaseStorageFactory.hashCode();
+        result = 31 * result + (mShardStrategy != null ? mShardStrategy.hashCode() : 0);
+        return result;
+    }
+
+    private static boolean equal(Object first, Object second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * Mutable counterpart of {@link SettingsConfig} filled by {@link SPref}
+     */
+    static final class Builder {
+        private String mPreferencesName;
+        private int mMode = Utils.INVALID_ID;
+        private int mResource = Utils.INVALID_ID;
+        private boolean mShouldOverride;
+        private boolean mForceMerge;
+        private byte[] mEncryptSeed;
+        private byte[] mPreviousEncryptSeed;
+        private final List<TypeAdapterFactory> mTypeAdapterFactories = new ArrayList<>();
+        private int mListCacheSize;
+        private boolean mListCacheReadOnly;
+        private boolean mCompactEncryptionFlags;
+        private int mCompressionThreshold;
+        private int mBlobThreshold;
+        private SettingsStorage.Factory mStorageFactory = SharedPreferencesStorage.FACTORY;
+        private final Map<Class<?>, BinaryCodec<?>> mBinaryCodecs = BinaryCodecs.defaults();
+        private SettingsMetrics mMetrics;
+        private ShardStrategy mShardStrategy;
+        private long mCoalesceWindowMillis;
+        private long mCoalesceMaxDelayMillis;
+        private Executor mObserverExecutor;
+        private Executor mWriteExecutor;
+        @SettingsDurability
+        private int mWriteDurability = SettingsDurability.GROUP_COMMIT;
+
+        Builder preferencesName(String preferencesName) {
+            mPreferencesName = preferencesName;
+            return this;
+        }
+
+        Builder mode(int mode) {
+            mMode = mode;
+            return this;
+        }
+
+        Builder defaultResource(int resource, boolean shouldOverride) {
+            mResource = resource;
+            mShouldOverride = shouldOverride;
+            return this;
+        }
+
+        Builder forceMerge(boolean force) {
+            mForceMerge = force;
+            return this;
+        }
+
+        Builder encryptSeed(byte[] encryptSeed) {
+            mEncryptSeed = encryptSeed;
+            sLastEncryptSeed = encryptSeed;
+            return this;
+        }
+
+        Builder previousEncryptSeed(byte[] previousEncryptSeed) {
+            mPreviousEncryptSeed = previousEncryptSeed;
+            return this;
+        }
+
+        Builder addTypeAdapterFactory(TypeAdapterFactory factory) {
+            mTypeAdapterFactories.add(factory);
+            return this;
+        }
+
+        Builder listCache(int maxSize, boolean readOnly) {
+            mListCacheSize = maxSize;
+            mListCacheReadOnly = readOnly;
+            return this;
+        }
+
+        Builder compactEncryptionFlags(boolean compact) {
+            mCompactEncryptionFlags = compact;
+            return this;
+        }
+
+        Builder compression(int threshold) {
+            mCompressionThreshold = threshold;
+            return this;
+        }
+
+        Builder spillLargeValues(int threshold) {
+            mBlobThreshold = threshold;
+            return this;
+        }
+
+        Builder storage(SettingsStorage.Factory factory) {
+            mStorageFactory = factory;
+            return this;
+        }
+
+        <T> Builder binaryCodec(Class<T> clazz, BinaryCodec<T> codec) {
+            mBinaryCodecs.put(clazz, codec);
+            return this;
+        }
+
+        Builder shards(ShardStrategy strategy) {
+            mShardStrategy = strategy;
+            return this;
+        }
+
+        Builder coalesceWrites(long windowMillis, long maxDelayMillis) {
+            mCoalesceWindowMillis = windowMillis;
+            mCoalesceMaxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        Builder observerExecutor(Executor executor) {
+            mObserverExecutor = executor;
+            return this;
+        }
+
+        Builder asyncWrites(Executor executor, @SettingsDurability int durability) {
+            mWriteExecutor = executor;
+            mWriteDurability = durability;
+            return this;
+        }
+
+        Builder metrics(SettingsMetrics metrics) {
+            mMetrics = metrics;
+            return this;
+        }
+
+        SettingsConfig build() {
+            return new SettingsConfig(this);
+        }
+    }
+}
@@ -1,20 +1,36 @@
 package com.lib.spref;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.util.Base64;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-import com.lib.spref.Utils.EncryptionUtils;
+import com.lib.spref.Utils.CipherEngine;
 import com.lib.spref.Utils.MergeUtils;
 import com.lib.spref.Utils.Utils;
+import com.lib.spref.codec.BinaryCodec;
+import com.lib.spref.codec.BinaryListCodec;
+import com.lib.spref.codec.PrimitiveArrayCodec;
+import com.lib.spref.internal.EncryptionIndex;
 import com.lib.spref.internal.EncryptionState;
+import com.lib.spref.internal.ListCache;
+import com.lib.spref.internal.ListCodec;
+import com.lib.spref.internal.ValueCompressor;
+import com.lib.spref.storage.CoalescingStorage;
+import com.lib.spref.storage.SettingsStorage;
 
 import java.io.File;
-import java.lang.reflect.Type;
-import java.util.ArrayList;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author lpereira on 28/10/2015.
@@ -22,28 +38,208 @@ import java.util.Set;
 @SuppressWarnings("unused")
 public class SettingsConnector {
     private static final String SHARED_PREF_NAME = "sp_settings";
-    private static final String SPREF_ENCRYPTION_TAG = "#SPREF_ENCRYPTION_TAG#";
 
-    private final SharedPreferences mPreferences;
-    private final byte[] mEncrypt;
+    private final CipherEngine mCipher;
+    private final KeyRotation mRotation;
+    private final ListCodec mListCodec;
+    private final Map<Class<?>, BinaryCodec<?>> mBinaryCodecs;
+    private final ListCache mListCache;
+    private final ValueCompressor mCompressor;
+    //guarded by itself together with mLoaded, so a listener added while the load ends is notified once
+    private final List<SettingsInitListener> mInitListeners = new CopyOnWriteArrayList<>();
+    private final SettingsMetrics mMetrics;
+    private final SettingsObservers mObservers;
+    private final SettingsWriter mWriter;
+    private final SettingsStorage.OnChangeListener mStorageListener = new SettingsStorage.OnChangeListener() {
+        @Override
+        public void onSettingChanged(SettingsStorage storage, String key) {
+            onPreferenceChanged(storage, key);
+        }
+    };
+    private final CountDownLatch mLoadedLatch = new CountDownLatch(1);
+    private final AtomicLong mBlockedTimeNanos = new AtomicLong();
+    private volatile boolean mLoaded;
+    private volatile RuntimeException mLoadError;
+    private volatile long mLoadTimeMillis;
+
+    //written by load() before mLoaded is set, only read after awaitLoaded()
+    private SettingsStorage mStorage;
+    private EncryptionIndex mEncryptionIndex;
+    private BlobStore mBlobs;
+
+    /**
+     * Settings controller constructor method
+     *
+     * @param context application context
+     * @param config  the configuration built by {@link SPref}
+     */
+    SettingsConnector(Context context, SettingsConfig config) {
+        this(context, config, null, null);
+    }
 
     /**
      * Settings controller constructor method
      *
-     * @param context         application context
-     * @param resource        the default file resource
-     * @param preferencesName the name of the shared preferences
-     * @param encrypt         if all settings should be encrypted
-     * @param shouldOverride  if the user wants to override the existent values with the same value keys found
-     * @param mode            mode which the shared preferences should be
+     * @param context  application context
+     * @param config   the configuration built by {@link SPref}
+     * @param executor if not null the preferences are loaded and merged on this executor, otherwise on the calling thread
+     * @param listener listener of the initialization (may be null)
+     */
+    SettingsConnector(final Context context, final SettingsConfig config, Executor executor, SettingsInitListener listener) {
+        mCipher = config.mEncryptSeed != null ? new CipherEngine(config.mEncryptSeed) : null;
+        mRotation = mCipher != null && config.mPreviousEncryptSeed != null
+                ? new KeyRotation(config.mPreviousEncryptSeed, config.mEncryptSeed, mCipher) : null;
+        mListCodec = ListCodec.create(config.mTypeAdapterFactories);
+        mBinaryCodecs = config.mBinaryCodecs;
+        mListCache = config.mListCacheSize > 0 ? new ListCache(config.mListCacheSize, config.mListCacheReadOnly) : null;
+        mCompressor = config.mCompressionThreshold > 0 ? new ValueCompressor(config.mCompressionThreshold) : null;
+        if (listener != null) {
+            mInitListeners.add(listener);
+        }
+        mMetrics = config.mMetrics;
+        mObservers = new SettingsObservers(this, config.mObserverExecutor);
+        mWriter = new SettingsWriter(this, config.mWriteExecutor, config.mWriteDurability);
+        if (executor == null) {
+            load(context, config);
+            if (mLoadError != null) {
+                throw mLoadError;
+            }
+        } else {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    load(context, config);
+                }
+            });
+        }
+    }
+
+    /**
+     * Opens the storage, builds the encryption index and merges the default resource
+     *
+     * @param context application context
+     * @param config  the configuration built by {@link SPref}
+     */
+    private void load(Context context, SettingsConfig config) {
+        long start = System.nanoTime();
+        try {
+            String value = config.mPreferencesName == null || config.mPreferencesName.isEmpty() ? SHARED_PREF_NAME : config.mPreferencesName;
+            mStorage = config.mStorageFactory.create(context, value, config.mMode == Utils.INVALID_ID ? Context.MODE_PRIVATE : config.mMode);
+            mEncryptionIndex = new EncryptionIndex(mStorage, config.mCompactEncryptionFlags);
+            mBlobs = BlobStore.open(context, value, config.mBlobThreshold, mStorage);
+            if (mRotation != null) {
+                mRotation.load(mStorage);
+            }
+            mStorage.registerChangeListener(mStorageListener);
+            if (config.mResource != Utils.INVALID_ID) {
+                long mergeStart = startTime();
+                MergeUtils.mergeIfChanged(context, config.mResource, mStorage, config.mShouldOverride, config.mForceMerge);
+                record(SettingsOperation.MERGE, mergeStart);
+            }
+        } catch (RuntimeException e) {
+            mLoadError = e;
+        }
+        mLoadTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        synchronized (mInitListeners) {
+            mLoaded = true;
+        }
+        mLoadedLatch.countDown();
+        if (mLoadError == null) {
+            for (SettingsInitListener initListener : mInitListeners) {
+                initListener.onSettingsReady(this, mLoadTimeMillis);
+            }
+        }
+    }
+
+    /**
+     * Adds a listener of the initialization, when the connector of an asynchronous build is shared
+     * If the connector is already loaded the listener is notified right away, on the calling thread
+     *
+     * @param listener the listener
+     */
+    void addInitListener(SettingsInitListener listener) {
+        boolean loaded;
+        synchronized (mInitListeners) {
+            loaded = mLoaded;
+            if (!loaded) {
+                mInitListeners.add(listener);
+            }
+        }
+        if (loaded && mLoadError == null) {
+            listener.onSettingsReady(this, mLoadTimeMillis);
+        }
+    }
+
+    /**
+     * Checks if the loading of an asynchronous build failed, every call of the connector then throws
+     *
+     * @return true if the preferences could not be loaded
+     */
+    boolean hasFailedToLoad() {
+        return mLoadError != null;
+    }
+
+    /**
+     * Waits until the preferences are loaded, only calls that arrive before the end of an asynchronous initialization wait
      */
-    SettingsConnector(Context context, int resource, String preferencesName, byte[] encrypt, boolean shouldOverride, int mode) {
-        String value = preferencesName == null || preferencesName.isEmpty() ? SHARED_PREF_NAME : preferencesName;
-        mPreferences = context.getSharedPreferences(value, mode == Utils.INVALID_ID ? Context.MODE_PRIVATE : mode);
-        mEncrypt = encrypt;
-        if (resource != Utils.INVALID_ID) {
-            MergeUtils.merge(context, resource, mPreferences, shouldOverride);
+    private void awaitLoaded() {
+        if (!mLoaded) {
+            long start = System.nanoTime();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    mLoadedLatch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            long blocked = System.nanoTime() - start;
+            mBlockedTimeNanos.addAndGet(blocked);
+            for (SettingsInitListener initListener : mInitListeners) {
+                initListener.onSettingsBlocked(this, blocked);
+            }
         }
+        if (mLoadError != null) {
+            throw new IllegalStateException("Settings could not be loaded", mLoadError);
+        }
+    }
+
+    private SettingsStorage storage() {
+        awaitLoaded();
+        return mStorage;
+    }
+
+    /**
+     * Checks if the preferences are loaded, connectors built with {@link SPref#buildSettings()} are always ready
+     *
+     * @return true if the connector can be used without waiting
+     * @since SDK 0.8.0
+     */
+    public boolean isReady() {
+        return mLoaded;
+    }
+
+    /**
+     * Waits until the preferences are loaded
+     *
+     * @since SDK 0.8.0
+     */
+    public void awaitReady() {
+        awaitLoaded();
+    }
+
+    /**
+     * Total time calls to this connector spent waiting for the asynchronous initialization
+     *
+     * @return the time in nanoseconds
+     * @since SDK 0.8.0
+     */
+    public long getBlockedTimeNanos() {
+        return mBlockedTimeNanos.get();
     }
 
     /**
@@ -58,7 +254,10 @@ public class SettingsConnector {
             return null;
         }
 
-        return mPreferences.getString(settingKey, null);
+        long start = startTime();
+        String value = readString(storage(), settingKey, null);
+        record(SettingsOperation.GET, start);
+        return value;
     }
 
     /**
@@ -74,7 +273,10 @@ public class SettingsConnector {
             return null;
         }
 
-        return mPreferences.getString(settingKey, defaultValue);
+        long start = startTime();
+        String value = readString(storage(), settingKey, defaultValue);
+        record(SettingsOperation.GET, start);
+        return value;
     }
 
     /**
@@ -87,12 +289,11 @@ public class SettingsConnector {
      */
     @Deprecated
     public String getEncryptedSetting(String settingKey) {
-        String value = mPreferences.getString(settingKey, null);
-        if (mEncrypt != null && value != null && !value.isEmpty()) {
-            byte[] array = Base64.decode(value, Base64.URL_SAFE);
-            return EncryptionUtils.decrypt(mEncrypt, array);
-        }
-        return null;
+        long start = startTime();
+        SafeSetting setting = readEncryptedSetting(settingKey);
+        recordDecryptFailure(setting);
+        record(SettingsOperation.GET_ENCRYPTED, start);
+        return setting.getValue();
     }
 
     /**
@@ -103,23 +304,104 @@ public class SettingsConnector {
      * @since SDK 0.7.0
      */
     public SafeSetting getSafeEncryptedSetting(String settingKey) {
-        if (isKeyEncrypted(settingKey)) {
-            String value = mPreferences.getString(settingKey, null);
-            if (mEncrypt != null && value != null && !value.isEmpty()) {
-                byte[] array = Base64.decode(value, Base64.URL_SAFE);
-
-                String decryptedValues = EncryptionUtils.decrypt(mEncrypt, array);
-                if(decryptedValues != null){
-                     return new SafeSetting(EncryptionState.SUCCESSFULLY_DECRYPTED, decryptedValues);
-                }else{
-                    return new SafeSetting(EncryptionState.ENCRYPTION_ERROR, null);
-                }
+        long start = startTime();
+        SafeSetting setting = readSafeEncryptedSetting(settingKey);
+        recordDecryptFailure(setting);
+        record(SettingsOperation.GET_ENCRYPTED, start);
+        return setting;
+    }
+
+    private SafeSetting readSafeEncryptedSetting(String settingKey) {
+        //the value is read before the flag, so a storage shared between processes catches up (refreshing the flags) first
+        String value = settingKey != null ? readString(storage(), settingKey, null) : null;
+        if (mEncryptionIndex.contains(settingKey)) {
+            return readEncryptedSetting(settingKey);
+        } else {
+            return new SafeSetting(EncryptionState.SUCCESS, value);
+        }
+    }
+
+    private SafeSetting readEncryptedSetting(String settingKey) {
+        if (isRotatingKey()) {
+            //the value and the key it is encrypted with must be read together
+            synchronized (mEncryptionIndex) {
+                return decrypt(storage().getString(settingKey, null), mRotation.cipherFor(settingKey));
+            }
+        }
+        return decrypt(storage().getString(settingKey, null), mCipher);
+    }
+
+    private SafeSetting decrypt(String value, CipherEngine cipher) {
+        if (cipher != null && value != null && !value.isEmpty()) {
+            byte[] array = Base64.decode(value, Base64.URL_SAFE);
+
+            byte[] decrypted = cipher.decryptBytes(array);
+            String decryptedValues = decrypted != null ? ValueCompressor.fromDecrypted(decrypted) : null;
+            if(decryptedValues != null){
+                 return new SafeSetting(EncryptionState.SUCCESSFULLY_DECRYPTED, decryptedValues);
             }else{
-                return new SafeSetting(EncryptionState.INTERNAL_ERROR, null);
+                return new SafeSetting(EncryptionState.ENCRYPTION_ERROR, null);
+            }
+        }else{
+            return new SafeSetting(EncryptionState.INTERNAL_ERROR, null);
+        }
+    }
+
+    /**
+     * Reads several settings at once into an immutable snapshot, see {@link #readAll(SettingsSnapshot.Filter)}
+     *
+     * @param settingKeys the keys to read
+     * @return the snapshot with the keys that are saved
+     * @since SDK 0.8.0
+     */
+    public SettingsSnapshot snapshot(String... settingKeys) {
+        final Set<String> keys = new HashSet<>(Arrays.asList(settingKeys));
+        return readAll(new SettingsSnapshot.Filter() {
+            @Override
+            public boolean accept(String settingKey) {
+                return keys.contains(settingKey);
+            }
+        });
+    }
+
+    /**
+     * Reads every setting accepted by a filter into an immutable snapshot.
+     * The storage is read once, so the values are consistent with each other (with {@link SPref#shards(int)}, only
+     * within each shard), and the encrypted settings are decrypted in the same pass
+     *
+     * @param filter selects the keys, null for every setting
+     * @return the snapshot
+     * @since SDK 0.8.0
+     */
+    public SettingsSnapshot readAll(SettingsSnapshot.Filter filter) {
+        long start = startTime();
+        Map<String, ?> values = storage().getAll();
+        //the flags (and the rotation checkpoint) are taken from the same read, the index could already have the flag of a newer write
+        Set<String> encryptedKeys = EncryptionIndex.encryptedKeys(values);
+        Map<String, Object> settings = new HashMap<>();
+        Map<String, SafeSetting> decrypted = new HashMap<>();
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            String settingKey = entry.getKey();
+            if (settingKey.startsWith(Utils.INTERNAL_KEY_PREFIX) || filter != null && !filter.accept(settingKey)) {
+                continue;
+            }
+            if (encryptedKeys.contains(settingKey)) {
+                settings.put(settingKey, entry.getValue());
+                CipherEngine cipher = mRotation != null ? mRotation.cipherFor(settingKey, values) : mCipher;
+                SafeSetting setting = decrypt(entry.getValue() instanceof String ? (String) entry.getValue() : null, cipher);
+                recordDecryptFailure(setting);
+                decrypted.put(settingKey, setting);
+            } else if (entry.getValue() instanceof String) {
+                String value = decodeValue((String) entry.getValue());
+                if (value != null) {
+                    settings.put(settingKey, value);
+                }
+            } else {
+                settings.put(settingKey, entry.getValue());
             }
-        } else {
-            return new SafeSetting(EncryptionState.SUCCESS, getSetting(settingKey));
         }
+        record(SettingsOperation.READ_ALL, start);
+        return new SettingsSnapshot(this, settings, decrypted);
     }
 
     /**
@@ -129,7 +411,9 @@ public class SettingsConnector {
      * @since SDK 0.7.0
      */
     public boolean isKeyEncrypted(String settingKey) {
-        return settingKey != null && mPreferences.getBoolean(SPREF_ENCRYPTION_TAG + settingKey, false);
+        //reading the storage lets one shared between processes catch up, which refreshes the flags
+        storage().contains(settingKey);
+        return mEncryptionIndex.contains(settingKey);
     }
 
     /**
@@ -143,7 +427,10 @@ public class SettingsConnector {
         if (settingKey == null) {
             return Utils.INVALID_ID;
         }
-        return mPreferences.getInt(settingKey, Utils.INVALID_ID);
+        long start = startTime();
+        int value = storage().getInt(settingKey, Utils.INVALID_ID);
+        record(SettingsOperation.GET, start);
+        return value;
     }
 
     /**
@@ -157,7 +444,10 @@ public class SettingsConnector {
         if (settingKey == null) {
             return Utils.INVALID_FLOAT_ID;
         }
-        return mPreferences.getFloat(settingKey, Utils.INVALID_FLOAT_ID);
+        long start = startTime();
+        float value = storage().getFloat(settingKey, Utils.INVALID_FLOAT_ID);
+        record(SettingsOperation.GET, start);
+        return value;
     }
 
     /**
@@ -171,7 +461,10 @@ public class SettingsConnector {
         if (settingKey == null) {
             return Utils.INVALID_LONG_ID;
         }
-        return mPreferences.getLong(settingKey, Utils.INVALID_LONG_ID);
+        long start = startTime();
+        long value = storage().getLong(settingKey, Utils.INVALID_LONG_ID);
+        record(SettingsOperation.GET, start);
+        return value;
     }
 
     /**
@@ -186,7 +479,10 @@ public class SettingsConnector {
         if (settingKey == null) {
             return defaultValue;
         }
-        return mPreferences.getBoolean(settingKey, defaultValue);
+        long start = startTime();
+        boolean value = storage().getBoolean(settingKey, defaultValue);
+        record(SettingsOperation.GET, start);
+        return value;
     }
 
     /**
@@ -200,9 +496,10 @@ public class SettingsConnector {
       */
     @Deprecated
     public <T> List<T> getListSetting(String settingKey) {
-        Gson gson = new Gson();
-        Type listType = new TypeToken<ArrayList<T>>() {}.getType();
-        return gson.fromJson(getSetting(settingKey), listType);
+        long start = startTime();
+        List<T> value = mListCodec.fromJson(settingKey != null ? readString(storage(), settingKey, null) : null);
+        record(SettingsOperation.GET_LIST, start);
+        return value;
     }
 
     /**
@@ -214,10 +511,223 @@ public class SettingsConnector {
      * @return setting value (return -1 if not found)
      * @since SDK 0.7.2
      */
+    @SuppressWarnings("unchecked")
     public <T> List<T> getListSetting(String settingKey, Class clazz) {
-        Gson gson = new Gson();
-        Type listType = TypeToken.getParameterized(ArrayList.class, clazz).getType();
-        return gson.fromJson(getSetting(settingKey), listType);
+        long start = startTime();
+        List<T> value = readListSetting(settingKey, (Class<T>) clazz);
+        record(SettingsOperation.GET_LIST, start);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> List<T> readListSetting(String settingKey, Class<T> elementClass) {
+        //lists whose elements could be modified by the caller are only cached in read only mode
+        boolean cached = mListCache != null && settingKey != null && mListCache.caches(elementClass);
+        int generation = 0;
+        if (cached) {
+            generation = mListCache.generation();
+            List<T> value = mListCache.get(settingKey, elementClass);
+            if (mMetrics != null) {
+                mMetrics.recordCacheHit(value != null);
+            }
+            if (value != null) {
+                return value;
+            }
+        }
+
+        List<T> value;
+        int size;
+        BinaryCodec<T> codec = (BinaryCodec<T>) mBinaryCodecs.get(elementClass);
+        byte[] bytes = codec != null && settingKey != null ? storage().getBytes(settingKey, null) : null;
+        if (bytes != null) {
+            value = decodeBinaryList(bytes, codec);
+            size = bytes.length;
+        } else {
+            String json = settingKey != null ? readString(storage(), settingKey, null) : null;
+            value = mListCodec.fromJson(json, elementClass);
+            size = json != null ? json.length() : 0;
+        }
+        if (!cached) {
+            return value;
+        }
+        return mListCache.put(settingKey, elementClass, value, size, generation);
+    }
+
+    private <T> List<T> decodeBinaryList(byte[] bytes, BinaryCodec<T> codec) {
+        try {
+            return BinaryListCodec.decode(bytes, codec);
+        } catch (IOException | RuntimeException e) {
+            //corrupted content
+            return null;
+        }
+    }
+
+    /**
+     * Decodes a list setting read from the storage, as {@link #getListSetting(String, Class)} without the cache
+     *
+     * @param value        the saved value
+     * @param elementClass the class of the elements
+     * @return the list or null if there is no list in the value
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<T> decodeList(Object value, Class<T> elementClass) {
+        BinaryCodec<T> codec = (BinaryCodec<T>) mBinaryCodecs.get(elementClass);
+        if (value instanceof byte[]) {
+            return codec != null ? decodeBinaryList((byte[]) value, codec) : null;
+        }
+        return mListCodec.fromJson(value instanceof String ? (String) value : null, elementClass);
+    }
+
+    /**
+     * Retrieve a int array setting saved with {@link #saveIntArraySetting(String, int[])}
+     *
+     * @param settingKey key
+     * @return setting values or null if there is no int array saved with this key
+     * @since SDK 0.8.0
+     */
+    public int[] getIntArraySetting(String settingKey) {
+        if (settingKey == null) {
+            return null;
+        }
+
+        long start = startTime();
+        int[] value = PrimitiveArrayCodec.decodeInts(storage().getBytes(settingKey, null));
+        record(SettingsOperation.GET_LIST, start);
+        return value;
+    }
+
+    /**
+     * Retrieve a int array setting into an existing array, so the same array can be reused between reads.
+     * At most {@code destination.length} values are copied
+     *
+     * @param settingKey  key
+     * @param destination the array to fill
+     * @return the number of saved values (which may be bigger than the destination) or -1 if there is no int array saved with this key
+     * @since SDK 0.8.0
+     */
+    public int getIntArraySetting(String settingKey, int[] destination) {
+        if (settingKey == null) {
+            return -1;
+        }
+
+        long start = startTime();
+        int count = PrimitiveArrayCodec.decodeInts(storage().getBytes(settingKey, null), destination);
+        record(SettingsOperation.GET_LIST, start);
+        return count;
+    }
+
+    /**
+     * Retrieve a long array setting saved with {@link #saveLongArraySetting(String, long[])}
+     *
+     * @param settingKey key
+     * @return setting values or null if there is no long array saved with this key
+     * @since SDK 0.8.0
+     */
+    public long[] getLongArraySetting(String settingKey) {
+        if (settingKey == null) {
+            return null;
+        }
+
+        long start = startTime();
+        long[] value = PrimitiveArrayCodec.decodeLongs(storage().getBytes(settingKey, null));
+        record(SettingsOperation.GET_LIST, start);
+        return value;
+    }
+
+    /**
+     * Retrieve a long array setting into an existing array, so the same array can be reused between reads.
+     * At most {@code destination.length} values are copied
+     *
+     * @param settingKey  key
+     * @param destination the array to fill
+     * @return the number of saved values (which may be bigger than the destination) or -1 if there is no long array saved with this key
+     * @since SDK 0.8.0
+     */
+    public int getLongArraySetting(String settingKey, long[] destination) {
+        if (settingKey == null) {
+            return -1;
+        }
+
+        long start = startTime();
+        int count = PrimitiveArrayCodec.decodeLongs(storage().getBytes(settingKey, null), destination);
+        record(SettingsOperation.GET_LIST, start);
+        return count;
+    }
+
+    /**
+     * Retrieve a float array setting saved with {@link #saveFloatArraySetting(String, float[])}
+     *
+     * @param settingKey key
+     * @return setting values or null if there is no float array saved with this key
+     * @since SDK 0.8.0
+     */
+    public float[] getFloatArraySetting(String settingKey) {
+        if (settingKey == null) {
+            return null;
+        }
+
+        long start = startTime();
+        float[] value = PrimitiveArrayCodec.decodeFloats(storage().getBytes(settingKey, null));
+        record(SettingsOperation.GET_LIST, start);
+        return value;
+    }
+
+    /**
+     * Retrieve a float array setting into an existing array, so the same array can be reused between reads.
+     * At most {@code destination.length} values are copied
+     *
+     * @param settingKey  key
+     * @param destination the array to fill
+     * @return the number of saved values (which may be bigger than the destination) or -1 if there is no float array saved with this key
+     * @since SDK 0.8.0
+     */
+    public int getFloatArraySetting(String settingKey, float[] destination) {
+        if (settingKey == null) {
+            return -1;
+        }
+
+        long start = startTime();
+        int count = PrimitiveArrayCodec.decodeFloats(storage().getBytes(settingKey, null), destination);
+        record(SettingsOperation.GET_LIST, start);
+        return count;
+    }
+
+    /**
+     * Retrieve a boolean array setting saved with {@link #saveBooleanArraySetting(String, boolean[])}
+     *
+     * @param settingKey key
+     * @return setting values or null if there is no boolean array saved with this key
+     * @since SDK 0.8.0
+     */
+    public boolean[] getBooleanArraySetting(String settingKey) {
+        if (settingKey == null) {
+            return null;
+        }
+
+        long start = startTime();
+        boolean[] value = PrimitiveArrayCodec.decodeBooleans(storage().getBytes(settingKey, null));
+        record(SettingsOperation.GET_LIST, start);
+        return value;
+    }
+
+    /**
+     * Retrieve a boolean array setting into an existing array, so the same array can be reused between reads.
+     * At most {@code destination.length} values are copied
+     *
+     * @param settingKey  key
+     * @param destination the array to fill
+     * @return the number of saved values (which may be bigger than the destination) or -1 if there is no boolean array saved with this key
+     * @since SDK 0.8.0
+     */
+    public int getBooleanArraySetting(String settingKey, boolean[] destination) {
+        if (settingKey == null) {
+            return -1;
+        }
+
+        long start = startTime();
+        int count = PrimitiveArrayCodec.decodeBooleans(storage().getBytes(settingKey, null), destination);
+        record(SettingsOperation.GET_LIST, start);
+        return count;
     }
 
     /**
@@ -228,7 +738,9 @@ public class SettingsConnector {
      * @since SDK 0.1.0
      */
     public void saveSetting(String settingKey, String settingValue) {
-        mPreferences.edit().putString(settingKey, settingValue).apply();
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE, start);
     }
 
     /**
@@ -254,15 +766,9 @@ public class SettingsConnector {
      */
     @Deprecated
     public void saveEncryptedSetting(String settingKey, String settingValue) {
-        if (mEncrypt != null && settingValue != null) {
-            byte[] resultValue = EncryptionUtils.encrypt(mEncrypt, settingValue);
-            settingValue = Base64.encodeToString(resultValue, Base64.URL_SAFE);
-            saveSetting(SPREF_ENCRYPTION_TAG + settingKey, true);
-        } else {
-            settingValue = null;
-            saveSetting(SPREF_ENCRYPTION_TAG + settingKey, false);
-        }
-        mPreferences.edit().putString(settingKey, settingValue).apply();
+        long start = startTime();
+        edit().saveEncrypted(settingKey, mCipher != null ? settingValue : null).apply();
+        record(SettingsOperation.SAVE_ENCRYPTED, start);
     }
 
     /**
@@ -273,14 +779,375 @@ public class SettingsConnector {
      * @since SDK 0.7.0
      */
     public void saveSafeEncryptedSetting(String settingKey, String settingValue) {
-        if (mEncrypt != null && settingValue != null) {
-            byte[] resultValue = EncryptionUtils.encrypt(mEncrypt, settingValue);
-            settingValue = Base64.encodeToString(resultValue, Base64.URL_SAFE);
-            saveSetting(SPREF_ENCRYPTION_TAG + settingKey, true);
+        long start = startTime();
+        edit().saveEncrypted(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE_ENCRYPTED, start);
+    }
+
+    /**
+     * Writes the pending writes synchronously when the writes are coalesced (see {@link SPref#coalesceWrites(long, long)}),
+     * should be called on lifecycle boundaries such as {@code Activity.onPause}
+     *
+     * @since SDK 0.8.0
+     */
+    public void flush() {
+        SettingsStorage storage = storage();
+        if (storage instanceof Flushable) {
+            try {
+                ((Flushable) storage).flush();
+            } catch (IOException e) {
+                //the writes stay pending and are retried
+            }
+        }
+    }
+
+    /**
+     * Number of keys waiting to be written when the writes are coalesced
+     *
+     * @return the pending keys (0 if the writes are not coalesced)
+     * @since SDK 0.8.0
+     */
+    public int getPendingWriteCount() {
+        SettingsStorage storage = storage();
+        return storage instanceof CoalescingStorage ? ((CoalescingStorage) storage).getPendingCount() : 0;
+    }
+
+    /**
+     * Highest number of keys that were waiting to be written at the same time, to tune the coalescing window
+     *
+     * @return the maximum pending keys (0 if the writes are not coalesced)
+     * @since SDK 0.8.0
+     */
+    public int getMaxPendingWriteCount() {
+        SettingsStorage storage = storage();
+        return storage instanceof CoalescingStorage ? ((CoalescingStorage) storage).getMaxPendingCount() : 0;
+    }
+
+    /**
+     * Metrics of this connector
+     *
+     * @return the metrics given to {@link SPref#metrics(SettingsMetrics)} or null if they are not enabled
+     * @since SDK 0.8.0
+     */
+    public SettingsMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    long startTime() {
+        return mMetrics != null ? System.nanoTime() : 0;
+    }
+
+    void record(@SettingsOperation int operation, long start) {
+        if (mMetrics != null) {
+            mMetrics.record(operation, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Counts a failed decryption when the metrics are enabled
+     *
+     * @param setting the read setting, counted only if it failed
+     */
+    void recordDecryptFailure(SafeSetting setting) {
+        int state = setting.getWasSuccessful();
+        if (mMetrics != null && (state == EncryptionState.ENCRYPTION_ERROR || state == EncryptionState.INTERNAL_ERROR)) {
+            mMetrics.recordDecryptFailure(state);
+        }
+    }
+
+    /**
+     * Counts the size of a serialized value when the metrics are enabled
+     *
+     * @param size the serialized size
+     */
+    void recordSerialized(int size) {
+        if (mMetrics != null) {
+            mMetrics.recordSerialized(size);
+        }
+    }
+
+    /**
+     * Keeps the encryption index and the list cache up to date when the storage changes (also by someone else)
+     *
+     * @param storage the storage
+     * @param key     the changed key, null if the storage was cleared
+     */
+    private void onPreferenceChanged(SettingsStorage storage, String key) {
+        if (key == null) {
+            mEncryptionIndex.reload(storage);
+            if (mListCache != null) {
+                mListCache.invalidateAll();
+            }
+        } else if (EncryptionIndex.isFlag(key)) {
+            mEncryptionIndex.onFlagChanged(storage, key);
+            if (key.startsWith(EncryptionIndex.ENCRYPTION_TAG)) {
+                mObservers.onChanged(key.substring(EncryptionIndex.ENCRYPTION_TAG.length()));
+            }
+            return;
+        } else if (mListCache != null) {
+            mListCache.invalidate(key);
+        }
+        mObservers.onChanged(key);
+    }
+
+    /**
+     * Called by {@link SettingsBatch} once its changes were written into the preferences
+     *
+     * @param settingKeys the keys written, or null if the preferences were cleared
+     */
+    void onSettingsWritten(List<String> settingKeys) {
+        if (mListCache != null) {
+            if (settingKeys == null) {
+                mListCache.invalidateAll();
+            } else {
+                for (String settingKey : settingKeys) {
+                    mListCache.invalidate(settingKey);
+                }
+            }
+        }
+        //storages may notify their listeners late (or not at all for some writes, e.g. merges)
+        if (settingKeys == null) {
+            mObservers.onChanged(null);
         } else {
-            saveSetting(SPREF_ENCRYPTION_TAG + settingKey, false);
+            for (String settingKey : settingKeys) {
+                mObservers.onChanged(settingKey);
+            }
+        }
+    }
+
+    /**
+     * Observes the changes of a setting, the observer is only notified when this key changes and receives the new
+     * value already decoded. Changes are delivered on the executor given to {@link SPref#observeOn(Executor)}
+     * (the main thread by default), a burst of changes is delivered once with the last value.
+     * The supported types are String, Integer, Long, Float, Boolean, Set (of strings) and {@link SafeSetting}
+     * (decrypted as {@link #getSafeEncryptedSetting(String)}), see {@link #observeList(String, Class, SettingsObserver)}
+     * for lists
+     *
+     * @param settingKey key
+     * @param type       the type of the value
+     * @param observer   the observer
+     * @param <T>        generic type
+     * @return the subscription, to stop the notifications
+     * @since SDK 0.8.0
+     */
+    public <T> SettingsSubscription observe(String settingKey, Class<T> type, SettingsObserver<T> observer) {
+        if (type != String.class && type != Integer.class && type != Long.class && type != Float.class
+                && type != Boolean.class && type != Set.class && type != SafeSetting.class) {
+            throw new IllegalArgumentException("Settings of type " + type + " cannot be observed");
+        }
+        return mObservers.subscribe(settingKey, type, null, observer);
+    }
+
+    /**
+     * Observes the changes of a list setting, decoded as {@link #getListSetting(String, Class)},
+     * see {@link #observe(String, Class, SettingsObserver)}
+     *
+     * @param settingKey key
+     * @param clazz      the class of the elements
+     * @param observer   the observer
+     * @param <T>        generic type
+     * @return the subscription, to stop the notifications
+     * @since SDK 0.8.0
+     */
+    public <T> SettingsSubscription observeList(String settingKey, Class<T> clazz, SettingsObserver<List<T>> observer) {
+        return mObservers.subscribe(settingKey, List.class, clazz, observer);
+    }
+
+    /**
+     * Reads the value given to the observers
+     *
+     * @param settingKey   key
+     * @param type         the type of the value
+     * @param elementClass the class of the elements if the value is a list, null otherwise
+     * @return the value, null if there is no value of this type
+     */
+    Object readObserved(String settingKey, Class<?> type, Class<?> elementClass) {
+        if (elementClass != null) {
+            return getListSetting(settingKey, elementClass);
+        }
+        if (type == SafeSetting.class) {
+            awaitLoaded();
+            //waits for a batch that is changing the encryption flags
+            synchronized (mEncryptionIndex) {
+                return getSafeEncryptedSetting(settingKey);
+            }
+        }
+        SettingsStorage storage = storage();
+        if (!storage.contains(settingKey)) {
+            return null;
+        }
+        try {
+            if (type == String.class) {
+                return readString(storage, settingKey, null);
+            } else if (type == Integer.class) {
+                return storage.getInt(settingKey, Utils.INVALID_ID);
+            } else if (type == Long.class) {
+                return storage.getLong(settingKey, Utils.INVALID_LONG_ID);
+            } else if (type == Float.class) {
+                return storage.getFloat(settingKey, Utils.INVALID_FLOAT_ID);
+            } else if (type == Boolean.class) {
+                return storage.getBoolean(settingKey, false);
+            } else {
+                return storage.getStringSet(settingKey, null);
+            }
+        } catch (ClassCastException e) {
+            //saved with another type
+            return null;
+        }
+    }
+
+    /**
+     * Converts a list setting into json with the shared gson instance
+     *
+     * @param settingValue values (may be null)
+     * @return the json
+     */
+    String listToJson(List<?> settingValue) {
+        String json = mListCodec.toJson(settingValue);
+        recordSerialized(json.length());
+        return json;
+    }
+
+    /**
+     * Reads a string setting, from its blob if it was spilled, and decompresses it
+     *
+     * @param storage      the storage
+     * @param settingKey   key
+     * @param defaultValue default value
+     * @return the value, null if its blob or its compressed content is lost
+     */
+    private String readString(SettingsStorage storage, String settingKey, String defaultValue) {
+        String value = storage.getString(settingKey, null);
+        if (value == null) {
+            //the default value is not decoded
+            return defaultValue;
+        }
+        while (BlobStore.isReference(value)) {
+            String content = mBlobs != null ? mBlobs.read(value) : null;
+            if (content != null) {
+                value = content;
+                break;
+            }
+            //the blob is deleted once a newer write replaced the reference
+            String current = storage.getString(settingKey, null);
+            if (current == null) {
+                return defaultValue;
+            }
+            if (value.equals(current)) {
+                return null;
+            }
+            value = current;
+        }
+        return ValueCompressor.decompress(value);
+    }
+
+    /**
+     * Restores a string value read from the storage, see {@link #readString(SettingsStorage, String, String)}
+     *
+     * @param value the saved value (may be null)
+     * @return the value, null if its blob or its compressed content is lost
+     */
+    String decodeValue(String value) {
+        if (BlobStore.isReference(value)) {
+            value = mBlobs != null ? mBlobs.read(value) : null;
+        }
+        return ValueCompressor.decompress(value);
+    }
+
+    /**
+     * The blobs of the spilled values, only used once loaded
+     *
+     * @return the blobs, null if nothing was ever spilled
+     */
+    BlobStore blobs() {
+        return mBlobs;
+    }
+
+    /**
+     * Checks if a setting is saved, whatever its type
+     *
+     * @param settingKey the key
+     * @return true if the storage has a value for the key
+     */
+    boolean isSaved(String settingKey) {
+        return settingKey != null && storage().contains(settingKey);
+    }
+
+    /**
+     * Finds the blobs referenced by some settings, before a batch replaces them
+     *
+     * @param settingKeys the keys, or null for every setting
+     * @return the references by setting key
+     */
+    Map<String, String> blobReferences(Collection<String> settingKeys) {
+        SettingsStorage storage = storage();
+        Map<String, String> references = new HashMap<>();
+        if (settingKeys == null) {
+            for (Map.Entry<String, ?> entry : storage.getAll().entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof String && BlobStore.isReference((String) value)) {
+                    references.put(entry.getKey(), (String) value);
+                }
+            }
+            return references;
+        }
+        for (String settingKey : settingKeys) {
+            try {
+                String value = settingKey != null ? storage.getString(settingKey, null) : null;
+                if (BlobStore.isReference(value)) {
+                    references.put(settingKey, value);
+                }
+            } catch (ClassCastException e) {
+                //saved with another type
+            }
         }
-        mPreferences.edit().putString(settingKey, settingValue).apply();
+        return references;
+    }
+
+    /**
+     * Compresses a string value before it is saved, when the compression is enabled
+     *
+     * @param settingValue value (may be null)
+     * @return the value to save
+     */
+    String compress(String settingValue) {
+        String compressed = mCompressor != null ? mCompressor.compress(settingValue) : settingValue;
+        if (compressed != settingValue) {
+            recordCompression(settingValue.length(), compressed.length());
+            return compressed;
+        }
+        return ValueCompressor.escape(settingValue);
+    }
+
+    private void recordCompression(int inputSize, int outputSize) {
+        if (mMetrics != null) {
+            mMetrics.recordCompression(inputSize, outputSize);
+        }
+    }
+
+    /**
+     * Encrypts a value with the configured key, compressed first when the compression is enabled
+     *
+     * @param settingValue value
+     * @return the encrypted value encoded in Base64 or null if the value or the encryption key are null
+     */
+    String encryptValue(String settingKey, String settingValue) {
+        if (mCipher != null && settingValue != null) {
+            CipherEngine cipher = mRotation != null ? mRotation.cipherFor(settingKey) : mCipher;
+            //compressed first, encrypted content does not compress
+            byte[] compressed = mCompressor != null ? mCompressor.compressForEncryption(settingValue) : null;
+            byte[] resultValue;
+            if (compressed != null) {
+                recordCompression(settingValue.length(), compressed.length);
+                resultValue = cipher.encrypt(compressed);
+            } else {
+                resultValue = cipher.encrypt(ValueCompressor.escape(settingValue));
+            }
+            String encrypted = Base64.encodeToString(resultValue, Base64.URL_SAFE);
+            recordSerialized(encrypted.length());
+            return encrypted;
+        }
+        return null;
     }
 
     /**
@@ -291,7 +1158,9 @@ public class SettingsConnector {
      * @since SDK 0.1.0
      */
     public void saveSetting(String settingKey, boolean settingValue) {
-        mPreferences.edit().putBoolean(settingKey, settingValue).apply();
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE, start);
     }
 
     /**
@@ -302,11 +1171,9 @@ public class SettingsConnector {
      * @since SDK 0.1.0
      */
     public void saveSetting(String settingKey, Integer settingValue) {
-        if (settingValue == null) {
-            mPreferences.edit().putString(settingKey, null).apply();
-        } else {
-            mPreferences.edit().putInt(settingKey, settingValue).apply();
-        }
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE, start);
     }
 
     /**
@@ -330,11 +1197,9 @@ public class SettingsConnector {
      * @since SDK 0.1.0
      */
     public void saveSetting(String settingKey, Long settingValue) {
-        if (settingValue == null) {
-            mPreferences.edit().putString(settingKey, null).apply();
-        } else {
-            mPreferences.edit().putLong(settingKey, settingValue).apply();
-        }
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE, start);
     }
 
     /**
@@ -358,11 +1223,9 @@ public class SettingsConnector {
      * @since SDK 0.4.1
      */
     public void saveSetting(String settingKey, Float settingValue) {
-        if (settingValue == null) {
-            mPreferences.edit().putString(settingKey, null).apply();
-        } else {
-            mPreferences.edit().putFloat(settingKey, settingValue).apply();
-        }
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE, start);
     }
 
     /**
@@ -387,8 +1250,98 @@ public class SettingsConnector {
      * @since SDK 0.1.1
      */
     public <T> void saveSetting(String settingKey, List<T> settingValue) {
-        Gson gson = new Gson();
-        saveSetting(settingKey, gson.toJson(settingValue));
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE_LIST, start);
+    }
+
+    /**
+     * Save a list in the compact binary format, the class of the elements must have a codec registered through
+     * {@link SPref#registerBinaryCodec(Class, BinaryCodec)} (String and the boxed primitives have one by default).
+     * It is read back with {@link #getListSetting(String, Class)}
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @param clazz        the class of the elements
+     * @param <T>          generic type
+     * @since SDK 0.8.0
+     */
+    public <T> void saveBinaryListSetting(String settingKey, List<T> settingValue, Class<T> clazz) {
+        long start = startTime();
+        edit().saveBinary(settingKey, settingValue, clazz).apply();
+        record(SettingsOperation.SAVE_LIST, start);
+    }
+
+    /**
+     * Encodes a list setting in the binary format
+     *
+     * @param settingValue values
+     * @param clazz        the class of the elements
+     * @return the encoded list
+     */
+    @SuppressWarnings("unchecked")
+    <T> byte[] listToBinary(List<T> settingValue, Class<T> clazz) {
+        BinaryCodec<T> codec = (BinaryCodec<T>) mBinaryCodecs.get(clazz);
+        if (codec == null) {
+            throw new IllegalArgumentException("There is no binary codec registered for " + clazz);
+        }
+        try {
+            return BinaryListCodec.encode(settingValue, codec);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not encode the list", e);
+        }
+    }
+
+    /**
+     * Save a int array in a packed format, without boxing its values
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @since SDK 0.8.0
+     */
+    public void saveIntArraySetting(String settingKey, int[] settingValue) {
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE_LIST, start);
+    }
+
+    /**
+     * Save a long array in a packed format, without boxing its values
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @since SDK 0.8.0
+     */
+    public void saveLongArraySetting(String settingKey, long[] settingValue) {
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE_LIST, start);
+    }
+
+    /**
+     * Save a float array in a packed format, without boxing its values
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @since SDK 0.8.0
+     */
+    public void saveFloatArraySetting(String settingKey, float[] settingValue) {
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE_LIST, start);
+    }
+
+    /**
+     * Save a boolean array in a packed format, without boxing its values
+     *
+     * @param settingKey   key
+     * @param settingValue values (may be null)
+     * @since SDK 0.8.0
+     */
+    public void saveBooleanArraySetting(String settingKey, boolean[] settingValue) {
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE_LIST, start);
     }
 
     /**
@@ -399,7 +1352,284 @@ public class SettingsConnector {
      * @since SDK 0.3.0
      */
     public void saveSetting(String settingKey, Set<String> settingValue) {
-        mPreferences.edit().putStringSet(settingKey, settingValue).apply();
+        long start = startTime();
+        edit().save(settingKey, settingValue).apply();
+        record(SettingsOperation.SAVE, start);
+    }
+
+    /**
+     * Starts a batch of writes, nothing is written until {@link SettingsBatch#apply()} or {@link SettingsBatch#commit()} is called
+     *
+     * @return a new batch backed by a single editor
+     * @since SDK 0.8.0
+     */
+    public SettingsBatch edit() {
+        SettingsStorage storage = storage();
+        return new SettingsBatch(this, storage.edit(), mEncryptionIndex);
+    }
+
+    /**
+     * Runs several writes (typed, encrypted and removals) and applies them with a single disk write
+     *
+     * @param operation the writes to run
+     * @since SDK 0.8.0
+     */
+    public void batch(SettingsBatch.Operation operation) {
+        if (operation != null) {
+            long start = startTime();
+            SettingsBatch batch = edit();
+            operation.run(batch);
+            batch.apply();
+            record(SettingsOperation.SAVE, start);
+        }
+    }
+
+    /**
+     * Runs a batch operation on the write executor, see {@link SPref#asyncWrites(Executor, int)}.
+     * The asynchronous writes are written in the order they were made
+     *
+     * @param operation operation that adds the writes to the batch, runs on the write executor
+     * @return the future of the write, completes according to the {@link SettingsDurability} of this connector
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture batchAsync(SettingsBatch.Operation operation) {
+        return mWriter.enqueue(operation);
+    }
+
+    /**
+     * Save a string setting value on the write executor, see {@link #batchAsync(SettingsBatch.Operation)}
+     *
+     * @param settingKey   key
+     * @param settingValue value
+     * @return the future of the write
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture saveSettingAsync(final String settingKey, final String settingValue) {
+        return batchAsync(new SettingsBatch.Operation() {
+            @Override
+            public void run(SettingsBatch batch) {
+                batch.save(settingKey, settingValue);
+            }
+        });
+    }
+
+    /**
+     * Save a boolean setting value on the write executor, see {@link #batchAsync(SettingsBatch.Operation)}
+     *
+     * @param settingKey   key
+     * @param settingValue value
+     * @return the future of the write
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture saveSettingAsync(final String settingKey, final boolean settingValue) {
+        return batchAsync(new SettingsBatch.Operation() {
+            @Override
+            public void run(SettingsBatch batch) {
+                batch.save(settingKey, settingValue);
+            }
+        });
+    }
+
+    /**
+     * Save an integer setting value on the write executor, see {@link #batchAsync(SettingsBatch.Operation)}
+     *
+     * @param settingKey   key
+     * @param settingValue value
+     * @return the future of the write
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture saveSettingAsync(final String settingKey, final Integer settingValue) {
+        return batchAsync(new SettingsBatch.Operation() {
+            @Override
+            public void run(SettingsBatch batch) {
+                batch.save(settingKey, settingValue);
+            }
+        });
+    }
+
+    /**
+     * Save a long setting value on the write executor, see {@link #batchAsync(SettingsBatch.Operation)}
+     *
+     * @param settingKey   key
+     * @param settingValue value
+     * @return the future of the write
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture saveSettingAsync(final String settingKey, final Long settingValue) {
+        return batchAsync(new SettingsBatch.Operation() {
+            @Override
+            public void run(SettingsBatch batch) {
+                batch.save(settingKey, settingValue);
+            }
+        });
+    }
+
+    /**
+     * Save a float setting value on the write executor, see {@link #batchAsync(SettingsBatch.Operation)}
+     *
+     * @param settingKey   key
+     * @param settingValue value
+     * @return the future of the write
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture saveSettingAsync(final String settingKey, final Float settingValue) {
+        return batchAsync(new SettingsBatch.Operation() {
+            @Override
+            public void run(SettingsBatch batch) {
+                batch.save(settingKey, settingValue);
+            }
+        });
+    }
+
+    /**
+     * Encrypts and saves a string setting on the write executor, see {@link #saveSafeEncryptedSetting(String, String)}
+     *
+     * @param settingKey   key
+     * @param settingValue value
+     * @return the future of the write
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture saveSafeEncryptedSettingAsync(final String settingKey, final String settingValue) {
+        return batchAsync(new SettingsBatch.Operation() {
+            @Override
+            public void run(SettingsBatch batch) {
+                batch.saveEncrypted(settingKey, settingValue);
+            }
+        });
+    }
+
+    /**
+     * Removes a setting on the write executor, see {@link #batchAsync(SettingsBatch.Operation)}
+     *
+     * @param settingKey the setting key
+     * @return the future of the write
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture removeSettingAsync(final String settingKey) {
+        return batchAsync(new SettingsBatch.Operation() {
+            @Override
+            public void run(SettingsBatch batch) {
+                batch.remove(settingKey);
+            }
+        });
+    }
+
+    /**
+     * Re-encrypts the settings still encrypted with the key given to {@link SPref#rotateEncryption(byte[])} with the
+     * current key, in batches written with one write each. The progress is saved with each batch, a rotation
+     * interrupted (e.g. by the process being killed) resumes from there when this is called again. The encrypted
+     * settings can be read and written during the rotation
+     *
+     * @param executor  where the rotation runs (null for a new background thread)
+     * @param batchSize the number of settings re-encrypted by each write
+     * @return the future of the rotation, completes with false if the final commit failed (true right away if there is nothing to rotate)
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture rotateEncryptionKey(Executor executor, final int batchSize) {
+        final SettingsFuture future = new SettingsFuture();
+        if (!isRotatingKey()) {
+            future.complete(true);
+            return future;
+        }
+        Runnable rotation = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(mRotation.rotate(storage(), mEncryptionIndex, Math.max(1, batchSize)));
+                } catch (RuntimeException e) {
+                    future.fail(e);
+                }
+            }
+        };
+        if (executor != null) {
+            executor.execute(rotation);
+        } else {
+            new Thread(rotation, "SPref-KeyRotation").start();
+        }
+        return future;
+    }
+
+    /**
+     * Encrypts the settings accepted by a filter that are saved in plain text, as if they were saved again with
+     * {@link #saveSafeEncryptedSetting(String, String)}. The values are read at once, encrypted (by several threads
+     * when there are many of them) and written with their encryption flags by a single commit, so an interrupted
+     * migration changes nothing and can simply be started again. Only string settings are encrypted, the settings
+     * saved while the migration runs are kept as they are
+     *
+     * @param executor where the migration runs (null for a new background thread)
+     * @param filter   selects the keys, null for every setting
+     * @param listener the progress listener (may be null)
+     * @return the future of the migration, completes with the result of the commit
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture encryptSettings(Executor executor, final SettingsSnapshot.Filter filter, final SettingsProgressListener listener) {
+        final SettingsFuture future = new SettingsFuture();
+        Runnable migration = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mCipher == null) {
+                        throw new IllegalStateException("No encryption key, see SPref.encrypt");
+                    }
+                    long start = startTime();
+                    boolean result = new PlaintextMigration(SettingsConnector.this, storage(), mEncryptionIndex, filter, listener).run();
+                    record(SettingsOperation.SAVE_ENCRYPTED, start);
+                    future.complete(result);
+                } catch (RuntimeException e) {
+                    future.fail(e);
+                }
+            }
+        };
+        if (executor != null) {
+            executor.execute(migration);
+        } else {
+            new Thread(migration, "SPref-PlaintextMigration").start();
+        }
+        return future;
+    }
+
+    /**
+     * Encrypts some settings saved in plain text, see {@link #encryptSettings(Executor, SettingsSnapshot.Filter, SettingsProgressListener)}
+     *
+     * @param executor    where the migration runs (null for a new background thread)
+     * @param listener    the progress listener (may be null)
+     * @param settingKeys the keys to encrypt
+     * @return the future of the migration, completes with the result of the commit
+     * @since SDK 0.8.0
+     */
+    public SettingsFuture encryptSettings(Executor executor, SettingsProgressListener listener, String... settingKeys) {
+        final Set<String> keys = new HashSet<>(Arrays.asList(settingKeys));
+        return encryptSettings(executor, new SettingsSnapshot.Filter() {
+            @Override
+            public boolean accept(String settingKey) {
+                return keys.contains(settingKey);
+            }
+        }, listener);
+    }
+
+    /**
+     * Checks if some settings may still be encrypted with the previous key, see {@link #rotateEncryptionKey(Executor, int)}
+     *
+     * @return true until the rotation ends
+     * @since SDK 0.8.0
+     */
+    public boolean isRotatingEncryptionKey() {
+        return isRotatingKey();
+    }
+
+    boolean isRotatingKey() {
+        awaitLoaded();
+        return mRotation != null && mRotation.isRotating();
+    }
+
+    /**
+     * The checkpoint of the key rotation, see {@link KeyRotation#checkpoint()}
+     *
+     * @return the last migrated key, null if the key is not rotating
+     */
+    String rotationCheckpoint() {
+        awaitLoaded();
+        return mRotation != null ? mRotation.checkpoint() : null;
     }
 
     /**
@@ -410,9 +1640,9 @@ public class SettingsConnector {
      */
     public void removeSetting(String settingKey) {
         if (settingKey != null) {
-            mPreferences.edit().remove(settingKey).apply();
-           //making sure there is not a encryption setting
-            mPreferences.edit().remove(SPREF_ENCRYPTION_TAG + settingKey).apply();
+            long start = startTime();
+            edit().remove(settingKey).apply();
+            record(SettingsOperation.REMOVE, start);
         }
     }
 
@@ -424,9 +1654,13 @@ public class SettingsConnector {
      */
     public void removeBulkSetting(String... settingKey) {
         if (settingKey != null) {
+            long start = startTime();
+            SettingsBatch batch = edit();
             for (String aSettingKey : settingKey) {
-                removeSetting(aSettingKey);
+                batch.remove(aSettingKey);
             }
+            batch.apply();
+            record(SettingsOperation.REMOVE, start);
         }
     }
 
@@ -439,7 +1673,10 @@ public class SettingsConnector {
      */
     public void mergeSettings(File file, boolean shouldOverride) {
         if (file != null && file.exists()) {
-            MergeUtils.merge(file, mPreferences, shouldOverride);
+            long start = startTime();
+            MergeUtils.merge(file, storage(), shouldOverride);
+            onSettingsWritten(null);
+            record(SettingsOperation.MERGE, start);
         }
     }
 
@@ -449,6 +1686,8 @@ public class SettingsConnector {
      * @since SDK 0.1.0
      */
     public void removeAllSetting() {
-        mPreferences.edit().clear().apply();
+        long start = startTime();
+        edit().clear().apply();
+        record(SettingsOperation.REMOVE, start);
     }
 }
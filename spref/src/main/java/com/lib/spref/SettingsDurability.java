@@ -0,0 +1,32 @@
+package com.lib.spref;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static com.lib.spref.SettingsDurability.APPLY;
+import static com.lib.spref.SettingsDurability.COMMIT;
+import static com.lib.spref.SettingsDurability.GROUP_COMMIT;
+
+/**
+ * When the futures of the asynchronous writes of {@link SettingsConnector} complete, see {@link SPref#asyncWrites(java.util.concurrent.Executor, int)}
+ */
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({APPLY, GROUP_COMMIT, COMMIT})
+public @interface SettingsDurability {
+    /**
+     * Fire-and-forget: the writes are applied (visible to the reads) and written to disk in background, the future
+     * completes once they are applied
+     */
+    int APPLY = 0;
+    /**
+     * The writes queued while the previous ones are being written are committed together, each future completes once
+     * the single commit of its group is on disk
+     */
+    int GROUP_COMMIT = 1;
+    /**
+     * Every write is committed on its own, each future completes once its own commit is on disk
+     */
+    int COMMIT = 2;
+}
@@ -0,0 +1,120 @@
+package com.lib.spref;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an asynchronous write of {@link SettingsConnector}, completes with the result of the commit (true if the
+ * values were successfully written) once the write reached the {@link SettingsDurability} of the connector.
+ * {@link #get()} throws an {@link ExecutionException} if the write failed with an exception.
+ * The writes cannot be cancelled.
+ */
+@SuppressWarnings("unused")
+public final class SettingsFuture implements Future<Boolean> {
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    //guarded by this, null once the listeners were run
+    private List<Runnable> mListeners = new ArrayList<>();
+    private volatile boolean mResult;
+    private volatile Throwable mError;
+
+    SettingsFuture() {
+    }
+
+    /**
+     * Runs a listener once the write is done, right away if it is already done
+     *
+     * @param listener the listener
+     * @param executor where the listener runs
+     */
+    public void addListener(Runnable listener, Executor executor) {
+        synchronized (this) {
+            if (mListeners != null) {
+                mListeners.add(new ListenerTask(listener, executor));
+                return;
+            }
+        }
+        executor.execute(listener);
+    }
+
+    void complete(boolean result) {
+        done(result, null);
+    }
+
+    void fail(Throwable error) {
+        done(false, error);
+    }
+
+    private void done(boolean result, Throwable error) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (mListeners == null) {
+                return;
+            }
+            mResult = result;
+            mError = error;
+            listeners = mListeners;
+            mListeners = null;
+            mDone.countDown();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException, ExecutionException {
+        mDone.await();
+        return result();
+    }
+
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private Boolean result() throws ExecutionException {
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+
+    private static final class ListenerTask implements Runnable {
+        private final Runnable mListener;
+        private final Executor mExecutor;
+
+        ListenerTask(Runnable listener, Executor executor) {
+            mListener = listener;
+            mExecutor = executor;
+        }
+
+        @Override
+        public void run() {
+            mExecutor.execute(mListener);
+        }
+    }
+}
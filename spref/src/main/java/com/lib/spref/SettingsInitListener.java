@@ -0,0 +1,22 @@
+package com.lib.spref;
+
+/**
+ * Listener of the initialization of a {@link SettingsConnector} built with {@link SPref#buildSettingsAsync(java.util.concurrent.Executor, SettingsInitListener)}
+ */
+public interface SettingsInitListener {
+    /**
+     * The preferences were loaded and the default resource merged, called on the loading thread
+     *
+     * @param connector    the connector
+     * @param loadTimeMillis time spent loading
+     */
+    void onSettingsReady(SettingsConnector connector, long loadTimeMillis);
+
+    /**
+     * A call arrived before the connector was ready and had to wait, called on the thread that waited
+     *
+     * @param connector       the connector
+     * @param blockedTimeNanos time the call was blocked
+     */
+    void onSettingsBlocked(SettingsConnector connector, long blockedTimeNanos);
+}
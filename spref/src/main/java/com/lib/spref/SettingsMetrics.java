@@ -0,0 +1,238 @@
+package com.lib.spref;
+
+import com.lib.spref.internal.EncryptionState;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Opt-in metrics of a {@link SettingsConnector}, enabled with {@link SPref#metrics(SettingsMetrics)}.
+ * For each {@link SettingsOperation} it keeps the number of calls and a latency histogram with power of two buckets:
+ * bucket 0 counts the calls that took 0ns and bucket {@code i} the calls that took from {@code 2^(i-1)} to {@code 2^i - 1} ns.
+ * Recording a call is a couple of atomic increments, nothing is allocated.
+ * The values can be read at any time (e.g. periodically, to be forwarded to another telemetry system).
+ */
+@SuppressWarnings("unused")
+public final class SettingsMetrics {
+    /**
+     * Number of buckets of each histogram
+     */
+    public static final int BUCKET_COUNT = 65;
+    private static final int OPERATION_COUNT = 9;
+
+    private final AtomicLongArray mHistograms = new AtomicLongArray(OPERATION_COUNT * BUCKET_COUNT);
+    private final AtomicLongArray mCounts = new AtomicLongArray(OPERATION_COUNT);
+    private final AtomicLongArray mTotalTimes = new AtomicLongArray(OPERATION_COUNT);
+    private final AtomicLong mSerializedSize = new AtomicLong();
+    private final AtomicLong mEncryptionErrors = new AtomicLong();
+    private final AtomicLong mInternalErrors = new AtomicLong();
+    private final AtomicLong mCacheHits = new AtomicLong();
+    private final AtomicLong mCacheMisses = new AtomicLong();
+    private final AtomicLong mCompressedCount = new AtomicLong();
+    private final AtomicLong mCompressionInputSize = new AtomicLong();
+    private final AtomicLong mCompressionOutputSize = new AtomicLong();
+
+    /**
+     * Records a call of an operation
+     * @param operation the operation
+     * @param elapsedNanos the duration of the call
+     */
+    void record(@SettingsOperation int operation, long elapsedNanos) {
+        mCounts.incrementAndGet(operation);
+        mTotalTimes.addAndGet(operation, elapsedNanos);
+        mHistograms.incrementAndGet(operation * BUCKET_COUNT + bucket(elapsedNanos));
+    }
+
+    void recordSerialized(int size) {
+        mSerializedSize.addAndGet(size);
+    }
+
+    void recordCompression(int inputSize, int outputSize) {
+        mCompressedCount.incrementAndGet();
+        mCompressionInputSize.addAndGet(inputSize);
+        mCompressionOutputSize.addAndGet(outputSize);
+    }
+
+    void recordDecryptFailure(@EncryptionState int state) {
+        if (state == EncryptionState.INTERNAL_ERROR) {
+            mInternalErrors.incrementAndGet();
+        } else {
+            mEncryptionErrors.incrementAndGet();
+        }
+    }
+
+    void recordCacheHit(boolean hit) {
+        if (hit) {
+            mCacheHits.incrementAndGet();
+        } else {
+            mCacheMisses.incrementAndGet();
+        }
+    }
+
+    /**
+     * The bucket of a duration
+     * @param elapsedNanos the duration
+     * @return the bucket index
+     */
+    public static int bucket(long elapsedNanos) {
+        return elapsedNanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(elapsedNanos);
+    }
+
+    /**
+     * Highest duration counted by a bucket
+     * @param bucket the bucket index
+     * @return the upper bound in nanoseconds
+     */
+    public static long bucketUpperBoundNanos(int bucket) {
+        return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    /**
+     * Number of calls of an operation
+     * @param operation the operation
+     * @return the number of calls
+     */
+    public long getCount(@SettingsOperation int operation) {
+        return mCounts.get(operation);
+    }
+
+    /**
+     * Sum of the durations of the calls of an operation
+     * @param operation the operation
+     * @return the total time in nanoseconds
+     */
+    public long getTotalTimeNanos(@SettingsOperation int operation) {
+        return mTotalTimes.get(operation);
+    }
+
+    /**
+     * Copy of the latency histogram of an operation
+     * @param operation the operation
+     * @return the number of calls of each bucket, see {@link #bucketUpperBoundNanos(int)}
+     */
+    public long[] getHistogram(@SettingsOperation int operation) {
+        long[] histogram = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            histogram[i] = mHistograms.get(operation * BUCKET_COUNT + i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Approximated percentile of the latency of an operation, rounded up to the bound of its bucket
+     * @param operation the operation
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency in nanoseconds, 0 if there were no calls
+     */
+    public long getPercentileNanos(@SettingsOperation int operation, double percentile) {
+        long[] histogram = getHistogram(operation);
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0) {
+                return bucketUpperBoundNanos(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Size of the values produced by the serializers: characters of the json lists and the encrypted values, bytes of
+     * the binary lists and primitive arrays
+     * @return the serialized size
+     */
+    public long getSerializedSize() {
+        return mSerializedSize.get();
+    }
+
+    /**
+     * Number of encrypted reads that failed
+     * @param state {@link EncryptionState#ENCRYPTION_ERROR} or {@link EncryptionState#INTERNAL_ERROR}
+     * @return the number of failures
+     */
+    public long getDecryptFailures(@EncryptionState int state) {
+        switch (state) {
+            case EncryptionState.ENCRYPTION_ERROR:
+                return mEncryptionErrors.get();
+            case EncryptionState.INTERNAL_ERROR:
+                return mInternalErrors.get();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Number of list reads served by the list cache, see {@link SPref#cacheListSettings(int, boolean)}
+     * @return the cache hits
+     */
+    public long getCacheHits() {
+        return mCacheHits.get();
+    }
+
+    /**
+     * Number of list reads that missed the list cache
+     * @return the cache misses
+     */
+    public long getCacheMisses() {
+        return mCacheMisses.get();
+    }
+
+    /**
+     * Number of values saved compressed, see {@link SPref#compressValues(int)}
+     * @return the compressed values
+     */
+    public long getCompressedCount() {
+        return mCompressedCount.get();
+    }
+
+    /**
+     * Size of the compressed values before the compression, in characters
+     * @return the uncompressed size
+     */
+    public long getCompressionInputSize() {
+        return mCompressionInputSize.get();
+    }
+
+    /**
+     * Size of the compressed values as they are saved: characters, bytes before the encryption for the encrypted ones
+     * @return the compressed size
+     */
+    public long getCompressionOutputSize() {
+        return mCompressionOutputSize.get();
+    }
+
+    /**
+     * Ratio between the uncompressed and the compressed size of the compressed values
+     * @return the compression ratio, 0 if no value was compressed
+     */
+    public double getCompressionRatio() {
+        long outputSize = mCompressionOutputSize.get();
+        return outputSize > 0 ? (double) mCompressionInputSize.get() / outputSize : 0;
+    }
+
+    /**
+     * Resets every metric
+     */
+    public void reset() {
+        for (int i = 0; i < mHistograms.length(); i++) {
+            mHistograms.set(i, 0);
+        }
+        for (int i = 0; i < OPERATION_COUNT; i++) {
+            mCounts.set(i, 0);
+            mTotalTimes.set(i, 0);
+        }
+        mSerializedSize.set(0);
+        mEncryptionErrors.set(0);
+        mInternalErrors.set(0);
+        mCacheHits.set(0);
+        mCacheMisses.set(0);
+        mCompressedCount.set(0);
+        mCompressionInputSize.set(0);
+        mCompressionOutputSize.set(0);
+    }
+}
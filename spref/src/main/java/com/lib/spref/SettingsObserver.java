@@ -0,0 +1,17 @@
+package com.lib.spref;
+
+/**
+ * Observer of a single setting, see {@link SettingsConnector#observe(String, Class, SettingsObserver)}
+ *
+ * @param <T> the type of the setting
+ */
+public interface SettingsObserver<T> {
+    /**
+     * Called on the observer executor when the value of the setting changed, a burst of changes is delivered once
+     * with the last value
+     *
+     * @param settingKey the key
+     * @param value      the new value, decoded (null if the setting was removed)
+     */
+    void onSettingChanged(String settingKey, T value);
+}
@@ -0,0 +1,209 @@
+package com.lib.spref;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Key-indexed table of the {@link SettingsObserver}s of a connector.
+ * Changed keys are only marked as dirty, a single task on the observer executor then reads each dirty key once per type
+ * and notifies its observers if the value is not the one they were last given, so a burst of changes of a key is
+ * delivered once with its last value and a change never wakes up the observers of other keys.
+ */
+class SettingsObservers {
+    private final SettingsConnector mConnector;
+    //null for the main thread, whose executor is only created by the first subscription
+    private final Executor mExecutor;
+    private volatile Executor mMainThreadExecutor;
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Subscription<?>>> mSubscriptions = new ConcurrentHashMap<>();
+    private final Set<String> mDirtyKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicBoolean mDispatchScheduled = new AtomicBoolean();
+    private final Runnable mDispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param connector the connector that reads the values
+     * @param executor  the executor where the observers are notified, it must run the tasks asynchronously
+     *                  (null for the main thread)
+     */
+    SettingsObservers(SettingsConnector connector, Executor executor) {
+        mConnector = connector;
+        mExecutor = executor;
+    }
+
+    private Executor executor() {
+        if (mExecutor != null) {
+            return mExecutor;
+        }
+        if (mMainThreadExecutor == null) {
+            synchronized (this) {
+                if (mMainThreadExecutor == null) {
+                    mMainThreadExecutor = new MainThreadExecutor();
+                }
+            }
+        }
+        return mMainThreadExecutor;
+    }
+
+    /**
+     * Adds an observer
+     *
+     * @param settingKey   the key
+     * @param type         the type of the value
+     * @param elementClass the class of the elements if the value is a list, null otherwise
+     * @param observer     the observer
+     * @return the subscription
+     */
+    <T> SettingsSubscription subscribe(String settingKey, Class<?> type, Class<?> elementClass, SettingsObserver<T> observer) {
+        executor();
+        Subscription<T> subscription = new Subscription<>(settingKey, type, elementClass, observer);
+        CopyOnWriteArrayList<Subscription<?>> subscriptions = mSubscriptions.get(settingKey);
+        if (subscriptions == null) {
+            CopyOnWriteArrayList<Subscription<?>> previous = mSubscriptions.putIfAbsent(settingKey, subscriptions = new CopyOnWriteArrayList<>());
+            if (previous != null) {
+                subscriptions = previous;
+            }
+        }
+        subscriptions.add(subscription);
+        //read once registered, a change made meanwhile marks the key as dirty and is delivered
+        subscription.initialize(mConnector.readObserved(settingKey, type, elementClass));
+        return subscription;
+    }
+
+    private void unsubscribe(Subscription<?> subscription) {
+        CopyOnWriteArrayList<Subscription<?>> subscriptions = mSubscriptions.get(subscription.mKey);
+        if (subscriptions != null) {
+            subscriptions.remove(subscription);
+        }
+    }
+
+    /**
+     * Marks a key as changed
+     *
+     * @param settingKey the key, null if every setting may have changed
+     */
+    void onChanged(String settingKey) {
+        if (settingKey == null) {
+            if (mSubscriptions.isEmpty()) {
+                return;
+            }
+            mDirtyKeys.addAll(mSubscriptions.keySet());
+        } else if (mSubscriptions.containsKey(settingKey)) {
+            mDirtyKeys.add(settingKey);
+        } else {
+            return;
+        }
+        if (mDispatchScheduled.compareAndSet(false, true)) {
+            executor().execute(mDispatchTask);
+        }
+    }
+
+    private void dispatch() {
+        mDispatchScheduled.set(false);
+        for (String settingKey : mDirtyKeys) {
+            mDirtyKeys.remove(settingKey);
+            CopyOnWriteArrayList<Subscription<?>> subscriptions = mSubscriptions.get(settingKey);
+            if (subscriptions == null || subscriptions.isEmpty()) {
+                continue;
+            }
+            //observers of the same key and type share the read
+            Map<List<Class<?>>, Object> values = new HashMap<>();
+            for (Subscription<?> subscription : subscriptions) {
+                List<Class<?>> type = Arrays.<Class<?>>asList(subscription.mType, subscription.mElementClass);
+                Object value;
+                if (values.containsKey(type)) {
+                    value = values.get(type);
+                } else {
+                    value = mConnector.readObserved(settingKey, subscription.mType, subscription.mElementClass);
+                    values.put(type, value);
+                }
+                subscription.deliver(value);
+            }
+        }
+    }
+
+    private static boolean same(Object first, Object second) {
+        if (first instanceof SafeSetting && second instanceof SafeSetting) {
+            SafeSetting firstSetting = (SafeSetting) first;
+            SafeSetting secondSetting = (SafeSetting) second;
+            return firstSetting.getWasSuccessful() == secondSetting.getWasSuccessful()
+                    && same(firstSetting.getValue(), secondSetting.getValue());
+        }
+        return first == null ? second == null : first.equals(second);
+    }
+
+    private final class Subscription<T> implements SettingsSubscription {
+        final String mKey;
+        final Class<?> mType;
+        final Class<?> mElementClass;
+        private final SettingsObserver<T> mObserver;
+        //guarded by this, the initial value is either read by the subscription or by the first dispatch
+        private Object mLastValue;
+        private boolean mInitialized;
+        private volatile boolean mActive = true;
+
+        Subscription(String key, Class<?> type, Class<?> elementClass, SettingsObserver<T> observer) {
+            mKey = key;
+            mType = type;
+            mElementClass = elementClass;
+            mObserver = observer;
+        }
+
+        synchronized void initialize(Object value) {
+            if (!mInitialized) {
+                mLastValue = value;
+                mInitialized = true;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void deliver(Object value) {
+            synchronized (this) {
+                if (!mActive) {
+                    return;
+                }
+                if (!mInitialized) {
+                    //read after the subscription was registered, so it is at least as recent as the initial read
+                    initialize(value);
+                    return;
+                }
+                if (same(mLastValue, value)) {
+                    return;
+                }
+                mLastValue = value;
+            }
+            mObserver.onSettingChanged(mKey, (T) value);
+        }
+
+        @Override
+        public void unsubscribe() {
+            mActive = false;
+            SettingsObservers.this.unsubscribe(this);
+        }
+    }
+
+    private static final class MainThreadExecutor implements Executor {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.lib.spref;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static com.lib.spref.SettingsOperation.GET;
+import static com.lib.spref.SettingsOperation.GET_ENCRYPTED;
+import static com.lib.spref.SettingsOperation.GET_LIST;
+import static com.lib.spref.SettingsOperation.MERGE;
+import static com.lib.spref.SettingsOperation.READ_ALL;
+import static com.lib.spref.SettingsOperation.REMOVE;
+import static com.lib.spref.SettingsOperation.SAVE;
+import static com.lib.spref.SettingsOperation.SAVE_ENCRYPTED;
+import static com.lib.spref.SettingsOperation.SAVE_LIST;
+
+/**
+ * Operations of {@link SettingsConnector} measured by {@link SettingsMetrics}
+ */
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({GET, SAVE, GET_ENCRYPTED, SAVE_ENCRYPTED, GET_LIST, SAVE_LIST, REMOVE, MERGE, READ_ALL})
+public @interface SettingsOperation {
+    /**
+     * Typed reads (string, int, long, float, boolean)
+     */
+    int GET = 0;
+    /**
+     * Typed writes, including the batches of {@link SettingsConnector#batch(SettingsBatch.Operation)}
+     */
+    int SAVE = 1;
+    int GET_ENCRYPTED = 2;
+    int SAVE_ENCRYPTED = 3;
+    /**
+     * Reads of list and primitive array settings
+     */
+    int GET_LIST = 4;
+    /**
+     * Writes of list and primitive array settings
+     */
+    int SAVE_LIST = 5;
+    int REMOVE = 6;
+    /**
+     * Merges of default files, including the one of the initialization
+     */
+    int MERGE = 7;
+    /**
+     * Snapshots of {@link SettingsConnector#snapshot(String...)} and {@link SettingsConnector#readAll(SettingsSnapshot.Filter)}
+     */
+    int READ_ALL = 8;
+}
@@ -0,0 +1,14 @@
+package com.lib.spref;
+
+/**
+ * Progress of {@link SettingsConnector#encryptSettings(java.util.concurrent.Executor, SettingsSnapshot.Filter, SettingsProgressListener)}
+ */
+public interface SettingsProgressListener {
+    /**
+     * Called while the values are encrypted, possibly from several threads at once, and once more after they were written
+     *
+     * @param done  the number of settings processed
+     * @param total the number of settings to migrate
+     */
+    void onProgress(int done, int total);
+}
@@ -0,0 +1,140 @@
+package com.lib.spref;
+
+import android.content.Context;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Connectors built by {@link SPref#buildSettings()}, {@link SPref#buildSettingsAsync(Executor)} and
+ * {@link SPref#buildSettings(Context)}, shared by every build
+ * with an equal {@link SettingsConfig}, so building the settings again only costs a map lookup instead of opening
+ * the storage and merging the default resource again. Connectors of the preferences opened with
+ * {@link Context#MODE_MULTI_PROCESS} are not shared, as in that mode each build reloads the file.
+ */
+final class SettingsRegistry {
+    //configurations with new codecs, factories or metrics on every build are never found again, past this size the
+    //least recently used connector is only weakly kept: it is shared again while something still uses it, so a file
+    //never gets a second connector that would not see the cache and index of the first one
+    static final int MAX_CONNECTORS = 16;
+
+    //in access order, guarded by itself and only held for the lookup, the connectors are built outside of it
+    private static final Map<SettingsConfig, Holder> sConnectors = new LinkedHashMap<SettingsConfig, Holder>(MAX_CONNECTORS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SettingsConfig, Holder> eldest) {
+            SettingsConnector connector = eldest.getValue().mConnector;
+            if (size() <= MAX_CONNECTORS || connector == null) {
+                //a connector being built is dropped once built
+                return false;
+            }
+            sEvicted.put(eldest.getKey(), new WeakReference<>(connector));
+            return true;
+        }
+    };
+    //the connectors dropped from sConnectors, guarded by sConnectors
+    private static final Map<SettingsConfig, WeakReference<SettingsConnector>> sEvicted = new HashMap<>();
+
+    private SettingsRegistry() {
+    }
+
+    /**
+     * Gets the connector of a configuration, building it on the first call
+     *
+     * @param context any context, only its application context is used
+     * @param config  the configuration
+     * @return the connector
+     */
+    static SettingsConnector get(Context context, SettingsConfig config) {
+        return get(context, config, null, null);
+    }
+
+    /**
+     * Gets the connector of a configuration, building it on the first call
+     *
+     * @param context  any context, only its application context is used
+     * @param config   the configuration
+     * @param executor if not null a connector built by this call is loaded on this executor
+     * @param listener listener of the initialization (may be null), notified right away if the connector is ready
+     * @return the connector
+     */
+    static SettingsConnector get(Context context, SettingsConfig config, Executor executor, SettingsInitListener listener) {
+        if (config.isMultiProcessMode()) {
+            //each build opens the preferences again, which reloads the values written by the other processes
+            return new SettingsConnector(applicationContext(context), config, executor, listener);
+        }
+        Holder holder;
+        synchronized (sConnectors) {
+            holder = sConnectors.get(config);
+            if (holder == null) {
+                holder = new Holder(evicted(config));
+                sConnectors.put(config, holder);
+            }
+        }
+        return holder.get(context, config, executor, listener);
+    }
+
+    /**
+     * Takes back the connector of a configuration dropped from the map, if it is still reachable, sConnectors must be
+     * held
+     */
+    private static SettingsConnector evicted(SettingsConfig config) {
+        WeakReference<SettingsConnector> reference = sEvicted.remove(config);
+        for (Iterator<WeakReference<SettingsConnector>> iterator = sEvicted.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().get() == null) {
+                iterator.remove();
+            }
+        }
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * Forgets every connector, the next builds open the storages again
+     */
+    static void clear() {
+        synchronized (sConnectors) {
+            sConnectors.clear();
+            sEvicted.clear();
+        }
+    }
+
+    private static Context applicationContext(Context context) {
+        //the connector outlives the caller, an activity must not be kept
+        Context applicationContext = context != null ? context.getApplicationContext() : null;
+        return applicationContext != null ? applicationContext : context;
+    }
+
+    /**
+     * The connector of a configuration, a connector is only built once per configuration: concurrent builds of the
+     * same configuration wait for it instead of merging twice, builds of other configurations do not wait
+     */
+    private static final class Holder {
+        private volatile SettingsConnector mConnector;
+
+        Holder(SettingsConnector connector) {
+            mConnector = connector;
+        }
+
+        SettingsConnector get(Context context, SettingsConfig config, Executor executor, SettingsInitListener listener) {
+            SettingsConnector connector = mConnector;
+            if (connector == null || connector.hasFailedToLoad()) {
+                synchronized (this) {
+                    connector = mConnector;
+                    if (connector == null || connector.hasFailedToLoad()) {
+                        //a failed asynchronous load is retried by the next build, as a failed synchronous one
+                        connector = new SettingsConnector(applicationContext(context), config, executor, listener);
+                        mConnector = connector;
+                        return connector;
+                    }
+                }
+            }
+            if (listener != null) {
+                connector.addInitListener(listener);
+            }
+            return connector;
+        }
+    }
+}
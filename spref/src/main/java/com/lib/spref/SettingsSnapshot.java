@@ -0,0 +1,233 @@
+package com.lib.spref;
+
+import com.lib.spref.Utils.Utils;
+import com.lib.spref.codec.PrimitiveArrayCodec;
+import com.lib.spref.internal.EncryptionState;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable copy of several settings, read at once by {@link SettingsConnector#snapshot(String...)} or
+ * {@link SettingsConnector#readAll(Filter)}. The getters behave as the ones of {@link SettingsConnector} but never
+ * touch the storage, so the values stay consistent with each other whatever is saved meanwhile.
+ * The encrypted settings were already decrypted when the snapshot was taken.
+ */
+@SuppressWarnings("unused")
+public final class SettingsSnapshot {
+    /**
+     * Selects the keys of a snapshot
+     */
+    public interface Filter {
+        /**
+         * @param settingKey the key of a saved setting
+         * @return true if the setting should be part of the snapshot
+         */
+        boolean accept(String settingKey);
+    }
+
+    private final SettingsConnector mConnector;
+    private final Map<String, Object> mValues;
+    private final Map<String, SafeSetting> mDecrypted;
+
+    /**
+     * Constructor
+     *
+     * @param connector the connector whose codecs decode the lists
+     * @param values    the saved values, owned by the snapshot
+     * @param decrypted the decrypted value of each encrypted key, owned by the snapshot
+     */
+    SettingsSnapshot(SettingsConnector connector, Map<String, Object> values, Map<String, SafeSetting> decrypted) {
+        mConnector = connector;
+        mValues = values;
+        mDecrypted = decrypted;
+    }
+
+    /**
+     * Checks if a setting is part of the snapshot
+     *
+     * @param settingKey key
+     * @return true if the setting was saved when the snapshot was taken
+     */
+    public boolean contains(String settingKey) {
+        return mValues.containsKey(settingKey);
+    }
+
+    /**
+     * The keys of the snapshot
+     *
+     * @return the keys that were saved when the snapshot was taken
+     */
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(mValues.keySet());
+    }
+
+    /**
+     * Number of settings of the snapshot
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        return mValues.size();
+    }
+
+    /**
+     * Retrieve string setting
+     *
+     * @param settingKey key
+     * @return setting value (the encrypted content if the key is encrypted) or null if not found
+     */
+    public String getSetting(String settingKey) {
+        return getSetting(settingKey, null);
+    }
+
+    /**
+     * Retrieve string setting
+     *
+     * @param settingKey   key
+     * @param defaultValue default value
+     * @return setting value (the encrypted content if the key is encrypted)
+     */
+    public String getSetting(String settingKey, String defaultValue) {
+        Object value = mValues.get(settingKey);
+        return value != null ? (String) value : defaultValue;
+    }
+
+    /**
+     * Retrieve string setting, if is encrypted returned the decrypted value, if not, returns only the value as {@link #getSetting(String)}
+     *
+     * @param settingKey key
+     * @return an object containing if the key was successfully decrypted and its value
+     */
+    public SafeSetting getSafeEncryptedSetting(String settingKey) {
+        SafeSetting setting = mDecrypted.get(settingKey);
+        return setting != null ? setting : new SafeSetting(EncryptionState.SUCCESS, getSetting(settingKey));
+    }
+
+    /**
+     * Checks if a key was encrypted when the snapshot was taken
+     *
+     * @param settingKey key
+     * @return if is encrypted or not
+     */
+    public boolean isKeyEncrypted(String settingKey) {
+        return mDecrypted.containsKey(settingKey);
+    }
+
+    /**
+     * Retrieve int setting
+     *
+     * @param settingKey key
+     * @return setting value (return -1 if not found)
+     */
+    public int getIntSetting(String settingKey) {
+        Object value = mValues.get(settingKey);
+        return value != null ? (Integer) value : Utils.INVALID_ID;
+    }
+
+    /**
+     * Retrieve long setting
+     *
+     * @param settingKey key
+     * @return setting value (return -1 if not found)
+     */
+    public long getLongSetting(String settingKey) {
+        Object value = mValues.get(settingKey);
+        return value != null ? (Long) value : Utils.INVALID_LONG_ID;
+    }
+
+    /**
+     * Retrieve float setting
+     *
+     * @param settingKey key
+     * @return setting value (return -1 if not found)
+     */
+    public float getFloatSetting(String settingKey) {
+        Object value = mValues.get(settingKey);
+        return value != null ? (Float) value : Utils.INVALID_FLOAT_ID;
+    }
+
+    /**
+     * Retrieve boolean setting
+     *
+     * @param settingKey   key
+     * @param defaultValue default value
+     * @return setting value
+     */
+    public boolean getBooleanSetting(String settingKey, boolean defaultValue) {
+        Object value = mValues.get(settingKey);
+        return value != null ? (Boolean) value : defaultValue;
+    }
+
+    /**
+     * Retrieve string set setting
+     *
+     * @param settingKey key
+     * @return an unmodifiable view of the setting value or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSetSetting(String settingKey) {
+        Object value = mValues.get(settingKey);
+        return value != null ? Collections.unmodifiableSet((Set<String>) value) : null;
+    }
+
+    /**
+     * Retrieve list setting saved either as json or with a registered {@link com.lib.spref.codec.BinaryCodec},
+     * the list is decoded on every call
+     *
+     * @param settingKey key
+     * @param clazz      the class of the elements
+     * @param <T>        generic type
+     * @return setting value or null if not found
+     */
+    public <T> List<T> getListSetting(String settingKey, Class<T> clazz) {
+        return mConnector.decodeList(mValues.get(settingKey), clazz);
+    }
+
+    /**
+     * Retrieve int array setting
+     *
+     * @param settingKey key
+     * @return setting values or null if there is no int array saved with this key
+     */
+    public int[] getIntArraySetting(String settingKey) {
+        return PrimitiveArrayCodec.decodeInts(getBytes(settingKey));
+    }
+
+    /**
+     * Retrieve long array setting
+     *
+     * @param settingKey key
+     * @return setting values or null if there is no long array saved with this key
+     */
+    public long[] getLongArraySetting(String settingKey) {
+        return PrimitiveArrayCodec.decodeLongs(getBytes(settingKey));
+    }
+
+    /**
+     * Retrieve float array setting
+     *
+     * @param settingKey key
+     * @return setting values or null if there is no float array saved with this key
+     */
+    public float[] getFloatArraySetting(String settingKey) {
+        return PrimitiveArrayCodec.decodeFloats(getBytes(settingKey));
+    }
+
+    /**
+     * Retrieve boolean array setting
+     *
+     * @param settingKey key
+     * @return setting values or null if there is no boolean array saved with this key
+     */
+    public boolean[] getBooleanArraySetting(String settingKey) {
+        return PrimitiveArrayCodec.decodeBooleans(getBytes(settingKey));
+    }
+
+    private byte[] getBytes(String settingKey) {
+        Object value = mValues.get(settingKey);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+}
@@ -0,0 +1,11 @@
+package com.lib.spref;
+
+/**
+ * Subscription of a {@link SettingsObserver}
+ */
+public interface SettingsSubscription {
+    /**
+     * Stops the notifications, a notification already being delivered may still arrive
+     */
+    void unsubscribe();
+}
@@ -0,0 +1,155 @@
+package com.lib.spref;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queue of the asynchronous writes of a connector. The writes are run in order by a single task at a time on the
+ * write executor (which may have several threads), that task takes every queued write and writes them according to
+ * the {@link SettingsDurability}, so the writes that arrive during a commit are grouped in the next one.
+ */
+class SettingsWriter {
+    private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SPref-SettingsWriter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final SettingsConnector mConnector;
+    private final Executor mExecutor;
+    @SettingsDurability
+    private final int mDurability;
+    private final ConcurrentLinkedQueue<Write> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private final Object mDrainLock = new Object();
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param connector  the connector that is written
+     * @param executor   the executor where the writes run (null for a shared background thread)
+     * @param durability when the futures complete
+     */
+    SettingsWriter(SettingsConnector connector, Executor executor, @SettingsDurability int durability) {
+        mConnector = connector;
+        mExecutor = executor != null ? executor : sWriteExecutor;
+        mDurability = durability;
+    }
+
+    /**
+     * Queues a write
+     *
+     * @param operation the writes, run on the write executor
+     * @return the future of the write
+     */
+    SettingsFuture enqueue(SettingsBatch.Operation operation) {
+        SettingsFuture future = new SettingsFuture();
+        mQueue.add(new Write(operation, future));
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            try {
+                mExecutor.execute(mDrainTask);
+            } catch (RuntimeException e) {
+                //rejected by a bounded executor, the queued writes fail instead of waiting forever
+                mDrainScheduled.set(false);
+                failQueued(e);
+            }
+        }
+        return future;
+    }
+
+    private void failQueued(Throwable error) {
+        Write write;
+        while ((write = mQueue.poll()) != null) {
+            write.mFuture.fail(error);
+        }
+    }
+
+    private void drain() {
+        //one drain at a time, so the writes keep their order even on an executor with several threads
+        synchronized (mDrainLock) {
+            mDrainScheduled.set(false);
+            List<Write> writes = new ArrayList<>();
+            Write write;
+            while ((write = mQueue.poll()) != null) {
+                writes.add(write);
+            }
+            if (writes.isEmpty()) {
+                return;
+            }
+            if (mDurability == SettingsDurability.COMMIT) {
+                for (Write single : writes) {
+                    List<Write> group = new ArrayList<>(1);
+                    group.add(single);
+                    write(group, true);
+                }
+            } else {
+                write(writes, mDurability == SettingsDurability.GROUP_COMMIT);
+            }
+        }
+    }
+
+    /**
+     * Writes a group of writes with a single editor
+     *
+     * @param writes the writes, in order
+     * @param commit if the editor is committed, otherwise it is applied
+     */
+    private void write(List<Write> writes, boolean commit) {
+        long start = mConnector.startTime();
+        List<Write> written = new ArrayList<>(writes.size());
+        try {
+            SettingsBatch batch = mConnector.edit().groupWrites();
+            for (Write write : writes) {
+                //each operation writes into its own staging batch, so an operation that fails writes nothing
+                SettingsBatch staged = batch.stage();
+                try {
+                    write.mOperation.run(staged);
+                } catch (RuntimeException e) {
+                    write.mFuture.fail(e);
+                    continue;
+                }
+                batch.merge(staged);
+                written.add(write);
+            }
+            boolean result = commit ? batch.commit() : apply(batch);
+            mConnector.record(SettingsOperation.SAVE, start);
+            for (Write write : written) {
+                write.mFuture.complete(result);
+            }
+        } catch (RuntimeException e) {
+            for (Write write : writes) {
+                write.mFuture.fail(e);
+            }
+        }
+    }
+
+    private static boolean apply(SettingsBatch batch) {
+        batch.apply();
+        return true;
+    }
+
+    private static final class Write {
+        final SettingsBatch.Operation mOperation;
+        final SettingsFuture mFuture;
+
+        Write(SettingsBatch.Operation operation, SettingsFuture future) {
+            mOperation = operation;
+            mFuture = future;
+        }
+    }
+}
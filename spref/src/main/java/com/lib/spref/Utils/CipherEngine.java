@@ -0,0 +1,108 @@
+package com.lib.spref.Utils;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps the key schedule and one initialized {@link Cipher} per mode and per thread, so the provider lookup
+ * and the {@link Cipher#init(int, java.security.Key)} are done once instead of on every encrypt/decrypt.
+ * Ciphers are never shared between threads.
+ */
+public class CipherEngine {
+    private final SecretKeySpec mSecretKey;
+    private final ThreadLocal<Cipher> mEncryptCipher = new CipherThreadLocal(Cipher.ENCRYPT_MODE);
+    private final ThreadLocal<Cipher> mDecryptCipher = new CipherThreadLocal(Cipher.DECRYPT_MODE);
+
+    /**
+     * Constructor
+     * @param seed the key with at least 128bits
+     */
+    public CipherEngine(byte[] seed) {
+        mSecretKey = new SecretKeySpec(seed, EncryptionUtils.SECRET_KEY);
+    }
+
+    /**
+     * Encrypts a string into an byte[] using AES ECB
+     * @param clearMessage the message to encrypt
+     * @return encrypted information in byte array format or null if there was an error
+     */
+    public byte[] encrypt(String clearMessage) {
+        try {
+            return encrypt(clearMessage.getBytes(EncryptionUtils.STRING_ENCODING));
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Encrypts a byte[] using AES ECB
+     * @param clearContent the content to encrypt
+     * @return encrypted information in byte array format or null if there was an error
+     */
+    public byte[] encrypt(byte[] clearContent) {
+        return doFinal(mEncryptCipher, clearContent);
+    }
+
+    /**
+     * Decrypts an byte[] into a string using AES ECB
+     * @param content message to decrypt
+     * @return the string decrypted or null if there was an error
+     */
+    public String decrypt(byte[] content) {
+        byte[] decrypted = decryptBytes(content);
+        if (decrypted == null) {
+            return null;
+        }
+        try {
+            return new String(decrypted, EncryptionUtils.STRING_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decrypts an byte[] using AES ECB
+     * @param content content to decrypt
+     * @return the decrypted content or null if there was an error
+     */
+    public byte[] decryptBytes(byte[] content) {
+        return doFinal(mDecryptCipher, content);
+    }
+
+    private byte[] doFinal(ThreadLocal<Cipher> ciphers, byte[] content) {
+        Cipher cipher = ciphers.get();
+        if (cipher == null || content == null) {
+            return null;
+        }
+        try {
+            //doFinal resets the cipher to its initialized state so it can be reused by the next call
+            return cipher.doFinal(content);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            //the state of the cipher is unknown after a failure, a new one is created on the next call
+            ciphers.remove();
+            return null;
+        }
+    }
+
+    private class CipherThreadLocal extends ThreadLocal<Cipher> {
+        private final int mMode;
+
+        CipherThreadLocal(int mode) {
+            mMode = mode;
+        }
+
+        @Override
+        protected Cipher initialValue() {
+            try {
+                Cipher cipher = Cipher.getInstance(EncryptionUtils.ALGORITHM);
+                cipher.init(mMode, mSecretKey);
+                return cipher;
+            } catch (GeneralSecurityException e) {
+                return null;
+            }
+        }
+    }
+}
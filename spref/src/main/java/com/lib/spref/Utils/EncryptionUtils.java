@@ -16,14 +16,15 @@ import javax.crypto.spec.SecretKeySpec;
  * @author lpereira on 05/05/2016.
  */
 public class EncryptionUtils {
-    private static final String ALGORITHM = "AES/ECB/PKCS5Padding";
+    static final String ALGORITHM = "AES/ECB/PKCS5Padding";
     private static final String ALGORITHM_SHA1 = "SHA-1";
-    private static final String SECRET_KEY = "AES";
-    private static final String STRING_ENCODING = "UTF-8";
+    static final String SECRET_KEY = "AES";
+    static final String STRING_ENCODING = "UTF-8";
 
 
     /**
      * Encrypts a string into an byte[] using AES ECB
+     * When encrypting several values with the same key prefer {@link CipherEngine} which reuses the cipher
      * @param seed key to be used
      * @param clearMessage the message to encrypt
      * @return encrypted information in byte array format
@@ -41,6 +42,7 @@ public class EncryptionUtils {
 
     /**
      * Decrypts an byte[] into a string using AES ECB
+     * When decrypting several values with the same key prefer {@link CipherEngine} which reuses the cipher
      * @param seed key
      * @param content message to decrypt
      * @return the string decrypted
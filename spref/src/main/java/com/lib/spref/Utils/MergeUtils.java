@@ -2,25 +2,32 @@ package com.lib.spref.Utils;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.sax.Element;
-import android.sax.RootElement;
 import android.util.Xml;
 
-import com.lib.spref.internal.CustomTextElementListener;
+import com.lib.spref.internal.ValueCompressor;
+import com.lib.spref.storage.SettingsStorage;
+import com.lib.spref.storage.SharedPreferencesStorage;
 
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.zip.CRC32;
 
 /**
  * @author lpereira on 21/04/2016.
  */
 public class MergeUtils {
     public static final String DEFAULT_FILE_ATTR_NAME = "name";
+    public static final String MERGE_FINGERPRINT_TAG = "#SPREF_MERGE_FINGERPRINT#";
+    private static final String STRING_ENCODING = "UTF-8";
+    private static final int BUFFER_SIZE = 8192;
     private static final String DEFAULT_FILE_DEFAULT_ELEMENT = "default";
     private static final String DEFAULT_FILE_STRING_ELEMENT = "string";
     private static final String DEFAULT_FILE_INTEGER_ELEMENT = "integer";
@@ -29,110 +36,107 @@ public class MergeUtils {
     private static final String DEFAULT_FILE_BOOLEAN_ELEMENT = "boolean";
 
     public static void merge(Context context, int resource, SharedPreferences preferences, boolean shouldOverride) {
-        mergeWithLocalFile(context.getResources().openRawResource(resource), preferences, shouldOverride);
+        merge(context, resource, new SharedPreferencesStorage(preferences), shouldOverride);
+    }
+
+    public static void merge(Context context, int resource, SettingsStorage storage, boolean shouldOverride) {
+        mergeWithLocalFile(context.getResources().openRawResource(resource), storage, shouldOverride, null, null);
+    }
+
+    /**
+     * Merges a resource only if its content changed since the last merge, the fingerprint (content hash and size) of the
+     * merged resource is stored together with the merged values
+     * @param context the context
+     * @param resource the default resource file
+     * @param storage the storage
+     * @param shouldOverride if the values already on the preferences should be overridden
+     * @param force if the resource should be merged even if its fingerprint did not change
+     * @return true if the resource was merged, false if it was skipped or could not be read
+     */
+    public static boolean mergeIfChanged(Context context, int resource, SettingsStorage storage, boolean shouldOverride, boolean force) {
+        byte[] content;
+        try {
+            content = readFully(context.getResources().openRawResource(resource));
+        } catch (Exception e) {
+            return false;
+        }
+
+        String fingerprintKey = MERGE_FINGERPRINT_TAG + resource;
+        String fingerprint = fingerprint(content, shouldOverride);
+        if (!force && fingerprint.equals(storage.getString(fingerprintKey, null))) {
+            return false;
+        }
+        mergeWithLocalFile(new ByteArrayInputStream(content), storage, shouldOverride, fingerprintKey, fingerprint);
+        return true;
     }
 
     public static void merge(File file, SharedPreferences preferences, boolean shouldOverride) {
+        merge(file, new SharedPreferencesStorage(preferences), shouldOverride);
+    }
+
+    public static void merge(File file, SettingsStorage storage, boolean shouldOverride) {
         try {
-            mergeWithLocalFile(new FileInputStream(file), preferences, shouldOverride);
+            mergeWithLocalFile(new FileInputStream(file), storage, shouldOverride, null, null);
         } catch (FileNotFoundException e) {
             //ignored the file should be proper handler by the user that call it
         }
     }
 
-    //This should be refactored in the future
-    private static void mergeWithLocalFile(InputStream defaultLanguageFileStream, SharedPreferences preferences, boolean shouldOverride) {
+    /**
+     * Streams the default file and writes every entry directly into a single editor, which is applied once at the end.
+     * If the file cannot be parsed nothing is written.
+     * @param defaultLanguageFileStream the xml stream
+     * @param storage the storage
+     * @param shouldOverride if the values already on the preferences should be overridden
+     * @param fingerprintKey the key to store the fingerprint of the file (may be null)
+     * @param fingerprint the fingerprint of the file, written in the same editor as the values
+     */
+    private static void mergeWithLocalFile(InputStream defaultLanguageFileStream, SettingsStorage storage, boolean shouldOverride,
+                                           String fingerprintKey, String fingerprint) {
         try {
-            RootElement rootElement = new RootElement(DEFAULT_FILE_DEFAULT_ELEMENT);
-            Element textElement = rootElement.getChild(DEFAULT_FILE_STRING_ELEMENT);
-            Element integerElement = rootElement.getChild(DEFAULT_FILE_INTEGER_ELEMENT);
-            Element floatElement = rootElement.getChild(DEFAULT_FILE_FLOAT_ELEMENT);
-            Element longElement = rootElement.getChild(DEFAULT_FILE_LONG_ELEMENT);
-            Element booleanElement = rootElement.getChild(DEFAULT_FILE_BOOLEAN_ELEMENT);
-
-            final Map<String, String> stringsToAdd = new HashMap<>();
-            final Map<String, Integer> integerToAdd = new HashMap<>();
-            final Map<String, Float> floatToAdd = new HashMap<>();
-            final Map<String, Long> longToAdd = new HashMap<>();
-            final Map<String, Boolean> booleanToAdd = new HashMap<>();
-
-            textElement.setTextElementListener(new CustomTextElementListener(preferences, shouldOverride) {
-                @Override
-                public void addValue(String key, String value) {
-                    try {
-                        stringsToAdd.put(key, value);
-                    }catch (Exception e) {
-                        //Cast exception
-                        stringsToAdd.put(key, null);
-                    }
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+            parser.setInput(defaultLanguageFileStream, STRING_ENCODING);
+
+            SettingsStorage.Editor editor = null;
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG && parser.getDepth() == 1
+                        && !DEFAULT_FILE_DEFAULT_ELEMENT.equals(parser.getName())) {
+                    //not a default settings file
+                    return;
                 }
-            });
-
-            floatElement.setTextElementListener(new CustomTextElementListener(preferences, shouldOverride) {
-                @Override
-                public  void addValue(String key, String value) {
-                    try {
-                        floatToAdd.put(key, Float.valueOf(value));
-                    }catch (Exception e){
-                        floatToAdd.put(key, Utils.INVALID_FLOAT_ID);
+                //only the direct children of the root element are settings
+                if (eventType == XmlPullParser.START_TAG && parser.getDepth() == 2) {
+                    String key = parser.getAttributeValue(null, DEFAULT_FILE_ATTR_NAME);
+                    String type = parser.getName();
+                    if (!isValueElement(type)) {
+                        //unknown elements are ignored with everything they contain
+                        skip(parser);
+                        eventType = parser.next();
+                        continue;
                     }
-                }
-            });
-
-            integerElement.setTextElementListener(new CustomTextElementListener(preferences, shouldOverride) {
-                        @Override
-                        public void addValue(String key, String value) {
-                            try {
-                                integerToAdd.put(key, Integer.valueOf(value));
-                            }catch (Exception e){
-                                integerToAdd.put(key, Utils.INVALID_ID);
-                            }
-                        }
-                    });
-
-            longElement.setTextElementListener(new CustomTextElementListener(preferences, shouldOverride) {
-                        @Override
-                        public void addValue(String key, String value) {
-                            try {
-                                longToAdd.put(key, Long.valueOf(value));
-                            }catch (Exception e){
-                                longToAdd.put(key, Utils.INVALID_LONG_ID);
-                            }
+                    String value = readText(parser);
+                    if (key != null && (shouldOverride || !storage.contains(key))) {
+                        if (editor == null) {
+                            editor = storage.edit();
                         }
-                    });
-            booleanElement.setTextElementListener(new CustomTextElementListener(preferences, shouldOverride) {
-                        @Override
-                        public void addValue(String key, String value) {
-                            try {
-                                booleanToAdd.put(key, Boolean.valueOf(value));
-                            }catch (Exception e){
-                                booleanToAdd.put(key, false);
-                            }
-                        }
-                    });
-
-            Xml.parse(defaultLanguageFileStream, Xml.Encoding.UTF_8, rootElement.getContentHandler());
-
-            if (!stringsToAdd.isEmpty()) {
-                save(preferences, stringsToAdd);
-            }
-
-            if (!integerToAdd.isEmpty()) {
-                saveInt(preferences, integerToAdd);
-            }
-
-            if (!floatToAdd.isEmpty()) {
-                saveFloat(preferences, floatToAdd);
+                        addValue(editor, type, key, value);
+                    }
+                }
+                eventType = parser.next();
             }
 
-            if (!longToAdd.isEmpty()) {
-                saveLong(preferences, longToAdd);
+            if (fingerprintKey != null) {
+                if (editor == null) {
+                    editor = storage.edit();
+                }
+                editor.putString(fingerprintKey, fingerprint);
             }
 
-            if (!booleanToAdd.isEmpty()) {
-                saveBoolean(preferences, booleanToAdd);
+            if (editor != null) {
+                editor.apply();
             }
-
         } catch (Exception e) {
             // Could not merge default shared preferences with the existing preferences
         } finally {
@@ -147,82 +151,121 @@ public class MergeUtils {
     }
 
     /**
-     * Saves several values into the shared preferences
-     * @param preferences shared preferences instance
-     * @param keysValues the key/values combinations to saveRelationships
+     * Fingerprint of a default file content
+     * @param content the content of the file
+     * @param shouldOverride if the file is merged overriding the existent values
+     * @return the fingerprint
      */
-    static void save(SharedPreferences preferences, Map<String, String> keysValues) {
-
-        SharedPreferences.Editor editor = preferences.edit();
-
-        for (Map.Entry<String, String> entry : keysValues.entrySet()) {
-            editor.putString(entry.getKey(), entry.getValue());
-        }
-
-        editor.apply();
+    private static String fingerprint(byte[] content, boolean shouldOverride) {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return Long.toHexString(crc.getValue()) + ":" + content.length + ":" + shouldOverride;
     }
 
-    /**
-     * Saves several values into the shared preferences
-     * @param preferences shared preferences instance
-     * @param keysValues the key/values combinations to saveRelationships
-     */
-    static void saveInt(SharedPreferences preferences, Map<String, Integer> keysValues) {
-
-        SharedPreferences.Editor editor = preferences.edit();
-
-        for (Map.Entry<String, Integer> entry : keysValues.entrySet()) {
-            editor.putInt(entry.getKey(), entry.getValue());
+    private static byte[] readFully(InputStream stream) throws IOException {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = stream.read(buffer)) != Utils.INVALID_ID) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            stream.close();
         }
+    }
 
-        editor.apply();
+    private static boolean isValueElement(String type) {
+        return DEFAULT_FILE_STRING_ELEMENT.equals(type) || DEFAULT_FILE_INTEGER_ELEMENT.equals(type)
+                || DEFAULT_FILE_FLOAT_ELEMENT.equals(type) || DEFAULT_FILE_LONG_ELEMENT.equals(type)
+                || DEFAULT_FILE_BOOLEAN_ELEMENT.equals(type);
     }
 
     /**
-     * Saves several values into the shared preferences
-     * @param preferences shared preferences instance
-     * @param keysValues the key/values combinations to saveRelationships
+     * Reads the text of the current element, the text of nested elements is ignored (as the sax parser did) instead of
+     * failing the whole merge. Leaves the parser on the end tag of the element.
+     * @param parser the parser on the start tag of the element
+     * @return the text directly inside the element
      */
-    static void saveFloat(SharedPreferences preferences, Map<String, Float> keysValues) {
-
-        SharedPreferences.Editor editor = preferences.edit();
-
-        for (Map.Entry<String, Float> entry : keysValues.entrySet()) {
-            editor.putFloat(entry.getKey(), entry.getValue());
+    private static String readText(XmlPullParser parser) throws XmlPullParserException, IOException {
+        int depth = parser.getDepth();
+        String text = null;
+        StringBuilder builder = null;
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_TAG || parser.getDepth() > depth) {
+            if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unexpected end of document", parser, null);
+            }
+            if (eventType == XmlPullParser.TEXT && parser.getDepth() == depth) {
+                //a single text event is the common case, no need to copy it
+                if (text == null) {
+                    text = parser.getText();
+                } else {
+                    if (builder == null) {
+                        builder = new StringBuilder(text);
+                    }
+                    builder.append(parser.getText());
+                }
+            }
         }
-
-        editor.apply();
+        return builder != null ? builder.toString() : text != null ? text : "";
     }
 
     /**
-     * Saves several values into the shared preferences
-     * @param preferences shared preferences instance
-     * @param keysValues the key/values combinations to saveRelationships
+     * Skips the current element and everything it contains. Leaves the parser on the end tag of the element.
+     * @param parser the parser on the start tag of the element
      */
-    static void saveLong(SharedPreferences preferences, Map<String, Long> keysValues) {
-
-        SharedPreferences.Editor editor = preferences.edit();
-
-        for (Map.Entry<String, Long> entry : keysValues.entrySet()) {
-            editor.putLong(entry.getKey(), entry.getValue());
+    private static void skip(XmlPullParser parser) throws XmlPullParserException, IOException {
+        int depth = parser.getDepth();
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_TAG || parser.getDepth() > depth) {
+            if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unexpected end of document", parser, null);
+            }
         }
-
-        editor.apply();
     }
 
     /**
-     * Saves several values into the shared preferences
-     * @param preferences shared preferences instance
-     * @param keysValues the key/values combinations to saveRelationships
+     * Writes a value of the default file into the editor according to its type
+     * @param editor the editor
+     * @param type the element name
+     * @param key the setting key
+     * @param value the text of the element
      */
-    static void saveBoolean(SharedPreferences preferences, Map<String, Boolean> keysValues) {
-
-        SharedPreferences.Editor editor = preferences.edit();
-
-        for (Map.Entry<String, Boolean> entry : keysValues.entrySet()) {
-            editor.putBoolean(entry.getKey(), entry.getValue());
+    private static void addValue(SettingsStorage.Editor editor, String type, String key, String value) {
+        switch (type) {
+            case DEFAULT_FILE_STRING_ELEMENT:
+                //escaped like the values saved by the connector
+                editor.putString(key, ValueCompressor.escape(value));
+                break;
+            case DEFAULT_FILE_INTEGER_ELEMENT:
+                try {
+                    editor.putInt(key, Integer.parseInt(value.trim()));
+                } catch (NumberFormatException e) {
+                    editor.putInt(key, Utils.INVALID_ID);
+                }
+                break;
+            case DEFAULT_FILE_FLOAT_ELEMENT:
+                try {
+                    editor.putFloat(key, Float.parseFloat(value.trim()));
+                } catch (NumberFormatException e) {
+                    editor.putFloat(key, Utils.INVALID_FLOAT_ID);
+                }
+                break;
+            case DEFAULT_FILE_LONG_ELEMENT:
+                try {
+                    editor.putLong(key, Long.parseLong(value.trim()));
+                } catch (NumberFormatException e) {
+                    editor.putLong(key, Utils.INVALID_LONG_ID);
+                }
+                break;
+            case DEFAULT_FILE_BOOLEAN_ELEMENT:
+                editor.putBoolean(key, Boolean.parseBoolean(value.trim()));
+                break;
+            default:
+                //unknown elements are ignored
+                break;
         }
-
-        editor.apply();
     }
 }
@@ -10,4 +10,9 @@ public class Utils {
     public static final int INVALID_ID = -1;
     public static final long INVALID_LONG_ID = -1L;
     public static final float INVALID_FLOAT_ID = -1f;
+
+    /**
+     * Prefix of the keys written by SPref itself (encryption flags, merge fingerprints, rotation checkpoint)
+     */
+    public static final String INTERNAL_KEY_PREFIX = "#SPREF_";
 }
@@ -0,0 +1,32 @@
+package com.lib.spref.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts one element of a binary list setting, see {@link com.lib.spref.SPref#registerBinaryCodec(Class, BinaryCodec)}.
+ * Each element is length prefixed by the list format, so a codec may read fewer bytes than an older version wrote.
+ *
+ * @param <T> the element type
+ */
+public interface BinaryCodec<T> {
+    /**
+     * Writes an element (never null)
+     *
+     * @param value  the element
+     * @param output the output
+     * @throws IOException if it cannot be written
+     */
+    void write(T value, DataOutput output) throws IOException;
+
+    /**
+     * Reads an element
+     *
+     * @param input  the input
+     * @param length number of bytes written for this element
+     * @return the element
+     * @throws IOException if it cannot be read
+     */
+    T read(DataInput input, int length) throws IOException;
+}
@@ -0,0 +1,105 @@
+package com.lib.spref.codec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Codecs of the basic types, registered by default
+ */
+public final class BinaryCodecs {
+    public static final BinaryCodec<String> STRING = new BinaryCodec<String>() {
+        @Override
+        public void write(String value, DataOutput output) throws IOException {
+            output.write(value.getBytes(BinaryListCodec.STRING_ENCODING));
+        }
+
+        @Override
+        public String read(DataInput input, int length) throws IOException {
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            return new String(bytes, BinaryListCodec.STRING_ENCODING);
+        }
+    };
+
+    public static final BinaryCodec<Integer> INTEGER = new BinaryCodec<Integer>() {
+        @Override
+        public void write(Integer value, DataOutput output) throws IOException {
+            output.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput input, int length) throws IOException {
+            return input.readInt();
+        }
+    };
+
+    public static final BinaryCodec<Long> LONG = new BinaryCodec<Long>() {
+        @Override
+        public void write(Long value, DataOutput output) throws IOException {
+            output.writeLong(value);
+        }
+
+        @Override
+        public Long read(DataInput input, int length) throws IOException {
+            return input.readLong();
+        }
+    };
+
+    public static final BinaryCodec<Float> FLOAT = new BinaryCodec<Float>() {
+        @Override
+        public void write(Float value, DataOutput output) throws IOException {
+            output.writeFloat(value);
+        }
+
+        @Override
+        public Float read(DataInput input, int length) throws IOException {
+            return input.readFloat();
+        }
+    };
+
+    public static final BinaryCodec<Double> DOUBLE = new BinaryCodec<Double>() {
+        @Override
+        public void write(Double value, DataOutput output) throws IOException {
+            output.writeDouble(value);
+        }
+
+        @Override
+        public Double read(DataInput input, int length) throws IOException {
+            return input.readDouble();
+        }
+    };
+
+    public static final BinaryCodec<Boolean> BOOLEAN = new BinaryCodec<Boolean>() {
+        @Override
+        public void write(Boolean value, DataOutput output) throws IOException {
+            output.writeBoolean(value);
+        }
+
+        @Override
+        public Boolean read(DataInput input, int length) throws IOException {
+            return input.readBoolean();
+        }
+    };
+
+    private BinaryCodecs() {
+    }
+
+    /**
+     * The codecs of the basic types by class
+     *
+     * @return a new map with the default codecs
+     */
+    public static Map<Class<?>, BinaryCodec<?>> defaults() {
+        Map<Class<?>, BinaryCodec<?>> codecs = new HashMap<>();
+        codecs.put(String.class, STRING);
+        codecs.put(Integer.class, INTEGER);
+        codecs.put(Long.class, LONG);
+        codecs.put(Float.class, FLOAT);
+        codecs.put(Double.class, DOUBLE);
+        codecs.put(Boolean.class, BOOLEAN);
+        return codecs;
+    }
+}
@@ -0,0 +1,105 @@
+package com.lib.spref.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary format of list settings: {@code [byte version][int count]} followed by each element as
+ * {@code [int length][bytes]}, a length of -1 is a null element
+ */
+public final class BinaryListCodec {
+    static final String STRING_ENCODING = "UTF-8";
+    private static final byte FORMAT_VERSION = 1;
+    private static final int NULL_LENGTH = -1;
+
+    private BinaryListCodec() {
+    }
+
+    /**
+     * Encodes a list
+     *
+     * @param list  the list
+     * @param codec the codec of the elements
+     * @param <T>   the element type
+     * @return the encoded list
+     * @throws IOException if an element cannot be written
+     */
+    public static <T> byte[] encode(List<T> list, BinaryCodec<T> codec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + list.size() * 8);
+        DataOutputStream output = new DataOutputStream(bytes);
+        ByteArrayOutputStream element = new ByteArrayOutputStream();
+        DataOutputStream elementOutput = new DataOutputStream(element);
+        output.writeByte(FORMAT_VERSION);
+        output.writeInt(list.size());
+        for (T value : list) {
+            if (value == null) {
+                output.writeInt(NULL_LENGTH);
+            } else {
+                element.reset();
+                codec.write(value, elementOutput);
+                elementOutput.flush();
+                output.writeInt(element.size());
+                element.writeTo(output);
+            }
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a list
+     *
+     * @param encoded the encoded list
+     * @param codec   the codec of the elements
+     * @param <T>     the element type
+     * @return the list
+     * @throws IOException if the content is not a valid list
+     */
+    public static <T> List<T> decode(byte[] encoded, BinaryCodec<T> codec) throws IOException {
+        PositionInputStream bytes = new PositionInputStream(encoded);
+        DataInputStream input = new DataInputStream(bytes);
+        byte version = input.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown list format " + version);
+        }
+        int count = input.readInt();
+        if (count < 0 || count > encoded.length) {
+            throw new IOException("Invalid list size " + count);
+        }
+        List<T> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = input.readInt();
+            if (length == NULL_LENGTH) {
+                list.add(null);
+            } else {
+                int end = bytes.position() + length;
+                list.add(codec.read(input, length));
+                //skips what the codec did not read (written by a newer version of the codec)
+                bytes.seek(end);
+            }
+        }
+        return list;
+    }
+
+    private static final class PositionInputStream extends ByteArrayInputStream {
+        PositionInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        int position() {
+            return pos;
+        }
+
+        void seek(int position) throws IOException {
+            if (position < pos || position > count) {
+                throw new IOException("Element read beyond its length");
+            }
+            pos = position;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.lib.spref.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packed format of primitive array settings: {@code [byte type][int count]} followed by the raw big endian values,
+ * booleans are packed 8 per byte. No object is created per element, neither when encoding nor when decoding.
+ * Decoding content of another type (or corrupted content) returns null or -1.
+ */
+public final class PrimitiveArrayCodec {
+    private static final byte TYPE_INT = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_FLOAT = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final int HEADER_SIZE = 5;
+    private static final int NOT_FOUND = -1;
+
+    private PrimitiveArrayCodec() {
+    }
+
+    /**
+     * Encodes an int array
+     *
+     * @param values the values
+     * @return the encoded array
+     */
+    public static byte[] encode(int[] values) {
+        ByteBuffer buffer = header(TYPE_INT, values.length, values.length * 4);
+        buffer.asIntBuffer().put(values);
+        return buffer.array();
+    }
+
+    /**
+     * Encodes a long array
+     *
+     * @param values the values
+     * @return the encoded array
+     */
+    public static byte[] encode(long[] values) {
+        ByteBuffer buffer = header(TYPE_LONG, values.length, values.length * 8);
+        buffer.asLongBuffer().put(values);
+        return buffer.array();
+    }
+
+    /**
+     * Encodes a float array
+     *
+     * @param values the values
+     * @return the encoded array
+     */
+    public static byte[] encode(float[] values) {
+        ByteBuffer buffer = header(TYPE_FLOAT, values.length, values.length * 4);
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+    /**
+     * Encodes a boolean array
+     *
+     * @param values the values
+     * @return the encoded array
+     */
+    public static byte[] encode(boolean[] values) {
+        ByteBuffer buffer = header(TYPE_BOOLEAN, values.length, (values.length + 7) / 8);
+        byte[] array = buffer.array();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i]) {
+                array[HEADER_SIZE + i / 8] |= 1 << (i % 8);
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Decodes an int array
+     *
+     * @param encoded the encoded array (may be null)
+     * @return the values, or null if the content is not an int array
+     */
+    public static int[] decodeInts(byte[] encoded) {
+        int count = count(encoded, TYPE_INT, 4);
+        if (count == NOT_FOUND) {
+            return null;
+        }
+        int[] values = new int[count];
+        body(encoded).asIntBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Decodes an int array into an existing array, copying at most {@code destination.length} values
+     *
+     * @param encoded     the encoded array (may be null)
+     * @param destination the array to fill
+     * @return the number of stored values (which may be bigger than the destination), or -1 if the content is not an int array
+     */
+    public static int decodeInts(byte[] encoded, int[] destination) {
+        int count = count(encoded, TYPE_INT, 4);
+        if (count != NOT_FOUND) {
+            body(encoded).asIntBuffer().get(destination, 0, Math.min(count, destination.length));
+        }
+        return count;
+    }
+
+    /**
+     * Decodes a long array
+     *
+     * @param encoded the encoded array (may be null)
+     * @return the values, or null if the content is not a long array
+     */
+    public static long[] decodeLongs(byte[] encoded) {
+        int count = count(encoded, TYPE_LONG, 8);
+        if (count == NOT_FOUND) {
+            return null;
+        }
+        long[] values = new long[count];
+        body(encoded).asLongBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Decodes a long array into an existing array, copying at most {@code destination.length} values
+     *
+     * @param encoded     the encoded array (may be null)
+     * @param destination the array to fill
+     * @return the number of stored values (which may be bigger than the destination), or -1 if the content is not a long array
+     */
+    public static int decodeLongs(byte[] encoded, long[] destination) {
+        int count = count(encoded, TYPE_LONG, 8);
+        if (count != NOT_FOUND) {
+            body(encoded).asLongBuffer().get(destination, 0, Math.min(count, destination.length));
+        }
+        return count;
+    }
+
+    /**
+     * Decodes a float array
+     *
+     * @param encoded the encoded array (may be null)
+     * @return the values, or null if the content is not a float array
+     */
+    public static float[] decodeFloats(byte[] encoded) {
+        int count = count(encoded, TYPE_FLOAT, 4);
+        if (count == NOT_FOUND) {
+            return null;
+        }
+        float[] values = new float[count];
+        body(encoded).asFloatBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Decodes a float array into an existing array, copying at most {@code destination.length} values
+     *
+     * @param encoded     the encoded array (may be null)
+     * @param destination the array to fill
+     * @return the number of stored values (which may be bigger than the destination), or -1 if the content is not a float array
+     */
+    public static int decodeFloats(byte[] encoded, float[] destination) {
+        int count = count(encoded, TYPE_FLOAT, 4);
+        if (count != NOT_FOUND) {
+            body(encoded).asFloatBuffer().get(destination, 0, Math.min(count, destination.length));
+        }
+        return count;
+    }
+
+    /**
+     * Decodes a boolean array
+     *
+     * @param encoded the encoded array (may be null)
+     * @return the values, or null if the content is not a boolean array
+     */
+    public static boolean[] decodeBooleans(byte[] encoded) {
+        int count = countBooleans(encoded);
+        if (count == NOT_FOUND) {
+            return null;
+        }
+        boolean[] values = new boolean[count];
+        unpack(encoded, values, count);
+        return values;
+    }
+
+    /**
+     * Decodes a boolean array into an existing array, copying at most {@code destination.length} values
+     *
+     * @param encoded     the encoded array (may be null)
+     * @param destination the array to fill
+     * @return the number of stored values (which may be bigger than the destination), or -1 if the content is not a boolean array
+     */
+    public static int decodeBooleans(byte[] encoded, boolean[] destination) {
+        int count = countBooleans(encoded);
+        if (count != NOT_FOUND) {
+            unpack(encoded, destination, Math.min(count, destination.length));
+        }
+        return count;
+    }
+
+    private static ByteBuffer header(byte type, int count, int bodySize) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+        buffer.put(type);
+        buffer.putInt(count);
+        return buffer;
+    }
+
+    private static ByteBuffer body(byte[] encoded) {
+        return ByteBuffer.wrap(encoded, HEADER_SIZE, encoded.length - HEADER_SIZE).slice();
+    }
+
+    private static int count(byte[] encoded, byte type, int elementSize) {
+        if (encoded == null || encoded.length < HEADER_SIZE || encoded[0] != type) {
+            return NOT_FOUND;
+        }
+        int count = ByteBuffer.wrap(encoded, 1, 4).getInt();
+        if (count < 0 || (long) count * elementSize != encoded.length - HEADER_SIZE) {
+            return NOT_FOUND;
+        }
+        return count;
+    }
+
+    private static int countBooleans(byte[] encoded) {
+        if (encoded == null || encoded.length < HEADER_SIZE || encoded[0] != TYPE_BOOLEAN) {
+            return NOT_FOUND;
+        }
+        int count = ByteBuffer.wrap(encoded, 1, 4).getInt();
+        if (count < 0 || (count + 7L) / 8 != encoded.length - HEADER_SIZE) {
+            return NOT_FOUND;
+        }
+        return count;
+    }
+
+    private static void unpack(byte[] encoded, boolean[] destination, int length) {
+        for (int i = 0; i < length; i++) {
+            destination[i] = (encoded[HEADER_SIZE + i / 8] & (1 << (i % 8))) != 0;
+        }
+    }
+}
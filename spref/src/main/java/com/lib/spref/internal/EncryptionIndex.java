@@ -0,0 +1,253 @@
+package com.lib.spref.internal;
+
+import com.lib.spref.storage.SettingsStorage;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the encrypted keys, built once from the storage and kept up to date by the writes,
+ * so checking if a key is encrypted is a set lookup without allocations.
+ * The flags are either stored as one boolean per key ({@link #ENCRYPTION_TAG} + key) or, in compact mode,
+ * as a single string set ({@link #ENCRYPTED_KEYS}), switching between both moves the existing flags.
+ * In compact mode the index is built from that single entry, without reading every key of the storage.
+ * <p>
+ * The compact entry is rewritten by every write that changes a flag, from the entry currently stored (not from this
+ * index) and under a lock shared by every index of the process, so connectors of the same preferences never drop each
+ * other's flags. It is only safe with a single writing process: with several processes (MultiProcessStorage or
+ * {@code MODE_MULTI_PROCESS}) the flags are always kept in one entry per key, see
+ * {@link com.lib.spref.SPref#compactEncryptionFlags(boolean)}.
+ */
+public class EncryptionIndex {
+    public static final String ENCRYPTION_TAG = "#SPREF_ENCRYPTION_TAG#";
+    public static final String ENCRYPTED_KEYS = "#SPREF_ENCRYPTED_KEYS#";
+
+    //held by the writes of the compact entry of every index, inside the lock of the index writing it
+    private static final Object COMPACT_WRITE_LOCK = new Object();
+
+    private final Set<String> mKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    //guards the changes of mKeys, never held while waiting for another lock: storage listeners take it while another
+    //connector holds the write lock
+    private final Object mKeysLock = new Object();
+    private final SettingsStorage mStorage;
+    private final boolean mCompact;
+    //compact entry written by the last prepare, guarded by the write lock
+    private Set<String> mPrepared;
+
+    /**
+     * Constructor, scans the storage for encryption flags (and moves them to the compact entry if needed)
+     * @param storage the storage
+     * @param compact if the flags should be stored in a single entry
+     */
+    public EncryptionIndex(SettingsStorage storage, boolean compact) {
+        mStorage = storage;
+        mCompact = compact;
+        if (compact && storage.contains(ENCRYPTED_KEYS)) {
+            //already migrated (the flags are removed in the same write that creates the entry), no need to scan every key
+            mKeys.addAll(storage.getStringSet(ENCRYPTED_KEYS, Collections.<String>emptySet()));
+            return;
+        }
+        boolean hasTags = load(storage);
+        if (compact) {
+            //the entry is created even when empty, so the next starts do not scan every key
+            SettingsStorage.Editor editor = storage.edit();
+            if (hasTags) {
+                for (String key : storage.getAll().keySet()) {
+                    if (key.startsWith(ENCRYPTION_TAG)) {
+                        editor.remove(key);
+                    }
+                }
+            }
+            editor.putStringSet(ENCRYPTED_KEYS, new HashSet<>(mKeys));
+            editor.apply();
+        } else if (storage.contains(ENCRYPTED_KEYS)) {
+            //compact mode was turned off, the flags go back to one entry per key
+            SettingsStorage.Editor editor = storage.edit();
+            for (String settingKey : mKeys) {
+                editor.putBoolean(ENCRYPTION_TAG + settingKey, true);
+            }
+            editor.remove(ENCRYPTED_KEYS);
+            editor.apply();
+        }
+    }
+
+    /**
+     * Reloads the whole index, used when the storage was changed by someone else
+     * @param storage the storage
+     */
+    public void reload(SettingsStorage storage) {
+        synchronized (mKeysLock) {
+            mKeys.clear();
+            load(storage);
+        }
+    }
+
+    private boolean load(SettingsStorage storage) {
+        return collect(storage.getAll(), mKeys);
+    }
+
+    /**
+     * The encrypted keys according to the flags of a copy of the storage entries
+     * @param values the entries, see {@link SettingsStorage#getAll()}
+     * @return the encrypted keys
+     */
+    public static Set<String> encryptedKeys(Map<String, ?> values) {
+        Set<String> keys = new HashSet<>();
+        collect(values, keys);
+        return keys;
+    }
+
+    private static boolean collect(Map<String, ?> values, Set<String> keys) {
+        boolean hasTags = false;
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith(ENCRYPTION_TAG)) {
+                hasTags = true;
+                if (Boolean.TRUE.equals(entry.getValue())) {
+                    keys.add(key.substring(ENCRYPTION_TAG.length()));
+                }
+            } else if (key.equals(ENCRYPTED_KEYS) && entry.getValue() instanceof Set) {
+                for (Object encryptedKey : (Set<?>) entry.getValue()) {
+                    keys.add(String.valueOf(encryptedKey));
+                }
+            }
+        }
+        return hasTags;
+    }
+
+    /**
+     * Checks if a key is encrypted
+     * @param settingKey key
+     * @return true if encrypted
+     */
+    public boolean contains(String settingKey) {
+        return settingKey != null && mKeys.contains(settingKey);
+    }
+
+    /**
+     * Whether a preference key is one of the encryption flags
+     * @param key the preference key
+     * @return true if it is an encryption flag
+     */
+    public static boolean isFlag(String key) {
+        return key != null && (key.startsWith(ENCRYPTION_TAG) || key.equals(ENCRYPTED_KEYS));
+    }
+
+    /**
+     * Updates the index after an external change of an encryption flag
+     * @param storage the storage
+     * @param key the changed preference key
+     */
+    public void onFlagChanged(SettingsStorage storage, String key) {
+        synchronized (mKeysLock) {
+            if (key.equals(ENCRYPTED_KEYS)) {
+                Set<String> keys = storage.getStringSet(ENCRYPTED_KEYS, Collections.<String>emptySet());
+                mKeys.addAll(keys);
+                mKeys.retainAll(keys);
+            } else {
+                String settingKey = key.substring(ENCRYPTION_TAG.length());
+                if (storage.getBoolean(key, false)) {
+                    mKeys.add(settingKey);
+                } else if (!mCompact) {
+                    mKeys.remove(settingKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the flag of a key into an editor
+     * @param editor the editor
+     * @param settingKey key
+     * @param encrypted if the value is encrypted
+     */
+    public void putFlag(SettingsStorage.Editor editor, String settingKey, boolean encrypted) {
+        if (mCompact) {
+            editor.remove(ENCRYPTION_TAG + settingKey);
+        } else {
+            editor.putBoolean(ENCRYPTION_TAG + settingKey, encrypted);
+        }
+    }
+
+    /**
+     * Removes the flag of a key from an editor
+     * @param editor the editor
+     * @param settingKey key
+     */
+    public void removeFlag(SettingsStorage.Editor editor, String settingKey) {
+        //making sure there is not a encryption setting
+        editor.remove(ENCRYPTION_TAG + settingKey);
+    }
+
+    /**
+     * Lock to hold, inside the lock of this index, from {@link #prepare(SettingsStorage.Editor, Map, boolean)} until
+     * {@link #update(Map, boolean)}
+     * @return the lock
+     */
+    public Object writeLock() {
+        return mCompact ? COMPACT_WRITE_LOCK : this;
+    }
+
+    /**
+     * Writes the compact entry with the flag changes into the editor (nothing to do when not in compact mode).
+     * The caller must hold the lock of this index and {@link #writeLock()} from this call until {@link #update(Map, boolean)}.
+     * @param editor the editor being written
+     * @param changes the new flag of each key (may be null)
+     * @param cleared if the storage is cleared by the editor
+     */
+    public void prepare(SettingsStorage.Editor editor, Map<String, Boolean> changes, boolean cleared) {
+        mPrepared = null;
+        if (mCompact && (changes != null || cleared)) {
+            //the stored entry has the flags written by the other connectors of these preferences
+            Set<String> keys = cleared ? new HashSet<String>()
+                    : new HashSet<>(mStorage.getStringSet(ENCRYPTED_KEYS, Collections.<String>emptySet()));
+            apply(keys, changes);
+            editor.putStringSet(ENCRYPTED_KEYS, keys);
+            mPrepared = keys;
+        }
+    }
+
+    /**
+     * Applies the flag changes to the index once the editor was applied
+     * @param changes the new flag of each key (may be null)
+     * @param cleared if the storage was cleared by the editor
+     */
+    public void update(Map<String, Boolean> changes, boolean cleared) {
+        synchronized (mKeysLock) {
+            if (mPrepared != null) {
+                //added first, an encrypted key is never seen as plain meanwhile
+                mKeys.addAll(mPrepared);
+                mKeys.retainAll(mPrepared);
+                mPrepared = null;
+                return;
+            }
+            if (cleared) {
+                mKeys.clear();
+            }
+            apply(mKeys, changes);
+        }
+    }
+
+    private static void apply(Set<String> keys, Map<String, Boolean> changes) {
+        if (changes != null) {
+            for (Map.Entry<String, Boolean> change : changes.entrySet()) {
+                if (change.getValue()) {
+                    keys.add(change.getKey());
+                } else {
+                    keys.remove(change.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the encrypted keys
+     * @return the encrypted keys
+     */
+    public Set<String> keys() {
+        return new HashSet<>(mKeys);
+    }
+}
@@ -0,0 +1,192 @@
+package com.lib.spref.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory bounded LRU cache of decoded list settings keyed by setting key and element class.
+ * The size of each entry is the length of the json (or binary content) it was decoded from.
+ * Decoded lists are only cached when their elements cannot be modified by the callers: in read only mode, or for
+ * strings and boxed primitives (each read then gets its own shallow copy). Outside of the read only mode, lists of
+ * other classes are not cached (see {@link #caches(Class)}), every read decodes its own elements.
+ */
+public class ListCache {
+    private static final Set<Class<?>> IMMUTABLE_ELEMENTS = new HashSet<Class<?>>(Arrays.asList(String.class,
+            Integer.class, Long.class, Float.class, Double.class, Short.class, Byte.class, Boolean.class, Character.class));
+
+    //access ordered, the first entry is the least recently used one
+    private final LinkedHashMap<CacheKey, Entry> mCache = new LinkedHashMap<>(16, 0.75f, true);
+    private final int mMaxSize;
+    private final boolean mReadOnly;
+    private final Set<String> mCachedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    //guarded by this
+    private int mSize;
+
+    /**
+     * Constructor
+     * @param maxSize maximum size of the cache (sum of the json length of the cached values)
+     * @param readOnly if true the cached lists are shared read only views, otherwise every read returns a copy
+     */
+    public ListCache(int maxSize, boolean readOnly) {
+        mMaxSize = maxSize;
+        mReadOnly = readOnly;
+    }
+
+    /**
+     * Current generation of the cache, it must be read before the value is read from the preferences and passed to
+     * {@link #put(String, Class, List, int, int)}, so a value read before an invalidation is never cached
+     * @return the generation
+     */
+    public int generation() {
+        return mGeneration.get();
+    }
+
+    /**
+     * Whether the lists of an element class are cached, the lists whose elements could be modified by the callers are
+     * only cached in read only mode
+     * @param clazz the element class
+     * @return true if {@link #get(String, Class)} and {@link #put(String, Class, List, int, int)} should be called
+     */
+    public boolean caches(Class<?> clazz) {
+        return mReadOnly || IMMUTABLE_ELEMENTS.contains(clazz);
+    }
+
+    /**
+     * Gets a cached list
+     * @param settingKey the setting key
+     * @param clazz the element class
+     * @param <T> generic type
+     * @return the list (read only view or copy) or null if not cached
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(String settingKey, Class<T> clazz) {
+        Entry entry;
+        synchronized (this) {
+            entry = mCache.get(new CacheKey(settingKey, clazz));
+        }
+        if (entry == null) {
+            return null;
+        }
+        List<T> value = (List<T>) entry.mList;
+        return mReadOnly ? value : new ArrayList<>(value);
+    }
+
+    /**
+     * Caches a decoded list, the element class must be cached (see {@link #caches(Class)})
+     * @param settingKey the setting key
+     * @param clazz the element class
+     * @param value the decoded list (may be null, it is not cached)
+     * @param size the length of the json or binary content the list was decoded from
+     * @param generation the generation read before the value was read
+     * @param <T> generic type
+     * @return the list that should be returned to the caller
+     */
+    public synchronized <T> List<T> put(String settingKey, Class<T> clazz, List<T> value, int size, int generation) {
+        if (value == null) {
+            return null;
+        }
+        List<T> result = mReadOnly ? Collections.unmodifiableList(value) : value;
+        if (generation == mGeneration.get() && caches(clazz)) {
+            //in read only mode the caller and the cache share the list, otherwise the cache keeps its own copy
+            mCachedKeys.add(settingKey);
+            remove(mCache.put(new CacheKey(settingKey, clazz), new Entry(mReadOnly ? result : new ArrayList<>(value), size)));
+            mSize += size;
+            trim();
+        }
+        return result;
+    }
+
+    private void trim() {
+        Iterator<Entry> eldest = mCache.values().iterator();
+        while (mSize > mMaxSize && eldest.hasNext()) {
+            mSize -= eldest.next().mSize;
+            eldest.remove();
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (entry != null) {
+            mSize -= entry.mSize;
+        }
+    }
+
+    /**
+     * Invalidates every cached list of a setting key
+     * @param settingKey the setting key, if null the whole cache is invalidated
+     */
+    public synchronized void invalidate(String settingKey) {
+        if (settingKey == null) {
+            invalidateAll();
+            return;
+        }
+        mGeneration.incrementAndGet();
+        //only keys that were cached pay for the scan, writes of any other key just bump the generation
+        if (mCachedKeys.remove(settingKey)) {
+            Iterator<Map.Entry<CacheKey, Entry>> entries = mCache.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<CacheKey, Entry> entry = entries.next();
+                if (entry.getKey().mSettingKey.equals(settingKey)) {
+                    remove(entry.getValue());
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidates the whole cache
+     */
+    public synchronized void invalidateAll() {
+        mGeneration.incrementAndGet();
+        mCache.clear();
+        mSize = 0;
+        mCachedKeys.clear();
+    }
+
+    private static final class Entry {
+        private final List<?> mList;
+        private final int mSize;
+
+        Entry(List<?> list, int size) {
+            mList = list;
+            mSize = size;
+        }
+    }
+
+    private static final class CacheKey {
+        private final String mSettingKey;
+        private final Class<?> mClazz;
+
+        CacheKey(String settingKey, Class<?> clazz) {
+            mSettingKey = settingKey;
+            mClazz = clazz;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return mSettingKey.equals(other.mSettingKey) && mClazz.equals(other.mClazz);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mSettingKey.hashCode() + mClazz.hashCode();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.lib.spref.internal;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts list settings from/to json with a long-lived {@link Gson} and caches the list adapter of each element class,
+ * so the reflective adapters are only built once per class
+ */
+public class ListCodec {
+    private static final Type GENERIC_LIST_TYPE = new TypeToken<ArrayList<Object>>() {}.getType();
+    private static final ListCodec DEFAULT_CODEC = new ListCodec(Collections.<TypeAdapterFactory>emptyList());
+
+    private final Gson mGson;
+    private final ConcurrentHashMap<Class<?>, TypeAdapter<?>> mListAdapters = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     * @param factories type adapter factories to register, used to skip reflection on known model classes
+     */
+    private ListCodec(List<TypeAdapterFactory> factories) {
+        GsonBuilder builder = new GsonBuilder();
+        for (TypeAdapterFactory factory : factories) {
+            builder.registerTypeAdapterFactory(factory);
+        }
+        mGson = builder.create();
+    }
+
+    /**
+     * Gets a codec for the given factories, when there are none the shared default codec is returned
+     * @param factories type adapter factories (may be null)
+     * @return the codec
+     */
+    public static ListCodec create(List<TypeAdapterFactory> factories) {
+        if (factories == null || factories.isEmpty()) {
+            return DEFAULT_CODEC;
+        }
+        return new ListCodec(factories);
+    }
+
+    /**
+     * Converts a list to json
+     * @param list the list (may be null)
+     * @return the json
+     */
+    public String toJson(List<?> list) {
+        return mGson.toJson(list);
+    }
+
+    /**
+     * Converts json into a list without knowing the element class (elements will be gson's default types)
+     * @param json the json
+     * @param <T> generic type
+     * @return the list or null if the json is null or empty
+     */
+    public <T> List<T> fromJson(String json) {
+        return mGson.fromJson(json, GENERIC_LIST_TYPE);
+    }
+
+    /**
+     * Converts json into a list of the given element class
+     * @param json the json
+     * @param clazz the class of the elements
+     * @param <T> generic type
+     * @return the list or null if the json is null or empty
+     */
+    public <T> List<T> fromJson(String json, Class<T> clazz) {
+        if (json == null) {
+            return null;
+        }
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+        boolean isEmpty = true;
+        try {
+            reader.peek();
+            isEmpty = false;
+            return getListAdapter(clazz).read(reader);
+        } catch (EOFException e) {
+            //empty document, same behaviour as Gson#fromJson
+            if (isEmpty) {
+                return null;
+            }
+            throw new JsonSyntaxException(e);
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> TypeAdapter<List<T>> getListAdapter(Class<T> clazz) {
+        TypeAdapter<?> adapter = mListAdapters.get(clazz);
+        if (adapter == null) {
+            adapter = mGson.getAdapter(TypeToken.getParameterized(ArrayList.class, clazz));
+            TypeAdapter<?> previous = mListAdapters.putIfAbsent(clazz, adapter);
+            if (previous != null) {
+                adapter = previous;
+            }
+        }
+        return (TypeAdapter<List<T>>) adapter;
+    }
+}
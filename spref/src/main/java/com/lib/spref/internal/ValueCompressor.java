@@ -0,0 +1,177 @@
+package com.lib.spref.internal;
+
+import android.util.Base64;
+
+import com.lib.spref.Utils.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates the string values above a size threshold.
+ * A compressed value is saved as {@link #DEFLATE_TAG} followed by the deflated UTF-8 bytes in Base64, an encrypted one
+ * is encrypted from the tag followed by the raw deflated bytes, so reads recognize them whatever the threshold is.
+ * Values that would not get smaller are saved as they are, the plain values starting with the prefix of the tags
+ * ({@link Utils#INTERNAL_KEY_PREFIX}) are saved after {@link #ESCAPE_TAG} so they are never read as tagged values.
+ */
+public class ValueCompressor {
+    public static final String DEFLATE_TAG = "#SPREF_DEFLATE#";
+    public static final String ESCAPE_TAG = "#SPREF_PLAIN#";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] DEFLATE_TAG_BYTES = DEFLATE_TAG.getBytes(UTF_8);
+    private static final int BUFFER_SIZE = 4096;
+    //a deflater holds a few hundred KB of native memory, one per writing thread is kept instead of one per value
+    private static final ThreadLocal<Deflater> sDeflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater();
+        }
+    };
+    private static final ThreadLocal<Inflater> sInflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final int mThreshold;
+
+    /**
+     * Constructor
+     * @param threshold minimum length (in characters) of the compressed values
+     */
+    public ValueCompressor(int threshold) {
+        mThreshold = threshold;
+    }
+
+    /**
+     * Compresses a value that is saved as it is
+     * @param value the value (may be null)
+     * @return the compressed value, or the same instance if it is below the threshold or would not get smaller
+     */
+    public String compress(String value) {
+        if (value == null || value.length() < mThreshold) {
+            return value;
+        }
+        byte[] deflated = deflate(value.getBytes(UTF_8));
+        //Base64 length of the deflated bytes
+        if (DEFLATE_TAG.length() + (deflated.length + 2) / 3 * 4 >= value.length()) {
+            return value;
+        }
+        return DEFLATE_TAG + Base64.encodeToString(deflated, Base64.NO_WRAP);
+    }
+
+    /**
+     * Escapes a plain value that could be read as a tagged value, see {@link #decompress(String)}
+     * @param value the value (may be null)
+     * @return the value to save, the same instance if it does not start with {@link Utils#INTERNAL_KEY_PREFIX}
+     */
+    public static String escape(String value) {
+        return value != null && value.startsWith(Utils.INTERNAL_KEY_PREFIX) ? ESCAPE_TAG + value : value;
+    }
+
+    /**
+     * Compresses a value before it is encrypted
+     * @param value the value
+     * @return the content to encrypt, or null if the value should be encrypted as it is
+     */
+    public byte[] compressForEncryption(String value) {
+        if (value.length() < mThreshold) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        byte[] deflated = deflate(bytes);
+        if (DEFLATE_TAG_BYTES.length + deflated.length >= bytes.length) {
+            return null;
+        }
+        byte[] content = new byte[DEFLATE_TAG_BYTES.length + deflated.length];
+        System.arraycopy(DEFLATE_TAG_BYTES, 0, content, 0, DEFLATE_TAG_BYTES.length);
+        System.arraycopy(deflated, 0, content, DEFLATE_TAG_BYTES.length, deflated.length);
+        return content;
+    }
+
+    /**
+     * Restores a value read from the storage
+     * @param value the saved value (may be null)
+     * @return the original value, the same instance if it was not compressed or null if the compressed content is corrupted
+     */
+    public static String decompress(String value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.startsWith(ESCAPE_TAG)) {
+            return value.substring(ESCAPE_TAG.length());
+        }
+        if (!value.startsWith(DEFLATE_TAG)) {
+            return value;
+        }
+        try {
+            byte[] deflated = Base64.decode(value.substring(DEFLATE_TAG.length()), Base64.NO_WRAP);
+            return new String(inflate(deflated, 0, deflated.length), UTF_8);
+        } catch (IllegalArgumentException | DataFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Restores a value that was decrypted
+     * @param content the decrypted content, escaped as by {@link #escape(String)} if it was not compressed
+     * @return the original value or null if the compressed content is corrupted
+     */
+    public static String fromDecrypted(byte[] content) {
+        if (!startsWithTag(content)) {
+            String value = new String(content, UTF_8);
+            return value.startsWith(ESCAPE_TAG) ? value.substring(ESCAPE_TAG.length()) : value;
+        }
+        try {
+            return new String(inflate(content, DEFLATE_TAG_BYTES.length, content.length - DEFLATE_TAG_BYTES.length), UTF_8);
+        } catch (DataFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean startsWithTag(byte[] content) {
+        if (content.length < DEFLATE_TAG_BYTES.length) {
+            return false;
+        }
+        for (int i = 0; i < DEFLATE_TAG_BYTES.length; i++) {
+            if (content[i] != DEFLATE_TAG_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = sDeflaters.get();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] input, int offset, int length) throws DataFormatException {
+        Inflater inflater = sInflaters.get();
+        inflater.reset();
+        inflater.setInput(input, offset, length);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length * 4);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (!inflater.finished()) {
+            int count = inflater.inflate(buffer);
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Truncated content");
+            }
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
+    }
+}
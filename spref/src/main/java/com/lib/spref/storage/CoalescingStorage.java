@@ -0,0 +1,492 @@
+package com.lib.spref.storage;
+
+import android.content.Context;
+
+import java.io.Flushable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SettingsStorage} that delays the applied writes to another storage and merges them, so a burst of saves
+ * ends up as a single write.
+ * <p>
+ * Applied changes are kept in an in-memory overlay, visible to the reads, and written to the storage with a single
+ * {@link Editor#commit()} (on a background thread) once no write happened for the coalescing window, or at the latest
+ * after the maximum delay (if any) since the first pending change. {@link Editor#commit()} and {@link #flush()} write the
+ * pending changes right away, {@link #flush()} should be called before the process may be killed (e.g. on
+ * {@code Activity.onPause}), the changes still pending are lost otherwise.
+ * <p>
+ * The storages created by {@link #factory(Factory, long, long)} are shared: every connector of a file writes through
+ * the same overlay (created with the window of the first one), so they see each other's pending changes.
+ */
+public class CoalescingStorage implements SettingsStorage, Flushable {
+    private static final ScheduledExecutorService sFlushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SPref-CoalescingStorage-flush");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    //one overlay per file, keyed by the factory of the storage and the name of the file
+    private static final ConcurrentHashMap<List<Object>, CoalescingStorage> sStorages = new ConcurrentHashMap<>();
+
+    private final SettingsStorage mStorage;
+    private final long mWindowNanos;
+    private final long mMaxDelayNanos;
+    private final ScheduledExecutorService mExecutor;
+    private final List<OnChangeListener> mListeners = new CopyOnWriteArrayList<>();
+    private final OnChangeListener mStorageListener = new OnChangeListener() {
+        @Override
+        public void onSettingChanged(SettingsStorage storage, String key) {
+            if (isVisibleChange(key)) {
+                notifyListeners(key);
+            }
+        }
+    };
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            onFlushTimer();
+        }
+    };
+    private final Object mFlushLock = new Object();
+
+    //guarded by this
+    private Map<String, Object> mPending = new LinkedHashMap<>();
+    private Map<String, Object> mFlushing = Collections.emptyMap();
+    private boolean mPendingClear;
+    private boolean mFlushingClear;
+    //the values of the last successful flushes, until the storage notified them
+    private final Map<String, Object> mFlushed = new HashMap<>();
+    private boolean mFlushedClear;
+    private boolean mFlushingClearNotified;
+    private boolean mFlushScheduled;
+    private long mFirstPendingNanos;
+    private long mLastWriteNanos;
+    private int mMaxPendingCount;
+    private long mFlushCount;
+
+    /**
+     * Factory of coalescing storages
+     * @param factory the factory of the storage that is written
+     * @param windowMillis time without writes after which the pending changes are written
+     * @param maxDelayMillis maximum time a change stays pending, 0 for no maximum
+     * @return the factory
+     */
+    public static Factory factory(final Factory factory, final long windowMillis, final long maxDelayMillis) {
+        return new Factory() {
+            @Override
+            public SettingsStorage create(Context context, String name, int mode) {
+                if ((mode & Context.MODE_MULTI_PROCESS) != 0) {
+                    //opening the file again is what reloads it in this mode
+                    return new CoalescingStorage(factory.create(context, name, mode), windowMillis, maxDelayMillis);
+                }
+                List<Object> key = Arrays.<Object>asList(factory, name);
+                CoalescingStorage storage = sStorages.get(key);
+                if (storage == null) {
+                    synchronized (sStorages) {
+                        storage = sStorages.get(key);
+                        if (storage == null) {
+                            storage = new CoalescingStorage(factory.create(context, name, mode), windowMillis, maxDelayMillis);
+                            sStorages.put(key, storage);
+                        }
+                    }
+                }
+                return storage;
+            }
+        };
+    }
+
+    /**
+     * Constructor
+     * @param storage the storage that is written
+     * @param windowMillis time without writes after which the pending changes are written
+     * @param maxDelayMillis maximum time a change stays pending, 0 for no maximum
+     */
+    public CoalescingStorage(SettingsStorage storage, long windowMillis, long maxDelayMillis) {
+        this(storage, windowMillis, maxDelayMillis, sFlushExecutor);
+    }
+
+    CoalescingStorage(SettingsStorage storage, long windowMillis, long maxDelayMillis, ScheduledExecutorService executor) {
+        mStorage = storage;
+        mWindowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+        //no maximum delay when it is 0, the changes are written once a window passes without writes
+        mMaxDelayNanos = maxDelayMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(Math.max(windowMillis, maxDelayMillis)) : 0;
+        mExecutor = executor;
+        mStorage.registerChangeListener(mStorageListener);
+    }
+
+    /**
+     * The storage that is written
+     * @return the storage
+     */
+    public SettingsStorage getStorage() {
+        return mStorage;
+    }
+
+    /**
+     * Number of keys waiting to be written
+     * @return the pending keys
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size() + mFlushing.size();
+    }
+
+    /**
+     * Highest number of keys that were pending at the same time
+     * @return the maximum pending keys
+     */
+    public synchronized int getMaxPendingCount() {
+        return mMaxPendingCount;
+    }
+
+    /**
+     * Number of writes made to the storage
+     * @return the writes
+     */
+    public synchronized long getFlushCount() {
+        return mFlushCount;
+    }
+
+    /**
+     * Checks if a change notified by the storage changes what the reads return: not while the overlay hides the key,
+     * nor when the storage holds the value this overlay flushed (the listeners were notified when it was applied)
+     * @param key the changed key, null if the storage was cleared
+     * @return true if the listeners must be notified
+     */
+    private boolean isVisibleChange(String key) {
+        Object flushed;
+        synchronized (this) {
+            if (key == null) {
+                if (mFlushingClear) {
+                    mFlushingClearNotified = true;
+                    return false;
+                }
+                boolean flushedClear = mFlushedClear;
+                mFlushedClear = false;
+                return !flushedClear && !mPendingClear;
+            }
+            if (pending(key) != null) {
+                return false;
+            }
+            flushed = mFlushed.remove(key);
+        }
+        return flushed == null || !isStored(key, flushed);
+    }
+
+    /**
+     * Compares the value of a key in the storage
+     * @param key the key
+     * @param value the expected value, {@link StorageEditor#REMOVED} if it should not be saved
+     * @return true if the storage holds the value
+     */
+    private boolean isStored(String key, Object value) {
+        try {
+            if (value == StorageEditor.REMOVED) {
+                return !mStorage.contains(key);
+            } else if (value instanceof String) {
+                return value.equals(mStorage.getString(key, null));
+            } else if (value instanceof Set) {
+                return value.equals(mStorage.getStringSet(key, null));
+            } else if (value instanceof byte[]) {
+                return Arrays.equals((byte[]) value, mStorage.getBytes(key, null));
+            } else if (!mStorage.contains(key)) {
+                return false;
+            } else if (value instanceof Integer) {
+                return value.equals(mStorage.getInt(key, 0));
+            } else if (value instanceof Long) {
+                return value.equals(mStorage.getLong(key, 0));
+            } else if (value instanceof Float) {
+                return value.equals(mStorage.getFloat(key, 0));
+            } else if (value instanceof Boolean) {
+                return value.equals(mStorage.getBoolean(key, false));
+            }
+        } catch (ClassCastException e) {
+            //saved with another type since
+        }
+        return false;
+    }
+
+    /**
+     * Looks for a key in the overlay
+     * @return the pending value, {@link StorageEditor#REMOVED} if removed (or cleared) or null if the storage must be read
+     */
+    private synchronized Object pending(String key) {
+        Object value = mPending.get(key);
+        if (value != null) {
+            return value;
+        }
+        if (mPendingClear) {
+            return StorageEditor.REMOVED;
+        }
+        value = mFlushing.get(key);
+        if (value != null) {
+            return value;
+        }
+        return mFlushingClear ? StorageEditor.REMOVED : null;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = pending(key);
+        if (value == null) {
+            return mStorage.getString(key, defValue);
+        }
+        return value == StorageEditor.REMOVED ? defValue : (String) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = pending(key);
+        if (value == null) {
+            return mStorage.getStringSet(key, defValues);
+        }
+        return value == StorageEditor.REMOVED ? defValues : (Set<String>) value;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = pending(key);
+        if (value == null) {
+            return mStorage.getInt(key, defValue);
+        }
+        return value == StorageEditor.REMOVED ? defValue : (Integer) value;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = pending(key);
+        if (value == null) {
+            return mStorage.getLong(key, defValue);
+        }
+        return value == StorageEditor.REMOVED ? defValue : (Long) value;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = pending(key);
+        if (value == null) {
+            return mStorage.getFloat(key, defValue);
+        }
+        return value == StorageEditor.REMOVED ? defValue : (Float) value;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = pending(key);
+        if (value == null) {
+            return mStorage.getBoolean(key, defValue);
+        }
+        return value == StorageEditor.REMOVED ? defValue : (Boolean) value;
+    }
+
+    @Override
+    public byte[] getBytes(String key, byte[] defValue) {
+        Object value = pending(key);
+        if (value == null) {
+            return mStorage.getBytes(key, defValue);
+        }
+        return value instanceof byte[] ? ((byte[]) value).clone() : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        Object value = pending(key);
+        return value == null ? mStorage.contains(key) : value != StorageEditor.REMOVED;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> pending;
+        Map<String, Object> flushing;
+        boolean pendingClear;
+        boolean flushingClear;
+        synchronized (this) {
+            pending = new HashMap<>(mPending);
+            flushing = new HashMap<>(mFlushing);
+            pendingClear = mPendingClear;
+            flushingClear = mFlushingClear;
+        }
+        Map<String, Object> values = new HashMap<>();
+        if (!pendingClear) {
+            if (!flushingClear) {
+                values.putAll(mStorage.getAll());
+            }
+            overlay(values, flushing);
+        }
+        overlay(values, pending);
+        return values;
+    }
+
+    private static void overlay(Map<String, Object> values, Map<String, Object> changes) {
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() == StorageEditor.REMOVED) {
+                values.remove(change.getKey());
+            } else if (change.getValue() instanceof byte[]) {
+                values.put(change.getKey(), ((byte[]) change.getValue()).clone());
+            } else {
+                values.put(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new StorageEditor() {
+            @Override
+            protected boolean write(Map<String, Object> changes, boolean clear, boolean sync) {
+                return CoalescingStorage.this.write(changes, clear, sync);
+            }
+        };
+    }
+
+    private boolean write(Map<String, Object> changes, boolean clear, boolean sync) {
+        if (changes.isEmpty() && !clear) {
+            return true;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (mPending.isEmpty() && !mPendingClear) {
+                mFirstPendingNanos = now;
+            }
+            mLastWriteNanos = now;
+            if (clear) {
+                mPending.clear();
+                mPendingClear = true;
+            }
+            mPending.putAll(changes);
+            mMaxPendingCount = Math.max(mMaxPendingCount, mPending.size() + mFlushing.size());
+            if (!sync && !mFlushScheduled) {
+                mFlushScheduled = true;
+                mExecutor.schedule(mFlushTask, mWindowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (clear) {
+            notifyListeners(null);
+        }
+        for (String key : changes.keySet()) {
+            notifyListeners(key);
+        }
+        return !sync || flushPending();
+    }
+
+    private void onFlushTimer() {
+        long delay;
+        synchronized (this) {
+            long now = System.nanoTime();
+            delay = mLastWriteNanos + mWindowNanos - now;
+            if (mMaxDelayNanos > 0) {
+                delay = Math.min(delay, mFirstPendingNanos + mMaxDelayNanos - now);
+            }
+            if (delay > 0 && (!mPending.isEmpty() || mPendingClear)) {
+                //written again during the window
+                mExecutor.schedule(mFlushTask, delay, TimeUnit.NANOSECONDS);
+                return;
+            }
+            mFlushScheduled = false;
+        }
+        flushPending();
+    }
+
+    /**
+     * Writes the pending changes to the storage, synchronously
+     */
+    @Override
+    public void flush() {
+        flushPending();
+    }
+
+    /**
+     * Writes the pending changes with a single commit
+     * @return the result of the commit
+     */
+    private boolean flushPending() {
+        synchronized (mFlushLock) {
+            Map<String, Object> changes;
+            boolean clear;
+            synchronized (this) {
+                if (mPending.isEmpty() && !mPendingClear) {
+                    return true;
+                }
+                changes = mPending;
+                clear = mPendingClear;
+                //kept visible to the reads until the storage has them
+                mFlushing = changes;
+                mFlushingClear = clear;
+                mPending = new LinkedHashMap<>();
+                mPendingClear = false;
+                mFlushCount++;
+            }
+            boolean result = false;
+            try {
+                Editor editor = mStorage.edit();
+                if (clear) {
+                    editor.clear();
+                }
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    StorageEditor.putValue(editor, change.getKey(), change.getValue());
+                }
+                result = editor.commit();
+            } finally {
+                synchronized (this) {
+                    if (result) {
+                        //the storage may notify them after this, e.g. from the main thread
+                        if (clear) {
+                            mFlushed.clear();
+                            //unless the storage already notified it while it was written
+                            mFlushedClear = !mFlushingClearNotified;
+                        }
+                        mFlushed.putAll(changes);
+                    } else {
+                        //kept pending, newer changes win over the ones that failed
+                        Map<String, Object> pending = mPending;
+                        mPending = new LinkedHashMap<>(changes);
+                        if (mPendingClear) {
+                            mPending.clear();
+                        }
+                        mPending.putAll(pending);
+                        mPendingClear |= clear;
+                        if (!mFlushScheduled) {
+                            mFlushScheduled = true;
+                            mExecutor.schedule(mFlushTask, mWindowNanos, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                    mFlushing = Collections.emptyMap();
+                    mFlushingClear = false;
+                    mFlushingClearNotified = false;
+                }
+            }
+            return result;
+        }
+    }
+
+    private void notifyListeners(String key) {
+        for (OnChangeListener listener : mListeners) {
+            listener.onSettingChanged(this, key);
+        }
+    }
+
+    @Override
+    public void registerChangeListener(OnChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterChangeListener(OnChangeListener listener) {
+        mListeners.remove(listener);
+    }
+}
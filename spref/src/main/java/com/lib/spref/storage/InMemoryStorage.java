@@ -0,0 +1,152 @@
+package com.lib.spref.storage;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link SettingsStorage} that keeps every value in memory only, useful for tests and benchmarks on the JVM
+ */
+public class InMemoryStorage implements SettingsStorage {
+    private final Map<String, Object> mValues = new HashMap<>();
+    private final List<OnChangeListener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Factory that returns the same storage for the same name
+     * @return a new factory
+     */
+    public static Factory factory() {
+        return new Factory() {
+            private final ConcurrentHashMap<String, SettingsStorage> mStorages = new ConcurrentHashMap<>();
+
+            @Override
+            public SettingsStorage create(Context context, String name, int mode) {
+                SettingsStorage storage = mStorages.get(name);
+                if (storage == null) {
+                    SettingsStorage previous = mStorages.putIfAbsent(name, storage = new InMemoryStorage());
+                    if (previous != null) {
+                        storage = previous;
+                    }
+                }
+                return storage;
+            }
+        };
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String value = (String) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Set<String> value = (Set<String>) get(key);
+        return value != null ? value : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Integer value = (Integer) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Long value = (Long) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Float value = (Float) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Boolean value = (Boolean) get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public byte[] getBytes(String key, byte[] defValue) {
+        Object value = get(key);
+        return value instanceof byte[] ? ((byte[]) value).clone() : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        synchronized (mValues) {
+            return mValues.containsKey(key);
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (mValues) {
+            return new HashMap<>(mValues);
+        }
+    }
+
+    private Object get(String key) {
+        synchronized (mValues) {
+            return mValues.get(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new StorageEditor() {
+            @Override
+            protected boolean write(Map<String, Object> changes, boolean clear, boolean sync) {
+                List<String> changedKeys = new ArrayList<>(changes.size());
+                synchronized (mValues) {
+                    if (clear) {
+                        mValues.clear();
+                    }
+                    for (Map.Entry<String, Object> change : changes.entrySet()) {
+                        if (change.getValue() == REMOVED) {
+                            if (mValues.remove(change.getKey()) != null) {
+                                changedKeys.add(change.getKey());
+                            }
+                        } else {
+                            mValues.put(change.getKey(), change.getValue());
+                            changedKeys.add(change.getKey());
+                        }
+                    }
+                }
+                notifyListeners(clear, changedKeys);
+                return true;
+            }
+        };
+    }
+
+    private void notifyListeners(boolean clear, List<String> changedKeys) {
+        for (OnChangeListener listener : mListeners) {
+            if (clear) {
+                listener.onSettingChanged(this, null);
+            }
+            for (String key : changedKeys) {
+                listener.onSettingChanged(this, key);
+            }
+        }
+    }
+
+    @Override
+    public void registerChangeListener(OnChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterChangeListener(OnChangeListener listener) {
+        mListeners.remove(listener);
+    }
+}
@@ -0,0 +1,898 @@
+package com.lib.spref.storage;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * {@link SettingsStorage} that appends every commit as a record to a memory mapped log file, so the cost of a write
+ * depends on the size of the change and not on the size of the whole file.
+ * <p>
+ * The file starts with a header followed by records {@code [int length][int crc32][entries]}, one record per commit.
+ * Each entry is {@code [byte type][int key length][key][value]}. An in-memory index keeps the position of the live
+ * entry of each key. Records with a wrong checksum (a torn write at the tail) and anything after them are discarded
+ * when the file is opened. Once the overwritten entries take more space than the live ones the log is compacted
+ * in the background.
+ * <p>
+ * {@link Editor#apply()} writes into the mapped memory (it survives a crash of the process),
+ * {@link Editor#commit()} also forces the changes to the disk.
+ */
+public class LogStorage implements SettingsStorage {
+    static final String FILE_EXTENSION = ".splog";
+    static final String STRING_ENCODING = "UTF-8";
+    static final String COMPACT_EXTENSION = ".compact";
+
+    static final int MAGIC = 0x53504C47;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int OFFSET_MAGIC = 0;
+    static final int OFFSET_VERSION = 4;
+    static final int OFFSET_GENERATION = 8;
+    static final int OFFSET_TAIL = 16;
+    static final int OFFSET_SEQUENCE = 24;
+    static final int RECORD_HEADER_SIZE = 8;
+
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_INT = 2;
+    static final byte TYPE_LONG = 3;
+    static final byte TYPE_FLOAT = 4;
+    static final byte TYPE_BOOLEAN = 5;
+    static final byte TYPE_STRING_SET = 6;
+    static final byte TYPE_REMOVED = 7;
+    static final byte TYPE_CLEAR = 8;
+    static final byte TYPE_BYTES = 9;
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int MIN_COMPACTION_SIZE = 64 * 1024;
+    private static final ConcurrentHashMap<String, LogStorage> sStorages = new ConcurrentHashMap<>();
+    private static final ExecutorService sCompactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SPref-LogStorage-compaction");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Factory FACTORY = new Factory() {
+        @Override
+        public SettingsStorage create(Context context, String name, int mode) {
+            return open(new File(context.getFilesDir(), name + FILE_EXTENSION));
+        }
+    };
+
+    final File mFile;
+    final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+    final Map<String, Entry> mIndex = new HashMap<>();
+    private final List<OnChangeListener> mListeners = new CopyOnWriteArrayList<>();
+    private final Executor mCompactionExecutor;
+    private final Object mCompactionLock = new Object();
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    MappedByteBuffer mBuffer;
+    int mTail;
+    long mGeneration;
+    long mSequence;
+    private long mLiveBytes;
+    private long mDeadBytes;
+    private boolean mCompactionScheduled;
+
+    /**
+     * Factory that keeps the log files on the application files directory, the same file is always opened by the same instance
+     * @return the factory
+     */
+    public static Factory factory() {
+        return FACTORY;
+    }
+
+    /**
+     * Opens a log file, the same file is always opened by the same instance
+     * @param file the log file
+     * @return the storage
+     */
+    public static LogStorage open(File file) {
+        String path = file.getAbsolutePath();
+        LogStorage storage = sStorages.get(path);
+        if (storage == null) {
+            try {
+                storage = new LogStorage(file, sCompactionExecutor);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open " + path, e);
+            }
+            LogStorage previous = sStorages.putIfAbsent(path, storage);
+            if (previous != null) {
+                storage.close();
+                storage = previous;
+            }
+        }
+        return storage;
+    }
+
+    /**
+     * Constructor, prefer {@link #open(File)} which never maps the same file twice
+     * @param file the log file
+     * @param compactionExecutor the executor where the compaction runs
+     * @throws IOException if the file cannot be opened
+     */
+    LogStorage(File file, Executor compactionExecutor) throws IOException {
+        this(file, compactionExecutor, true);
+    }
+
+    /**
+     * Constructor
+     * @param file the log file
+     * @param compactionExecutor the executor where the compaction runs
+     * @param open if false the subclass must call {@link #map()} and {@link #load()} itself
+     * @throws IOException if the file cannot be opened
+     */
+    LogStorage(File file, Executor compactionExecutor, boolean open) throws IOException {
+        mFile = file;
+        mCompactionExecutor = compactionExecutor;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        if (open) {
+            map();
+            load();
+        }
+    }
+
+    /**
+     * Maps the whole file
+     */
+    void map() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        long length = mRandomAccessFile.length();
+        if (length < INITIAL_CAPACITY) {
+            mRandomAccessFile.setLength(INITIAL_CAPACITY);
+            length = INITIAL_CAPACITY;
+        }
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    /**
+     * Closes the file, the current mapping stays readable until it is replaced
+     */
+    void unmap() throws IOException {
+        mChannel.close();
+        mRandomAccessFile.close();
+    }
+
+    /**
+     * Reads the header and replays every valid record into the index
+     */
+    void load() {
+        mIndex.clear();
+        mLiveBytes = 0;
+        mDeadBytes = 0;
+        if (mBuffer.getInt(OFFSET_MAGIC) != MAGIC || mBuffer.getInt(OFFSET_VERSION) != FORMAT_VERSION) {
+            //new (or unknown) file
+            zero(0, mBuffer.capacity());
+            mBuffer.putInt(OFFSET_MAGIC, MAGIC);
+            mBuffer.putInt(OFFSET_VERSION, FORMAT_VERSION);
+            mBuffer.putLong(OFFSET_GENERATION, 0);
+            mBuffer.putLong(OFFSET_SEQUENCE, 0);
+            mBuffer.putLong(OFFSET_TAIL, HEADER_SIZE);
+        }
+        mGeneration = mBuffer.getLong(OFFSET_GENERATION);
+        mSequence = mBuffer.getLong(OFFSET_SEQUENCE);
+        mTail = HEADER_SIZE;
+        replay(mBuffer.capacity());
+        mBuffer.putLong(OFFSET_TAIL, mTail);
+    }
+
+    /**
+     * Replays the records from the current tail
+     * @param limit the position where the replay must stop
+     * @return the keys changed by the replayed records (null if the storage was cleared)
+     */
+    Set<String> replay(int limit) {
+        Set<String> changedKeys = new HashSet<>();
+        boolean cleared = false;
+        int position = mTail;
+        while (position + RECORD_HEADER_SIZE <= limit) {
+            int length = mBuffer.getInt(position);
+            //compared without adding to the position, a corrupted length could overflow the sum
+            if (length <= 0 || length > limit - position - RECORD_HEADER_SIZE) {
+                if (length != 0) {
+                    //torn record, it is erased so it is never mistaken for a valid one
+                    zero(position, limit);
+                }
+                break;
+            }
+            byte[] payload = read(position + RECORD_HEADER_SIZE, length);
+            if (checksum(payload) != mBuffer.getInt(position + 4)) {
+                zero(position, limit);
+                break;
+            }
+            cleared |= applyPayload(position + RECORD_HEADER_SIZE, length, changedKeys);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        mTail = position;
+        return cleared ? null : changedKeys;
+    }
+
+    /**
+     * Applies the entries of a record to the index
+     * @return true if the record cleared the storage
+     */
+    private boolean applyPayload(int start, int length, Set<String> changedKeys) {
+        boolean cleared = false;
+        int position = start;
+        int end = start + length;
+        while (position < end) {
+            byte type = mBuffer.get(position);
+            int keyLength = mBuffer.getInt(position + 1);
+            String key = decodeString(position + 5, keyLength);
+            int valuePosition = position + 5 + keyLength;
+            int size = 5 + keyLength + valueSize(type, valuePosition);
+            if (type == TYPE_CLEAR) {
+                mIndex.clear();
+                mDeadBytes += mLiveBytes + size;
+                mLiveBytes = 0;
+                changedKeys.clear();
+                cleared = true;
+            } else {
+                Entry previous = type == TYPE_REMOVED ? mIndex.remove(key) : mIndex.put(key, new Entry(type, position, valuePosition, size));
+                if (previous != null) {
+                    mDeadBytes += previous.mSize;
+                    mLiveBytes -= previous.mSize;
+                }
+                if (type == TYPE_REMOVED) {
+                    mDeadBytes += size;
+                } else {
+                    mLiveBytes += size;
+                }
+                changedKeys.add(key);
+            }
+            position += size;
+        }
+        return cleared;
+    }
+
+    private int valueSize(byte type, int valuePosition) {
+        switch (type) {
+            case TYPE_STRING:
+            case TYPE_BYTES:
+                return 4 + mBuffer.getInt(valuePosition);
+            case TYPE_INT:
+            case TYPE_FLOAT:
+                return 4;
+            case TYPE_LONG:
+                return 8;
+            case TYPE_BOOLEAN:
+                return 1;
+            case TYPE_STRING_SET:
+                int count = mBuffer.getInt(valuePosition);
+                int size = 4;
+                for (int i = 0; i < count; i++) {
+                    size += 4 + mBuffer.getInt(valuePosition + size);
+                }
+                return size;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        beforeRead();
+        mLock.readLock().lock();
+        try {
+            Entry entry = get(key, TYPE_STRING);
+            return entry != null ? decodeString(entry.mValuePosition + 4, mBuffer.getInt(entry.mValuePosition)) : defValue;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        beforeRead();
+        mLock.readLock().lock();
+        try {
+            Entry entry = get(key, TYPE_STRING_SET);
+            return entry != null ? decodeStringSet(entry.mValuePosition) : defValues;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        beforeRead();
+        mLock.readLock().lock();
+        try {
+            Entry entry = get(key, TYPE_INT);
+            return entry != null ? mBuffer.getInt(entry.mValuePosition) : defValue;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        beforeRead();
+        mLock.readLock().lock();
+        try {
+            Entry entry = get(key, TYPE_LONG);
+            return entry != null ? mBuffer.getLong(entry.mValuePosition) : defValue;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        beforeRead();
+        mLock.readLock().lock();
+        try {
+            Entry entry = get(key, TYPE_FLOAT);
+            return entry != null ? mBuffer.getFloat(entry.mValuePosition) : defValue;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        beforeRead();
+        mLock.readLock().lock();
+        try {
+            Entry entry = get(key, TYPE_BOOLEAN);
+            return entry != null ? mBuffer.get(entry.mValuePosition) != 0 : defValue;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public byte[] getBytes(String key, byte[] defValue) {
+        beforeRead();
+        mLock.readLock().lock();
+        try {
+            Entry entry = mIndex.get(key);
+            if (entry == null || entry.mType != TYPE_BYTES) {
+                return defValue;
+            }
+            return read(entry.mValuePosition + 4, mBuffer.getInt(entry.mValuePosition));
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        beforeRead();
+        mLock.readLock().lock();
+        try {
+            return mIndex.containsKey(key);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        beforeRead();
+        mLock.readLock().lock();
+        try {
+            Map<String, Object> values = new HashMap<>(mIndex.size());
+            for (Map.Entry<String, Entry> entry : mIndex.entrySet()) {
+                values.put(entry.getKey(), decode(entry.getValue()));
+            }
+            return values;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the entry of a key checking its type, the read lock must be held
+     * @throws ClassCastException if the entry has another type, as {@link android.content.SharedPreferences} does
+     */
+    private Entry get(String key, byte type) {
+        Entry entry = mIndex.get(key);
+        if (entry != null && entry.mType != type) {
+            throw new ClassCastException(key + " is not of the requested type");
+        }
+        return entry;
+    }
+
+    /**
+     * Called before every read, without any lock held
+     */
+    void beforeRead() {
+        //nothing to do, only one process writes the file
+    }
+
+    private Object decode(Entry entry) {
+        int position = entry.mValuePosition;
+        switch (entry.mType) {
+            case TYPE_STRING:
+                return decodeString(position + 4, mBuffer.getInt(position));
+            case TYPE_INT:
+                return mBuffer.getInt(position);
+            case TYPE_LONG:
+                return mBuffer.getLong(position);
+            case TYPE_FLOAT:
+                return mBuffer.getFloat(position);
+            case TYPE_BOOLEAN:
+                return mBuffer.get(position) != 0;
+            case TYPE_STRING_SET:
+                return decodeStringSet(position);
+            case TYPE_BYTES:
+                return read(position + 4, mBuffer.getInt(position));
+            default:
+                return null;
+        }
+    }
+
+    private Set<String> decodeStringSet(int position) {
+        int count = mBuffer.getInt(position);
+        Set<String> values = new HashSet<>(count);
+        int offset = position + 4;
+        for (int i = 0; i < count; i++) {
+            int length = mBuffer.getInt(offset);
+            values.add(decodeString(offset + 4, length));
+            offset += 4 + length;
+        }
+        return Collections.unmodifiableSet(values);
+    }
+
+    private String decodeString(int position, int length) {
+        try {
+            return new String(read(position, length), STRING_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    byte[] read(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(position);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    void zero(int from, int to) {
+        for (int i = from; i < to; i++) {
+            mBuffer.put(i, (byte) 0);
+        }
+    }
+
+    static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public Editor edit() {
+        return new StorageEditor() {
+            @Override
+            protected boolean write(Map<String, Object> changes, boolean clear, boolean sync) {
+                return LogStorage.this.write(changes, clear, sync);
+            }
+        };
+    }
+
+    private boolean write(Map<String, Object> changes, boolean clear, boolean sync) {
+        if (changes.isEmpty() && !clear) {
+            return true;
+        }
+        byte[] payload;
+        try {
+            payload = encode(changes, clear);
+        } catch (IOException e) {
+            return false;
+        }
+        Set<String> externalKeys = Collections.emptySet();
+        Set<String> changedKeys;
+        mLock.writeLock().lock();
+        try {
+            externalKeys = beforeWrite();
+            changedKeys = append(payload);
+            if (sync) {
+                mBuffer.force();
+            }
+            scheduleCompactionIfNeeded();
+        } catch (IOException e) {
+            return false;
+        } finally {
+            afterWrite();
+            mLock.writeLock().unlock();
+        }
+        notifyListeners(externalKeys);
+        if (clear) {
+            notifyListeners(null);
+        }
+        notifyListeners(changedKeys);
+        return true;
+    }
+
+    /**
+     * Called with the write lock held before a record is appended (or the log is compacted)
+     * @return the keys changed by someone else since the last write, to be notified (null if the storage was cleared)
+     * @throws IOException if the log cannot be written
+     */
+    Set<String> beforeWrite() throws IOException {
+        //nothing to do, only one process writes the file
+        return Collections.emptySet();
+    }
+
+    /**
+     * Called with the write lock held after a record was appended (or failed to be)
+     */
+    void afterWrite() {
+        //nothing to do, only one process writes the file
+    }
+
+    /**
+     * Appends a record, the write lock must be held
+     * @return the changed keys, only the ones written after the clear if the record clears the storage
+     */
+    Set<String> append(byte[] payload) throws IOException {
+        ensureCapacity(mTail + RECORD_HEADER_SIZE + payload.length);
+        int position = mTail;
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(position + 4);
+        buffer.putInt(checksum(payload));
+        buffer.put(payload);
+        //the length goes last, a record without length is never replayed
+        mBuffer.putInt(position, payload.length);
+        Set<String> changedKeys = new HashSet<>();
+        applyPayload(position + RECORD_HEADER_SIZE, payload.length, changedKeys);
+        mTail = position + RECORD_HEADER_SIZE + payload.length;
+        mSequence++;
+        mBuffer.putLong(OFFSET_TAIL, mTail);
+        mBuffer.putLong(OFFSET_SEQUENCE, mSequence);
+        return changedKeys;
+    }
+
+    private void ensureCapacity(long required) throws IOException {
+        int capacity = mBuffer.capacity();
+        if (required + RECORD_HEADER_SIZE > capacity) {
+            long newCapacity = capacity;
+            while (required + RECORD_HEADER_SIZE > newCapacity) {
+                newCapacity *= 2;
+            }
+            if (newCapacity > Integer.MAX_VALUE) {
+                throw new IOException("Log is too big");
+            }
+            mRandomAccessFile.setLength(newCapacity);
+            remap();
+        }
+    }
+
+    /**
+     * Maps the whole file again after it grew
+     */
+    void remap() throws IOException {
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, mRandomAccessFile.length());
+    }
+
+    static byte[] encode(Map<String, Object> changes, boolean clear) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        if (clear) {
+            output.writeByte(TYPE_CLEAR);
+            output.writeInt(0);
+        }
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            encodeEntry(output, change.getKey(), change.getValue());
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void encodeEntry(DataOutputStream output, String key, Object value) throws IOException {
+        byte[] keyBytes = key.getBytes(STRING_ENCODING);
+        if (value == StorageEditor.REMOVED) {
+            output.writeByte(TYPE_REMOVED);
+            writeBytes(output, keyBytes);
+        } else if (value instanceof String) {
+            output.writeByte(TYPE_STRING);
+            writeBytes(output, keyBytes);
+            writeBytes(output, ((String) value).getBytes(STRING_ENCODING));
+        } else if (value instanceof Integer) {
+            output.writeByte(TYPE_INT);
+            writeBytes(output, keyBytes);
+            output.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            output.writeByte(TYPE_LONG);
+            writeBytes(output, keyBytes);
+            output.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            output.writeByte(TYPE_FLOAT);
+            writeBytes(output, keyBytes);
+            output.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            output.writeByte(TYPE_BOOLEAN);
+            writeBytes(output, keyBytes);
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            output.writeByte(TYPE_BYTES);
+            writeBytes(output, keyBytes);
+            writeBytes(output, (byte[]) value);
+        } else if (value instanceof Set) {
+            Set<?> values = (Set<?>) value;
+            output.writeByte(TYPE_STRING_SET);
+            writeBytes(output, keyBytes);
+            output.writeInt(values.size());
+            for (Object item : values) {
+                writeBytes(output, String.valueOf(item).getBytes(STRING_ENCODING));
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value type for " + key);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if (!mCompactionScheduled && mTail > MIN_COMPACTION_SIZE && mDeadBytes > mLiveBytes) {
+            mCompactionScheduled = true;
+            mCompactionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * Rewrites the log with only the live entries, in a new file that replaces the current one.
+     * The live entries are copied from a snapshot taken under the read lock and written to the new file without any
+     * lock, so reads and writes go on meanwhile. The write lock is only held to copy the records appended since the
+     * snapshot and to swap the mapping.
+     */
+    public void compact() {
+        synchronized (mCompactionLock) {
+            Snapshot snapshot = null;
+            File compacted = null;
+            try {
+                compacted = File.createTempFile(mFile.getName() + ".", COMPACT_EXTENSION, mFile.getAbsoluteFile().getParentFile());
+                mLock.readLock().lock();
+                try {
+                    snapshot = snapshot();
+                } finally {
+                    mLock.readLock().unlock();
+                }
+                writeSnapshot(compacted, snapshot);
+            } catch (IOException e) {
+                snapshot = null;
+            }
+
+            Set<String> externalKeys = Collections.emptySet();
+            mLock.writeLock().lock();
+            try {
+                mCompactionScheduled = false;
+                externalKeys = beforeWrite();
+                //the snapshot is useless if another process compacted the log meanwhile
+                if (snapshot != null && snapshot.mGeneration == mGeneration && snapshot.mTail <= mTail) {
+                    swap(compacted, snapshot);
+                }
+            } catch (IOException e) {
+                //the current log is still valid, the compaction is retried after the next writes
+            } finally {
+                afterWrite();
+                mLock.writeLock().unlock();
+            }
+            if (compacted != null && compacted.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                compacted.delete();
+            }
+            notifyListeners(externalKeys);
+        }
+    }
+
+    /**
+     * Copies the live entries and computes their index in the compacted file, the read (or write) lock must be held
+     */
+    private Snapshot snapshot() {
+        Map<String, Entry> index = new HashMap<>(mIndex.size());
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.max(0, mLiveBytes));
+        int position = HEADER_SIZE + RECORD_HEADER_SIZE;
+        for (Map.Entry<String, Entry> indexEntry : mIndex.entrySet()) {
+            Entry entry = indexEntry.getValue();
+            byte[] bytes = read(entry.mPosition, entry.mSize);
+            output.write(bytes, 0, bytes.length);
+            index.put(indexEntry.getKey(), new Entry(entry.mType, position, position + entry.mValuePosition - entry.mPosition, entry.mSize));
+            position += entry.mSize;
+        }
+        return new Snapshot(mGeneration, mTail, output.toByteArray(), index, mLiveBytes);
+    }
+
+    /**
+     * Writes the header and the single record of a snapshot into the compacted file, no lock is needed
+     */
+    private static void writeSnapshot(File compacted, Snapshot snapshot) throws IOException {
+        byte[] payload = snapshot.mPayload;
+        RandomAccessFile output = new RandomAccessFile(compacted, "rw");
+        try {
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < snapshot.mCompactedTail * 2) {
+                capacity *= 2;
+            }
+            output.setLength(0);
+            output.setLength(capacity);
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(snapshot.mGeneration + 1);
+            output.writeLong(snapshot.mCompactedTail);
+            output.writeLong(0);
+            if (payload.length > 0) {
+                output.writeInt(payload.length);
+                output.writeInt(checksum(payload));
+                output.write(payload);
+            }
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Copies the records appended since the snapshot into the compacted file, replaces the log with it and maps it,
+     * the write lock (and the file lock of the other processes) must be held
+     */
+    private void swap(File compacted, Snapshot snapshot) throws IOException {
+        byte[] appended = read(snapshot.mTail, mTail - snapshot.mTail);
+        int compactedTail = snapshot.mCompactedTail + appended.length;
+        RandomAccessFile output = new RandomAccessFile(compacted, "rw");
+        try {
+            long capacity = output.length();
+            while (capacity < compactedTail + RECORD_HEADER_SIZE) {
+                capacity *= 2;
+            }
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IOException("Log is too big");
+            }
+            output.setLength(capacity);
+            if (appended.length > 0) {
+                output.seek(snapshot.mCompactedTail);
+                output.write(appended);
+            }
+            output.seek(OFFSET_TAIL);
+            output.writeLong(compactedTail);
+            output.seek(OFFSET_SEQUENCE);
+            output.writeLong(mSequence + 1);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!compacted.renameTo(mFile)) {
+            throw new IOException("Could not replace " + mFile);
+        }
+        onCompacted();
+        unmap();
+        map();
+        mGeneration = mBuffer.getLong(OFFSET_GENERATION);
+        mSequence = mBuffer.getLong(OFFSET_SEQUENCE);
+        mIndex.clear();
+        mIndex.putAll(snapshot.mIndex);
+        mLiveBytes = snapshot.mLiveBytes;
+        mDeadBytes = 0;
+        mTail = snapshot.mCompactedTail;
+        //the records appended meanwhile are applied on top of the snapshot
+        replay(compactedTail);
+    }
+
+    /**
+     * Called with the write lock held once the compacted file replaced the log, before the new file is mapped
+     * (the current mapping is still the one of the replaced file)
+     */
+    void onCompacted() throws IOException {
+        //nothing to do, only one process writes the file
+    }
+
+    /**
+     * Releases the file, the storage can no longer be used
+     */
+    public void close() {
+        mLock.writeLock().lock();
+        try {
+            sStorages.remove(mFile.getAbsolutePath(), this);
+            unmap();
+        } catch (IOException e) {
+            //ignored
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    void notifyListeners(Set<String> changedKeys) {
+        if (mListeners.isEmpty() || (changedKeys != null && changedKeys.isEmpty())) {
+            return;
+        }
+        List<String> keys = changedKeys == null ? null : new ArrayList<>(changedKeys);
+        for (OnChangeListener listener : mListeners) {
+            if (keys == null) {
+                listener.onSettingChanged(this, null);
+            } else {
+                for (String key : keys) {
+                    listener.onSettingChanged(this, key);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void registerChangeListener(OnChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterChangeListener(OnChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Live entries of the log at a given tail, and their index once written in the compacted file
+     */
+    private static final class Snapshot {
+        final long mGeneration;
+        final int mTail;
+        final byte[] mPayload;
+        final Map<String, Entry> mIndex;
+        final long mLiveBytes;
+        final int mCompactedTail;
+
+        Snapshot(long generation, int tail, byte[] payload, Map<String, Entry> index, long liveBytes) {
+            mGeneration = generation;
+            mTail = tail;
+            mPayload = payload;
+            mIndex = index;
+            mLiveBytes = liveBytes;
+            mCompactedTail = payload.length == 0 ? HEADER_SIZE : HEADER_SIZE + RECORD_HEADER_SIZE + payload.length;
+        }
+    }
+
+    /**
+     * Position of the live entry of a key
+     */
+    static final class Entry {
+        final byte mType;
+        final int mPosition;
+        final int mValuePosition;
+        final int mSize;
+
+        Entry(byte type, int position, int valuePosition, int size) {
+            mType = type;
+            mPosition = position;
+            mValuePosition = valuePosition;
+            mSize = size;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.lib.spref.storage;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link LogStorage} that can be shared by several processes, replacing the deprecated {@link Context#MODE_MULTI_PROCESS}.
+ * <p>
+ * Every process maps the same log file. Writers exclude each other with a {@link FileLock} on a lock file next to the
+ * log and, before appending, replay the records appended by the other processes. Before each read the sequence and
+ * generation of the header are compared with the ones already replayed, so a read only costs two memory reads when
+ * nothing changed. Otherwise only the new records are replayed (the whole file is only read again after another
+ * process compacted it) and the change listeners are notified of the keys changed by the other processes.
+ */
+public class MultiProcessStorage extends LogStorage {
+    static final String LOCK_EXTENSION = ".lock";
+
+    private static final ConcurrentHashMap<String, MultiProcessStorage> sStorages = new ConcurrentHashMap<>();
+    private static final ExecutorService sCompactionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SPref-MultiProcessStorage-compaction");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Factory FACTORY = new Factory() {
+        @Override
+        public SettingsStorage create(Context context, String name, int mode) {
+            return open(new File(context.getFilesDir(), name + FILE_EXTENSION));
+        }
+    };
+
+    private final RandomAccessFile mLockFile;
+    private final FileChannel mLockChannel;
+    private FileLock mFileLock;
+
+    /**
+     * Factory that keeps the log files on the application files directory, the same file is always opened by the same
+     * instance within a process
+     * @return the factory
+     */
+    public static Factory factory() {
+        return FACTORY;
+    }
+
+    /**
+     * Opens a log file shared between processes, the same file is always opened by the same instance within a process
+     * @param file the log file
+     * @return the storage
+     */
+    public static MultiProcessStorage open(File file) {
+        String path = file.getAbsolutePath();
+        MultiProcessStorage storage = sStorages.get(path);
+        if (storage == null) {
+            try {
+                storage = new MultiProcessStorage(file, sCompactionExecutor);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open " + path, e);
+            }
+            MultiProcessStorage previous = sStorages.putIfAbsent(path, storage);
+            if (previous != null) {
+                storage.close();
+                storage = previous;
+            }
+        }
+        return storage;
+    }
+
+    /**
+     * Constructor, prefer {@link #open(File)} which never maps the same file twice
+     * @param file the log file
+     * @param compactionExecutor the executor where the compaction runs
+     * @throws IOException if the file cannot be opened
+     */
+    MultiProcessStorage(File file, Executor compactionExecutor) throws IOException {
+        super(file, compactionExecutor, false);
+        mLockFile = new RandomAccessFile(new File(file.getPath() + LOCK_EXTENSION), "rw");
+        mLockChannel = mLockFile.getChannel();
+        mLock.writeLock().lock();
+        try {
+            //the header may be created (or a torn record erased) while loading
+            lockFile();
+            map();
+            load();
+        } finally {
+            unlockFile();
+            mLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    void beforeRead() {
+        boolean changed;
+        mLock.readLock().lock();
+        try {
+            changed = hasExternalChanges();
+        } finally {
+            mLock.readLock().unlock();
+        }
+        if (changed) {
+            refresh();
+        }
+    }
+
+    /**
+     * Replays the changes of the other processes
+     */
+    private void refresh() {
+        Set<String> changedKeys = Collections.emptySet();
+        mLock.writeLock().lock();
+        try {
+            if (hasExternalChanges()) {
+                lockFile();
+                changedKeys = catchUp();
+            }
+        } catch (IOException e) {
+            //the current values are kept, the refresh is retried on the next read
+        } finally {
+            unlockFile();
+            mLock.writeLock().unlock();
+        }
+        notifyListeners(changedKeys);
+    }
+
+    @Override
+    Set<String> beforeWrite() throws IOException {
+        lockFile();
+        return catchUp();
+    }
+
+    @Override
+    void afterWrite() {
+        unlockFile();
+    }
+
+    @Override
+    void onCompacted() throws IOException {
+        //the other processes still map the replaced file, a new generation on its header makes them open the new one
+        mBuffer.putLong(OFFSET_GENERATION, mGeneration + 1);
+        mBuffer.force();
+    }
+
+    /**
+     * Whether another process wrote since the last replay, the read or write lock must be held
+     */
+    private boolean hasExternalChanges() {
+        return mBuffer.getLong(OFFSET_SEQUENCE) != mSequence || mBuffer.getLong(OFFSET_GENERATION) != mGeneration;
+    }
+
+    /**
+     * Replays the records appended by the other processes, the write lock and the file lock must be held
+     * @return the changed keys (null if everything may have changed)
+     */
+    private Set<String> catchUp() throws IOException {
+        if (mBuffer.getLong(OFFSET_GENERATION) != mGeneration) {
+            //compacted by another process
+            unmap();
+            map();
+            load();
+            return null;
+        }
+        long tail = mBuffer.getLong(OFFSET_TAIL);
+        if (tail > mBuffer.capacity()) {
+            //grown by another process
+            remap();
+        }
+        Set<String> changedKeys = tail > mTail ? replay((int) tail) : Collections.<String>emptySet();
+        mSequence = mBuffer.getLong(OFFSET_SEQUENCE);
+        return changedKeys;
+    }
+
+    private void lockFile() throws IOException {
+        mFileLock = mLockChannel.lock();
+    }
+
+    private void unlockFile() {
+        if (mFileLock != null) {
+            try {
+                mFileLock.release();
+            } catch (IOException e) {
+                //the lock is released when the channel is closed
+            }
+            mFileLock = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        sStorages.remove(mFile.getAbsolutePath(), this);
+        try {
+            mLockFile.close();
+        } catch (IOException e) {
+            //ignored
+        }
+    }
+}
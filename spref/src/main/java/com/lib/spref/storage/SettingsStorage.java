@@ -0,0 +1,121 @@
+package com.lib.spref.storage;
+
+import android.content.Context;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage backend of a {@link com.lib.spref.SettingsConnector}, its contract follows {@link android.content.SharedPreferences}:
+ * reads return the default value when the key does not exist, an editor collects changes until it is committed and
+ * writing a null value removes the key.
+ * Unlike {@link android.content.SharedPreferences} the change listeners are strongly referenced.
+ */
+public interface SettingsStorage {
+    /**
+     * Creates the storage of a connector
+     */
+    interface Factory {
+        /**
+         * Creates (or returns an already open) storage
+         *
+         * @param context application context (may be null for storages that do not need it)
+         * @param name    the name of the preferences
+         * @param mode    the mode requested through {@link com.lib.spref.SPref#mode(int)}
+         * @return the storage
+         */
+        SettingsStorage create(Context context, String name, int mode);
+    }
+
+    /**
+     * Listener of changes made to the storage
+     */
+    interface OnChangeListener {
+        /**
+         * Called after a key was written or removed
+         *
+         * @param storage the storage
+         * @param key     the key, null if the whole storage was cleared
+         */
+        void onSettingChanged(SettingsStorage storage, String key);
+    }
+
+    /**
+     * Collects changes to be written at once, a {@link #clear()} always happens before the other changes
+     */
+    interface Editor {
+        Editor putString(String key, String value);
+
+        Editor putStringSet(String key, Set<String> values);
+
+        Editor putInt(String key, int value);
+
+        Editor putLong(String key, long value);
+
+        Editor putFloat(String key, float value);
+
+        Editor putBoolean(String key, boolean value);
+
+        /**
+         * Writes raw bytes, storages that cannot keep bytes natively encode them
+         *
+         * @param key   the key
+         * @param value the bytes (null removes the key)
+         * @return this editor
+         */
+        Editor putBytes(String key, byte[] value);
+
+        Editor remove(String key);
+
+        Editor clear();
+
+        /**
+         * Writes the changes synchronously
+         *
+         * @return true if the changes were persisted
+         */
+        boolean commit();
+
+        /**
+         * Writes the changes to memory right away and persists them asynchronously
+         */
+        void apply();
+    }
+
+    String getString(String key, String defValue);
+
+    Set<String> getStringSet(String key, Set<String> defValues);
+
+    int getInt(String key, int defValue);
+
+    long getLong(String key, long defValue);
+
+    float getFloat(String key, float defValue);
+
+    boolean getBoolean(String key, boolean defValue);
+
+    /**
+     * Reads raw bytes written with {@link Editor#putBytes(String, byte[])}
+     *
+     * @param key      the key
+     * @param defValue the value returned if the key does not exist or was not written as bytes
+     * @return the bytes
+     */
+    byte[] getBytes(String key, byte[] defValue);
+
+    boolean contains(String key);
+
+    /**
+     * Every entry of the storage, read at once so the entries are consistent with each other.
+     * The values written with {@link Editor#putBytes(String, byte[])} are given as byte arrays
+     *
+     * @return a copy of the entries
+     */
+    Map<String, ?> getAll();
+
+    Editor edit();
+
+    void registerChangeListener(OnChangeListener listener);
+
+    void unregisterChangeListener(OnChangeListener listener);
+}
@@ -0,0 +1,106 @@
+package com.lib.spref.storage;
+
+import java.util.Arrays;
+
+/**
+ * Decides the shard of each key of a {@link ShardedStorage}
+ */
+public abstract class ShardStrategy {
+    /**
+     * Number of shards
+     * @return the number of shards
+     */
+    public abstract int getShardCount();
+
+    /**
+     * Shard of a key, must always be the same for the same key
+     * @param key the key (never null)
+     * @return the shard index, from 0 to {@link #getShardCount()} - 1
+     */
+    public abstract int getShard(String key);
+
+    /**
+     * Spreads the keys evenly by the hash of the key
+     * @param shardCount the number of shards
+     * @return the strategy
+     */
+    public static ShardStrategy hash(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("There must be at least one shard");
+        }
+        return new HashStrategy(shardCount);
+    }
+
+    /**
+     * Groups the keys by prefix: the keys starting with the prefix {@code i} (the first one that matches) are kept on
+     * the shard {@code i + 1}, every other key on the shard 0
+     * @param prefixes the prefixes
+     * @return the strategy
+     */
+    public static ShardStrategy prefix(String... prefixes) {
+        return new PrefixStrategy(prefixes.clone());
+    }
+
+    //the built-in strategies are equal when they split the keys the same way, so equal configurations share a connector
+    private static final class HashStrategy extends ShardStrategy {
+        private final int mShardCount;
+
+        HashStrategy(int shardCount) {
+            mShardCount = shardCount;
+        }
+
+        @Override
+        public int getShardCount() {
+            return mShardCount;
+        }
+
+        @Override
+        public int getShard(String key) {
+            //String.hashCode is specified, so the shard of a key never changes
+            return (key.hashCode() & Integer.MAX_VALUE) % mShardCount;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof HashStrategy && ((HashStrategy) o).mShardCount == mShardCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return mShardCount;
+        }
+    }
+
+    private static final class PrefixStrategy extends ShardStrategy {
+        private final String[] mPrefixes;
+
+        PrefixStrategy(String[] prefixes) {
+            mPrefixes = prefixes;
+        }
+
+        @Override
+        public int getShardCount() {
+            return mPrefixes.length + 1;
+        }
+
+        @Override
+        public int getShard(String key) {
+            for (int i = 0; i < mPrefixes.length; i++) {
+                if (key.startsWith(mPrefixes[i])) {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PrefixStrategy && Arrays.equals(((PrefixStrategy) o).mPrefixes, mPrefixes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(mPrefixes);
+        }
+    }
+}
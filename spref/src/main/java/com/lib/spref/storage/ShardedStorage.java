@@ -0,0 +1,292 @@
+package com.lib.spref.storage;
+
+import android.content.Context;
+
+import com.lib.spref.Utils.Utils;
+import com.lib.spref.internal.EncryptionIndex;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link SettingsStorage} that splits the keys across several storages (shards) of another storage type, named
+ * {@code name_0 ... name_n}, so a write only rewrites the shards of the changed keys.
+ * <p>
+ * The shards are opened (and loaded) on their first access. The changes of an editor are split by shard and
+ * each touched shard is written once, a commit that touches several shards is not atomic between them.
+ * {@link #getAll()} opens every shard.
+ * <p>
+ * The encryption flag of a key is kept on the shard of the key, so both are written together. The other internal
+ * keys (compact encryption flags, rotation checkpoint...) describe keys of every shard, they are kept on their own
+ * shard ({@code name_internal}) which is written after the others: if a commit is interrupted they describe the
+ * state before the commit, which is what the rotation expects to resume.
+ * <p>
+ * The values of the unsharded storage of the same name (saved before sharding was enabled) are moved to the shards
+ * on the first access.
+ */
+public class ShardedStorage implements SettingsStorage {
+    static final String SHARD_SEPARATOR = "_";
+    static final String INTERNAL_SHARD = "internal";
+
+    private final Factory mFactory;
+    private final Context mContext;
+    private final String mName;
+    private final int mMode;
+    private final ShardStrategy mStrategy;
+    private final AtomicReferenceArray<SettingsStorage> mShards;
+    private final int mInternalShard;
+    private volatile boolean mMigrated;
+    private boolean mMigrating;
+    private final List<OnChangeListener> mListeners = new CopyOnWriteArrayList<>();
+    private final OnChangeListener mShardListener = new OnChangeListener() {
+        @Override
+        public void onSettingChanged(SettingsStorage storage, String key) {
+            for (OnChangeListener listener : mListeners) {
+                listener.onSettingChanged(ShardedStorage.this, key);
+            }
+        }
+    };
+
+    /**
+     * Factory of sharded storages
+     * @param factory the factory of each shard
+     * @param strategy the strategy that decides the shard of each key
+     * @return the factory
+     */
+    public static Factory factory(Factory factory, ShardStrategy strategy) {
+        return new ShardedFactory(factory, strategy);
+    }
+
+    /**
+     * Constructor, no shard is opened until it is used
+     * @param factory the factory of each shard
+     * @param context application context
+     * @param name the name of the storage, the shards are named {@code name_index}
+     * @param mode the mode given to the factory of the shards
+     * @param strategy the strategy that decides the shard of each key
+     */
+    public ShardedStorage(Factory factory, Context context, String name, int mode, ShardStrategy strategy) {
+        mFactory = factory;
+        mContext = context;
+        mName = name;
+        mMode = mode;
+        mStrategy = strategy;
+        mInternalShard = strategy.getShardCount();
+        mShards = new AtomicReferenceArray<>(mInternalShard + 1);
+    }
+
+    /**
+     * Gets a shard, opening it if needed
+     * @param index the shard index, from 0 to {@link ShardStrategy#getShardCount()} (the shard of the internal keys)
+     * @return the shard
+     */
+    public SettingsStorage getShard(int index) {
+        if (!mMigrated) {
+            migrate();
+        }
+        return openShard(index);
+    }
+
+    private SettingsStorage openShard(int index) {
+        SettingsStorage shard = mShards.get(index);
+        if (shard == null) {
+            synchronized (this) {
+                shard = mShards.get(index);
+                if (shard == null) {
+                    String suffix = index == mInternalShard ? INTERNAL_SHARD : String.valueOf(index);
+                    shard = mFactory.create(mContext, mName + SHARD_SEPARATOR + suffix, mMode);
+                    shard.registerChangeListener(mShardListener);
+                    mShards.set(index, shard);
+                }
+            }
+        }
+        return shard;
+    }
+
+    /**
+     * Moves the values of the unsharded storage to the shards, then clears it. If the process dies meanwhile the
+     * move is done again on the next start, before anything else is read or written.
+     */
+    private synchronized void migrate() {
+        //a listener notified by the migration reads while it runs
+        if (mMigrated || mMigrating) {
+            return;
+        }
+        mMigrating = true;
+        try {
+            SettingsStorage unsharded = mFactory.create(mContext, mName, mMode);
+            Map<String, ?> values = unsharded.getAll();
+            if (!values.isEmpty()) {
+                Editor[] editors = new Editor[mShards.length()];
+                for (Map.Entry<String, ?> entry : values.entrySet()) {
+                    int index = indexOf(entry.getKey());
+                    if (editors[index] == null) {
+                        editors[index] = openShard(index).edit();
+                    }
+                    StorageEditor.putValue(editors[index], entry.getKey(), entry.getValue());
+                }
+                if (writeShards(editors, true)) {
+                    unsharded.edit().clear().commit();
+                }
+            }
+        } finally {
+            mMigrated = true;
+            mMigrating = false;
+        }
+    }
+
+    private int indexOf(String key) {
+        if (key == null) {
+            return 0;
+        }
+        if (key.startsWith(EncryptionIndex.ENCRYPTION_TAG)) {
+            //the flag of a key is written with its value
+            return mStrategy.getShard(key.substring(EncryptionIndex.ENCRYPTION_TAG.length()));
+        }
+        return key.startsWith(Utils.INTERNAL_KEY_PREFIX) ? mInternalShard : mStrategy.getShard(key);
+    }
+
+    /**
+     * Writes the editors of the shards, the one of the internal keys last
+     * @return true if every commit succeeded
+     */
+    private static boolean writeShards(Editor[] editors, boolean sync) {
+        boolean result = true;
+        for (Editor editor : editors) {
+            if (editor == null) {
+                continue;
+            }
+            if (sync) {
+                result &= editor.commit();
+            } else {
+                editor.apply();
+            }
+        }
+        return result;
+    }
+
+    private SettingsStorage shardOf(String key) {
+        return getShard(indexOf(key));
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return shardOf(key).getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return shardOf(key).getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return shardOf(key).getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return shardOf(key).getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return shardOf(key).getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return shardOf(key).getBoolean(key, defValue);
+    }
+
+    @Override
+    public byte[] getBytes(String key, byte[] defValue) {
+        return shardOf(key).getBytes(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return shardOf(key).contains(key);
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < mShards.length(); i++) {
+            values.putAll(getShard(i).getAll());
+        }
+        return values;
+    }
+
+    @Override
+    public Editor edit() {
+        return new StorageEditor() {
+            @Override
+            protected boolean write(Map<String, Object> changes, boolean clear, boolean sync) {
+                Editor[] editors = new Editor[mShards.length()];
+                if (clear) {
+                    for (int i = 0; i < editors.length; i++) {
+                        editors[i] = getShard(i).edit().clear();
+                    }
+                }
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    int index = indexOf(change.getKey());
+                    if (editors[index] == null) {
+                        editors[index] = getShard(index).edit();
+                    }
+                    putValue(editors[index], change.getKey(), change.getValue());
+                }
+                return writeShards(editors, sync);
+            }
+        };
+    }
+
+    @Override
+    public void registerChangeListener(OnChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterChangeListener(OnChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Factory of sharded storages, equal to the factories that split the same storage the same way
+     */
+    private static final class ShardedFactory implements Factory {
+        private final Factory mFactory;
+        private final ShardStrategy mStrategy;
+
+        ShardedFactory(Factory factory, ShardStrategy strategy) {
+            mFactory = factory;
+            mStrategy = strategy;
+        }
+
+        @Override
+        public SettingsStorage create(Context context, String name, int mode) {
+            return new ShardedStorage(mFactory, context, name, mode, mStrategy);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ShardedFactory)) {
+                return false;
+            }
+            ShardedFactory factory = (ShardedFactory) o;
+            return mFactory.equals(factory.mFactory) && mStrategy.equals(factory.mStrategy);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mFactory.hashCode() + mStrategy.hashCode();
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.lib.spref.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link SettingsStorage} backed by {@link SharedPreferences}, the default storage
+ */
+public class SharedPreferencesStorage implements SettingsStorage {
+    /**
+     * Factory that opens the shared preferences through {@link Context#getSharedPreferences(String, int)}
+     */
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public SettingsStorage create(Context context, String name, int mode) {
+            return new SharedPreferencesStorage(context.getSharedPreferences(name, mode));
+        }
+    };
+
+    /**
+     * Prefix of the values written with {@link Editor#putBytes(String, byte[])}, the bytes are stored in Base64
+     */
+    public static final String BYTES_TAG = "#SPREF_BYTES#";
+    /**
+     * Prefix of the strings that start with {@link #BYTES_TAG} or with this tag, so they are not read as bytes
+     */
+    public static final String STRING_TAG = "#SPREF_STRING#";
+
+    private final SharedPreferences mPreferences;
+    private final Map<OnChangeListener, SharedPreferences.OnSharedPreferenceChangeListener> mListeners = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     * @param preferences the shared preferences
+     */
+    public SharedPreferencesStorage(SharedPreferences preferences) {
+        mPreferences = preferences;
+    }
+
+    /**
+     * The wrapped shared preferences
+     * @return the shared preferences
+     */
+    public SharedPreferences getSharedPreferences() {
+        return mPreferences;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String value = mPreferences.getString(key, null);
+        if (value == null) {
+            return defValue;
+        }
+        if (value.startsWith(BYTES_TAG)) {
+            //as the other storages do when a value is read with another type
+            throw new ClassCastException("The value of " + key + " is bytes");
+        }
+        return unescape(value);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return mPreferences.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return mPreferences.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return mPreferences.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return mPreferences.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return mPreferences.getBoolean(key, defValue);
+    }
+
+    @Override
+    public byte[] getBytes(String key, byte[] defValue) {
+        String value;
+        try {
+            value = mPreferences.getString(key, null);
+        } catch (ClassCastException e) {
+            return defValue;
+        }
+        if (value == null || !value.startsWith(BYTES_TAG)) {
+            return defValue;
+        }
+        return Base64.decode(value.substring(BYTES_TAG.length()), Base64.NO_WRAP);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mPreferences.contains(key);
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, ?> values = mPreferences.getAll();
+        Map<String, Object> decoded = null;
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            if (!(entry.getValue() instanceof String)) {
+                continue;
+            }
+            String value = (String) entry.getValue();
+            if (value.startsWith(BYTES_TAG) || value.startsWith(STRING_TAG)) {
+                if (decoded == null) {
+                    decoded = new HashMap<>(values);
+                }
+                decoded.put(entry.getKey(), value.startsWith(BYTES_TAG)
+                        ? Base64.decode(value.substring(BYTES_TAG.length()), Base64.NO_WRAP) : unescape(value));
+            }
+        }
+        return decoded != null ? decoded : values;
+    }
+
+    /**
+     * Escapes a string that would be read as bytes (or unescaped)
+     * @param value the string (may be null)
+     * @return the value to save
+     */
+    static String escape(String value) {
+        return value != null && (value.startsWith(BYTES_TAG) || value.startsWith(STRING_TAG)) ? STRING_TAG + value : value;
+    }
+
+    private static String unescape(String value) {
+        return value.startsWith(STRING_TAG) ? value.substring(STRING_TAG.length()) : value;
+    }
+
+    @Override
+    public Editor edit() {
+        return new PreferencesEditor(mPreferences.edit());
+    }
+
+    @Override
+    public void registerChangeListener(final OnChangeListener listener) {
+        //SharedPreferences only keeps a weak reference to the listener, the map keeps it alive
+        SharedPreferences.OnSharedPreferenceChangeListener preferencesListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                listener.onSettingChanged(SharedPreferencesStorage.this, key);
+            }
+        };
+        mListeners.put(listener, preferencesListener);
+        mPreferences.registerOnSharedPreferenceChangeListener(preferencesListener);
+    }
+
+    @Override
+    public void unregisterChangeListener(OnChangeListener listener) {
+        SharedPreferences.OnSharedPreferenceChangeListener preferencesListener = mListeners.remove(listener);
+        if (preferencesListener != null) {
+            mPreferences.unregisterOnSharedPreferenceChangeListener(preferencesListener);
+        }
+    }
+
+    private static final class PreferencesEditor implements Editor {
+        private final SharedPreferences.Editor mEditor;
+
+        PreferencesEditor(SharedPreferences.Editor editor) {
+            mEditor = editor;
+        }
+
+        @Override
+        public Editor putString(String key, String value) {
+            mEditor.putString(key, escape(value));
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            mEditor.putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mEditor.putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mEditor.putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            mEditor.putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            mEditor.putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBytes(String key, byte[] value) {
+            mEditor.putString(key, value == null ? null : BYTES_TAG + Base64.encodeToString(value, Base64.NO_WRAP));
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            mEditor.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            mEditor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return mEditor.commit();
+        }
+
+        @Override
+        public void apply() {
+            mEditor.apply();
+        }
+    }
+}
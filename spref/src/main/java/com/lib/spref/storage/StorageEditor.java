@@ -0,0 +1,136 @@
+package com.lib.spref.storage;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Base {@link SettingsStorage.Editor} that collects the changes in a map, storages only implement the write of the
+ * collected changes. Removed keys are mapped to {@link #REMOVED}.
+ */
+public abstract class StorageEditor implements SettingsStorage.Editor {
+    /**
+     * Value of a removed key in the changes map
+     */
+    public static final Object REMOVED = new Object();
+
+    private final Map<String, Object> mChanges = new LinkedHashMap<>();
+    private boolean mClear;
+
+    @Override
+    public SettingsStorage.Editor putString(String key, String value) {
+        return put(key, value);
+    }
+
+    @Override
+    public SettingsStorage.Editor putStringSet(String key, Set<String> values) {
+        return put(key, values == null ? null : Collections.unmodifiableSet(new HashSet<>(values)));
+    }
+
+    @Override
+    public SettingsStorage.Editor putInt(String key, int value) {
+        return put(key, value);
+    }
+
+    @Override
+    public SettingsStorage.Editor putLong(String key, long value) {
+        return put(key, value);
+    }
+
+    @Override
+    public SettingsStorage.Editor putFloat(String key, float value) {
+        return put(key, value);
+    }
+
+    @Override
+    public SettingsStorage.Editor putBoolean(String key, boolean value) {
+        return put(key, value);
+    }
+
+    @Override
+    public SettingsStorage.Editor putBytes(String key, byte[] value) {
+        return put(key, value == null ? null : value.clone());
+    }
+
+    @Override
+    public SettingsStorage.Editor remove(String key) {
+        return put(key, null);
+    }
+
+    @Override
+    public SettingsStorage.Editor clear() {
+        mClear = true;
+        return this;
+    }
+
+    private SettingsStorage.Editor put(String key, Object value) {
+        synchronized (this) {
+            mChanges.put(key, value == null ? REMOVED : value);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean commit() {
+        return write(true);
+    }
+
+    @Override
+    public void apply() {
+        write(false);
+    }
+
+    private boolean write(boolean sync) {
+        Map<String, Object> changes;
+        boolean clear;
+        synchronized (this) {
+            changes = new LinkedHashMap<>(mChanges);
+            clear = mClear;
+            mChanges.clear();
+            mClear = false;
+        }
+        return write(changes, clear, sync);
+    }
+
+    /**
+     * Puts a collected change into another editor
+     *
+     * @param editor the editor
+     * @param key    the key
+     * @param value  the value collected for the key ({@link #REMOVED} for removed keys)
+     */
+    @SuppressWarnings("unchecked")
+    public static void putValue(SettingsStorage.Editor editor, String key, Object value) {
+        if (value == REMOVED) {
+            editor.remove(key);
+        } else if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Long) {
+            editor.putLong(key, (Long) value);
+        } else if (value instanceof Float) {
+            editor.putFloat(key, (Float) value);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else if (value instanceof byte[]) {
+            editor.putBytes(key, (byte[]) value);
+        } else if (value instanceof Set) {
+            editor.putStringSet(key, (Set<String>) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported value type for " + key);
+        }
+    }
+
+    /**
+     * Writes the changes into the storage
+     *
+     * @param changes the changed keys and their values ({@link #REMOVED} for removed keys)
+     * @param clear   if the storage must be cleared before applying the changes
+     * @param sync    true for {@link #commit()}, false for {@link #apply()}
+     * @return true if the changes were persisted
+     */
+    protected abstract boolean write(Map<String, Object> changes, boolean clear, boolean sync);
+}
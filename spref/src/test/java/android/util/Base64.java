@@ -0,0 +1,106 @@
+package android.util;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Replaces the stub of the android.jar used by the unit tests, where every method throws, with the same encoding as
+ * the platform class for the flags used by the library
+ */
+public class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+    public static final int NO_CLOSE = 16;
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    private static final String URL_SAFE_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    private static final int LINE_GROUPS = 19;
+
+    private Base64() {
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return encodeToString(input, 0, input.length, flags);
+    }
+
+    public static String encodeToString(byte[] input, int offset, int len, int flags) {
+        String alphabet = (flags & URL_SAFE) != 0 ? URL_SAFE_ALPHABET : ALPHABET;
+        boolean wrap = (flags & NO_WRAP) == 0;
+        StringBuilder output = new StringBuilder();
+        int groups = 0;
+        for (int i = offset; i < offset + len; i += 3) {
+            int remaining = Math.min(3, offset + len - i);
+            int bits = (input[i] & 0xff) << 16;
+            if (remaining > 1) {
+                bits |= (input[i + 1] & 0xff) << 8;
+            }
+            if (remaining > 2) {
+                bits |= input[i + 2] & 0xff;
+            }
+            for (int j = 0; j < 4; j++) {
+                if (j <= remaining) {
+                    output.append(alphabet.charAt((bits >> (18 - 6 * j)) & 0x3f));
+                } else if ((flags & NO_PADDING) == 0) {
+                    output.append('=');
+                }
+            }
+            if (wrap && ++groups == LINE_GROUPS) {
+                output.append((flags & CRLF) != 0 ? "\r\n" : "\n");
+                groups = 0;
+            }
+        }
+        if (wrap && groups > 0) {
+            output.append((flags & CRLF) != 0 ? "\r\n" : "\n");
+        }
+        return output.toString();
+    }
+
+    public static byte[] encode(byte[] input, int flags) {
+        return encodeToString(input, flags).getBytes();
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return decode(str.getBytes(), flags);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        String alphabet = (flags & URL_SAFE) != 0 ? URL_SAFE_ALPHABET : ALPHABET;
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 3 / 4);
+        int bits = 0;
+        int count = 0;
+        boolean padded = false;
+        for (byte value : input) {
+            char c = (char) value;
+            if (c == '\n' || c == '\r' || c == ' ' || c == '\t') {
+                continue;
+            }
+            if (c == '=') {
+                padded = true;
+                continue;
+            }
+            int index = alphabet.indexOf(c);
+            if (index < 0 || padded) {
+                throw new IllegalArgumentException("bad base-64");
+            }
+            bits = (bits << 6) | index;
+            if (++count == 4) {
+                output.write(bits >> 16);
+                output.write(bits >> 8);
+                output.write(bits);
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 1) {
+            throw new IllegalArgumentException("bad base-64");
+        } else if (count == 2) {
+            output.write(bits >> 4);
+        } else if (count == 3) {
+            output.write(bits >> 10);
+            output.write(bits >> 2);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,64 @@
+package com.lib.spref;
+
+import android.content.Context;
+
+import com.lib.spref.storage.InMemoryStorage;
+import com.lib.spref.storage.SettingsStorage;
+import com.lib.spref.storage.StorageEditor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link InMemoryStorage} that records each write of an editor, to check how the writes of a connector are grouped
+ */
+class CountingStorage extends InMemoryStorage {
+    //the keys of each write, in order
+    final List<List<String>> mWrites = new ArrayList<>();
+    //when set, the writes are recorded but fail without changing the storage
+    volatile boolean mFailWrites;
+    //number of writes that succeed before the next ones throw (as if the process was killed), -1 for no limit
+    volatile int mWritesBeforeCrash = -1;
+
+    @Override
+    public Editor edit() {
+        final Editor editor = super.edit();
+        return new StorageEditor() {
+            @Override
+            protected boolean write(Map<String, Object> changes, boolean clear, boolean sync) {
+                synchronized (mWrites) {
+                    mWrites.add(new ArrayList<>(changes.keySet()));
+                }
+                if (mWritesBeforeCrash == 0) {
+                    throw new IllegalStateException("Crashed");
+                } else if (mWritesBeforeCrash > 0) {
+                    mWritesBeforeCrash--;
+                }
+                if (mFailWrites) {
+                    return false;
+                }
+                if (clear) {
+                    editor.clear();
+                }
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    putValue(editor, change.getKey(), change.getValue());
+                }
+                return editor.commit();
+            }
+        };
+    }
+
+    /**
+     * Factory that always returns this storage
+     * @return the factory
+     */
+    Factory storageFactory() {
+        return new Factory() {
+            @Override
+            public SettingsStorage create(Context context, String name, int mode) {
+                return CountingStorage.this;
+            }
+        };
+    }
+}
@@ -0,0 +1,153 @@
+package com.lib.spref;
+
+import com.lib.spref.Utils.EncryptionUtils;
+import com.lib.spref.internal.EncryptionState;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the rotation of the encryption key by {@link KeyRotation}, including its resume after an interruption
+ */
+public class KeyRotationTest {
+    private static final int SETTINGS = 7;
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final CountingStorage mStorage = new CountingStorage();
+
+    private SettingsConnector connector(String key, String previousKey) {
+        SettingsConfig.Builder builder = new SettingsConfig.Builder()
+                .storage(mStorage.storageFactory())
+                .encryptSeed(EncryptionUtils.generateKey(key));
+        if (previousKey != null) {
+            builder.previousEncryptSeed(EncryptionUtils.generateKey(previousKey));
+        }
+        return new SettingsConnector(null, builder.build());
+    }
+
+    @Before
+    public void setUp() {
+        SettingsConnector connector = connector("old", null);
+        for (int i = 0; i < SETTINGS; i++) {
+            connector.saveSafeEncryptedSetting("key" + i, "value" + i);
+        }
+        connector.saveSetting("plain", "value");
+    }
+
+    @Test
+    public void rotationReencryptsEverySetting() throws Exception {
+        SettingsConnector connector = connector("new", "old");
+        assertTrue(connector.isRotatingEncryptionKey());
+        assertReadable(connector);
+
+        assertTrue(connector.rotateEncryptionKey(DIRECT, 3).get());
+
+        assertFalse(connector.isRotatingEncryptionKey());
+        assertReadable(connector);
+        assertReadable(connector("new", null));
+        assertEquals(EncryptionState.ENCRYPTION_ERROR, connector("old", null).getSafeEncryptedSetting("key0").getWasSuccessful());
+        assertEquals("value", connector("new", null).getSetting("plain"));
+    }
+
+    @Test
+    public void interruptedRotationResumesFromItsCheckpoint() throws Exception {
+        SettingsConnector connector = connector("new", "old");
+        mStorage.mWrites.clear();
+        //the first two batches are written, the process dies during the third one
+        mStorage.mWritesBeforeCrash = 2;
+        try {
+            connector.rotateEncryptionKey(DIRECT, 2).get();
+            fail("the rotation did not fail");
+        } catch (ExecutionException expected) {
+            //crashed
+        }
+        mStorage.mWritesBeforeCrash = -1;
+
+        //restarted: the keys up to the checkpoint use the new key, the others still the old one
+        SettingsConnector restarted = connector("new", "old");
+        assertTrue(restarted.isRotatingEncryptionKey());
+        assertEquals("key3", restarted.rotationCheckpoint());
+        assertReadable(restarted);
+
+        mStorage.mWrites.clear();
+        assertTrue(restarted.rotateEncryptionKey(DIRECT, 2).get());
+
+        List<String> written = new ArrayList<>();
+        for (List<String> write : mStorage.mWrites) {
+            written.addAll(write);
+        }
+        for (int i = 0; i < SETTINGS; i++) {
+            assertEquals("key" + i, i >= 4, written.contains("key" + i));
+        }
+        assertFalse(restarted.isRotatingEncryptionKey());
+        assertReadable(connector("new", null));
+    }
+
+    @Test
+    public void settingsSavedDuringTheRotationAreMigrated() throws Exception {
+        SettingsConnector connector = connector("new", "old");
+        mStorage.mWritesBeforeCrash = 1;
+        try {
+            connector.rotateEncryptionKey(DIRECT, 2).get();
+            fail("the rotation did not fail");
+        } catch (ExecutionException expected) {
+            //crashed after the first batch
+        }
+        mStorage.mWritesBeforeCrash = -1;
+
+        SettingsConnector restarted = connector("new", "old");
+        restarted.saveSafeEncryptedSetting("key0", "changed0");
+        restarted.saveSafeEncryptedSetting("key5", "changed5");
+        restarted.saveSafeEncryptedSetting("new", "added");
+        assertEquals("changed5", restarted.getSafeEncryptedSetting("key5").getValue());
+
+        assertTrue(restarted.rotateEncryptionKey(DIRECT, 2).get());
+
+        SettingsConnector rotated = connector("new", null);
+        assertEquals("changed0", rotated.getSafeEncryptedSetting("key0").getValue());
+        assertEquals("changed5", rotated.getSafeEncryptedSetting("key5").getValue());
+        assertEquals("added", rotated.getSafeEncryptedSetting("new").getValue());
+        assertEquals("value3", rotated.getSafeEncryptedSetting("key3").getValue());
+    }
+
+    @Test
+    public void finishedRotationIsNotStartedAgain() throws Exception {
+        assertTrue(connector("new", "old").rotateEncryptionKey(DIRECT, 10).get());
+        mStorage.mWrites.clear();
+
+        SettingsConnector connector = connector("new", "old");
+
+        assertFalse(connector.isRotatingEncryptionKey());
+        assertNull(connector.rotationCheckpoint());
+        assertTrue(connector.rotateEncryptionKey(DIRECT, 10).get());
+        assertTrue(mStorage.mWrites.isEmpty());
+    }
+
+    private static void assertReadable(SettingsConnector connector) {
+        for (int i = 0; i < SETTINGS; i++) {
+            SafeSetting setting = connector.getSafeEncryptedSetting("key" + i);
+            assertEquals(EncryptionState.SUCCESSFULLY_DECRYPTED, setting.getWasSuccessful());
+            assertEquals("value" + i, setting.getValue());
+        }
+        SettingsSnapshot snapshot = connector.readAll(null);
+        for (int i = 0; i < SETTINGS; i++) {
+            assertEquals("value" + i, snapshot.getSafeEncryptedSetting("key" + i).getValue());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.lib.spref;
+
+import com.lib.spref.Utils.EncryptionUtils;
+import com.lib.spref.internal.EncryptionState;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the encryption of the settings saved in plain text by {@link PlaintextMigration}
+ */
+public class PlaintextMigrationTest {
+    private static final int SETTINGS = 100;
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final CountingStorage mStorage = new CountingStorage();
+    private SettingsConnector mConnector;
+
+    @Before
+    public void setUp() {
+        mConnector = new SettingsConnector(null, new SettingsConfig.Builder()
+                .storage(mStorage.storageFactory())
+                .encryptSeed(EncryptionUtils.generateKey("key"))
+                .build());
+        for (int i = 0; i < SETTINGS; i++) {
+            mConnector.saveSetting(key(i), "value" + i);
+        }
+        mConnector.saveSetting("int", 1);
+        mConnector.saveSafeEncryptedSetting("encrypted", "secret");
+        mStorage.mWrites.clear();
+    }
+
+    @Test
+    public void plainStringsAreEncryptedByOneWrite() throws Exception {
+        String encrypted = mConnector.getSetting("encrypted");
+
+        assertTrue(mConnector.encryptSettings(DIRECT, (SettingsSnapshot.Filter) null, null).get());
+
+        assertEquals(1, mStorage.mWrites.size());
+        assertMigrated(0, SETTINGS);
+        assertEquals(1, mConnector.getIntSetting("int"));
+        assertFalse(mConnector.isKeyEncrypted("int"));
+        assertEquals(encrypted, mConnector.getSetting("encrypted"));
+    }
+
+    @Test
+    public void interruptedMigrationChangesNothingAndCanRunAgain() throws Exception {
+        mStorage.mWritesBeforeCrash = 0;
+        try {
+            mConnector.encryptSettings(DIRECT, (SettingsSnapshot.Filter) null, null).get();
+            fail("the migration did not fail");
+        } catch (ExecutionException expected) {
+            //crashed while writing
+        }
+        mStorage.mWritesBeforeCrash = -1;
+
+        for (int i = 0; i < SETTINGS; i++) {
+            assertFalse(mConnector.isKeyEncrypted(key(i)));
+            assertEquals("value" + i, mConnector.getSetting(key(i)));
+        }
+
+        assertTrue(mConnector.encryptSettings(DIRECT, (SettingsSnapshot.Filter) null, null).get());
+        assertMigrated(0, SETTINGS);
+    }
+
+    @Test
+    public void nextRunSkipsTheEncryptedSettings() throws Exception {
+        assertTrue(mConnector.encryptSettings(DIRECT, null, key(0), key(1)).get());
+        assertMigrated(0, 2);
+        assertFalse(mConnector.isKeyEncrypted(key(2)));
+        String first = mConnector.getSetting(key(0));
+        mStorage.mWrites.clear();
+
+        assertTrue(mConnector.encryptSettings(DIRECT, new SettingsSnapshot.Filter() {
+            @Override
+            public boolean accept(String settingKey) {
+                return settingKey.startsWith("key");
+            }
+        }, null).get());
+
+        assertFalse(mStorage.mWrites.get(0).contains(key(0)));
+        assertTrue(mStorage.mWrites.get(0).contains(key(2)));
+        assertEquals(first, mConnector.getSetting(key(0)));
+        assertMigrated(0, SETTINGS);
+    }
+
+    @Test
+    public void settingsChangedDuringTheMigrationAreKept() throws Exception {
+        final List<int[]> progress = new ArrayList<>();
+
+        assertTrue(mConnector.encryptSettings(DIRECT, null, new SettingsProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+                if (progress.isEmpty()) {
+                    //saved while the values are being encrypted
+                    mConnector.saveSetting(key(0), "changed");
+                }
+                progress.add(new int[]{done, total});
+            }
+        }).get());
+
+        assertFalse(mConnector.isKeyEncrypted(key(0)));
+        assertEquals("changed", mConnector.getSetting(key(0)));
+        assertMigrated(1, SETTINGS);
+        int[] last = progress.get(progress.size() - 1);
+        assertEquals(SETTINGS, last[0]);
+        assertEquals(SETTINGS, last[1]);
+    }
+
+    private void assertMigrated(int from, int to) {
+        for (int i = from; i < to; i++) {
+            assertTrue(mConnector.isKeyEncrypted(key(i)));
+            SafeSetting setting = mConnector.getSafeEncryptedSetting(key(i));
+            assertEquals(EncryptionState.SUCCESSFULLY_DECRYPTED, setting.getWasSuccessful());
+            assertEquals("value" + i, setting.getValue());
+        }
+    }
+
+    private static String key(int index) {
+        return "key" + index;
+    }
+}
@@ -0,0 +1,89 @@
+package com.lib.spref;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the primitive array settings of a connector
+ */
+public class SettingsArraysTest {
+    private final CountingStorage mStorage = new CountingStorage();
+    private SettingsConnector mConnector;
+
+    @Before
+    public void setUp() {
+        mConnector = new SettingsConnector(null, new SettingsConfig.Builder().storage(mStorage.storageFactory()).build());
+    }
+
+    @Test
+    public void arraysRoundTrip() {
+        mConnector.saveIntArraySetting("ints", new int[]{1, -2, 3});
+        mConnector.saveLongArraySetting("longs", new long[]{Long.MAX_VALUE, 0});
+        mConnector.saveFloatArraySetting("floats", new float[]{1.5f, Float.NaN});
+        mConnector.saveBooleanArraySetting("booleans", new boolean[]{true, false, true});
+
+        assertArrayEquals(new int[]{1, -2, 3}, mConnector.getIntArraySetting("ints"));
+        assertArrayEquals(new long[]{Long.MAX_VALUE, 0}, mConnector.getLongArraySetting("longs"));
+        assertArrayEquals(new float[]{1.5f, Float.NaN}, mConnector.getFloatArraySetting("floats"), 0f);
+        boolean[] booleans = mConnector.getBooleanArraySetting("booleans");
+        assertEquals(3, booleans.length);
+        assertTrue(booleans[0] && !booleans[1] && booleans[2]);
+
+        SettingsSnapshot snapshot = mConnector.readAll(null);
+        assertArrayEquals(new int[]{1, -2, 3}, snapshot.getIntArraySetting("ints"));
+        assertArrayEquals(new long[]{Long.MAX_VALUE, 0}, snapshot.getLongArraySetting("longs"));
+        assertArrayEquals(new float[]{1.5f, Float.NaN}, snapshot.getFloatArraySetting("floats"), 0f);
+        assertEquals(3, snapshot.getBooleanArraySetting("booleans").length);
+    }
+
+    @Test
+    public void arrayIsReadIntoAnExistingArray() {
+        mConnector.saveIntArraySetting("ints", new int[]{1, 2, 3});
+        int[] destination = new int[2];
+
+        assertEquals(3, mConnector.getIntArraySetting("ints", destination));
+        assertArrayEquals(new int[]{1, 2}, destination);
+        assertEquals(-1, mConnector.getIntArraySetting("missing", destination));
+        assertEquals(-1, mConnector.getLongArraySetting("ints", new long[3]));
+        assertEquals(-1, mConnector.getIntArraySetting(null, destination));
+    }
+
+    @Test
+    public void otherSettingsAreNotArrays() {
+        mConnector.saveSetting("string", "value");
+        mConnector.saveIntArraySetting("ints", new int[]{1});
+
+        assertNull(mConnector.getIntArraySetting("string"));
+        assertNull(mConnector.getIntArraySetting("missing"));
+        assertNull(mConnector.getLongArraySetting("ints"));
+        assertNull(mConnector.getBooleanArraySetting("ints"));
+        assertNull(mConnector.getIntArraySetting(null));
+    }
+
+    @Test
+    public void savingNullRemovesTheArray() {
+        mConnector.saveIntArraySetting("ints", new int[]{1});
+        mConnector.saveIntArraySetting("ints", null);
+
+        assertFalse(mStorage.contains("ints"));
+    }
+
+    @Test
+    public void batchArraysAreWrittenOnce() {
+        mStorage.mWrites.clear();
+        mConnector.edit()
+                .save("ints", new int[]{1})
+                .save("booleans", new boolean[]{true})
+                .commit();
+
+        assertEquals(1, mStorage.mWrites.size());
+        assertArrayEquals(new int[]{1}, mConnector.getIntArraySetting("ints"));
+        assertTrue(mConnector.getBooleanArraySetting("booleans")[0]);
+    }
+}
@@ -0,0 +1,91 @@
+package com.lib.spref;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link SettingsBatch} writes its changes with a single editor
+ */
+public class SettingsBatchTest {
+    private final CountingStorage mStorage = new CountingStorage();
+    private SettingsConnector mConnector;
+
+    @Before
+    public void setUp() {
+        mConnector = new SettingsConnector(null, new SettingsConfig.Builder().storage(mStorage.storageFactory()).build());
+        mStorage.mWrites.clear();
+    }
+
+    @Test
+    public void batchIsWrittenOnce() {
+        mConnector.saveSetting("removed", "value");
+        mStorage.mWrites.clear();
+
+        mConnector.batch(new SettingsBatch.Operation() {
+            @Override
+            public void run(SettingsBatch batch) {
+                batch.save("string", "value")
+                        .save("int", 1)
+                        .save("long", 2L)
+                        .save("boolean", true)
+                        .save("list", Arrays.asList("a", "b"))
+                        .remove("removed");
+            }
+        });
+
+        assertEquals(1, mStorage.mWrites.size());
+        assertEquals("value", mConnector.getSetting("string"));
+        assertEquals(1, mConnector.getIntSetting("int"));
+        assertEquals(2L, mConnector.getLongSetting("long"));
+        assertTrue(mConnector.getBooleanSetting("boolean", false));
+        assertEquals(Arrays.asList("a", "b"), mConnector.<String>getListSetting("list", String.class));
+        assertFalse(mStorage.contains("removed"));
+    }
+
+    @Test
+    public void nothingIsWrittenBeforeTheCommit() {
+        SettingsBatch batch = mConnector.edit().save("key", "value");
+        assertNull(mConnector.getSetting("key"));
+        assertTrue(mStorage.mWrites.isEmpty());
+
+        assertTrue(batch.commit());
+        assertEquals("value", mConnector.getSetting("key"));
+        assertEquals(Collections.singletonList(Collections.singletonList("key")), mStorage.mWrites);
+    }
+
+    @Test
+    public void laterWriteOfAKeyWins() {
+        assertTrue(mConnector.edit().save("key", 1).save("key", 2).commit());
+        assertEquals(2, mConnector.getIntSetting("key"));
+
+        assertTrue(mConnector.edit().save("key", 3).remove("key").commit());
+        assertFalse(mStorage.contains("key"));
+    }
+
+    @Test
+    public void clearHappensBeforeTheOtherWrites() {
+        mConnector.saveSetting("old", "value");
+
+        assertTrue(mConnector.edit().save("first", 1).clear().save("second", 2).commit());
+        assertFalse(mStorage.contains("old"));
+        assertEquals(1, mConnector.getIntSetting("first"));
+        assertEquals(2, mConnector.getIntSetting("second"));
+    }
+
+    @Test
+    public void encryptedWriteWithoutAKeyIsWrittenWithItsFlag() {
+        //without a key the value is saved in plain text, as a plain write does
+        assertTrue(mConnector.edit().saveEncrypted("key", "secret").commit());
+        assertFalse(mConnector.isKeyEncrypted("key"));
+        assertEquals("secret", mConnector.getSetting("key"));
+        assertEquals(1, mStorage.mWrites.size());
+    }
+}
@@ -0,0 +1,163 @@
+package com.lib.spref;
+
+import android.content.ContextWrapper;
+
+import com.lib.spref.storage.InMemoryStorage;
+import com.lib.spref.storage.SettingsStorage;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks when the blobs of the spilled values are deleted, see {@link SPref#spillLargeValues(int)}
+ */
+public class SettingsBlobsTest {
+    private static final int THRESHOLD = 64;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final SettingsStorage.Factory mStorages = InMemoryStorage.factory();
+    private SettingsConnector mConnector;
+    private File mBlobs;
+
+    @Before
+    public void setUp() {
+        mConnector = connector();
+        mBlobs = new File(new File(mFolder.getRoot(), "spref_blobs"), "blobs");
+    }
+
+    private SettingsConnector connector() {
+        final File filesDir = mFolder.getRoot();
+        //only the files directory is read from the context
+        ContextWrapper context = new ContextWrapper(null) {
+            @Override
+            public File getFilesDir() {
+                return filesDir;
+            }
+        };
+        return new SettingsConnector(context, new SettingsConfig.Builder()
+                .preferencesName("blobs")
+                .storage(mStorages)
+                .spillLargeValues(THRESHOLD)
+                .build());
+    }
+
+    private static List<String> largeList(String element) {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < THRESHOLD; i++) {
+            list.add(element);
+        }
+        return list;
+    }
+
+    private List<String> blobFiles() {
+        String[] names = mBlobs.list();
+        return names == null ? Collections.<String>emptyList() : Arrays.asList(names);
+    }
+
+    @Test
+    public void largeValuesAreSpilledAndReadBack() {
+        SettingsStorage storage = mStorages.create(null, "blobs", 0);
+        String value = largeList("a").toString();
+        mConnector.saveSetting("string", value);
+        mConnector.saveSetting("list", largeList("b"));
+        mConnector.saveSetting("small", "value");
+
+        assertEquals(2, blobFiles().size());
+        assertTrue(BlobStore.isReference(storage.getString("string", null)));
+        assertEquals("value", storage.getString("small", null));
+        assertEquals(value, mConnector.getSetting("string"));
+        assertEquals(value, mConnector.getSetting("string", "default"));
+        assertEquals(largeList("b"), mConnector.getListSetting("list", String.class));
+        SettingsSnapshot snapshot = mConnector.readAll(null);
+        assertEquals(value, snapshot.getSetting("string"));
+        assertEquals(largeList("b"), snapshot.getListSetting("list", String.class));
+        //read by a new connector, whatever its threshold
+        assertEquals(value, connector().getSetting("string"));
+    }
+
+    @Test
+    public void lostBlobIsReadAsMissing() {
+        mConnector.saveSetting("string", largeList("a").toString());
+        for (String name : blobFiles()) {
+            assertTrue(new File(mBlobs, name).delete());
+        }
+
+        //a new connector does not have the value in memory
+        SettingsConnector connector = connector();
+        assertNull(connector.getSetting("string"));
+        assertNull(connector.readAll(null).getSetting("string"));
+    }
+
+    @Test
+    public void appliedRemovalDeletesTheBlob() {
+        mConnector.saveSetting("list", largeList("a"));
+        assertEquals(1, blobFiles().size());
+
+        mConnector.removeSetting("list");
+        assertEquals(Collections.<String>emptyList(), blobFiles());
+    }
+
+    @Test
+    public void appliedClearDeletesTheBlobs() {
+        mConnector.saveSetting("list", largeList("a"));
+        mConnector.saveSetting("other", largeList("b"));
+        assertEquals(2, blobFiles().size());
+
+        mConnector.removeAllSetting();
+        assertEquals(Collections.<String>emptyList(), blobFiles());
+    }
+
+    @Test
+    public void appliedReplacementIsDeletedByTheNextCommit() {
+        mConnector.saveSetting("list", largeList("a"));
+        List<String> replaced = blobFiles();
+        mConnector.saveSetting("list", largeList("b"));
+        //the previous reference may still be the one on the disk
+        assertEquals(2, blobFiles().size());
+        assertTrue(blobFiles().containsAll(replaced));
+
+        assertTrue(mConnector.edit().save("count", 1).commit());
+        assertEquals(1, blobFiles().size());
+        assertTrue(!blobFiles().containsAll(replaced));
+        assertEquals(largeList("b"), mConnector.getListSetting("list", String.class));
+    }
+
+    @Test
+    public void committedReplacementDeletesTheBlob() {
+        assertTrue(mConnector.edit().save("list", largeList("a")).commit());
+        assertTrue(mConnector.edit().save("list", largeList("b")).commit());
+        assertEquals(1, blobFiles().size());
+        assertEquals(largeList("b"), mConnector.getListSetting("list", String.class));
+    }
+
+    @Test
+    public void orphanBlobIsCollectedInTheBackground() throws Exception {
+        mConnector.saveSetting("list", largeList("a"));
+        File orphan = new File(mBlobs, "orphan");
+        assertTrue(orphan.createNewFile());
+        assertTrue(orphan.setLastModified(System.currentTimeMillis() - 3600 * 1000));
+
+        connector();
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (orphan.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(!orphan.exists());
+        assertEquals(1, blobFiles().size());
+        assertEquals(largeList("a"), mConnector.getListSetting("list", String.class));
+    }
+}
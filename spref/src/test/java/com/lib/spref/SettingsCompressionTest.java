@@ -0,0 +1,122 @@
+package com.lib.spref;
+
+import com.lib.spref.Utils.EncryptionUtils;
+import com.lib.spref.internal.EncryptionState;
+import com.lib.spref.internal.ValueCompressor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the compressed settings of a connector and the escaping of the plain values that look like tagged ones
+ */
+public class SettingsCompressionTest {
+    private static final String[] TAGGED_VALUES = {
+            ValueCompressor.DEFLATE_TAG + "eJwLAQA=",
+            ValueCompressor.ESCAPE_TAG + "value",
+            "#SPREF_ENCRYPTION_TAG#value",
+            "#SPREF_"
+    };
+
+    private final CountingStorage mStorage = new CountingStorage();
+
+    private SettingsConnector connector(int compressionThreshold) {
+        return new SettingsConnector(null, new SettingsConfig.Builder()
+                .storage(mStorage.storageFactory())
+                .encryptSeed(EncryptionUtils.generateKey("key"))
+                .compression(compressionThreshold)
+                .build());
+    }
+
+    @Test
+    public void largeValuesAreCompressed() {
+        SettingsConnector connector = connector(100);
+        String value = repeated("compressible value ", 100);
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            list.add("element");
+        }
+
+        connector.saveSetting("string", value);
+        connector.saveSetting("list", list);
+
+        assertTrue(mStorage.getString("string", null).startsWith(ValueCompressor.DEFLATE_TAG));
+        assertTrue(mStorage.getString("list", null).startsWith(ValueCompressor.DEFLATE_TAG));
+        assertEquals(value, connector.getSetting("string"));
+        assertEquals(value, connector.getSetting("string", "default"));
+        assertEquals(list, connector.getListSetting("list", String.class));
+        assertEquals(value, connector.readAll(null).getSetting("string"));
+        //read whatever the threshold of the reader is
+        assertEquals(value, connector(0).getSetting("string"));
+        assertEquals(list, connector(0).getListSetting("list", String.class));
+    }
+
+    @Test
+    public void largeEncryptedValuesAreCompressed() {
+        String value = repeated("compressible value ", 100);
+        connector(100).saveSafeEncryptedSetting("secret", value);
+        int compressedLength = mStorage.getString("secret", null).length();
+        connector(0).saveSafeEncryptedSetting("secret", value);
+
+        assertTrue(compressedLength < mStorage.getString("secret", null).length() / 4);
+        connector(100).saveSafeEncryptedSetting("secret", value);
+        SafeSetting setting = connector(0).getSafeEncryptedSetting("secret");
+        assertEquals(EncryptionState.SUCCESSFULLY_DECRYPTED, setting.getWasSuccessful());
+        assertEquals(value, setting.getValue());
+        assertEquals(value, connector(0).readAll(null).getSafeEncryptedSetting("secret").getValue());
+    }
+
+    @Test
+    public void taggedPlainValuesAreReadAsSaved() {
+        for (int threshold : new int[]{0, 1}) {
+            SettingsConnector connector = connector(threshold);
+            for (String value : TAGGED_VALUES) {
+                connector.saveSetting("plain", value);
+
+                assertEquals(ValueCompressor.ESCAPE_TAG + value, mStorage.getString("plain", null));
+                assertEquals(value, connector.getSetting("plain"));
+                assertEquals(value, connector.getSafeEncryptedSetting("plain").getValue());
+                assertEquals(value, connector.readAll(null).getSetting("plain"));
+            }
+        }
+    }
+
+    @Test
+    public void taggedEncryptedValuesAreReadAsSaved() {
+        for (int threshold : new int[]{0, 1}) {
+            SettingsConnector connector = connector(threshold);
+            for (String value : TAGGED_VALUES) {
+                connector.saveSafeEncryptedSetting("secret", value);
+
+                assertEquals(value, connector.getSafeEncryptedSetting("secret").getValue());
+                assertEquals(value, connector.readAll(null).getSafeEncryptedSetting("secret").getValue());
+            }
+        }
+    }
+
+    @Test
+    public void taggedListElementsAreKept() {
+        List<String> list = new ArrayList<>();
+        for (String value : TAGGED_VALUES) {
+            list.add(value);
+        }
+        SettingsConnector connector = connector(1);
+
+        connector.saveSetting("list", list);
+
+        assertEquals(list, connector.getListSetting("list", String.class));
+    }
+
+    private static String repeated(String value, int count) {
+        StringBuilder builder = new StringBuilder(value.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.lib.spref;
+
+import android.content.Context;
+
+import com.lib.spref.internal.EncryptionIndex;
+import com.lib.spref.internal.EncryptionState;
+import com.lib.spref.storage.MultiProcessStorage;
+import com.lib.spref.storage.SettingsStorage;
+import com.lib.spref.storage.Storages;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the connectors of two processes sharing a {@link MultiProcessStorage}
+ */
+public class SettingsConnectorMultiProcessTest {
+    private static final String KEY = "key";
+    private static final String CIPHERTEXT = "Y2lwaGVydGV4dA";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MultiProcessStorage mStorage;
+    private MultiProcessStorage mOtherStorage;
+
+    @Before
+    public void setUp() throws Exception {
+        File file = new File(mFolder.getRoot(), "shared.splog");
+        mStorage = Storages.openAsAnotherProcess(file);
+        mOtherStorage = Storages.openAsAnotherProcess(file);
+    }
+
+    @After
+    public void tearDown() {
+        mStorage.close();
+        mOtherStorage.close();
+    }
+
+    private static SettingsConnector connector(final SettingsStorage storage) {
+        return new SettingsConnector(null, new SettingsConfig.Builder().storage(new SettingsStorage.Factory() {
+            @Override
+            public SettingsStorage create(Context context, String name, int mode) {
+                return storage;
+            }
+        }).build());
+    }
+
+    @Test
+    public void keyEncryptedByAnotherProcessIsNotReadAsPlaintext() {
+        SettingsConnector connector = connector(mStorage);
+        connector.saveSetting(KEY, "plain");
+        assertEquals("plain", connector.getSafeEncryptedSetting(KEY).getValue());
+
+        //what the other process writes when it encrypts the setting
+        mOtherStorage.edit()
+                .putString(KEY, CIPHERTEXT)
+                .putBoolean(EncryptionIndex.ENCRYPTION_TAG + KEY, true)
+                .commit();
+
+        SafeSetting setting = connector.getSafeEncryptedSetting(KEY);
+        assertNotEquals(EncryptionState.SUCCESS, setting.getWasSuccessful());
+        assertNotEquals(CIPHERTEXT, setting.getValue());
+        assertTrue(connector.isKeyEncrypted(KEY));
+    }
+
+    @Test
+    public void keyFlaggedByAnotherProcessIsEncrypted() {
+        SettingsConnector connector = connector(mStorage);
+        connector.saveSetting(KEY, "plain");
+        assertFalse(connector.isKeyEncrypted(KEY));
+
+        mOtherStorage.edit()
+                .putString(KEY, CIPHERTEXT)
+                .putBoolean(EncryptionIndex.ENCRYPTION_TAG + KEY, true)
+                .commit();
+
+        assertTrue(connector.isKeyEncrypted(KEY));
+    }
+}
@@ -0,0 +1,47 @@
+package com.lib.spref;
+
+import com.lib.spref.Utils.EncryptionUtils;
+import com.lib.spref.internal.EncryptionState;
+import com.lib.spref.storage.InMemoryStorage;
+import com.lib.spref.storage.SettingsStorage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the encrypted settings of a connector, written with the ciphers of its {@link com.lib.spref.Utils.CipherEngine}
+ */
+public class SettingsEncryptionTest {
+    private final SettingsStorage.Factory mFactory = InMemoryStorage.factory();
+
+    private SettingsConnector connector(String key) {
+        return new SettingsConnector(null, new SettingsConfig.Builder()
+                .storage(mFactory)
+                .encryptSeed(EncryptionUtils.generateKey(key))
+                .build());
+    }
+
+    @Test
+    public void encryptedSettingIsDecrypted() {
+        SettingsConnector connector = connector("key");
+        connector.saveSafeEncryptedSetting("secret", "value");
+
+        assertTrue(connector.isKeyEncrypted("secret"));
+        assertFalse("value".equals(connector.getSetting("secret")));
+        SafeSetting setting = connector.getSafeEncryptedSetting("secret");
+        assertEquals(EncryptionState.SUCCESSFULLY_DECRYPTED, setting.getWasSuccessful());
+        assertEquals("value", setting.getValue());
+        assertEquals("value", connector("key").getSafeEncryptedSetting("secret").getValue());
+    }
+
+    @Test
+    public void otherKeyDoesNotDecrypt() {
+        connector("key").saveSafeEncryptedSetting("secret", "value");
+
+        SafeSetting setting = connector("other").getSafeEncryptedSetting("secret");
+        assertEquals(EncryptionState.ENCRYPTION_ERROR, setting.getWasSuccessful());
+    }
+}
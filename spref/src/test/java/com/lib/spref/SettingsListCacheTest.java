@@ -0,0 +1,93 @@
+package com.lib.spref;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the list settings cached by a connector are invalidated by every write of their key
+ */
+public class SettingsListCacheTest {
+    private final CountingStorage mStorage = new CountingStorage();
+
+    private SettingsConnector connector(boolean readOnly) {
+        return new SettingsConnector(null, new SettingsConfig.Builder()
+                .storage(mStorage.storageFactory())
+                .listCache(1024, readOnly)
+                .build());
+    }
+
+    @Test
+    public void readOnlyReadsShareTheCachedList() {
+        SettingsConnector connector = connector(true);
+        connector.saveSetting("list", Arrays.asList("a", "b"));
+
+        List<String> first = connector.getListSetting("list", String.class);
+
+        assertEquals(Arrays.asList("a", "b"), first);
+        assertSame(first, connector.getListSetting("list", String.class));
+    }
+
+    @Test
+    public void copiedReadsDoNotChangeTheCache() {
+        SettingsConnector connector = connector(false);
+        connector.saveSetting("list", Arrays.asList("a", "b"));
+
+        List<String> first = connector.getListSetting("list", String.class);
+        first.add("c");
+        List<String> second = connector.getListSetting("list", String.class);
+
+        assertNotSame(first, second);
+        assertEquals(Arrays.asList("a", "b"), second);
+    }
+
+    @Test
+    public void writesOfTheConnectorInvalidateTheList() {
+        SettingsConnector connector = connector(true);
+        connector.saveSetting("list", Arrays.asList("a", "b"));
+        connector.getListSetting("list", String.class);
+
+        connector.saveSetting("list", Arrays.asList("c"));
+        assertEquals(Arrays.asList("c"), connector.getListSetting("list", String.class));
+
+        connector.saveBinaryListSetting("list", Arrays.asList("d"), String.class);
+        assertEquals(Arrays.asList("d"), connector.getListSetting("list", String.class));
+
+        connector.removeSetting("list");
+        assertNull(connector.getListSetting("list", String.class));
+
+        connector.saveSetting("list", Arrays.asList("e"));
+        connector.getListSetting("list", String.class);
+        connector.removeAllSetting();
+        assertNull(connector.getListSetting("list", String.class));
+    }
+
+    @Test
+    public void writesOfTheStorageInvalidateTheList() {
+        SettingsConnector connector = connector(true);
+        connector.saveSetting("list", Arrays.asList("a", "b"));
+        connector.getListSetting("list", String.class);
+
+        //written by another connector of the same storage
+        connector(true).saveSetting("list", Arrays.asList("c"));
+
+        assertEquals(Arrays.asList("c"), connector.getListSetting("list", String.class));
+    }
+
+    @Test
+    public void otherKeysStayCached() {
+        SettingsConnector connector = connector(true);
+        connector.saveSetting("list", Arrays.asList("a", "b"));
+        List<String> cached = connector.getListSetting("list", String.class);
+
+        connector.saveSetting("other", Arrays.asList("c"));
+
+        assertSame(cached, connector.getListSetting("list", String.class));
+    }
+}
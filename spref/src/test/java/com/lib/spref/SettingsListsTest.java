@@ -0,0 +1,97 @@
+package com.lib.spref;
+
+import com.lib.spref.codec.BinaryCodec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the list settings saved by a connector in the binary and the json formats
+ */
+public class SettingsListsTest {
+    private static final BinaryCodec<StringBuilder> BUILDER_CODEC = new BinaryCodec<StringBuilder>() {
+        @Override
+        public void write(StringBuilder value, DataOutput output) throws IOException {
+            output.writeUTF(value.toString());
+        }
+
+        @Override
+        public StringBuilder read(DataInput input, int length) throws IOException {
+            return new StringBuilder(input.readUTF());
+        }
+    };
+
+    private final CountingStorage mStorage = new CountingStorage();
+    private SettingsConnector mConnector;
+
+    @Before
+    public void setUp() {
+        mConnector = new SettingsConnector(null, new SettingsConfig.Builder()
+                .storage(mStorage.storageFactory())
+                .binaryCodec(StringBuilder.class, BUILDER_CODEC)
+                .build());
+    }
+
+    @Test
+    public void binaryListRoundTrip() {
+        List<String> strings = Arrays.asList("a", null, "c");
+        List<Long> longs = Arrays.asList(1L, null, Long.MAX_VALUE);
+        mConnector.saveBinaryListSetting("strings", strings, String.class);
+        mConnector.saveBinaryListSetting("longs", longs, Long.class);
+        mConnector.saveBinaryListSetting("empty", Collections.<Integer>emptyList(), Integer.class);
+
+        assertEquals(strings, mConnector.getListSetting("strings", String.class));
+        assertEquals(longs, mConnector.getListSetting("longs", Long.class));
+        assertEquals(Collections.<Integer>emptyList(), mConnector.getListSetting("empty", Integer.class));
+        assertEquals(strings, mConnector.readAll(null).getListSetting("strings", String.class));
+    }
+
+    @Test
+    public void registeredCodecIsUsed() {
+        mConnector.saveBinaryListSetting("builders", Arrays.asList(new StringBuilder("a"), null), StringBuilder.class);
+
+        List<StringBuilder> builders = mConnector.getListSetting("builders", StringBuilder.class);
+        assertEquals(2, builders.size());
+        assertEquals("a", builders.get(0).toString());
+        assertNull(builders.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void classWithoutCodecIsRejected() {
+        mConnector.saveBinaryListSetting("list", Collections.singletonList(new Object()), Object.class);
+    }
+
+    @Test
+    public void jsonListIsStillReadWhenTheClassHasACodec() {
+        mConnector.saveSetting("list", Arrays.asList("a", "b"));
+
+        assertEquals(Arrays.asList("a", "b"), mConnector.getListSetting("list", String.class));
+    }
+
+    @Test
+    public void savingNullRemovesTheList() {
+        mConnector.saveBinaryListSetting("list", Arrays.asList("a", "b"), String.class);
+        mConnector.saveBinaryListSetting("list", null, String.class);
+
+        assertFalse(mStorage.contains("list"));
+        assertNull(mConnector.getListSetting("list", String.class));
+    }
+
+    @Test
+    public void corruptedListIsNull() {
+        mStorage.edit().putBytes("list", new byte[]{1, 0, 0, 0, 5, 0}).commit();
+
+        assertNull(mConnector.getListSetting("list", String.class));
+    }
+}
@@ -0,0 +1,124 @@
+package com.lib.spref;
+
+import android.content.Context;
+
+import com.lib.spref.storage.InMemoryStorage;
+import com.lib.spref.storage.SettingsStorage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the delivery of the {@link SettingsObserver}s of a connector, notified on an executor run by the test
+ */
+public class SettingsObserversTest {
+    private final List<Runnable> mTasks = new ArrayList<>();
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+    };
+    private final List<String> mChanges = new ArrayList<>();
+    private final SettingsObserver<Integer> mObserver = new SettingsObserver<Integer>() {
+        @Override
+        public void onSettingChanged(String settingKey, Integer value) {
+            mChanges.add(settingKey + "=" + value);
+        }
+    };
+
+    private SettingsConnector connector(SettingsStorage.Factory factory, Executor observerExecutor) {
+        return new SettingsConnector(null, new SettingsConfig.Builder().storage(factory).observerExecutor(observerExecutor).build());
+    }
+
+    private void runTasks() {
+        while (!mTasks.isEmpty()) {
+            mTasks.remove(0).run();
+        }
+    }
+
+    @Test
+    public void connectorWithoutObserversDoesNotNeedTheMainThread() {
+        //the main looper does not exist on the JVM, nothing may touch it until something subscribes
+        SettingsConnector connector = connector(InMemoryStorage.factory(), null);
+        connector.saveSetting("key", 1);
+        assertEquals(1, connector.getIntSetting("key"));
+        connector.removeAllSetting();
+        assertEquals(-1, connector.getIntSetting("key"));
+    }
+
+    @Test
+    public void burstOfChangesIsDeliveredOnceWithTheLastValue() {
+        SettingsConnector connector = connector(InMemoryStorage.factory(), mExecutor);
+        connector.observe("key", Integer.class, mObserver);
+        for (int i = 0; i < 10; i++) {
+            connector.saveSetting("key", i);
+        }
+        connector.saveSetting("other", 1);
+        runTasks();
+
+        assertEquals(Collections.singletonList("key=9"), mChanges);
+    }
+
+    @Test
+    public void unchangedValueIsNotDelivered() {
+        SettingsConnector connector = connector(InMemoryStorage.factory(), mExecutor);
+        connector.saveSetting("key", 1);
+        connector.observe("key", Integer.class, mObserver);
+        connector.saveSetting("key", 1);
+        runTasks();
+        assertTrue(mChanges.isEmpty());
+
+        connector.removeSetting("key");
+        runTasks();
+        assertEquals(Collections.singletonList("key=null"), mChanges);
+    }
+
+    @Test
+    public void changeMadeWhileSubscribingIsDelivered() {
+        final boolean[] written = {false};
+        SettingsStorage.Factory factory = new SettingsStorage.Factory() {
+            private final SettingsStorage mStorage = new InMemoryStorage() {
+                @Override
+                public int getInt(String key, int defValue) {
+                    int value = super.getInt(key, defValue);
+                    if (!written[0] && "key".equals(key)) {
+                        //another thread writes right after the initial value was read
+                        written[0] = true;
+                        edit().putInt(key, 2).commit();
+                    }
+                    return value;
+                }
+            };
+
+            @Override
+            public SettingsStorage create(Context context, String name, int mode) {
+                return mStorage;
+            }
+        };
+        SettingsConnector connector = connector(factory, mExecutor);
+        connector.saveSetting("key", 1);
+
+        connector.observe("key", Integer.class, mObserver);
+        runTasks();
+
+        assertTrue(written[0]);
+        assertEquals(Collections.singletonList("key=2"), mChanges);
+    }
+
+    @Test
+    public void unsubscribedObserverIsNotNotified() {
+        SettingsConnector connector = connector(InMemoryStorage.factory(), mExecutor);
+        connector.observe("key", Integer.class, mObserver).unsubscribe();
+        connector.saveSetting("key", 1);
+        runTasks();
+        assertTrue(mChanges.isEmpty());
+    }
+}
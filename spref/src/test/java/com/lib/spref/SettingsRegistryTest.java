@@ -0,0 +1,113 @@
+package com.lib.spref;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import com.lib.spref.storage.InMemoryStorage;
+import com.lib.spref.storage.SettingsStorage;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which builds share a connector through the {@link SettingsRegistry}
+ */
+public class SettingsRegistryTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final Context mContext = new ContextWrapper(null) {
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getFilesDir() {
+            return mFolder.getRoot();
+        }
+    };
+    private final SettingsStorage.Factory mFactory = InMemoryStorage.factory();
+
+    @After
+    public void tearDown() {
+        SettingsRegistry.clear();
+    }
+
+    private SettingsConfig config(int mode) {
+        return new SettingsConfig.Builder().storage(mFactory).mode(mode).build();
+    }
+
+    @Test
+    public void equalConfigurationsShareTheConnector() {
+        assertSame(SettingsRegistry.get(mContext, config(Context.MODE_PRIVATE)),
+                SettingsRegistry.get(mContext, config(Context.MODE_PRIVATE)));
+    }
+
+    @Test
+    public void asynchronousBuildSharesTheConnector() {
+        final List<String> events = new ArrayList<>();
+        SettingsInitListener listener = new SettingsInitListener() {
+            @Override
+            public void onSettingsReady(SettingsConnector connector, long loadTimeMillis) {
+                events.add("ready");
+            }
+
+            @Override
+            public void onSettingsBlocked(SettingsConnector connector, long blockedTimeNanos) {
+                events.add("blocked");
+            }
+        };
+        final List<Runnable> loads = new ArrayList<>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                loads.add(command);
+            }
+        };
+
+        SettingsConnector connector = SettingsRegistry.get(mContext, config(Context.MODE_PRIVATE), executor, listener);
+        assertSame(connector, SettingsRegistry.get(mContext, config(Context.MODE_PRIVATE), executor, listener));
+        assertEquals(1, loads.size());
+        assertTrue(events.isEmpty());
+
+        //both builds are notified by the single load
+        loads.get(0).run();
+        assertEquals(Arrays.asList("ready", "ready"), events);
+        assertSame(connector, SettingsRegistry.get(mContext, config(Context.MODE_PRIVATE)));
+
+        SettingsRegistry.get(mContext, config(Context.MODE_PRIVATE), executor, listener);
+        assertEquals(Arrays.asList("ready", "ready", "ready"), events);
+        assertEquals(1, loads.size());
+    }
+
+    @Test
+    public void evictedConnectorStillInUseIsSharedAgain() {
+        SettingsConnector connector = SettingsRegistry.get(mContext, config(Context.MODE_PRIVATE));
+        for (int i = 0; i < SettingsRegistry.MAX_CONNECTORS; i++) {
+            SettingsRegistry.get(mContext, new SettingsConfig.Builder().storage(mFactory).preferencesName("other" + i).build());
+        }
+
+        assertSame(connector, SettingsRegistry.get(mContext, config(Context.MODE_PRIVATE)));
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void multiProcessModeBuildsANewConnector() {
+        assertNotSame(SettingsRegistry.get(mContext, config(Context.MODE_MULTI_PROCESS)),
+                SettingsRegistry.get(mContext, config(Context.MODE_MULTI_PROCESS)));
+    }
+}
@@ -0,0 +1,51 @@
+package com.lib.spref;
+
+import android.content.Context;
+
+import com.lib.spref.storage.InMemoryStorage;
+import com.lib.spref.storage.SettingsStorage;
+import com.lib.spref.storage.ShardStrategy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which shards a connector opens, see {@link SPref#shards(int)}
+ */
+public class SettingsShardsTest {
+    private static final int SHARDS = 8;
+
+    private final SettingsStorage.Factory mFactory = InMemoryStorage.factory();
+    private final List<String> mOpened = new ArrayList<>();
+    private final SettingsStorage.Factory mTrackingFactory = new SettingsStorage.Factory() {
+        @Override
+        public SettingsStorage create(Context context, String name, int mode) {
+            mOpened.add(name);
+            return mFactory.create(context, name, mode);
+        }
+    };
+
+    private SettingsConnector connector() {
+        return new SettingsConnector(null, new SettingsConfig.Builder()
+                .storage(mTrackingFactory)
+                .shards(ShardStrategy.hash(SHARDS))
+                .build());
+    }
+
+    @Test
+    public void startDoesNotLoadEveryShardWithoutCompactFlags() {
+        SettingsConnector connector = connector();
+        connector.saveSetting("key", 1);
+
+        mOpened.clear();
+        connector = connector();
+        //the unsharded file (moved once), the internal shard with the compact flags and the shard of the key
+        assertEquals(1, connector.getIntSetting("key"));
+        assertTrue(mOpened.toString(), mOpened.size() <= 3);
+    }
+}
@@ -0,0 +1,152 @@
+package com.lib.spref;
+
+import com.lib.spref.Utils.EncryptionUtils;
+import com.lib.spref.internal.EncryptionState;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the snapshots read by {@link SettingsConnector#snapshot(String...)} and {@link SettingsConnector#readAll(SettingsSnapshot.Filter)}
+ */
+public class SettingsSnapshotTest {
+    private final CountingStorage mStorage = new CountingStorage();
+    private SettingsConnector mConnector;
+
+    @Before
+    public void setUp() {
+        mConnector = new SettingsConnector(null, new SettingsConfig.Builder()
+                .storage(mStorage.storageFactory())
+                .encryptSeed(EncryptionUtils.generateKey("key"))
+                .build());
+    }
+
+    @Test
+    public void snapshotHasTheRequestedKeysThatAreSaved() {
+        mConnector.saveSetting("a", "1");
+        mConnector.saveSetting("b", "2");
+        mConnector.saveSetting("c", "3");
+
+        SettingsSnapshot snapshot = mConnector.snapshot("a", "c", "missing");
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), snapshot.keys());
+        assertEquals(2, snapshot.size());
+        assertTrue(snapshot.contains("a"));
+        assertFalse(snapshot.contains("b"));
+        assertFalse(snapshot.contains("missing"));
+        assertNull(snapshot.getSetting("b"));
+    }
+
+    @Test
+    public void snapshotIsReadOnce() {
+        mConnector.saveSetting("a", "1");
+        SettingsSnapshot snapshot = mConnector.readAll(null);
+
+        mConnector.saveSetting("a", "2");
+        mConnector.saveSetting("b", "3");
+
+        assertEquals("1", snapshot.getSetting("a"));
+        assertFalse(snapshot.contains("b"));
+        assertEquals("2", mConnector.readAll(null).getSetting("a"));
+    }
+
+    @Test
+    public void settingsHaveTheConnectorValues() {
+        Set<String> set = new HashSet<>(Arrays.asList("x", "y"));
+        mConnector.edit()
+                .save("string", "value")
+                .save("int", 1)
+                .save("long", 2L)
+                .save("float", 1.5f)
+                .save("boolean", true)
+                .save("set", set)
+                .save("list", Arrays.asList("a", "b"))
+                .commit();
+
+        SettingsSnapshot snapshot = mConnector.readAll(null);
+
+        assertEquals("value", snapshot.getSetting("string"));
+        assertEquals("default", snapshot.getSetting("missing", "default"));
+        assertEquals(1, snapshot.getIntSetting("int"));
+        assertEquals(mConnector.getIntSetting("missing"), snapshot.getIntSetting("missing"));
+        assertEquals(2L, snapshot.getLongSetting("long"));
+        assertEquals(mConnector.getLongSetting("missing"), snapshot.getLongSetting("missing"));
+        assertEquals(1.5f, snapshot.getFloatSetting("float"), 0f);
+        assertTrue(snapshot.getBooleanSetting("boolean", false));
+        assertTrue(snapshot.getBooleanSetting("missing", true));
+        assertEquals(set, snapshot.getStringSetSetting("set"));
+        assertEquals(Arrays.asList("a", "b"), snapshot.getListSetting("list", String.class));
+        assertNull(snapshot.getListSetting("missing", String.class));
+    }
+
+    @Test
+    public void encryptedSettingsAreDecryptedInTheSnapshot() {
+        mConnector.saveSafeEncryptedSetting("secret", "value");
+        mConnector.saveSetting("plain", "value");
+
+        SettingsSnapshot snapshot = mConnector.readAll(null);
+
+        assertTrue(snapshot.isKeyEncrypted("secret"));
+        assertFalse(snapshot.isKeyEncrypted("plain"));
+        assertEquals(mConnector.getSetting("secret"), snapshot.getSetting("secret"));
+        SafeSetting setting = snapshot.getSafeEncryptedSetting("secret");
+        assertEquals(EncryptionState.SUCCESSFULLY_DECRYPTED, setting.getWasSuccessful());
+        assertEquals("value", setting.getValue());
+        assertEquals(EncryptionState.SUCCESS, snapshot.getSafeEncryptedSetting("plain").getWasSuccessful());
+        assertEquals("value", snapshot.getSafeEncryptedSetting("plain").getValue());
+    }
+
+    @Test
+    public void internalKeysAreNotPartOfTheSnapshot() {
+        mConnector.saveSafeEncryptedSetting("secret", "value");
+
+        assertEquals(Collections.singleton("secret"), mConnector.readAll(null).keys());
+    }
+
+    @Test
+    public void filterSelectsTheKeys() {
+        mConnector.saveSetting("user.name", "name");
+        mConnector.saveSetting("user.mail", "mail");
+        mConnector.saveSetting("device", "device");
+
+        SettingsSnapshot snapshot = mConnector.readAll(new SettingsSnapshot.Filter() {
+            @Override
+            public boolean accept(String settingKey) {
+                return settingKey.startsWith("user.");
+            }
+        });
+
+        assertEquals(new HashSet<>(Arrays.asList("user.name", "user.mail")), snapshot.keys());
+    }
+
+    @Test
+    public void snapshotCannotBeModified() {
+        mConnector.saveSetting("set", Collections.singleton("x"));
+        SettingsSnapshot snapshot = mConnector.readAll(null);
+
+        try {
+            snapshot.keys().clear();
+            fail("keys modified");
+        } catch (UnsupportedOperationException expected) {
+            //immutable
+        }
+        try {
+            snapshot.getStringSetSetting("set").add("y");
+            fail("set modified");
+        } catch (UnsupportedOperationException expected) {
+            //immutable
+        }
+        assertEquals(1, snapshot.size());
+    }
+}
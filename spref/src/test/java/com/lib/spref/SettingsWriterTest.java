@@ -0,0 +1,225 @@
+package com.lib.spref;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks how the asynchronous writes of a connector are grouped by {@link SettingsWriter}, and how they fail
+ */
+public class SettingsWriterTest {
+    private final CountingStorage mStorage = new CountingStorage();
+    private final QueueExecutor mExecutor = new QueueExecutor();
+
+    /**
+     * Executor that only runs its tasks when asked to
+     */
+    private static final class QueueExecutor implements Executor {
+        final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private SettingsConnector connector(Executor executor, @SettingsDurability int durability) {
+        SettingsConnector connector = new SettingsConnector(null, new SettingsConfig.Builder()
+                .storage(mStorage.storageFactory())
+                .asyncWrites(executor, durability)
+                .build());
+        mStorage.mWrites.clear();
+        return connector;
+    }
+
+    @Test
+    public void queuedWritesAreGroupedInOneCommit() throws Exception {
+        SettingsConnector connector = connector(mExecutor, SettingsDurability.GROUP_COMMIT);
+        SettingsFuture first = connector.saveSettingAsync("a", "1");
+        SettingsFuture second = connector.saveSettingAsync("b", 2);
+        SettingsFuture third = connector.removeSettingAsync("c");
+
+        assertEquals(1, mExecutor.mTasks.size());
+        assertFalse(first.isDone());
+        assertTrue(mStorage.mWrites.isEmpty());
+
+        mExecutor.runAll();
+
+        assertEquals(1, mStorage.mWrites.size());
+        assertTrue(mStorage.mWrites.get(0).containsAll(Arrays.asList("a", "b", "c")));
+        assertTrue(first.get() && second.get() && third.get());
+        assertEquals("1", connector.getSetting("a"));
+        assertEquals(2, connector.getIntSetting("b"));
+    }
+
+    @Test
+    public void commitDurabilityWritesEachOnItsOwn() throws Exception {
+        SettingsConnector connector = connector(mExecutor, SettingsDurability.COMMIT);
+        SettingsFuture first = connector.saveSettingAsync("a", "1");
+        SettingsFuture second = connector.saveSettingAsync("a", "2");
+
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList(Collections.singletonList("a"), Collections.singletonList("a")), mStorage.mWrites);
+        assertTrue(first.get() && second.get());
+        assertEquals("2", connector.getSetting("a"));
+    }
+
+    @Test
+    public void applyDurabilityCompletesOnceApplied() throws Exception {
+        SettingsConnector connector = connector(mExecutor, SettingsDurability.APPLY);
+        SettingsFuture future = connector.saveSettingAsync("a", "1");
+
+        mExecutor.runAll();
+
+        assertTrue(future.get());
+        assertEquals("1", connector.getSetting("a"));
+    }
+
+    @Test
+    public void laterWriteOfTheGroupWins() throws Exception {
+        SettingsConnector connector = connector(mExecutor, SettingsDurability.GROUP_COMMIT);
+        connector.saveSettingAsync("a", "1");
+        connector.removeSettingAsync("a");
+        SettingsFuture last = connector.saveSettingAsync("a", "3");
+
+        mExecutor.runAll();
+
+        assertTrue(last.get());
+        assertEquals(1, mStorage.mWrites.size());
+        assertEquals("3", connector.getSetting("a"));
+    }
+
+    @Test
+    public void writesQueuedDuringACommitAreGroupedInTheNextOne() throws Exception {
+        final SettingsConnector connector = connector(mExecutor, SettingsDurability.GROUP_COMMIT);
+        final SettingsFuture[] queued = new SettingsFuture[2];
+        connector.batchAsync(new SettingsBatch.Operation() {
+            @Override
+            public void run(SettingsBatch batch) {
+                batch.save("a", "1");
+                queued[0] = connector.saveSettingAsync("b", "2");
+                queued[1] = connector.saveSettingAsync("c", "3");
+            }
+        });
+
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList(Collections.singletonList("a"), Arrays.asList("b", "c")), mStorage.mWrites);
+        assertTrue(queued[0].get() && queued[1].get());
+    }
+
+    @Test
+    public void failingOperationWritesNothing() throws Exception {
+        SettingsConnector connector = connector(mExecutor, SettingsDurability.GROUP_COMMIT);
+        final IllegalStateException error = new IllegalStateException("failed");
+        SettingsFuture before = connector.saveSettingAsync("before", "1");
+        SettingsFuture failed = connector.batchAsync(new SettingsBatch.Operation() {
+            @Override
+            public void run(SettingsBatch batch) {
+                batch.save("failed", "1");
+                throw error;
+            }
+        });
+        SettingsFuture after = connector.saveSettingAsync("after", "1");
+
+        mExecutor.runAll();
+
+        assertTrue(before.get() && after.get());
+        assertSame(error, cause(failed));
+        assertNull(connector.getSetting("failed"));
+        assertEquals(Collections.singletonList(Arrays.asList("before", "after")), mStorage.mWrites);
+    }
+
+    @Test
+    public void failedCommitCompletesTheGroupWithFalse() throws Exception {
+        SettingsConnector connector = connector(mExecutor, SettingsDurability.GROUP_COMMIT);
+        mStorage.mFailWrites = true;
+        SettingsFuture first = connector.saveSettingAsync("a", "1");
+        SettingsFuture second = connector.saveSettingAsync("b", "2");
+
+        mExecutor.runAll();
+
+        assertFalse(first.get());
+        assertFalse(second.get());
+        assertNull(connector.getSetting("a"));
+    }
+
+    @Test
+    public void rejectedWritesFail() throws Exception {
+        final AtomicInteger rejected = new AtomicInteger();
+        SettingsConnector connector = connector(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException();
+            }
+        }, SettingsDurability.GROUP_COMMIT);
+
+        SettingsFuture first = connector.saveSettingAsync("a", "1");
+        SettingsFuture second = connector.saveSettingAsync("a", "2");
+
+        assertTrue(cause(first) instanceof RejectedExecutionException);
+        assertTrue(cause(second) instanceof RejectedExecutionException);
+        assertEquals(2, rejected.get());
+        assertTrue(mStorage.mWrites.isEmpty());
+    }
+
+    @Test
+    public void listenerRunsOnceDone() throws Exception {
+        SettingsConnector connector = connector(mExecutor, SettingsDurability.GROUP_COMMIT);
+        final AtomicInteger calls = new AtomicInteger();
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                calls.incrementAndGet();
+            }
+        };
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        SettingsFuture future = connector.saveSettingAsync("a", "1");
+        future.addListener(listener, direct);
+
+        assertEquals(0, calls.get());
+        mExecutor.runAll();
+        assertEquals(1, calls.get());
+        future.addListener(listener, direct);
+        assertEquals(2, calls.get());
+    }
+
+    private static Throwable cause(SettingsFuture future) throws InterruptedException {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("the write did not fail");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}
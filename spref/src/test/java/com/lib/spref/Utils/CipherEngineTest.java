@@ -0,0 +1,85 @@
+package com.lib.spref.Utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the ciphers reused by a {@link CipherEngine} give the results of {@link EncryptionUtils}
+ */
+public class CipherEngineTest {
+    private static final byte[] SEED = EncryptionUtils.generateKey("seed");
+
+    private final CipherEngine mEngine = new CipherEngine(SEED);
+
+    @Test
+    public void encryptionMatchesANewCipher() {
+        for (String message : new String[]{"", "value", "a longer value spanning several cipher blocks", "\u00e9\u4e2d"}) {
+            byte[] encrypted = mEngine.encrypt(message);
+            assertArrayEquals(EncryptionUtils.encrypt(SEED, message), encrypted);
+            assertEquals(message, mEngine.decrypt(encrypted));
+            assertEquals(message, EncryptionUtils.decrypt(SEED, encrypted));
+        }
+    }
+
+    @Test
+    public void reusedCiphersKeepWorking() {
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value" + i, mEngine.decrypt(mEngine.encrypt("value" + i)));
+        }
+    }
+
+    @Test
+    public void failedDecryptionDoesNotBreakTheNextOne() {
+        byte[] encrypted = mEngine.encrypt("value");
+        //not a multiple of the block size
+        assertNull(mEngine.decryptBytes(new byte[]{1, 2, 3}));
+        assertNull(mEngine.decrypt(null));
+        assertEquals("value", mEngine.decrypt(encrypted));
+    }
+
+    @Test
+    public void otherKeyDoesNotDecrypt() {
+        byte[] encrypted = mEngine.encrypt("value");
+        String decrypted = new CipherEngine(EncryptionUtils.generateKey("other")).decrypt(encrypted);
+        assertFalse("value".equals(decrypted));
+    }
+
+    @Test
+    public void threadsDoNotShareCiphers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                final int first = thread * 1000;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for (int i = first; i < first + 1000; i++) {
+                            if (!("value" + i).equals(mEngine.decrypt(mEngine.encrypt("value" + i)))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
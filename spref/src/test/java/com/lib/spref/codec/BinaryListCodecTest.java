@@ -0,0 +1,136 @@
+package com.lib.spref.codec;
+
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the binary format of list settings
+ */
+public class BinaryListCodecTest {
+
+    static final class Point {
+        final int mX;
+        final int mY;
+
+        Point(int x, int y) {
+            mX = x;
+            mY = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Point && ((Point) o).mX == mX && ((Point) o).mY == mY;
+        }
+
+        @Override
+        public int hashCode() {
+            return mX * 31 + mY;
+        }
+    }
+
+    private static final BinaryCodec<Point> POINT_V1 = new BinaryCodec<Point>() {
+        @Override
+        public void write(Point value, DataOutput output) throws IOException {
+            output.writeInt(value.mX);
+        }
+
+        @Override
+        public Point read(DataInput input, int length) throws IOException {
+            return new Point(input.readInt(), 0);
+        }
+    };
+
+    private static final BinaryCodec<Point> POINT_V2 = new BinaryCodec<Point>() {
+        @Override
+        public void write(Point value, DataOutput output) throws IOException {
+            output.writeInt(value.mX);
+            output.writeInt(value.mY);
+        }
+
+        @Override
+        public Point read(DataInput input, int length) throws IOException {
+            return new Point(input.readInt(), length >= 8 ? input.readInt() : 0);
+        }
+    };
+
+    @Test
+    public void defaultCodecsRoundTrip() throws IOException {
+        assertRoundTrip(Arrays.asList("a", "", null, "\u00e9\u4e2d"), BinaryCodecs.STRING);
+        assertRoundTrip(Arrays.asList(Integer.MIN_VALUE, null, 0, Integer.MAX_VALUE), BinaryCodecs.INTEGER);
+        assertRoundTrip(Arrays.asList(Long.MIN_VALUE, null, Long.MAX_VALUE), BinaryCodecs.LONG);
+        assertRoundTrip(Arrays.asList(1.5f, null, Float.NaN), BinaryCodecs.FLOAT);
+        assertRoundTrip(Arrays.asList(1.5d, null, Double.NEGATIVE_INFINITY), BinaryCodecs.DOUBLE);
+        assertRoundTrip(Arrays.asList(true, null, false), BinaryCodecs.BOOLEAN);
+        assertRoundTrip(Collections.<String>emptyList(), BinaryCodecs.STRING);
+        assertRoundTrip(Collections.<String>singletonList(null), BinaryCodecs.STRING);
+    }
+
+    @Test
+    public void customCodecRoundTrip() throws IOException {
+        assertRoundTrip(Arrays.asList(new Point(1, 2), null, new Point(-3, 4)), POINT_V2);
+    }
+
+    @Test
+    public void olderCodecSkipsWhatANewerOneWrote() throws IOException {
+        byte[] encoded = BinaryListCodec.encode(Arrays.asList(new Point(1, 2), new Point(3, 4)), POINT_V2);
+
+        assertEquals(Arrays.asList(new Point(1, 0), new Point(3, 0)), BinaryListCodec.decode(encoded, POINT_V1));
+    }
+
+    @Test
+    public void newerCodecReadsWhatAnOlderOneWrote() throws IOException {
+        byte[] encoded = BinaryListCodec.encode(Arrays.asList(new Point(1, 2), null), POINT_V1);
+
+        assertEquals(Arrays.asList(new Point(1, 0), null), BinaryListCodec.decode(encoded, POINT_V2));
+    }
+
+    @Test
+    public void codecReadingBeyondItsElementFails() throws IOException {
+        byte[] encoded = BinaryListCodec.encode(Arrays.asList(new Point(1, 2), new Point(3, 4)), POINT_V1);
+
+        assertInvalid(encoded, new BinaryCodec<Point>() {
+            @Override
+            public void write(Point value, DataOutput output) {
+            }
+
+            @Override
+            public Point read(DataInput input, int length) throws IOException {
+                return new Point(input.readInt(), input.readInt());
+            }
+        });
+    }
+
+    @Test
+    public void invalidContentFails() throws IOException {
+        byte[] encoded = BinaryListCodec.encode(Arrays.asList("a", "b"), BinaryCodecs.STRING);
+
+        byte[] unknownVersion = encoded.clone();
+        unknownVersion[0] = 2;
+        assertInvalid(unknownVersion, BinaryCodecs.STRING);
+        assertInvalid(Arrays.copyOf(encoded, encoded.length - 1), BinaryCodecs.STRING);
+        assertInvalid(new byte[]{1, -1, -1, -1, -2}, BinaryCodecs.STRING);
+        assertInvalid(new byte[0], BinaryCodecs.STRING);
+    }
+
+    private static <T> void assertRoundTrip(List<T> list, BinaryCodec<T> codec) throws IOException {
+        assertEquals(list, BinaryListCodec.decode(BinaryListCodec.encode(list, codec), codec));
+    }
+
+    private static <T> void assertInvalid(byte[] encoded, BinaryCodec<T> codec) {
+        try {
+            BinaryListCodec.decode(encoded, codec);
+            fail("decoded " + Arrays.toString(encoded));
+        } catch (IOException expected) {
+            //invalid content
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.lib.spref.codec;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the packed format of primitive array settings
+ */
+public class PrimitiveArrayCodecTest {
+
+    @Test
+    public void intsRoundTrip() {
+        int[] values = {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE};
+        byte[] encoded = PrimitiveArrayCodec.encode(values);
+
+        assertEquals(5 + values.length * 4, encoded.length);
+        assertArrayEquals(values, PrimitiveArrayCodec.decodeInts(encoded));
+        assertArrayEquals(new int[0], PrimitiveArrayCodec.decodeInts(PrimitiveArrayCodec.encode(new int[0])));
+    }
+
+    @Test
+    public void longsRoundTrip() {
+        long[] values = {Long.MIN_VALUE, -1, 0, Long.MAX_VALUE};
+
+        assertArrayEquals(values, PrimitiveArrayCodec.decodeLongs(PrimitiveArrayCodec.encode(values)));
+    }
+
+    @Test
+    public void floatsRoundTrip() {
+        float[] values = {-0f, 1.5f, Float.NaN, Float.MAX_VALUE, Float.NEGATIVE_INFINITY};
+
+        assertArrayEquals(values, PrimitiveArrayCodec.decodeFloats(PrimitiveArrayCodec.encode(values)), 0f);
+    }
+
+    @Test
+    public void booleansArePacked() {
+        for (int length = 0; length <= 17; length++) {
+            boolean[] values = new boolean[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = i % 3 == 0;
+            }
+            byte[] encoded = PrimitiveArrayCodec.encode(values);
+
+            assertEquals(5 + (length + 7) / 8, encoded.length);
+            assertTrue(Arrays.equals(values, PrimitiveArrayCodec.decodeBooleans(encoded)));
+        }
+    }
+
+    @Test
+    public void decodingIntoAnExistingArrayCopiesWhatFits() {
+        byte[] encoded = PrimitiveArrayCodec.encode(new int[]{1, 2, 3});
+        int[] small = new int[2];
+        int[] big = {9, 9, 9, 9};
+
+        assertEquals(3, PrimitiveArrayCodec.decodeInts(encoded, small));
+        assertArrayEquals(new int[]{1, 2}, small);
+        assertEquals(3, PrimitiveArrayCodec.decodeInts(encoded, big));
+        assertArrayEquals(new int[]{1, 2, 3, 9}, big);
+
+        long[] longs = new long[1];
+        assertEquals(2, PrimitiveArrayCodec.decodeLongs(PrimitiveArrayCodec.encode(new long[]{7, 8}), longs));
+        assertArrayEquals(new long[]{7}, longs);
+
+        float[] floats = new float[3];
+        assertEquals(2, PrimitiveArrayCodec.decodeFloats(PrimitiveArrayCodec.encode(new float[]{7, 8}), floats));
+        assertArrayEquals(new float[]{7, 8, 0}, floats, 0f);
+
+        boolean[] booleans = new boolean[9];
+        assertEquals(10, PrimitiveArrayCodec.decodeBooleans(PrimitiveArrayCodec.encode(new boolean[]{
+                true, false, true, false, false, false, false, false, true, true}), booleans));
+        assertTrue(booleans[0] && !booleans[1] && booleans[2] && booleans[8]);
+    }
+
+    @Test
+    public void otherTypesAreNotDecoded() {
+        byte[] ints = PrimitiveArrayCodec.encode(new int[]{1, 2});
+
+        assertNull(PrimitiveArrayCodec.decodeLongs(ints));
+        assertNull(PrimitiveArrayCodec.decodeFloats(ints));
+        assertNull(PrimitiveArrayCodec.decodeBooleans(ints));
+        assertNull(PrimitiveArrayCodec.decodeInts(PrimitiveArrayCodec.encode(new float[]{1, 2})));
+        assertEquals(-1, PrimitiveArrayCodec.decodeLongs(ints, new long[2]));
+        assertEquals(-1, PrimitiveArrayCodec.decodeBooleans(ints, new boolean[2]));
+    }
+
+    @Test
+    public void corruptedContentIsNotDecoded() {
+        byte[] encoded = PrimitiveArrayCodec.encode(new int[]{1, 2});
+        int[] destination = {5};
+
+        assertNull(PrimitiveArrayCodec.decodeInts(null));
+        assertNull(PrimitiveArrayCodec.decodeInts(new byte[]{1, 0}));
+        assertNull(PrimitiveArrayCodec.decodeInts(Arrays.copyOf(encoded, encoded.length - 1)));
+        assertNull(PrimitiveArrayCodec.decodeInts(Arrays.copyOf(encoded, encoded.length + 4)));
+        assertNull(PrimitiveArrayCodec.decodeInts(new byte[]{1, -1, -1, -1, -1}));
+        assertEquals(-1, PrimitiveArrayCodec.decodeInts(new byte[]{1, 0, 0, 0, 3, 0}, destination));
+        assertArrayEquals(new int[]{5}, destination);
+        assertNull(PrimitiveArrayCodec.decodeBooleans(new byte[]{4, 0, 0, 0, 9, 0}));
+    }
+}
@@ -0,0 +1,108 @@
+package com.lib.spref.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks what {@link ListCache} shares with the callers, its invalidations and its LRU eviction
+ */
+public class ListCacheTest {
+    private static final List<String> VALUE = Arrays.asList("a", "b");
+
+    @Test
+    public void readOnlyListsAreSharedAndUnmodifiable() {
+        ListCache cache = new ListCache(100, true);
+        List<String> result = cache.put("key", String.class, new ArrayList<>(VALUE), 10, cache.generation());
+
+        assertSame(result, cache.get("key", String.class));
+        try {
+            result.add("c");
+            fail("A shared list was modified");
+        } catch (UnsupportedOperationException expected) {
+            //the elements are shared by every read
+        }
+    }
+
+    @Test
+    public void eachReadGetsItsOwnCopy() {
+        ListCache cache = new ListCache(100, false);
+        List<String> decoded = new ArrayList<>(VALUE);
+        assertSame(decoded, cache.put("key", String.class, decoded, 10, cache.generation()));
+        decoded.add("changed by the caller");
+
+        List<String> first = cache.get("key", String.class);
+        assertEquals(VALUE, first);
+        first.clear();
+        List<String> second = cache.get("key", String.class);
+        assertEquals(VALUE, second);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void mutableElementsAreOnlyCachedInReadOnlyMode() {
+        ListCache cache = new ListCache(100, false);
+        assertTrue(cache.caches(Integer.class));
+        assertFalse(cache.caches(StringBuilder.class));
+        List<StringBuilder> value = Collections.singletonList(new StringBuilder("a"));
+        cache.put("key", StringBuilder.class, value, 10, cache.generation());
+        assertNull(cache.get("key", StringBuilder.class));
+
+        assertTrue(new ListCache(100, true).caches(StringBuilder.class));
+    }
+
+    @Test
+    public void valueReadBeforeAnInvalidationIsNotCached() {
+        ListCache cache = new ListCache(100, false);
+        int generation = cache.generation();
+        //a write of any key happens between the read of the generation and the put
+        cache.invalidate("other");
+        cache.put("key", String.class, VALUE, 10, generation);
+        assertNull(cache.get("key", String.class));
+    }
+
+    @Test
+    public void invalidationRemovesEveryClassOfTheKey() {
+        ListCache cache = new ListCache(100, true);
+        cache.put("key", String.class, VALUE, 10, cache.generation());
+        cache.put("key", Integer.class, Arrays.asList(1, 2), 10, cache.generation());
+        cache.put("other", String.class, VALUE, 10, cache.generation());
+
+        cache.invalidate("key");
+        assertNull(cache.get("key", String.class));
+        assertNull(cache.get("key", Integer.class));
+        assertEquals(VALUE, cache.get("other", String.class));
+
+        cache.invalidate(null);
+        assertNull(cache.get("other", String.class));
+    }
+
+    @Test
+    public void leastRecentlyUsedListsAreEvictedBySize() {
+        ListCache cache = new ListCache(10, true);
+        cache.put("first", String.class, VALUE, 4, cache.generation());
+        cache.put("second", String.class, VALUE, 4, cache.generation());
+        //read so the second one is the least recently used
+        assertEquals(VALUE, cache.get("first", String.class));
+        cache.put("third", String.class, VALUE, 4, cache.generation());
+
+        assertEquals(VALUE, cache.get("first", String.class));
+        assertNull(cache.get("second", String.class));
+        assertEquals(VALUE, cache.get("third", String.class));
+
+        //bigger than the whole cache
+        cache.put("huge", String.class, VALUE, 11, cache.generation());
+        assertNull(cache.get("huge", String.class));
+    }
+}
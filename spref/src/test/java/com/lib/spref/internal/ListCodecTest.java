@@ -0,0 +1,117 @@
+package com.lib.spref.internal;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link ListCodec} reads and writes the same json as a new {@link Gson}
+ */
+public class ListCodecTest {
+    private final ListCodec mCodec = ListCodec.create(null);
+
+    static final class Model {
+        String mName;
+        int mCount;
+
+        Model(String name, int count) {
+            mName = name;
+            mCount = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Model && ((Model) o).mName.equals(mName) && ((Model) o).mCount == mCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return mName.hashCode() * 31 + mCount;
+        }
+    }
+
+    @Test
+    public void modelListRoundTrip() {
+        List<Model> list = Arrays.asList(new Model("a", 1), new Model("b", 2));
+        String json = mCodec.toJson(list);
+
+        assertEquals(new Gson().toJson(list), json);
+        assertEquals(list, mCodec.fromJson(json, Model.class));
+        //the cached adapter is reused
+        assertEquals(list, mCodec.fromJson(json, Model.class));
+    }
+
+    @Test
+    public void listWithoutElementClassHasGsonTypes() {
+        List<Object> list = mCodec.fromJson("[\"a\", 1, true]");
+        assertEquals(Arrays.<Object>asList("a", 1.0, true), list);
+    }
+
+    @Test
+    public void readsTheListsGsonReads() {
+        String json = "['a', null,\"b\"]";
+        List<String> expected = new Gson().fromJson(json, new TypeToken<List<String>>() {}.getType());
+        assertEquals(expected, mCodec.fromJson(json, String.class));
+    }
+
+    @Test
+    public void emptyDocumentsAreNull() {
+        assertNull(mCodec.fromJson(null, String.class));
+        assertNull(mCodec.fromJson("", String.class));
+        assertNull(mCodec.fromJson("null", String.class));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void malformedJsonThrows() {
+        mCodec.fromJson("[\"a\"", String.class);
+    }
+
+    @Test
+    public void codecsWithoutFactoriesAreShared() {
+        assertSame(mCodec, ListCodec.create(Collections.<TypeAdapterFactory>emptyList()));
+    }
+
+    @Test
+    public void registeredFactoryReadsTheElements() {
+        ListCodec codec = ListCodec.create(Collections.<TypeAdapterFactory>singletonList(new TypeAdapterFactory() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+                if (type.getRawType() != Model.class) {
+                    return null;
+                }
+                return (TypeAdapter<T>) new TypeAdapter<Model>() {
+                    @Override
+                    public void write(JsonWriter out, Model value) throws IOException {
+                        out.value(value.mName + ":" + value.mCount);
+                    }
+
+                    @Override
+                    public Model read(JsonReader in) throws IOException {
+                        String[] parts = in.nextString().split(":");
+                        return new Model(parts[0], Integer.parseInt(parts[1]));
+                    }
+                };
+            }
+        }));
+
+        String json = codec.toJson(Collections.singletonList(new Model("a", 1)));
+        assertEquals("[\"a:1\"]", json);
+        assertEquals(Collections.singletonList(new Model("a", 1)), codec.fromJson(json, Model.class));
+    }
+}
@@ -0,0 +1,103 @@
+package com.lib.spref.internal;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the compression and the escaping of the values by {@link ValueCompressor}
+ */
+public class ValueCompressorTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ValueCompressor mCompressor = new ValueCompressor(100);
+
+    @Test
+    public void largeValueIsCompressed() {
+        String value = repeated("compressible value \u00e9\u4e2d ", 1000);
+
+        String compressed = mCompressor.compress(value);
+
+        assertTrue(compressed.startsWith(ValueCompressor.DEFLATE_TAG));
+        assertTrue(compressed.length() < value.length() / 10);
+        assertEquals(value, ValueCompressor.decompress(compressed));
+    }
+
+    @Test
+    public void smallOrIncompressibleValuesAreKept() {
+        String small = repeated("a", 99);
+        String random = random(1000);
+
+        assertSame(small, mCompressor.compress(small));
+        assertSame(random, mCompressor.compress(random));
+        assertNull(mCompressor.compress(null));
+        assertSame(small, ValueCompressor.decompress(small));
+        assertNull(ValueCompressor.decompress(null));
+    }
+
+    @Test
+    public void valuesStartingWithATagAreEscaped() {
+        String[] tagged = {
+                ValueCompressor.DEFLATE_TAG + "eJwLAQA=",
+                ValueCompressor.ESCAPE_TAG + "value",
+                "#SPREF_",
+                "#SPREF_anything"
+        };
+        for (String value : tagged) {
+            String escaped = ValueCompressor.escape(value);
+            assertEquals(ValueCompressor.ESCAPE_TAG + value, escaped);
+            assertEquals(value, ValueCompressor.decompress(escaped));
+            assertEquals(value, ValueCompressor.fromDecrypted(escaped.getBytes(UTF_8)));
+        }
+        assertSame("value", ValueCompressor.escape("value"));
+        assertSame("#SPREF", ValueCompressor.escape("#SPREF"));
+        assertNull(ValueCompressor.escape(null));
+    }
+
+    @Test
+    public void encryptedContentRoundTrip() {
+        String value = repeated("compressible value ", 1000);
+
+        byte[] content = mCompressor.compressForEncryption(value);
+
+        assertTrue(content.length < value.length() / 10);
+        assertEquals(value, ValueCompressor.fromDecrypted(content));
+        assertNull(mCompressor.compressForEncryption(repeated("a", 99)));
+        assertEquals("plain", ValueCompressor.fromDecrypted("plain".getBytes(UTF_8)));
+    }
+
+    @Test
+    public void corruptedContentIsNull() {
+        String compressed = mCompressor.compress(repeated("compressible value ", 1000));
+        byte[] content = mCompressor.compressForEncryption(repeated("compressible value ", 1000));
+
+        assertNull(ValueCompressor.decompress(compressed.substring(0, compressed.length() - 8)));
+        assertNull(ValueCompressor.decompress(ValueCompressor.DEFLATE_TAG + "not base64 !"));
+        assertNull(ValueCompressor.decompress(ValueCompressor.DEFLATE_TAG + "AAAA"));
+        assertNull(ValueCompressor.fromDecrypted(Arrays.copyOf(content, content.length - 4)));
+    }
+
+    private static String repeated(String value, int count) {
+        StringBuilder builder = new StringBuilder(value.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+
+    private static String random(int length) {
+        Random random = new Random(1);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('!' + random.nextInt(90)));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,185 @@
+package com.lib.spref.storage;
+
+import android.content.Context;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Runs the {@link SettingsStorage} contract against a {@link CoalescingStorage}, and checks the overlay is shared and
+ * its own flushes are not notified twice
+ */
+public class CoalescingStorageTest extends SettingsStorageContractTest {
+    //long enough for the timer to never flush during a test, the writes are flushed by the tests
+    private static final long WINDOW_MILLIS = 60 * 1000;
+
+    private final List<String> mChanges = new ArrayList<>();
+    private final SettingsStorage.OnChangeListener mListener = new SettingsStorage.OnChangeListener() {
+        @Override
+        public void onSettingChanged(SettingsStorage storage, String key) {
+            mChanges.add(key);
+        }
+    };
+
+    @Override
+    protected SettingsStorage createStorage() {
+        return new CoalescingStorage(new InMemoryStorage(), WINDOW_MILLIS, 0);
+    }
+
+    @Test
+    public void factoriesShareTheOverlayOfAFile() {
+        SettingsStorage.Factory storages = InMemoryStorage.factory();
+        SettingsStorage.Factory first = CoalescingStorage.factory(storages, WINDOW_MILLIS, 0);
+        SettingsStorage.Factory second = CoalescingStorage.factory(storages, WINDOW_MILLIS, 0);
+
+        SettingsStorage storage = first.create(null, "settings", Context.MODE_PRIVATE);
+        assertSame(storage, second.create(null, "settings", Context.MODE_PRIVATE));
+        assertNotSame(storage, first.create(null, "other", Context.MODE_PRIVATE));
+
+        //a pending change of one connector is seen by the other
+        storage.edit().putInt("key", 1).apply();
+        assertEquals(1, second.create(null, "settings", Context.MODE_PRIVATE).getInt("key", 0));
+    }
+
+    @Test
+    public void flushNotifiedLaterByTheStorageIsNotNotifiedAgain() {
+        DeferredStorage deferred = new DeferredStorage();
+        CoalescingStorage storage = new CoalescingStorage(deferred, WINDOW_MILLIS, 0);
+        storage.registerChangeListener(mListener);
+
+        storage.edit().putInt("key", 1).putString("removed", null).apply();
+        storage.flush();
+        deferred.deliver();
+        assertEquals(Arrays.asList("key", "removed"), mChanges);
+
+        //a change made by someone else is notified
+        mChanges.clear();
+        deferred.edit().putInt("key", 2).commit();
+        deferred.deliver();
+        assertEquals(Collections.singletonList("key"), mChanges);
+    }
+
+    @Test
+    public void changeOfTheStorageHiddenByThePendingChangeIsNotNotified() {
+        SettingsStorage inner = new InMemoryStorage();
+        CoalescingStorage storage = new CoalescingStorage(inner, WINDOW_MILLIS, 0);
+        storage.registerChangeListener(mListener);
+        storage.edit().putInt("key", 1).apply();
+        mChanges.clear();
+
+        inner.edit().putInt("key", 2).commit();
+        assertEquals(1, storage.getInt("key", 0));
+        assertEquals(Collections.<String>emptyList(), mChanges);
+    }
+
+    @Test
+    public void clearOfTheStorageAfterAFlushedClearIsNotified() {
+        SettingsStorage inner = new InMemoryStorage();
+        CoalescingStorage storage = new CoalescingStorage(inner, WINDOW_MILLIS, 0);
+        storage.registerChangeListener(mListener);
+        storage.edit().clear().commit();
+        mChanges.clear();
+
+        inner.edit().putInt("key", 1).commit();
+        inner.edit().clear().commit();
+        assertEquals(Arrays.asList("key", null), mChanges);
+    }
+
+    /**
+     * Storage that notifies its listeners only when the test delivers the changes, as
+     * {@link android.content.SharedPreferences} does from the main thread
+     */
+    private static final class DeferredStorage implements SettingsStorage {
+        private final SettingsStorage mStorage = new InMemoryStorage();
+        private final List<OnChangeListener> mListeners = new ArrayList<>();
+        private final List<String> mChangedKeys = new ArrayList<>();
+
+        DeferredStorage() {
+            mStorage.registerChangeListener(new OnChangeListener() {
+                @Override
+                public void onSettingChanged(SettingsStorage storage, String key) {
+                    mChangedKeys.add(key);
+                }
+            });
+        }
+
+        void deliver() {
+            for (String key : mChangedKeys) {
+                for (OnChangeListener listener : mListeners) {
+                    listener.onSettingChanged(this, key);
+                }
+            }
+            mChangedKeys.clear();
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return mStorage.getString(key, defValue);
+        }
+
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return mStorage.getStringSet(key, defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return mStorage.getInt(key, defValue);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return mStorage.getLong(key, defValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return mStorage.getFloat(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return mStorage.getBoolean(key, defValue);
+        }
+
+        @Override
+        public byte[] getBytes(String key, byte[] defValue) {
+            return mStorage.getBytes(key, defValue);
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return mStorage.contains(key);
+        }
+
+        @Override
+        public Map<String, ?> getAll() {
+            return mStorage.getAll();
+        }
+
+        @Override
+        public Editor edit() {
+            return mStorage.edit();
+        }
+
+        @Override
+        public void registerChangeListener(OnChangeListener listener) {
+            mListeners.add(listener);
+        }
+
+        @Override
+        public void unregisterChangeListener(OnChangeListener listener) {
+            mListeners.remove(listener);
+        }
+    }
+}
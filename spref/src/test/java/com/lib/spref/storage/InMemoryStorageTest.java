@@ -0,0 +1,11 @@
+package com.lib.spref.storage;
+
+/**
+ * Runs the {@link SettingsStorage} contract against {@link InMemoryStorage}
+ */
+public class InMemoryStorageTest extends SettingsStorageContractTest {
+    @Override
+    protected SettingsStorage createStorage() {
+        return new InMemoryStorage();
+    }
+}
@@ -0,0 +1,358 @@
+package com.lib.spref.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link SettingsStorage} contract against {@link LogStorage}, and checks the log file itself
+ */
+public class LogStorageTest extends SettingsStorageContractTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final List<Runnable> mCompactions = new ArrayList<>();
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mCompactions.add(command);
+        }
+    };
+    private File mFile;
+
+    @Override
+    protected SettingsStorage createStorage() throws Exception {
+        mFile = new File(mFolder.getRoot(), "settings" + LogStorage.FILE_EXTENSION);
+        return LogStorage.open(mFile);
+    }
+
+    @Override
+    protected void closeStorage(SettingsStorage storage) {
+        ((LogStorage) storage).close();
+    }
+
+    private LogStorage reopen(LogStorage storage) throws IOException {
+        storage.close();
+        return new LogStorage(mFile, mExecutor);
+    }
+
+    @Test
+    public void recordsAreReplayedWhenReopened() throws IOException {
+        LogStorage storage = (LogStorage) mStorage;
+        storage.edit().putString("string", "first").putInt("int", 1).commit();
+        storage.edit().putString("string", "second").putBytes("bytes", new byte[]{1, 2}).commit();
+        storage.edit().putStringSet("set", new HashSet<>(Arrays.asList("a", "b"))).remove("int").apply();
+
+        LogStorage reopened = reopen(storage);
+        try {
+            assertEquals("second", reopened.getString("string", null));
+            assertFalse(reopened.contains("int"));
+            assertArrayEquals(new byte[]{1, 2}, reopened.getBytes("bytes", null));
+            assertEquals(new HashSet<>(Arrays.asList("a", "b")), reopened.getStringSet("set", null));
+            assertEquals(storage.mTail, reopened.mTail);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void clearRecordsAreReplayed() throws IOException {
+        LogStorage storage = (LogStorage) mStorage;
+        storage.edit().putString("old", "value").commit();
+        storage.edit().clear().putString("new", "value").commit();
+
+        LogStorage reopened = reopen(storage);
+        try {
+            assertEquals(Collections.singleton("new"), reopened.getAll().keySet());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void recordWithWrongChecksumIsDiscardedAndZeroed() throws IOException {
+        LogStorage storage = (LogStorage) mStorage;
+        storage.edit().putString("kept", "value").commit();
+        int validTail = storage.mTail;
+        storage.edit().putString("torn", "value").commit();
+        int tornTail = storage.mTail;
+        storage.close();
+
+        //flips the last byte of the second record, as if only a part of it reached the disk
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(tornTail - 1);
+            byte last = file.readByte();
+            file.seek(tornTail - 1);
+            file.writeByte(last ^ 0xFF);
+        } finally {
+            file.close();
+        }
+
+        LogStorage reopened = new LogStorage(mFile, mExecutor);
+        try {
+            assertEquals("value", reopened.getString("kept", null));
+            assertFalse(reopened.contains("torn"));
+            assertEquals(validTail, reopened.mTail);
+            assertEquals(validTail, reopened.mBuffer.getLong(LogStorage.OFFSET_TAIL));
+            assertZero(reopened, validTail, tornTail);
+
+            //the next record takes the place of the discarded one
+            reopened.edit().putString("next", "value").commit();
+        } finally {
+            reopened.close();
+        }
+        LogStorage again = new LogStorage(mFile, mExecutor);
+        try {
+            assertEquals(new HashSet<>(Arrays.asList("kept", "next")), again.getAll().keySet());
+        } finally {
+            again.close();
+        }
+    }
+
+    @Test
+    public void recordLongerThanTheFileIsDiscardedAndZeroed() throws IOException {
+        LogStorage storage = (LogStorage) mStorage;
+        storage.edit().putString("kept", "value").commit();
+        int tail = storage.mTail;
+        int capacity = storage.mBuffer.capacity();
+        storage.close();
+
+        //a length written without its payload
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(tail);
+            file.writeInt(capacity);
+            file.writeInt(12345);
+        } finally {
+            file.close();
+        }
+
+        LogStorage reopened = new LogStorage(mFile, mExecutor);
+        try {
+            assertEquals(Collections.singleton("kept"), reopened.getAll().keySet());
+            assertEquals(tail, reopened.mTail);
+            assertZero(reopened, tail, tail + LogStorage.RECORD_HEADER_SIZE);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void recordLengthThatOverflowsIsDiscardedAndZeroed() throws IOException {
+        LogStorage storage = (LogStorage) mStorage;
+        storage.edit().putString("kept", "value").commit();
+        int tail = storage.mTail;
+        storage.close();
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(tail);
+            file.writeInt(Integer.MAX_VALUE - LogStorage.RECORD_HEADER_SIZE / 2);
+            file.writeInt(12345);
+        } finally {
+            file.close();
+        }
+
+        LogStorage reopened = new LogStorage(mFile, mExecutor);
+        try {
+            assertEquals(Collections.singleton("kept"), reopened.getAll().keySet());
+            assertEquals(tail, reopened.mTail);
+            assertZero(reopened, tail, tail + LogStorage.RECORD_HEADER_SIZE);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void fileGrowsAndIsRemapped() throws IOException {
+        LogStorage storage = (LogStorage) mStorage;
+        int initialCapacity = storage.mBuffer.capacity();
+        char[] chars = new char[1024];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        for (int i = 0; i < 200; i++) {
+            storage.edit().putString("key-" + i, value).apply();
+        }
+
+        assertTrue(storage.mBuffer.capacity() > initialCapacity);
+        assertEquals(storage.mBuffer.capacity(), mFile.length());
+        assertTrue(storage.mTail <= storage.mBuffer.capacity());
+        assertEquals(value, storage.getString("key-0", null));
+        assertEquals(value, storage.getString("key-199", null));
+
+        LogStorage reopened = reopen(storage);
+        try {
+            assertEquals(200, reopened.getAll().size());
+            assertEquals(value, reopened.getString("key-199", null));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void overwrittenEntriesScheduleACompaction() throws IOException {
+        ((LogStorage) mStorage).close();
+        LogStorage storage = new LogStorage(mFile, mExecutor);
+        mStorage = storage;
+        char[] chars = new char[1024];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        for (int i = 0; i < 100 && mCompactions.isEmpty(); i++) {
+            storage.edit().putString("key", value + i).apply();
+        }
+        assertEquals(1, mCompactions.size());
+
+        long generation = storage.mGeneration;
+        mCompactions.get(0).run();
+
+        assertEquals(generation + 1, storage.mGeneration);
+        assertEquals(generation + 1, storage.mBuffer.getLong(LogStorage.OFFSET_GENERATION));
+        assertTrue(storage.getString("key", "").startsWith(value));
+        assertEquals(1, storage.getAll().size());
+    }
+
+    @Test
+    public void compactionKeepsOnlyTheLiveEntries() throws IOException {
+        LogStorage storage = (LogStorage) mStorage;
+        for (int i = 0; i < 1000; i++) {
+            storage.edit().putInt("counter", i).putString("removed-" + i, "value").apply();
+            storage.edit().remove("removed-" + i).apply();
+        }
+        storage.edit().putString("string", "value").putBytes("bytes", new byte[]{3}).commit();
+        int tail = storage.mTail;
+
+        storage.compact();
+
+        assertTrue(storage.mTail < tail);
+        assertEquals(999, storage.getInt("counter", 0));
+        assertEquals("value", storage.getString("string", null));
+        assertArrayEquals(new byte[]{3}, storage.getBytes("bytes", null));
+        assertEquals(3, storage.getAll().size());
+        assertEquals(storage.mTail, storage.mBuffer.getLong(LogStorage.OFFSET_TAIL));
+        assertEquals(0, leftoverFiles());
+
+        //new records are appended to the compacted log
+        storage.edit().putString("after", "value").commit();
+        LogStorage reopened = reopen(storage);
+        try {
+            assertEquals(999, reopened.getInt("counter", 0));
+            assertEquals("value", reopened.getString("after", null));
+            assertEquals(4, reopened.getAll().size());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void recordsAppendedDuringTheCompactionAreKept() throws IOException {
+        ((LogStorage) mStorage).close();
+        LogStorage storage = new WritingDuringCompactionStorage(mFile, mExecutor) {
+            @Override
+            void writeDuringCompaction() {
+                edit().putString("during", "value").putInt("counter", -1).remove("removed").commit();
+            }
+        };
+        mStorage = storage;
+        storage.edit().putInt("counter", 1).putString("removed", "value").putString("kept", "value").commit();
+
+        storage.compact();
+
+        assertEquals("value", storage.getString("during", null));
+        assertEquals(-1, storage.getInt("counter", 0));
+        assertFalse(storage.contains("removed"));
+        assertEquals("value", storage.getString("kept", null));
+
+        LogStorage reopened = reopen(storage);
+        try {
+            assertEquals(new HashSet<>(Arrays.asList("during", "counter", "kept")), reopened.getAll().keySet());
+            assertEquals(-1, reopened.getInt("counter", 0));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void clearAppendedDuringTheCompactionIsKept() throws IOException {
+        ((LogStorage) mStorage).close();
+        LogStorage storage = new WritingDuringCompactionStorage(mFile, mExecutor) {
+            @Override
+            void writeDuringCompaction() {
+                edit().clear().putString("after-clear", "value").commit();
+            }
+        };
+        mStorage = storage;
+        storage.edit().putString("before-clear", "value").commit();
+
+        storage.compact();
+
+        assertEquals(Collections.singleton("after-clear"), storage.getAll().keySet());
+        LogStorage reopened = reopen(storage);
+        try {
+            assertEquals(Collections.singleton("after-clear"), reopened.getAll().keySet());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    /**
+     * Writes once the compaction took its snapshot, when it waits for the write lock to swap the files
+     */
+    private abstract static class WritingDuringCompactionStorage extends LogStorage {
+        private boolean mCompacting;
+
+        WritingDuringCompactionStorage(File file, Executor compactionExecutor) throws IOException {
+            super(file, compactionExecutor);
+        }
+
+        abstract void writeDuringCompaction();
+
+        @Override
+        Set<String> beforeWrite() throws IOException {
+            if (mCompacting) {
+                mCompacting = false;
+                writeDuringCompaction();
+            }
+            return super.beforeWrite();
+        }
+
+        @Override
+        public void compact() {
+            mCompacting = true;
+            super.compact();
+        }
+    }
+
+    private int leftoverFiles() {
+        String[] names = mFolder.getRoot().list();
+        int count = 0;
+        for (String name : names) {
+            if (name.endsWith(LogStorage.COMPACT_EXTENSION)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertZero(LogStorage storage, int from, int to) {
+        for (int i = from; i < to; i++) {
+            assertEquals("byte " + i, 0, storage.mBuffer.get(i));
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.lib.spref.storage;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shares a {@link MultiProcessStorage} between a reader and two writer JVMs forked from the test
+ */
+public class MultiProcessStorageTest {
+    private static final int WRITES = 3000;
+    private static final long TIMEOUT_MILLIS = 120 * 1000;
+    private static final String[] WRITERS = {"a", "b"};
+    private static final String READY = "ready";
+    private static final String DONE = "done";
+    private static final String LAST = "last";
+    private static final Executor NO_COMPACTION = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            //the test only checks the compactions of the children
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final List<Child> mChildren = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (Child child : mChildren) {
+            child.mProcess.destroy();
+        }
+    }
+
+    @Test
+    public void processesSeeEachOtherWritesAcrossCompactions() throws Exception {
+        File file = new File(mFolder.getRoot(), "shared" + LogStorage.FILE_EXTENSION);
+        //the reader maps the file before anything is written, so it has to follow every append and compaction
+        Child reader = start("read", file.getPath());
+        assertEquals(READY + " 0", reader.readLine());
+        List<Child> writers = new ArrayList<>();
+        for (String writer : WRITERS) {
+            writers.add(start("write", file.getPath(), writer));
+        }
+
+        for (Child writer : writers) {
+            assertEquals(writer.mOutput.toString(), 0, writer.waitFor());
+        }
+        assertEquals(reader.mOutput.toString(), 0, reader.waitFor());
+
+        //every write of both writers is seen by the reader that kept its mapping open
+        String[] result = reader.mOutput.get(reader.mOutput.size() - 1).split(" ");
+        assertEquals(reader.mOutput.toString(), DONE, result[0]);
+        assertEquals("missing writes", "0", result[1]);
+        assertTrue("the reader did not follow a compaction", Long.parseLong(result[2]) > 0);
+
+        MultiProcessStorage storage = new MultiProcessStorage(file, NO_COMPACTION);
+        try {
+            assertTrue("the log was never compacted", storage.mGeneration > 0);
+            assertEquals(storage.mGeneration, storage.mBuffer.getLong(LogStorage.OFFSET_GENERATION));
+            assertEquals(0, missingWrites(storage));
+            assertEquals(WRITERS.length * (WRITES + 2), storage.getAll().size());
+        } finally {
+            storage.close();
+        }
+    }
+
+    private Child start(String... arguments) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ChildProcess.class.getName());
+        command.addAll(Arrays.asList(arguments));
+        Child child = new Child(new ProcessBuilder(command).redirectErrorStream(true).start());
+        mChildren.add(child);
+        return child;
+    }
+
+    /**
+     * Counts the writes of the writers that are not in the storage (or have another value)
+     */
+    static int missingWrites(SettingsStorage storage) {
+        int missing = 0;
+        for (String writer : WRITERS) {
+            for (int i = 0; i < WRITES; i++) {
+                if (storage.getInt(writer + i, -1) != i) {
+                    missing++;
+                }
+            }
+            if (!storage.getString(writer + LAST, "").startsWith(String.valueOf(WRITES - 1) + ":")) {
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * A forked JVM and the lines it printed
+     */
+    private static final class Child {
+        final Process mProcess;
+        final List<String> mOutput = new ArrayList<>();
+        private final Thread mOutputReader;
+
+        Child(Process process) {
+            mProcess = process;
+            mOutputReader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    BufferedReader output = new BufferedReader(new InputStreamReader(mProcess.getInputStream()));
+                    try {
+                        String line;
+                        while ((line = output.readLine()) != null) {
+                            synchronized (mOutput) {
+                                mOutput.add(line);
+                                mOutput.notifyAll();
+                            }
+                        }
+                    } catch (IOException e) {
+                        //the process was destroyed
+                    }
+                }
+            });
+            mOutputReader.start();
+        }
+
+        String readLine() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            synchronized (mOutput) {
+                while (mOutput.isEmpty() && System.currentTimeMillis() < deadline) {
+                    mOutput.wait(100);
+                }
+                return mOutput.isEmpty() ? null : mOutput.get(0);
+            }
+        }
+
+        int waitFor() throws InterruptedException {
+            mOutputReader.join(TIMEOUT_MILLIS);
+            if (mOutputReader.isAlive()) {
+                mProcess.destroy();
+            }
+            return mProcess.waitFor();
+        }
+    }
+
+    /**
+     * Entry point of the forked JVMs: {@code write <file> <writer>} or {@code read <file>}
+     */
+    public static final class ChildProcess {
+        public static void main(String[] arguments) throws Exception {
+            MultiProcessStorage storage = MultiProcessStorage.open(new File(arguments[1]));
+            if ("write".equals(arguments[0])) {
+                write(storage, arguments[2]);
+            } else {
+                read(storage);
+            }
+            System.out.flush();
+        }
+
+        private static void write(MultiProcessStorage storage, String writer) {
+            char[] padding = new char[256];
+            Arrays.fill(padding, writer.charAt(0));
+            for (int i = 0; i < WRITES; i++) {
+                //the overwritten padding makes the log compact several times
+                storage.edit().putInt(writer + i, i).putString(writer + LAST, i + ":" + new String(padding)).apply();
+            }
+            storage.edit().putBoolean(writer + DONE, true).commit();
+        }
+
+        private static void read(MultiProcessStorage storage) throws InterruptedException {
+            long generation = storage.mGeneration;
+            System.out.println(READY + " " + storage.getAll().size());
+            System.out.flush();
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (System.currentTimeMillis() < deadline && !allDone(storage)) {
+                Thread.sleep(10);
+            }
+            Map<String, ?> values = storage.getAll();
+            System.out.println(DONE + " " + missingWrites(storage) + " " + (storage.mGeneration - generation)
+                    + " " + values.size());
+        }
+
+        private static boolean allDone(SettingsStorage storage) {
+            for (String writer : WRITERS) {
+                if (!storage.getBoolean(writer + DONE, false)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.lib.spref.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Contract of {@link SettingsStorage}, every storage implementation runs it through a subclass
+ */
+public abstract class SettingsStorageContractTest {
+    private static final byte[] DEFAULT_BYTES = {42};
+
+    protected SettingsStorage mStorage;
+
+    /**
+     * Creates an empty storage
+     * @return the storage
+     */
+    protected abstract SettingsStorage createStorage() throws Exception;
+
+    /**
+     * Releases the storage created by {@link #createStorage()}
+     * @param storage the storage
+     */
+    protected void closeStorage(SettingsStorage storage) {
+        //nothing to release by default
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mStorage = createStorage();
+    }
+
+    @After
+    public void tearDown() {
+        closeStorage(mStorage);
+    }
+
+    @Test
+    public void missingKeysReturnTheDefaults() {
+        Set<String> defaultSet = Collections.singleton("default");
+        assertFalse(mStorage.contains("missing"));
+        assertEquals("default", mStorage.getString("missing", "default"));
+        assertNull(mStorage.getString("missing", null));
+        assertSame(defaultSet, mStorage.getStringSet("missing", defaultSet));
+        assertEquals(7, mStorage.getInt("missing", 7));
+        assertEquals(7L, mStorage.getLong("missing", 7L));
+        assertEquals(7.5f, mStorage.getFloat("missing", 7.5f), 0f);
+        assertTrue(mStorage.getBoolean("missing", true));
+        assertSame(DEFAULT_BYTES, mStorage.getBytes("missing", DEFAULT_BYTES));
+        assertTrue(mStorage.getAll().isEmpty());
+    }
+
+    @Test
+    public void typedGettersReturnTheWrittenValues() {
+        assertTrue(mStorage.edit()
+                .putString("string", "value")
+                .putStringSet("set", new HashSet<>(Arrays.asList("a", "b")))
+                .putInt("int", Integer.MIN_VALUE)
+                .putLong("long", Long.MAX_VALUE)
+                .putFloat("float", -1.25f)
+                .putBoolean("boolean", true)
+                .commit());
+
+        assertEquals("value", mStorage.getString("string", null));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), mStorage.getStringSet("set", null));
+        assertEquals(Integer.MIN_VALUE, mStorage.getInt("int", 0));
+        assertEquals(Long.MAX_VALUE, mStorage.getLong("long", 0L));
+        assertEquals(-1.25f, mStorage.getFloat("float", 0f), 0f);
+        assertTrue(mStorage.getBoolean("boolean", false));
+
+        Map<String, ?> all = mStorage.getAll();
+        assertEquals(6, all.size());
+        assertEquals("value", all.get("string"));
+        assertEquals(Integer.MIN_VALUE, all.get("int"));
+        assertEquals(Long.MAX_VALUE, all.get("long"));
+        assertEquals(-1.25f, all.get("float"));
+        assertEquals(Boolean.TRUE, all.get("boolean"));
+    }
+
+    @Test
+    public void readingAnotherTypeThrowsClassCastException() {
+        mStorage.edit().putString("key", "value").commit();
+        try {
+            mStorage.getInt("key", 0);
+            fail("A string was read as an int");
+        } catch (ClassCastException expected) {
+            //as SharedPreferences does
+        }
+    }
+
+    @Test
+    public void applyIsVisibleRightAway() {
+        mStorage.edit().putString("key", "value").apply();
+        assertEquals("value", mStorage.getString("key", null));
+    }
+
+    @Test
+    public void laterWritesReplaceTheValue() {
+        mStorage.edit().putString("key", "first").commit();
+        mStorage.edit().putString("key", "second").commit();
+        assertEquals("second", mStorage.getString("key", null));
+        assertEquals(1, mStorage.getAll().size());
+    }
+
+    @Test
+    public void removeAndNullValuesDeleteTheKey() {
+        mStorage.edit().putString("removed", "value").putString("nulled", "value").putString("kept", "value").commit();
+        mStorage.edit().remove("removed").putString("nulled", null).commit();
+        assertFalse(mStorage.contains("removed"));
+        assertFalse(mStorage.contains("nulled"));
+        assertEquals(Collections.singleton("kept"), mStorage.getAll().keySet());
+    }
+
+    @Test
+    public void writtenSetsAreCopied() {
+        Set<String> values = new HashSet<>(Collections.singleton("a"));
+        mStorage.edit().putStringSet("set", values).commit();
+        values.add("b");
+        assertEquals(Collections.singleton("a"), mStorage.getStringSet("set", null));
+    }
+
+    @Test
+    public void bytesRoundTrip() {
+        byte[] value = {0, 1, -1, 127, -128};
+        assertTrue(mStorage.edit().putBytes("bytes", value).commit());
+        assertArrayEquals(value, mStorage.getBytes("bytes", null));
+        assertArrayEquals(value, (byte[]) mStorage.getAll().get("bytes"));
+
+        byte[] empty = new byte[0];
+        mStorage.edit().putBytes("empty", empty).commit();
+        assertArrayEquals(empty, mStorage.getBytes("empty", null));
+    }
+
+    @Test
+    public void bytesAreCopied() {
+        byte[] value = {1, 2, 3};
+        mStorage.edit().putBytes("bytes", value).commit();
+        value[0] = 9;
+        mStorage.getBytes("bytes", null)[1] = 9;
+        assertArrayEquals(new byte[]{1, 2, 3}, mStorage.getBytes("bytes", null));
+    }
+
+    @Test
+    public void bytesAreOnlyReadAsBytes() {
+        mStorage.edit().putString("string", "value").commit();
+        assertSame(DEFAULT_BYTES, mStorage.getBytes("string", DEFAULT_BYTES));
+        mStorage.edit().putBytes("bytes", new byte[]{1}).putBytes("removed", new byte[]{1}).commit();
+        mStorage.edit().putBytes("removed", null).commit();
+        assertFalse(mStorage.contains("removed"));
+        assertTrue(mStorage.contains("bytes"));
+    }
+
+    @Test
+    public void stringsStartingWithTheBytesTagAreStrings() {
+        String value = SharedPreferencesStorage.BYTES_TAG + "AQI=";
+        String escaped = SharedPreferencesStorage.STRING_TAG + "value";
+        mStorage.edit().putString("tagged", value).putString("escaped", escaped).commit();
+
+        assertEquals(value, mStorage.getString("tagged", null));
+        assertEquals(escaped, mStorage.getString("escaped", null));
+        assertSame(DEFAULT_BYTES, mStorage.getBytes("tagged", DEFAULT_BYTES));
+        assertEquals(value, mStorage.getAll().get("tagged"));
+        assertEquals(escaped, mStorage.getAll().get("escaped"));
+    }
+
+    @Test
+    public void clearHappensBeforeTheOtherChanges() {
+        mStorage.edit().putString("old", "value").putString("replaced", "old").commit();
+
+        assertTrue(mStorage.edit()
+                .putString("before", "value")
+                .clear()
+                .putString("replaced", "new")
+                .commit());
+
+        assertFalse(mStorage.contains("old"));
+        assertEquals("value", mStorage.getString("before", null));
+        assertEquals("new", mStorage.getString("replaced", null));
+        assertEquals(new HashSet<>(Arrays.asList("before", "replaced")), mStorage.getAll().keySet());
+    }
+
+    @Test
+    public void editorCanBeReused() {
+        SettingsStorage.Editor editor = mStorage.edit();
+        editor.putString("first", "value").clear().commit();
+        editor.putString("second", "value").commit();
+        assertTrue(mStorage.contains("first"));
+        assertTrue(mStorage.contains("second"));
+    }
+
+    @Test
+    public void listenersReceiveTheChangedKeys() {
+        mStorage.edit().putString("existing", "value").commit();
+        RecordingListener listener = new RecordingListener();
+        mStorage.registerChangeListener(listener);
+
+        mStorage.edit().putString("a", "value").putInt("b", 1).commit();
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(listener.mKeys));
+
+        listener.mKeys.clear();
+        mStorage.edit().remove("existing").apply();
+        assertEquals(Collections.singletonList("existing"), listener.mKeys);
+    }
+
+    @Test
+    public void listenersReceiveNullWhenCleared() {
+        mStorage.edit().putString("existing", "value").commit();
+        RecordingListener listener = new RecordingListener();
+        mStorage.registerChangeListener(listener);
+
+        mStorage.edit().clear().putString("key", "value").commit();
+
+        assertTrue(listener.mKeys.contains(null));
+        assertTrue(listener.mKeys.contains("key"));
+        assertFalse(listener.mKeys.contains("existing"));
+    }
+
+    @Test
+    public void unregisteredListenersAreNotCalled() {
+        RecordingListener listener = new RecordingListener();
+        mStorage.registerChangeListener(listener);
+        mStorage.unregisterChangeListener(listener);
+        mStorage.edit().putString("key", "value").commit();
+        assertTrue(listener.mKeys.isEmpty());
+    }
+
+    static final class RecordingListener implements SettingsStorage.OnChangeListener {
+        final List<String> mKeys = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void onSettingChanged(SettingsStorage storage, String key) {
+            mKeys.add(key);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.lib.spref.storage;
+
+import android.content.Context;
+
+import com.lib.spref.Utils.Utils;
+import com.lib.spref.internal.EncryptionIndex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the {@link SettingsStorage} contract against a {@link ShardedStorage} of in-memory shards, and checks where
+ * the keys are kept
+ */
+public class ShardedStorageTest extends SettingsStorageContractTest {
+    private static final String NAME = "settings";
+    private static final int SHARDS = 3;
+    private static final String CHECKPOINT = Utils.INTERNAL_KEY_PREFIX + "ROTATION_CHECKPOINT#";
+
+    private final SettingsStorage.Factory mFactory = InMemoryStorage.factory();
+    private final List<String> mOpened = new ArrayList<>();
+    private final SettingsStorage.Factory mTrackingFactory = new SettingsStorage.Factory() {
+        @Override
+        public SettingsStorage create(Context context, String name, int mode) {
+            mOpened.add(name);
+            return mFactory.create(context, name, mode);
+        }
+    };
+
+    @Override
+    protected SettingsStorage createStorage() {
+        return new ShardedStorage(mTrackingFactory, null, NAME, 0, ShardStrategy.hash(SHARDS));
+    }
+
+    private ShardedStorage sharded() {
+        return (ShardedStorage) mStorage;
+    }
+
+    private int shardOf(String key) {
+        for (int i = 0; i <= SHARDS; i++) {
+            if (sharded().getShard(i).contains(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void encryptionFlagIsKeptWithItsKey() {
+        for (int i = 0; i < 20; i++) {
+            String key = "key-" + i;
+            mStorage.edit().putString(key, "value").putBoolean(EncryptionIndex.ENCRYPTION_TAG + key, true).commit();
+            int shard = shardOf(key);
+            assertTrue(shard >= 0 && shard < SHARDS);
+            assertEquals(shard, shardOf(EncryptionIndex.ENCRYPTION_TAG + key));
+        }
+    }
+
+    @Test
+    public void otherInternalKeysAreKeptOnTheInternalShard() {
+        mStorage.edit()
+                .putStringSet(EncryptionIndex.ENCRYPTED_KEYS, Collections.singleton("key"))
+                .putString(CHECKPOINT, "key")
+                .commit();
+
+        assertEquals(Arrays.asList(NAME, NAME + ShardedStorage.SHARD_SEPARATOR + ShardedStorage.INTERNAL_SHARD), mOpened);
+        assertEquals(SHARDS, shardOf(EncryptionIndex.ENCRYPTED_KEYS));
+        assertEquals(SHARDS, shardOf(CHECKPOINT));
+        assertEquals("key", mStorage.getString(CHECKPOINT, null));
+    }
+
+    @Test
+    public void internalShardIsWrittenLast() {
+        RecordingListener listener = new RecordingListener();
+        mStorage.registerChangeListener(listener);
+        SettingsStorage.Editor editor = mStorage.edit().putString(CHECKPOINT, "key-9");
+        for (int i = 0; i < 10; i++) {
+            editor.putString("key-" + i, "value");
+        }
+        editor.commit();
+
+        assertEquals(11, listener.mKeys.size());
+        assertEquals(CHECKPOINT, listener.mKeys.get(listener.mKeys.size() - 1));
+    }
+
+    @Test
+    public void unshardedValuesAreMovedOnce() {
+        closeStorage(mStorage);
+        SettingsStorage unsharded = mFactory.create(null, NAME, 0);
+        unsharded.edit()
+                .putString("string", "value")
+                .putInt("int", 1)
+                .putLong("long", 2L)
+                .putFloat("float", 3f)
+                .putBoolean("boolean", true)
+                .putStringSet("set", new HashSet<>(Arrays.asList("a", "b")))
+                .putBytes("bytes", new byte[]{4})
+                .putBoolean(EncryptionIndex.ENCRYPTION_TAG + "string", true)
+                .putString(CHECKPOINT, "string")
+                .commit();
+        Map<String, ?> values = unsharded.getAll();
+
+        mStorage = createStorage();
+
+        assertEquals("value", mStorage.getString("string", null));
+        assertEquals(values.keySet(), mStorage.getAll().keySet());
+        assertEquals(2L, mStorage.getLong("long", 0L));
+        assertArrayEquals(new byte[]{4}, mStorage.getBytes("bytes", null));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), mStorage.getStringSet("set", null));
+        assertEquals(shardOf("string"), shardOf(EncryptionIndex.ENCRYPTION_TAG + "string"));
+        assertEquals(SHARDS, shardOf(CHECKPOINT));
+        assertTrue(unsharded.getAll().isEmpty());
+
+        //a later sharded storage of the same name finds nothing to move
+        mStorage.edit().putString("string", "changed").commit();
+        mStorage = createStorage();
+        assertEquals("changed", mStorage.getString("string", null));
+        assertFalse(unsharded.contains("string"));
+    }
+}
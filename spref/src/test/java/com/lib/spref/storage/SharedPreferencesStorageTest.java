@@ -0,0 +1,67 @@
+package com.lib.spref.storage;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the values written by {@link SharedPreferencesStorage} in the preferences, the tagged strings are escaped
+ */
+public class SharedPreferencesStorageTest {
+    private final MapSharedPreferences mPreferences = new MapSharedPreferences();
+    private final SharedPreferencesStorage mStorage = new SharedPreferencesStorage(mPreferences);
+
+    @Test
+    public void plainStringsAreSavedAsTheyAre() {
+        mStorage.edit().putString("plain", "value").putString("prefix", "#SPREF_").commit();
+
+        assertEquals("value", mPreferences.mValues.get("plain"));
+        assertEquals("#SPREF_", mPreferences.mValues.get("prefix"));
+        assertEquals("#SPREF_", mStorage.getString("prefix", null));
+    }
+
+    @Test
+    public void taggedStringsAreEscaped() {
+        String bytesLike = SharedPreferencesStorage.BYTES_TAG + "AQI=";
+        String stringLike = SharedPreferencesStorage.STRING_TAG + "value";
+        mStorage.edit().putString("bytes", bytesLike).putString("string", stringLike).commit();
+
+        assertEquals(SharedPreferencesStorage.STRING_TAG + bytesLike, mPreferences.mValues.get("bytes"));
+        assertEquals(SharedPreferencesStorage.STRING_TAG + stringLike, mPreferences.mValues.get("string"));
+        assertEquals(bytesLike, mStorage.getString("bytes", null));
+        assertEquals(stringLike, mStorage.getString("string", null));
+        assertNull(mStorage.getBytes("bytes", null));
+
+        Map<String, ?> all = mStorage.getAll();
+        assertEquals(bytesLike, all.get("bytes"));
+        assertEquals(stringLike, all.get("string"));
+    }
+
+    @Test
+    public void bytesAreSavedTaggedAndAreNotStrings() {
+        mStorage.edit().putBytes("bytes", new byte[]{1, 2}).commit();
+
+        assertEquals(SharedPreferencesStorage.BYTES_TAG + "AQI=", mPreferences.mValues.get("bytes"));
+        assertArrayEquals(new byte[]{1, 2}, mStorage.getBytes("bytes", null));
+        assertArrayEquals(new byte[]{1, 2}, (byte[]) mStorage.getAll().get("bytes"));
+        try {
+            mStorage.getString("bytes", null);
+            fail("bytes were read as a string");
+        } catch (ClassCastException expected) {
+            //read with another type
+        }
+    }
+
+    @Test
+    public void valuesWrittenWithoutTheStorageAreRead() {
+        mPreferences.mValues.put("raw", SharedPreferencesStorage.STRING_TAG + "value");
+
+        assertEquals("value", mStorage.getString("raw", null));
+        assertEquals("value", mStorage.getAll().get("raw"));
+    }
+}
@@ -0,0 +1,31 @@
+package com.lib.spref.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Opens storages for the tests of the other packages
+ */
+public class Storages {
+    private static final Executor NO_COMPACTION = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            //the tests do not write enough to need a compaction
+        }
+    };
+
+    private Storages() {
+    }
+
+    /**
+     * Opens a file bypassing the instance shared by {@link MultiProcessStorage#open(File)}, so each call acts as
+     * another process
+     *
+     * @param file the log file
+     * @return a new storage on the file
+     */
+    public static MultiProcessStorage openAsAnotherProcess(File file) throws IOException {
+        return new MultiProcessStorage(file, NO_COMPACTION);
+    }
+}